@@ -0,0 +1,173 @@
+/*
+ * Copyright 2016, Yahoo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.gradle;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+/**
+ * The kinds of archive the benchmarks run over. Everything is generated from a fixed seed, so every run sees the same
+ * bytes.
+ */
+public enum ArchiveShape {
+    /**
+     * Lots of small, compressible entries, like a jar of classes.
+     */
+    TINY_CLASSES {
+        @Override
+        List<Entry> entries() {
+            Random random = new Random(1);
+            List<Entry> entries = new ArrayList<>();
+            for (int i = 0; i < 5000; i++) {
+                entries.add(new Entry("com/example/p" + (i / 100) + "/Class" + i + ".class",
+                        classLike(random, 500 + random.nextInt(3000))));
+            }
+            return entries;
+        }
+    },
+
+    /**
+     * A few large, compressible resources.
+     */
+    HUGE_RESOURCES {
+        @Override
+        List<Entry> entries() {
+            Random random = new Random(2);
+            List<Entry> entries = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                entries.add(new Entry("resources/data" + i + ".txt", classLike(random, 16 * 1024 * 1024)));
+            }
+            return entries;
+        }
+    },
+
+    /**
+     * Entries that don't compress, like images or archives.
+     */
+    INCOMPRESSIBLE {
+        @Override
+        List<Entry> entries() {
+            Random random = new Random(3);
+            List<Entry> entries = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                byte[] data = new byte[256 * 1024];
+                random.nextBytes(data);
+                entries.add(new Entry("images/image" + i + ".png", data));
+            }
+            return entries;
+        }
+    },
+
+    /**
+     * A jar of jars, like a war or a fat jar.
+     */
+    NESTED_JARS {
+        @Override
+        List<Entry> entries() throws IOException {
+            Random random = new Random(4);
+            List<Entry> entries = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                List<Entry> classes = new ArrayList<>();
+                for (int j = 0; j < 200; j++) {
+                    classes.add(new Entry("lib" + i + "/Class" + j + ".class",
+                            classLike(random, 500 + random.nextInt(3000))));
+                }
+                ByteArrayOutputStream jar = new ByteArrayOutputStream();
+                write(classes, jar);
+                entries.add(new Entry("WEB-INF/lib/lib" + i + ".jar", jar.toByteArray()));
+            }
+            return entries;
+        }
+    };
+
+    /**
+     * The time every generated entry has, so there is something to fix.
+     */
+    static final long SOME_TIME = 1467000000000L;
+
+    /**
+     * One generated entry.
+     */
+    static final class Entry {
+        final String name;
+        final byte[] data;
+
+        Entry(String name, byte[] data) {
+            this.name = name;
+            this.data = data;
+        }
+    }
+
+    /**
+     * @return the entries of this shape, in order.
+     */
+    abstract List<Entry> entries() throws IOException;
+
+    /**
+     * Writes this shape to file as a jar with real times in it.
+     *
+     * @return the size of the entries, uncompressed.
+     */
+    long create(File file) throws IOException {
+        List<Entry> entries = entries();
+        try (OutputStream out = new FileOutputStream(file)) {
+            write(entries, out);
+        }
+        return size(entries);
+    }
+
+    static long size(List<Entry> entries) {
+        long size = 0;
+        for (Entry entry : entries) {
+            size += entry.data.length;
+        }
+        return size;
+    }
+
+    private static void write(List<Entry> entries, OutputStream out) throws IOException {
+        FileTime time = FileTime.fromMillis(SOME_TIME);
+        try (JarOutputStream jar = new JarOutputStream(out)) {
+            for (Entry entry : entries) {
+                ZipEntry zipEntry = new ZipEntry(entry.name);
+                zipEntry.setLastModifiedTime(time);
+                zipEntry.setLastAccessTime(time);
+                jar.putNextEntry(zipEntry);
+                jar.write(entry.data);
+                jar.closeEntry();
+            }
+        }
+    }
+
+    /**
+     * @return bytes from a small alphabet, which compress about as well as class files do.
+     */
+    private static byte[] classLike(Random random, int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) ('a' + random.nextInt(random.nextBoolean() ? 4 : 26));
+        }
+        return data;
+    }
+}
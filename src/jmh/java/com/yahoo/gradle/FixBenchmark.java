@@ -0,0 +1,76 @@
+/*
+ * Copyright 2016, Yahoo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.gradle;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How fast each {@link FixMode} sets the times of an archive to epoch, {@link FixMode#REWRITE} being
+ * {@link ZipFixer#adjustDatesToEpoch()}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FixBenchmark {
+    @Param
+    public ArchiveShape shape;
+
+    @Param
+    public FixMode mode;
+
+    private File input;
+    private File output;
+    private long size;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        input = File.createTempFile("fix-" + shape, ".jar");
+        output = File.createTempFile("fixed-" + shape, ".jar");
+        size = shape.create(input);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(input.toPath());
+        Files.deleteIfExists(output.toPath());
+    }
+
+    @Benchmark
+    public void adjustDatesToEpoch(Throughput throughput) throws IOException {
+        mode.fix(input, output);
+        throughput.add(size);
+    }
+}
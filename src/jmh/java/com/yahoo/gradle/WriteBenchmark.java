@@ -0,0 +1,130 @@
+/*
+ * Copyright 2016, Yahoo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.gradle;
+
+import org.apache.tools.zip.ZipEntry;
+import org.apache.tools.zip.ZipOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How fast archives are written through {@link DatelessZipCompressor}, which is what {@link DatelessJar} uses, and
+ * through {@link ZipFixingOutputStream}, which is what {@link ZipFixer} uses.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class WriteBenchmark {
+    public enum Writer {
+        DATELESS_ZIP_COMPRESSOR {
+            @Override
+            void write(List<ArchiveShape.Entry> entries, File output, int level) throws IOException {
+                writeDateless(entries, output, 1, level);
+            }
+        },
+
+        PARALLEL_DATELESS_ZIP_COMPRESSOR {
+            @Override
+            void write(List<ArchiveShape.Entry> entries, File output, int level) throws IOException {
+                writeDateless(entries, output, Runtime.getRuntime().availableProcessors(), level);
+            }
+        },
+
+        ZIP_FIXING_OUTPUT_STREAM {
+            @Override
+            void write(List<ArchiveShape.Entry> entries, File output, int level) throws IOException {
+                try (ZipFixingOutputStream out = new ZipFixingOutputStream(new FileOutputStream(output))) {
+                    out.setCompressionEngine(CompressionEngine.POOLED, level);
+                    for (ArchiveShape.Entry entry : entries) {
+                        out.putNextEntry(new java.util.zip.ZipEntry(entry.name));
+                        out.write(entry.data);
+                        out.closeEntry();
+                    }
+                }
+            }
+        };
+
+        abstract void write(List<ArchiveShape.Entry> entries, File output, int level) throws IOException;
+
+        private static void writeDateless(List<ArchiveShape.Entry> entries, File output, int threads, int level)
+                throws IOException {
+            DatelessZipCompressor compressor =
+                    new DatelessZipCompressor(true, ZipEntry.DEFLATED, threads, level, false, EntryListener.NOOP);
+            try (ZipOutputStream out = compressor.createArchiveOutputStream(output)) {
+                for (ArchiveShape.Entry entry : entries) {
+                    ZipEntry zipEntry = new ZipEntry(entry.name);
+                    zipEntry.setMethod(ZipEntry.DEFLATED);
+                    out.putNextEntry(zipEntry);
+                    out.write(entry.data);
+                    out.closeEntry();
+                }
+            }
+        }
+    }
+
+    @Param
+    public ArchiveShape shape;
+
+    @Param
+    public Writer writer;
+
+    // zlib's default, the fastest and the smallest.
+    @Param({"-1", "1", "9"})
+    public int level;
+
+    private List<ArchiveShape.Entry> entries;
+    private File output;
+    private long size;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        entries = shape.entries();
+        size = ArchiveShape.size(entries);
+        output = File.createTempFile("write-" + shape, ".jar");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(output.toPath());
+    }
+
+    @Benchmark
+    public void write(Throughput throughput) throws IOException {
+        writer.write(entries, output, level);
+        throughput.add(size);
+    }
+}
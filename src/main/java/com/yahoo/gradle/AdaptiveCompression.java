@@ -0,0 +1,117 @@
+/*
+ * Copyright 2016, Yahoo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.gradle;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Decides whether an entry is worth deflating, from its name and its first {@link #SAMPLE_SIZE} bytes. Nested
+ * archives, images and other compressed formats barely shrink when they are deflated again, so they are better off
+ * STORED.
+ * <p>
+ * The decision only depends on the name and the sample, never on timing or the number of threads, so an archive comes
+ * out the same every time.
+ */
+final class AdaptiveCompression {
+    static final int SAMPLE_SIZE = 4096;
+
+    // below this there aren't enough bytes to tell random data from text.
+    private static final int MIN_ENTROPY_SAMPLE = 512;
+    // bits per byte, random data is a little under 8 and text is usually under 5.
+    private static final double MAX_ENTROPY = 7.5;
+
+    private static final Set<String> COMPRESSED_EXTENSIONS = new HashSet<>(Arrays.asList(
+            // archives
+            "jar", "war", "ear", "zip", "aar", "apk", "jmod", "gz", "tgz", "bz2", "xz", "lz4", "zst", "7z", "rar",
+            // images, audio and video
+            "png", "jpg", "jpeg", "gif", "webp", "mp3", "mp4", "m4a", "ogg", "webm",
+            // fonts
+            "woff", "woff2"));
+
+    private AdaptiveCompression() {
+    }
+
+    /**
+     * @param name   of the entry.
+     * @param sample the start of the entry, only the first {@link #SAMPLE_SIZE} bytes are looked at.
+     * @param length how much of sample is the entry, which is all of the entry if it's less than
+     *               {@link #SAMPLE_SIZE}.
+     * @return true if the entry already looks compressed.
+     */
+    static boolean isCompressed(String name, byte[] sample, int length) {
+        if (0 == length) {
+            // directories and empty files, leave them as they were.
+            return false;
+        }
+        if (COMPRESSED_EXTENSIONS.contains(extension(name))) {
+            return true;
+        }
+
+        length = Math.min(length, SAMPLE_SIZE);
+        return hasCompressedMagic(sample, length)
+                || (length >= MIN_ENTROPY_SAMPLE && entropy(sample, length) > MAX_ENTROPY);
+    }
+
+    private static String extension(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot < name.lastIndexOf('/') + 1 ? "" : name.substring(dot + 1).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Zip (and so jar), gzip, png and jpeg, whatever they are called.
+     */
+    private static boolean hasCompressedMagic(byte[] b, int length) {
+        return startsWith(b, length, 0x50, 0x4b, 0x03, 0x04)
+                || startsWith(b, length, 0x1f, 0x8b)
+                || startsWith(b, length, 0x89, 0x50, 0x4e, 0x47)
+                || startsWith(b, length, 0xff, 0xd8, 0xff);
+    }
+
+    private static boolean startsWith(byte[] b, int length, int... magic) {
+        if (length < magic.length) {
+            return false;
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if ((b[i] & 0xff) != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the Shannon entropy of the bytes, in bits per byte. Uses {@link StrictMath} so that it's the same on
+     * every platform, even right on the threshold.
+     */
+    static double entropy(byte[] b, int length) {
+        int[] counts = new int[256];
+        for (int i = 0; i < length; i++) {
+            counts[b[i] & 0xff]++;
+        }
+
+        double entropy = 0;
+        for (int count : counts) {
+            if (0 != count) {
+                double p = (double) count / length;
+                entropy -= p * StrictMath.log(p);
+            }
+        }
+        return entropy / StrictMath.log(2);
+    }
+}
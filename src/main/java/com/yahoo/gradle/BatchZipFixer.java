@@ -0,0 +1,339 @@
+/*
+ * Copyright 2016, Yahoo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.gradle;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+
+/**
+ * Fixes many jars in one JVM, one task per jar on a fixed size pool.
+ * <p>
+ * Inputs can be files, directories (searched recursively for {@link #ARCHIVE_GLOB}) or globs such as
+ * {@code dist/lib/*.jar}. Each input is written to the same relative path under an output directory, or patched where
+ * it is when there is no output directory and the mode is {@link FixMode#IN_PLACE}.
+ */
+public class BatchZipFixer {
+    static final String ARCHIVE_GLOB = "glob:**.{jar,war,ear,zip}";
+
+    private final FixMode mode;
+    private final int threads;
+    private final SkipMode skipMode;
+    private final ZipFixerCache cache;
+    private final int level;
+
+    public BatchZipFixer(FixMode mode, int threads) {
+        this(mode, threads, SkipMode.NEVER);
+    }
+
+    public BatchZipFixer(FixMode mode, int threads, SkipMode skipMode) {
+        this(mode, threads, skipMode, null);
+    }
+
+    /**
+     * @param skipMode what to do with archives that are already normalized.
+     * @param cache    where to look for archives that have been fixed before, null for no cache.
+     */
+    public BatchZipFixer(FixMode mode, int threads, SkipMode skipMode, ZipFixerCache cache) {
+        this(mode, threads, skipMode, cache, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param level the level entries are deflated at, ignored by modes that don't deflate.
+     */
+    public BatchZipFixer(FixMode mode, int threads, SkipMode skipMode, ZipFixerCache cache, int level) {
+        this.mode = Objects.requireNonNull(mode);
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1, not " + threads);
+        }
+        this.threads = threads;
+        this.skipMode = Objects.requireNonNull(skipMode);
+        this.cache = cache;
+        this.level = CompressionEngine.checkLevel(level);
+    }
+
+    public BatchZipFixer(FixMode mode) {
+        this(mode, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * One archive to fix.
+     */
+    public static final class Job {
+        private final File input;
+        private final File output;
+
+        public Job(File input, File output) {
+            this.input = Objects.requireNonNull(input);
+            this.output = Objects.requireNonNull(output);
+        }
+
+        public File getInput() {
+            return input;
+        }
+
+        public File getOutput() {
+            return output;
+        }
+
+        @Override
+        public String toString() {
+            return input.getPath();
+        }
+    }
+
+    /**
+     * What happened to a batch.
+     */
+    public static final class Summary {
+        private int succeeded;
+        private int skipped;
+        private int cached;
+        private final List<String> failures = new ArrayList<>();
+        private long bytesIn;
+        private long bytesOut;
+        private long elapsedNanos;
+
+        public int getSucceeded() {
+            return succeeded;
+        }
+
+        /**
+         * @return how many of the succeeded archives were already normalized, and so weren't fixed again.
+         */
+        public int getSkipped() {
+            return skipped;
+        }
+
+        /**
+         * @return how many of the succeeded archives came from the cache.
+         */
+        public int getCached() {
+            return cached;
+        }
+
+        public int getFailed() {
+            return failures.size();
+        }
+
+        /**
+         * @return one message per failed archive.
+         */
+        public List<String> getFailures() {
+            return Collections.unmodifiableList(failures);
+        }
+
+        public long getBytesIn() {
+            return bytesIn;
+        }
+
+        public long getBytesOut() {
+            return bytesOut;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "Fixed %d of %d archives (%d failed), %d already normalized, %d from cache, %d bytes in, "
+                            + "%d bytes out in %.3fs",
+                    succeeded, succeeded + getFailed(), getFailed(), skipped, cached, bytesIn, bytesOut,
+                    elapsedNanos / 1e9);
+        }
+    }
+
+    /**
+     * Fixes every job, and waits for all of them to finish. One failure doesn't stop the others.
+     */
+    public Summary run(List<Job> jobs) throws InterruptedException {
+        Summary summary = new Summary();
+        long start = System.nanoTime();
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, jobs.size())));
+        try {
+            CompletionService<Outcome> completion = new ExecutorCompletionService<>(pool);
+            for (Job job : jobs) {
+                completion.submit(() -> {
+                    File parent = job.getOutput().getAbsoluteFile().getParentFile();
+                    if (null != parent) {
+                        Files.createDirectories(parent.toPath());
+                    }
+                    long inputLength = job.getInput().length();
+                    Outcome outcome;
+                    try {
+                        outcome = fix(job);
+                    } catch (IOException | RuntimeException e) {
+                        throw new IOException("Unable to fix " + job + ": " + e, e);
+                    }
+                    synchronized (summary) {
+                        summary.bytesIn += inputLength;
+                        summary.bytesOut += job.getOutput().length();
+                    }
+                    return outcome;
+                });
+            }
+
+            for (int i = 0; i < jobs.size(); i++) {
+                try {
+                    Outcome outcome = completion.take().get();
+                    if (Outcome.SKIPPED == outcome) {
+                        summary.skipped++;
+                    } else if (Outcome.CACHED == outcome) {
+                        summary.cached++;
+                    }
+                    summary.succeeded++;
+                } catch (ExecutionException e) {
+                    summary.failures.add(e.getCause().getMessage());
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+            pool.awaitTermination(1, TimeUnit.MINUTES);
+        }
+
+        summary.elapsedNanos = System.nanoTime() - start;
+        return summary;
+    }
+
+    private enum Outcome {
+        FIXED, SKIPPED, CACHED
+    }
+
+    private Outcome fix(Job job) throws IOException {
+        if (skipMode.skip(mode, job.getInput(), job.getOutput())) {
+            return Outcome.SKIPPED;
+        }
+        if (null != cache) {
+            return cache.fix(mode, level, job.getInput(), job.getOutput()) ? Outcome.CACHED : Outcome.FIXED;
+        }
+        mode.fix(job.getInput(), job.getOutput(), level);
+        return Outcome.FIXED;
+    }
+
+    /**
+     * Turns files, directories and globs into jobs.
+     *
+     * @param inputs    files, directories or globs.
+     * @param outputDir where to write the fixed archives, under the same path relative to the directory or glob they
+     *                  were found in. null to fix them in place. When it is inside a directory or glob being fixed,
+     *                  the archives already in it are not fixed again.
+     * @param mode      what the jobs will be run with, only {@link FixMode#IN_PLACE} can write an archive over itself.
+     * @return a job for each archive, in a stable order.
+     * @throws IOException if an input matches nothing, two archives would be written to the same file, or an archive
+     *                     would be written over itself by a mode that can't do that.
+     */
+    public static List<Job> jobs(List<String> inputs, File outputDir, FixMode mode) throws IOException {
+        Path skip = null == outputDir ? null : outputDir.toPath().toAbsolutePath().normalize();
+        List<Job> jobs = new ArrayList<>();
+        Map<String, File> outputs = new HashMap<>();
+        for (String input : inputs) {
+            // a glob isn't always a legal path, so check with File first.
+            File file = new File(input);
+            List<Path> found;
+            Path root;
+            if (file.isFile()) {
+                root = file.getAbsoluteFile().getParentFile().toPath();
+                found = Collections.singletonList(file.toPath());
+            } else if (file.isDirectory()) {
+                root = file.toPath();
+                found = find(root, FileSystems.getDefault().getPathMatcher(ARCHIVE_GLOB), skip);
+            } else {
+                root = globRoot(input);
+                found = find(root, FileSystems.getDefault().getPathMatcher("glob:" + input), skip);
+            }
+
+            if (found.isEmpty()) {
+                throw new IOException("No archives found for " + input);
+            }
+
+            for (Path p : found) {
+                File output = null == outputDir ? p.toFile()
+                        : new File(outputDir, root.toAbsolutePath().relativize(p.toAbsolutePath()).toString());
+                // such as --output-dir lib for lib/a.jar, the input would be truncated before it's read.
+                if (FixMode.IN_PLACE != mode && output.getCanonicalFile().equals(p.toFile().getCanonicalFile())) {
+                    throw new IOException(p + " would be written over itself, only --in-place can do that");
+                }
+                // such as two directories that both have a lib/a.jar, they would write over each other.
+                File previous = outputs.put(output.getCanonicalPath(), p.toFile());
+                if (null != previous) {
+                    throw new IOException(previous + " and " + p + " would both be written to " + output);
+                }
+                jobs.add(new Job(p.toFile(), output));
+            }
+        }
+        return jobs;
+    }
+
+    /**
+     * @return the directory part of glob before the first wildcard.
+     */
+    static Path globRoot(String glob) {
+        // globs always use / as the separator.
+        String[] parts = glob.split("/");
+        StringBuilder root = new StringBuilder(glob.startsWith("/") ? "/" : "");
+        for (int i = 0; i < parts.length - 1; i++) {
+            if (parts[i].matches(".*[*?\\[{].*")) {
+                break;
+            }
+            if (!parts[i].isEmpty()) {
+                root.append(parts[i]).append('/');
+            }
+        }
+        return Paths.get(root.toString());
+    }
+
+    /**
+     * @param skip a directory under root not to look in, or null.
+     */
+    private static List<Path> find(Path root, PathMatcher matcher, Path skip) throws IOException {
+        if (!Files.isDirectory(root.toAbsolutePath())) {
+            return Collections.emptyList();
+        }
+
+        try (Stream<Path> walk = Files.walk(root)) {
+            return walk.filter(Files::isRegularFile)
+                    .filter(matcher::matches)
+                    .filter(p -> null == skip || !p.toAbsolutePath().normalize().startsWith(skip))
+                    .sorted()
+                    .collect(Collectors.toList());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2016, Yahoo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.gradle;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * A digest of what's in a jar rather than of its bytes: two jars have the same canonical digest when
+ * {@link ZipFixer} would make them the same, whatever their times, the order of their entries and how they were
+ * compressed. It's cheap enough to use as a key for caching and deduplicating jars without fixing them first.
+ * <p>
+ * By default it covers the sorted entry names with the size and CRC-32 of each entry, read from the central directory,
+ * and the manifest with its attributes and sections sorted, which is the only entry that's read. With
+ * {@link #setPayloads(boolean)} the SHA-256 of every entry's uncompressed data is covered too, computed on several
+ * threads.
+ */
+public class CanonicalDigest {
+    static final String ALGORITHM = "SHA-256";
+    // bump when a change means old digests won't match.
+    static final String VERSION = "1";
+
+    // JarInputStream drops the directory before the manifest, so ZipFixer does too.
+    private static final String META_INF = "META-INF/";
+
+    private final File jar;
+    private boolean payloads = false;
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    public CanonicalDigest(File jar) {
+        this.jar = jar;
+    }
+
+    /**
+     * When true, the digest also covers the uncompressed data of every entry, which means reading all of it.
+     */
+    public void setPayloads(boolean payloads) {
+        this.payloads = payloads;
+    }
+
+    /**
+     * @param threads how many entries to read at once when digesting payloads.
+     */
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1, not " + threads);
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * @return the canonical digest of the jar.
+     * @throws java.util.zip.ZipException if it isn't a zip file.
+     */
+    public byte[] digest() throws IOException {
+        try (FileChannel channel = FileChannel.open(jar.toPath(), StandardOpenOption.READ)) {
+            CentralDirectory directory = CentralDirectory.read(channel);
+            List<CentralDirectoryEntry> entries;
+            try {
+                entries = directory.getEntries();
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            // stable, so duplicate names keep their order.
+            entries.sort(Comparator.comparing(CentralDirectoryEntry::getName));
+
+            MessageDigest digest = newDigest();
+            DataOutputStream out = new DataOutputStream(new DigestOutputStream(new OutputStream() {
+                @Override
+                public void write(int b) {
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                }
+            }, digest));
+            writeString(out, "canonical-digest:" + VERSION + ":" + (payloads ? "payloads" : "directory"));
+
+            List<Future<byte[]>> payloadDigests = payloads ? digestPayloads(channel, directory, entries) : null;
+            for (int i = 0; i < entries.size(); i++) {
+                CentralDirectoryEntry entry = entries.get(i);
+                if (META_INF.equals(entry.getName())) {
+                    continue;
+                }
+                if (JarFile.MANIFEST_NAME.equalsIgnoreCase(entry.getName())) {
+                    writeString(out, JarFile.MANIFEST_NAME);
+                    writeString(out, canonicalManifest(channel, directory, entry));
+                    continue;
+                }
+
+                writeString(out, entry.getName());
+                out.writeLong(entry.getSize());
+                out.writeInt((int) entry.getCrc());
+                if (null != payloadDigests) {
+                    out.write(waitFor(payloadDigests.get(i), entry));
+                }
+            }
+            out.flush();
+            return digest.digest();
+        }
+    }
+
+    /**
+     * @return {@link #digest()} in hex.
+     */
+    public String digestHex() throws IOException {
+        return hex(digest());
+    }
+
+    /**
+     * @return the manifest with its line breaks undone, and its attributes and sections in order of name.
+     */
+    static String canonicalManifest(Manifest manifest) {
+        StringBuilder canonical = new StringBuilder();
+        appendAttributes(canonical, manifest.getMainAttributes());
+        for (Map.Entry<String, Attributes> section : new TreeMap<>(manifest.getEntries()).entrySet()) {
+            canonical.append('\n').append("Name: ").append(section.getKey()).append('\n');
+            appendAttributes(canonical, section.getValue());
+        }
+        return canonical.toString();
+    }
+
+    private static void appendAttributes(StringBuilder canonical, Attributes attributes) {
+        Map<String, String> sorted = new TreeMap<>();
+        for (Map.Entry<Object, Object> attribute : attributes.entrySet()) {
+            sorted.put(attribute.getKey().toString(), String.valueOf(attribute.getValue()));
+        }
+        for (Map.Entry<String, String> attribute : sorted.entrySet()) {
+            canonical.append(attribute.getKey()).append(": ").append(attribute.getValue()).append('\n');
+        }
+    }
+
+    private static String canonicalManifest(FileChannel channel, CentralDirectory directory,
+                                            CentralDirectoryEntry entry) throws IOException {
+        try (InputStream in = EntryData.open(channel, directory, entry)) {
+            return canonicalManifest(new Manifest(in));
+        }
+    }
+
+    /**
+     * @return the digest of the data of each entry, in the same order.
+     */
+    private List<Future<byte[]>> digestPayloads(FileChannel channel, CentralDirectory directory,
+                                                List<CentralDirectoryEntry> entries) {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<byte[]>> digests = new ArrayList<>(entries.size());
+            for (CentralDirectoryEntry entry : entries) {
+                digests.add(pool.submit(() -> digestPayload(channel, directory, entry)));
+            }
+            return digests;
+        } finally {
+            // runs what has been submitted, and then the threads go away.
+            pool.shutdown();
+        }
+    }
+
+    private static byte[] digestPayload(FileChannel channel, CentralDirectory directory, CentralDirectoryEntry entry)
+            throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = EntryData.open(channel, directory, entry)) {
+            int read;
+            while (-1 != (read = in.read(buffer))) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return digest.digest();
+    }
+
+    private static byte[] waitFor(Future<byte[]> digest, CentralDirectoryEntry entry) throws IOException {
+        try {
+            return digest.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted reading " + entry.getName());
+        } catch (ExecutionException e) {
+            throw new IOException("Unable to read " + entry.getName(), e.getCause());
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(ALGORITHM + " is always available", e);
+        }
+    }
+
+    static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright 2016, Yahoo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.gradle;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.zip.ZipException;
+
+import static com.yahoo.gradle.ZipHeaders.*;
+
+/**
+ * Reads the central directory of a zip file using positional reads on a {@link FileChannel}, without touching any
+ * of the entry data.
+ * <p>
+ * Entries are read lazily by {@link #iterator()}, so walking a huge central directory doesn't require holding all of
+ * it in memory. {@link #getEntries()} is there for when you do want all of them.
+ */
+public class CentralDirectory implements Iterable<CentralDirectoryEntry> {
+    private static final int READ_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+    private final long offset;
+    private final long size;
+    private final long entryCount;
+
+    CentralDirectory(FileChannel channel, long offset, long size, long entryCount) {
+        this.channel = channel;
+        this.offset = offset;
+        this.size = size;
+        this.entryCount = entryCount;
+    }
+
+    /**
+     * Finds the end of central directory record, following the zip64 locator if there is one.
+     *
+     * @param channel channel to read, it's position isn't used or changed.
+     * @return the {@link CentralDirectory} of channel.
+     * @throws ZipException if channel doesn't look like a zip file.
+     */
+    public static CentralDirectory read(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        if (fileSize < END_HEADER_SIZE) {
+            throw new ZipException("File is too small to be a zip file");
+        }
+
+        // the end record is at the end of the file, followed by a comment of at most 64k.
+        int tailLength = (int) Math.min(fileSize, END_HEADER_SIZE + END_MAX_COMMENT + ZIP64_LOCATOR_SIZE);
+        long tailStart = fileSize - tailLength;
+        ByteBuffer tail = readFully(channel, tailStart, tailLength);
+
+        int end = -1;
+        for (int i = tailLength - END_HEADER_SIZE; i >= 0; i--) {
+            if (getInt(tail, i) == END_SIG
+                    && i + END_HEADER_SIZE + getShort(tail, i + END_COMMENT_LENGTH) == tailLength) {
+                end = i;
+                break;
+            }
+        }
+
+        if (end < 0) {
+            throw new ZipException("Unable to find the end of central directory record");
+        }
+
+        long entries = getShort(tail, end + END_TOTAL_ENTRIES);
+        long cenSize = getInt(tail, end + END_CEN_SIZE);
+        long cenOffset = getInt(tail, end + END_CEN_OFFSET);
+
+        int locator = end - ZIP64_LOCATOR_SIZE;
+        if (locator >= 0 && getInt(tail, locator) == ZIP64_LOCATOR_SIG) {
+            long zip64End = getLong(tail, locator + ZIP64_LOCATOR_END_OFFSET);
+            ByteBuffer record = readFully(channel, zip64End, ZIP64_END_HEADER_SIZE);
+            checkSignature(record, 0, ZIP64_END_SIG, "zip64 end of central directory");
+            entries = getLong(record, ZIP64_END_TOTAL_ENTRIES);
+            cenSize = getLong(record, ZIP64_END_CEN_SIZE);
+            cenOffset = getLong(record, ZIP64_END_CEN_OFFSET);
+        }
+
+        if (cenOffset + cenSize > fileSize) {
+            throw new ZipException("Central directory extends past the end of the file");
+        }
+
+        return new CentralDirectory(channel, cenOffset, cenSize, entries);
+    }
+
+    /**
+     * @return where the first central directory header starts.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return the size in bytes of the central directory headers.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return the number of entries the end record claims.
+     */
+    public long getEntryCount() {
+        return entryCount;
+    }
+
+    public List<CentralDirectoryEntry> getEntries() {
+        List<CentralDirectoryEntry> entries = new ArrayList<>((int) Math.min(entryCount, Integer.MAX_VALUE));
+        for (CentralDirectoryEntry entry : this) {
+            entries.add(entry);
+        }
+        return entries;
+    }
+
+    /**
+     * Reads the local file header of entry to find where the compressed data starts. The local extra field is not
+     * required to match the central one, so this has to touch the local header.
+     *
+     * @param entry entry in this directory.
+     * @return offset of the first byte of compressed data.
+     */
+    public long getDataOffset(CentralDirectoryEntry entry) throws IOException {
+        ByteBuffer header = readFully(channel, entry.getLocalHeaderOffset(), LOC_HEADER_SIZE);
+        return entry.getLocalHeaderOffset() + localHeaderLength(header, 0);
+    }
+
+    /**
+     * Checks the times of every entry without reading any entry data. Only the central directory is looked at, every
+     * fixer patches the local headers along with it.
+     *
+     * @return true if every entry's times are already epoch.
+     */
+    public boolean isNormalized() throws IOException {
+        try {
+            for (CentralDirectoryEntry entry : this) {
+                if (!entry.isNormalized()) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * @return the headers in the order they are stored. IOExceptions are rethrown as {@link UncheckedIOException}.
+     */
+    @Override
+    public Iterator<CentralDirectoryEntry> iterator() {
+        return new EntryIterator();
+    }
+
+    static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of file reading " + length + " bytes at " + position);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    static CentralDirectoryEntry parseEntry(ByteBuffer b, int index, long headerOffset) throws ZipException {
+        int headerLength = centralHeaderLength(b, index);
+        int nameLength = getShort(b, index + CEN_NAME_LENGTH);
+        int extraLength = getShort(b, index + CEN_EXTRA_LENGTH);
+        int commentLength = getShort(b, index + CEN_COMMENT_LENGTH);
+
+        byte[] name = new byte[nameLength];
+        byte[] extra = new byte[extraLength];
+        byte[] comment = new byte[commentLength];
+        ByteBuffer view = b.duplicate();
+        view.position(index + CEN_HEADER_SIZE);
+        view.get(name).get(extra).get(comment);
+
+        long compressedSize = getInt(b, index + CEN_COMPRESSED_SIZE);
+        long size = getInt(b, index + CEN_SIZE);
+        long localHeaderOffset = getInt(b, index + CEN_LOC_OFFSET);
+
+        // zip64 values are only present for the fields that overflowed, in this order.
+        int zip64 = findExtra(extra, EXTRA_ZIP64);
+        if (zip64 >= 0) {
+            ByteBuffer e = ByteBuffer.wrap(extra);
+            int at = zip64 + 4;
+            int zip64End = at + getShort(e, zip64 + 2);
+            if (size == ZIP64_MAGIC && at + 8 <= zip64End) {
+                size = getLong(e, at);
+                at += 8;
+            }
+            if (compressedSize == ZIP64_MAGIC && at + 8 <= zip64End) {
+                compressedSize = getLong(e, at);
+                at += 8;
+            }
+            if (localHeaderOffset == ZIP64_MAGIC && at + 8 <= zip64End) {
+                localHeaderOffset = getLong(e, at);
+            }
+        }
+
+        return new CentralDirectoryEntry(new String(name, StandardCharsets.UTF_8), headerOffset, headerLength,
+                getShort(b, index + CEN_VERSION_MADE_BY), getShort(b, index + CEN_VERSION_NEEDED),
+                getShort(b, index + CEN_FLAGS), getShort(b, index + CEN_METHOD), getShort(b, index + CEN_TIME),
+                getShort(b, index + CEN_DATE), getInt(b, index + CEN_CRC), compressedSize, size,
+                getShort(b, index + CEN_INTERNAL_ATTRIBUTES), getInt(b, index + CEN_EXTERNAL_ATTRIBUTES),
+                localHeaderOffset, extra, comment);
+    }
+
+    /**
+     * @return the index of the extra field with the given id, or -1.
+     */
+    static int findExtra(byte[] extra, int id) {
+        ByteBuffer b = ByteBuffer.wrap(extra);
+        int index = 0;
+        while (index + 4 <= extra.length) {
+            if (getShort(b, index) == id) {
+                return index;
+            }
+            index += 4 + getShort(b, index + 2);
+        }
+        return -1;
+    }
+
+    /**
+     * Walks the central directory a window at a time.
+     */
+    private final class EntryIterator implements Iterator<CentralDirectoryEntry> {
+        private ByteBuffer window = ByteBuffer.allocate(0);
+        private long windowStart = offset;
+        private long position = offset;
+        private final long end = offset + size;
+
+        @Override
+        public boolean hasNext() {
+            return position + CEN_HEADER_SIZE <= end;
+        }
+
+        @Override
+        public CentralDirectoryEntry next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            try {
+                int index = (int) (position - windowStart);
+                if (index + CEN_HEADER_SIZE > window.limit()) {
+                    index = fill(CEN_HEADER_SIZE);
+                }
+
+                int headerLength = centralHeaderLength(window, index);
+                if (index + headerLength > window.limit()) {
+                    index = fill(headerLength);
+                }
+
+                CentralDirectoryEntry entry = parseEntry(window, index, position);
+                position += headerLength;
+                return entry;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Refills the window starting at position, with at least required bytes.
+         *
+         * @return the index of position in the new window.
+         */
+        private int fill(int required) throws IOException {
+            int length = (int) Math.min(Math.max(READ_SIZE, required), end - position);
+            if (length < required) {
+                throw new ZipException("Truncated central directory header at " + position);
+            }
+            window = readFully(channel, position, length);
+            windowStart = position;
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2016, Yahoo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.gradle;
+
+import java.util.Arrays;
+
+/**
+ * One file header from a {@link CentralDirectory}, with any zip64 sizes and offsets already resolved.
+ */
+public class CentralDirectoryEntry {
+    private final String name;
+    private final long headerOffset;
+    private final int headerLength;
+    private final int versionMadeBy;
+    private final int versionNeeded;
+    private final int flags;
+    private final int method;
+    private final int dosTime;
+    private final int dosDate;
+    private final long crc;
+    private final long compressedSize;
+    private final long size;
+    private final int internalAttributes;
+    private final long externalAttributes;
+    private final long localHeaderOffset;
+    private final byte[] extra;
+    private final byte[] comment;
+
+    CentralDirectoryEntry(String name, long headerOffset, int headerLength, int versionMadeBy, int versionNeeded,
+                          int flags, int method, int dosTime, int dosDate, long crc, long compressedSize, long size,
+                          int internalAttributes, long externalAttributes, long localHeaderOffset, byte[] extra,
+                          byte[] comment) {
+        this.name = name;
+        this.headerOffset = headerOffset;
+        this.headerLength = headerLength;
+        this.versionMadeBy = versionMadeBy;
+        this.versionNeeded = versionNeeded;
+        this.flags = flags;
+        this.method = method;
+        this.dosTime = dosTime;
+        this.dosDate = dosDate;
+        this.crc = crc;
+        this.compressedSize = compressedSize;
+        this.size = size;
+        this.internalAttributes = internalAttributes;
+        this.externalAttributes = externalAttributes;
+        this.localHeaderOffset = localHeaderOffset;
+        this.extra = extra;
+        this.comment = comment;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isDirectory() {
+        return name.endsWith("/");
+    }
+
+    /**
+     * @return where this header starts in the file.
+     */
+    public long getHeaderOffset() {
+        return headerOffset;
+    }
+
+    /**
+     * @return the length of this header, including name, extra field and comment.
+     */
+    public int getHeaderLength() {
+        return headerLength;
+    }
+
+    public int getVersionMadeBy() {
+        return versionMadeBy;
+    }
+
+    public int getVersionNeeded() {
+        return versionNeeded;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    public int getMethod() {
+        return method;
+    }
+
+    public int getDosTime() {
+        return dosTime;
+    }
+
+    public int getDosDate() {
+        return dosDate;
+    }
+
+    /**
+     * @return true if this header's time is epoch, and every time in its extra field is too.
+     */
+    public boolean isNormalized() {
+        return ZipHeaders.isEpoch(dosTime, dosDate) && ZipHeaders.isNormalizedExtra(extra);
+    }
+
+    public long getCrc() {
+        return crc;
+    }
+
+    public long getCompressedSize() {
+        return compressedSize;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public int getInternalAttributes() {
+        return internalAttributes;
+    }
+
+    public long getExternalAttributes() {
+        return externalAttributes;
+    }
+
+    public long getLocalHeaderOffset() {
+        return localHeaderOffset;
+    }
+
+    public byte[] getExtra() {
+        return Arrays.copyOf(extra, extra.length);
+    }
+
+    public byte[] getComment() {
+        return Arrays.copyOf(comment, comment.length);
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2016, Yahoo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.gradle;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.Deflater;
+
+/**
+ * Where the writers get their {@link Deflater}s from. {@link #POOLED}, the default, keeps one per level on each thread
+ * so that the native zlib state isn't set up again for every entry or stream, {@link #UNPOOLED} makes a new one
+ * every time.
+ * <p>
+ * Every Deflater handed out must write raw deflate data (no zlib header or trailer), and must give the same bytes for
+ * the same input and level whatever it was used for before, or jars will stop being reproducible.
+ */
+public interface CompressionEngine {
+    CompressionEngine POOLED = new PooledCompressionEngine();
+
+    CompressionEngine UNPOOLED = new CompressionEngine() {
+        @Override
+        public Deflater acquire(int level) {
+            return new Deflater(level, true);
+        }
+
+        @Override
+        public void release(Deflater deflater) {
+            deflater.end();
+        }
+    };
+
+    /**
+     * @param level from {@link Deflater#DEFAULT_COMPRESSION} to {@link Deflater#BEST_COMPRESSION}.
+     * @return a Deflater ready for a new stream, to be given back with {@link #release(Deflater)} once it's finished.
+     * @throws IllegalArgumentException if level isn't a valid level.
+     */
+    Deflater acquire(int level);
+
+    /**
+     * Takes back a Deflater from {@link #acquire(int)}, which mustn't be used afterwards.
+     */
+    void release(Deflater deflater);
+
+    /**
+     * @return the first length bytes of data as raw deflate data, the same bytes a zip stream using level would write
+     * for them.
+     */
+    default byte[] deflate(byte[] data, int length, int level) {
+        Deflater deflater = acquire(level);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, length / 2));
+            byte[] buffer = new byte[64 * 1024];
+            deflater.setInput(data, 0, length);
+            deflater.finish();
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            release(deflater);
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException unless level is from {@link Deflater#DEFAULT_COMPRESSION} to
+     *                                  {@link Deflater#BEST_COMPRESSION}.
+     */
+    static int checkLevel(int level) {
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Compression level must be from -1 to 9, not " + level);
+        }
+        return level;
+    }
+}
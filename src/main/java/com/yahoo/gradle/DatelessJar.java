@@ -17,26 +17,238 @@ package com.yahoo.gradle;
 
 import org.apache.tools.zip.ZipOutputStream;
 import org.gradle.api.Incubating;
-import org.gradle.api.internal.file.copy.DefaultZipCompressor;
-import org.gradle.api.internal.file.copy.ZipCompressor;
-import org.gradle.api.tasks.ParallelizableTask;
+import org.gradle.api.UncheckedIOException;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.internal.file.copy.CopyAction;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputFiles;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.SkipWhenEmpty;
+import org.gradle.api.tasks.TaskAction;
 import org.gradle.api.tasks.bundling.ZipEntryCompression;
 import org.gradle.jvm.tasks.Jar;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
 /**
  * Adapted from https://github.com/gradle/gradle/blob/ff0d36e210e25df9e391b536d861913d433e3ff1/subprojects/platform-jvm/src/main/java/org/gradle/jvm/tasks/Jar.java
  *  and https://github.com/gradle/gradle/blob/f15270245f55d63989ee4a26412ae663e177c609/subprojects/core/src/main/java/org/gradle/api/tasks/bundling/Zip.java
+ * <p>
+ * The jar only depends on the inputs declared here: every time in it is epoch, its entries are in the same order on
+ * every machine, and the files that go into it are only known by their paths within it. So it can be taken from the
+ * build cache, and tasks that use it stay up to date when it's rebuilt with the same bytes.
  */
-@ParallelizableTask
+@CacheableTask
 @Incubating
 public class DatelessJar extends Jar {
-    protected ZipCompressor getCompressor() {
+    private int compressionThreads = 1;
+    private boolean adaptiveCompression = false;
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    private File entryReport = null;
+    private boolean flightRecorderEvents = false;
+    private List<String> digestAlgorithms = new ArrayList<>();
+    private boolean writeSidecars = false;
+    // only once the jar has been written by this build.
+    private Map<String, String> digests = null;
+
+    public DatelessJar() {
+        // otherwise the order is whatever order the file system lists directories in.
+        setReproducibleFileOrder(true);
+    }
+
+    /**
+     * Where the files are on this machine doesn't change the jar, only where they go in it.
+     */
+    @Override
+    @InputFiles
+    @SkipWhenEmpty
+    @Optional
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public FileCollection getSource() {
+        return super.getSource();
+    }
+
+    /**
+     * How many threads to compress entries on. The jar is byte for byte the same whatever this is set to, so it
+     * isn't an input.
+     */
+    @Internal
+    public int getCompressionThreads() {
+        return compressionThreads;
+    }
+
+    public void setCompressionThreads(int compressionThreads) {
+        if (compressionThreads < 1) {
+            throw new IllegalArgumentException("compressionThreads must be at least 1, not " + compressionThreads);
+        }
+        this.compressionThreads = compressionThreads;
+    }
+
+    /**
+     * Whether to store entries that are already compressed, such as nested jars and images, instead of deflating
+     * them again. Which entries those are only depends on their names and contents, so the jar is still the same every
+     * time, but it isn't the same jar as with this off.
+     */
+    @Input
+    public boolean isAdaptiveCompression() {
+        return adaptiveCompression;
+    }
+
+    public void setAdaptiveCompression(boolean adaptiveCompression) {
+        this.adaptiveCompression = adaptiveCompression;
+    }
+
+    /**
+     * The level entries are deflated at, from 0 for none through 1 for the fastest to 9 for the smallest, or -1 for
+     * zlib's default which is what the jar has always been written with.
+     */
+    @Input
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = CompressionEngine.checkLevel(compressionLevel);
+    }
+
+    /**
+     * Where to write a JSON report of the bytes and time each entry took, see {@link EntryReport}. Null, the default,
+     * for no report. Nothing is written when the jar comes from the build cache.
+     */
+    @Internal
+    public File getEntryReport() {
+        return entryReport;
+    }
+
+    public void setEntryReport(File entryReport) {
+        this.entryReport = entryReport;
+    }
+
+    /**
+     * Whether to record a JDK Flight Recorder event for each entry, see {@link EntryListener#jfr()}.
+     */
+    @Internal
+    public boolean isFlightRecorderEvents() {
+        return flightRecorderEvents;
+    }
+
+    public void setFlightRecorderEvents(boolean flightRecorderEvents) {
+        this.flightRecorderEvents = flightRecorderEvents;
+    }
+
+    /**
+     * The {@link java.security.MessageDigest} algorithms to digest the jar with once it's written, such as
+     * {@link DigestingOutputStream#SIDECAR_ALGORITHMS}. None by default.
+     */
+    @Input
+    public List<String> getDigestAlgorithms() {
+        return digestAlgorithms;
+    }
+
+    public void setDigestAlgorithms(List<String> digestAlgorithms) {
+        this.digestAlgorithms = new ArrayList<>(digestAlgorithms);
+    }
+
+    /**
+     * Whether to write each digest next to the jar, such as app.jar.sha256, for publishing.
+     */
+    @Input
+    public boolean isWriteSidecars() {
+        return writeSidecars;
+    }
+
+    public void setWriteSidecars(boolean writeSidecars) {
+        this.writeSidecars = writeSidecars;
+    }
+
+    /**
+     * The sidecar files by algorithm, empty unless {@link #isWriteSidecars()}.
+     */
+    @OutputFiles
+    public Map<String, File> getSidecars() {
+        Map<String, File> sidecars = new LinkedHashMap<>();
+        if (writeSidecars) {
+            File jar = getArchiveFile().get().getAsFile();
+            for (String algorithm : digestAlgorithms) {
+                sidecars.put(algorithm, DigestingOutputStream.sidecar(jar, algorithm));
+            }
+        }
+        return sidecars;
+    }
+
+    /**
+     * @return the digests, in hex, of the jar by algorithm. When the jar wasn't written by this build, because it was
+     * up to date or came from the build cache, it is read to digest it.
+     */
+    @Internal
+    public Map<String, String> getDigests() {
+        if (null == digests) {
+            File jar = getArchiveFile().get().getAsFile();
+            try {
+                digests = DigestingOutputStream.digest(jar, digestAlgorithms);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to digest " + jar, e);
+            }
+        }
+        return digests;
+    }
+
+    /**
+     * Ant goes back to fill in the sizes of each entry once it's written, so the jar can't be digested as it's
+     * written the way {@link ZipFixer} digests it. It's digested straight after instead, while it's still in the page
+     * cache, so that nothing later in the build has to read it again.
+     */
+    @Override
+    @TaskAction
+    protected void copy() {
+        digests = null;
+        super.copy();
+        if (digestAlgorithms.isEmpty()) {
+            return;
+        }
+
+        File jar = getArchiveFile().get().getAsFile();
+        try {
+            digests = DigestingOutputStream.digest(jar, digestAlgorithms);
+            if (writeSidecars) {
+                DigestingOutputStream.writeSidecars(jar, digests);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to digest " + jar, e);
+        }
+    }
+
+    private EntryListener entryListener() {
+        return EntryListener.all(null == entryReport ? EntryListener.NOOP : new EntryReport(entryReport),
+                flightRecorderEvents ? EntryListener.jfr() : EntryListener.NOOP);
+    }
+
+    @Override
+    protected CopyAction createCopyAction() {
+        return new DatelessZipCopyAction(getArchiveFile().get().getAsFile(), compressor(), getMetadataCharset());
+    }
+
+    private DatelessZipCompressor compressor() {
         ZipEntryCompression entryCompression = getEntryCompression();
         switch (entryCompression) {
             case DEFLATED:
-                return new DatelessZipCompressor(isZip64(), ZipOutputStream.DEFLATED);
+                return new DatelessZipCompressor(isZip64(), ZipOutputStream.DEFLATED, compressionThreads,
+                        compressionLevel, adaptiveCompression, entryListener());
             case STORED:
-                return new DefaultZipCompressor(isZip64(), ZipOutputStream.STORED);
+                // nothing is compressed, but the entries still need their times taken out.
+                return new DatelessZipCompressor(isZip64(), ZipOutputStream.STORED, compressionThreads,
+                        compressionLevel, false, entryListener());
             default:
                 throw new IllegalArgumentException(String.format("Unknown Compression type %s", entryCompression));
         }
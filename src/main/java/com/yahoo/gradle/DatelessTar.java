@@ -0,0 +1,101 @@
+/*
+ * Copyright 2016, Yahoo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.gradle;
+
+import org.gradle.api.Incubating;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.internal.file.copy.CopyAction;
+import org.gradle.api.internal.file.archive.TarCopyAction;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.SkipWhenEmpty;
+import org.gradle.api.tasks.bundling.Tar;
+
+import java.util.zip.Deflater;
+
+/**
+ * A {@link Tar} that comes out the same every time: every entry has the same time, they are in the same order on
+ * every machine, and with {@link org.gradle.api.tasks.bundling.Compression#GZIP} there's no time in the gzip header.
+ * Gzip can also be compressed on several threads, see {@link ParallelGzipOutputStream}.
+ * <pre>
+ * task dist(type: com.yahoo.gradle.DatelessTar) {
+ *     compression = Compression.GZIP
+ *     compressionThreads = 4
+ * }
+ * </pre>
+ */
+@CacheableTask
+@Incubating
+public class DatelessTar extends Tar {
+    private int compressionThreads = 1;
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+
+    public DatelessTar() {
+        setPreserveFileTimestamps(false);
+        setReproducibleFileOrder(true);
+    }
+
+    /**
+     * Where the files are on this machine doesn't change the archive, only where they go in it.
+     */
+    @Override
+    @InputFiles
+    @SkipWhenEmpty
+    @Optional
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public FileCollection getSource() {
+        return super.getSource();
+    }
+
+    /**
+     * How many threads to gzip on. The archive is byte for byte the same whatever this is set to, so it isn't an
+     * input.
+     */
+    @Internal
+    public int getCompressionThreads() {
+        return compressionThreads;
+    }
+
+    public void setCompressionThreads(int compressionThreads) {
+        if (compressionThreads < 1) {
+            throw new IllegalArgumentException("compressionThreads must be at least 1, not " + compressionThreads);
+        }
+        this.compressionThreads = compressionThreads;
+    }
+
+    /**
+     * The level gzip deflates at, see {@link DatelessJar#getCompressionLevel()}.
+     */
+    @Input
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = CompressionEngine.checkLevel(compressionLevel);
+    }
+
+    @Override
+    protected CopyAction createCopyAction() {
+        return new TarCopyAction(getArchiveFile().get().getAsFile(),
+                new DatelessTarCompressor(getCompression(), compressionThreads, compressionLevel), false);
+    }
+}
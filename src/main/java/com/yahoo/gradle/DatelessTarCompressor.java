@@ -0,0 +1,77 @@
+/*
+ * Copyright 2016, Yahoo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.gradle;
+
+import org.gradle.api.UncheckedIOException;
+import org.gradle.api.internal.file.archive.compression.ArchiveOutputStreamFactory;
+import org.gradle.api.internal.file.archive.compression.Bzip2Archiver;
+import org.gradle.api.tasks.bundling.Compression;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+
+/**
+ * Opens the stream a {@link DatelessTar} is written to. Gzip is written with {@link ParallelGzipOutputStream}, so
+ * it has no time in its header and is compressed on as many threads as asked for. Bzip2 has no times in it anyway.
+ */
+public class DatelessTarCompressor implements ArchiveOutputStreamFactory {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Compression compression;
+    private final int threads;
+    private final int level;
+
+    public DatelessTarCompressor(Compression compression) {
+        this(compression, 1, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param threads how many threads to gzip on, the archive is the same whatever this is.
+     * @param level   the level gzip deflates at, from {@link Deflater#DEFAULT_COMPRESSION} to
+     *                {@link Deflater#BEST_COMPRESSION}.
+     */
+    public DatelessTarCompressor(Compression compression, int threads, int level) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1, not " + threads);
+        }
+        this.compression = compression;
+        this.threads = threads;
+        this.level = CompressionEngine.checkLevel(level);
+    }
+
+    @Override
+    public OutputStream createArchiveOutputStream(File destination) {
+        try {
+            switch (compression) {
+                case NONE:
+                    return new BufferedOutputStream(new FileOutputStream(destination), BUFFER_SIZE);
+                case GZIP:
+                    return new BufferedOutputStream(new ParallelGzipOutputStream(new FileOutputStream(destination),
+                            threads, level), BUFFER_SIZE);
+                case BZIP2:
+                    return Bzip2Archiver.getCompressor().createArchiveOutputStream(destination);
+                default:
+                    throw new IllegalArgumentException(String.format("Unknown Compression type %s", compression));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to create tar output stream for file " + destination, e);
+        }
+    }
+}
@@ -15,34 +15,83 @@
  */
 package com.yahoo.gradle;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.tools.zip.Zip64Mode;
 import org.apache.tools.zip.ZipOutputStream;
 import org.gradle.api.UncheckedIOException;
-import org.gradle.api.internal.file.copy.DefaultZipCompressor;
-import org.gradle.api.internal.file.copy.ZipCompressor;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.zip.Deflater;
 
 /**
  * Adapted from https://github.com/gradle/gradle/blob/c8143c9bcf412a2d19053b8c926c7787c1dc8087/subprojects/core/src/main/java/org/gradle/api/internal/file/copy/DefaultZipCompressor.java
+ *
+ * It no longer implements Gradle's ZipCompressor: since Gradle relocated its copy of ant that interface hands back a
+ * different ZipOutputStream to the one {@link DatelessZipOutputStream} extends. {@link DatelessZipCopyAction} uses it
+ * instead.
  */
-public class DatelessZipCompressor implements ZipCompressor {
+public class DatelessZipCompressor {
     private final int entryCompressionMethod;
     private final Zip64Mode zip64Mode;
+    private final int threads;
+    private final int level;
+    private final boolean adaptiveCompression;
+    private final EntryListener listener;
 
     public DatelessZipCompressor(boolean allowZip64Mode, int entryCompressionMethod) {
+        this(allowZip64Mode, entryCompressionMethod, 1);
+    }
+
+    /**
+     * @param threads how many threads to compress entries on, more than 1 uses
+     *                {@link ParallelDatelessZipOutputStream}, which writes the same bytes.
+     */
+    public DatelessZipCompressor(boolean allowZip64Mode, int entryCompressionMethod, int threads) {
+        this(allowZip64Mode, entryCompressionMethod, threads, EntryListener.NOOP);
+    }
+
+    /**
+     * @param listener told about every entry written, see
+     *                 {@link DatelessZipOutputStream#setEntryListener(EntryListener)}.
+     */
+    public DatelessZipCompressor(boolean allowZip64Mode, int entryCompressionMethod, int threads,
+                                 EntryListener listener) {
+        this(allowZip64Mode, entryCompressionMethod, threads, false, listener);
+    }
+
+    /**
+     * @param adaptiveCompression store entries that are already compressed instead of deflating them, see
+     *                            {@link DatelessZipOutputStream#setAdaptiveCompression(boolean)}.
+     */
+    public DatelessZipCompressor(boolean allowZip64Mode, int entryCompressionMethod, int threads,
+                                 boolean adaptiveCompression, EntryListener listener) {
+        this(allowZip64Mode, entryCompressionMethod, threads, Deflater.DEFAULT_COMPRESSION, adaptiveCompression,
+                listener);
+    }
+
+    /**
+     * @param level the level entries are deflated at, from {@link Deflater#DEFAULT_COMPRESSION} to
+     *              {@link Deflater#BEST_COMPRESSION}.
+     */
+    public DatelessZipCompressor(boolean allowZip64Mode, int entryCompressionMethod, int threads, int level,
+                                 boolean adaptiveCompression, EntryListener listener) {
         this.entryCompressionMethod = entryCompressionMethod;
         this.zip64Mode = allowZip64Mode ? Zip64Mode.AsNeeded : Zip64Mode.Never;
+        this.threads = threads;
+        this.level = CompressionEngine.checkLevel(level);
+        this.adaptiveCompression = adaptiveCompression;
+        this.listener = listener;
     }
 
-    @Override
     public ZipOutputStream createArchiveOutputStream(File destination) {
         try {
-            ZipOutputStream e = new DatelessZipOutputStream(destination);
+            DatelessZipOutputStream e = threads > 1 ? new ParallelDatelessZipOutputStream(destination, threads)
+                    : new DatelessZipOutputStream(destination);
+            e.setEntryListener(listener);
+            e.setAdaptiveCompression(adaptiveCompression);
             e.setUseZip64(this.zip64Mode);
             e.setMethod(this.entryCompressionMethod);
+            e.setLevel(this.level);
             return e;
         } catch (Exception e) {
             throw new UncheckedIOException("Unable to create ZIP output stream for file " + destination);
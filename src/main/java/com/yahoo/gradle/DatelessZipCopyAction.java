@@ -0,0 +1,75 @@
+/*
+ * Copyright 2016, Yahoo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.gradle;
+
+import org.apache.tools.zip.UnixStat;
+import org.apache.tools.zip.ZipEntry;
+import org.apache.tools.zip.ZipOutputStream;
+import org.gradle.api.UncheckedIOException;
+import org.gradle.api.file.FileCopyDetails;
+import org.gradle.api.internal.file.copy.CopyAction;
+import org.gradle.api.internal.file.copy.CopyActionProcessingStream;
+import org.gradle.api.tasks.WorkResult;
+import org.gradle.api.tasks.WorkResults;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Writes what a {@link DatelessJar} copies through a {@link DatelessZipCompressor}, the way Gradle's ZipCopyAction
+ * does through a ZipCompressor. The times are left off the entries, {@link DatelessZipOutputStream} takes them out.
+ */
+class DatelessZipCopyAction implements CopyAction {
+    private final File zipFile;
+    private final DatelessZipCompressor compressor;
+    private final String encoding;
+
+    DatelessZipCopyAction(File zipFile, DatelessZipCompressor compressor, String encoding) {
+        this.zipFile = zipFile;
+        this.compressor = compressor;
+        this.encoding = encoding;
+    }
+
+    @Override
+    public WorkResult execute(CopyActionProcessingStream stream) {
+        try (ZipOutputStream zos = compressor.createArchiveOutputStream(zipFile)) {
+            zos.setEncoding(encoding);
+            stream.process(details -> add(zos, details));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to write " + zipFile, e);
+        }
+        return WorkResults.didWork(true);
+    }
+
+    private void add(ZipOutputStream zos, FileCopyDetails details) {
+        String path = details.getRelativePath().getPathString();
+        try {
+            if (details.isDirectory()) {
+                ZipEntry entry = new ZipEntry(path + '/');
+                entry.setUnixMode(UnixStat.DIR_FLAG | details.getMode());
+                zos.putNextEntry(entry);
+            } else {
+                ZipEntry entry = new ZipEntry(path);
+                entry.setUnixMode(UnixStat.FILE_FLAG | details.getMode());
+                zos.putNextEntry(entry);
+                details.copyTo(zos);
+            }
+            zos.closeEntry();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to add " + path + " to " + zipFile, e);
+        }
+    }
+}
@@ -19,8 +19,12 @@ import org.apache.tools.zip.Zip64Mode;
 import org.apache.tools.zip.ZipEntry;
 import org.apache.tools.zip.ZipOutputStream;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Objects;
+import java.util.zip.Deflater;
 import java.util.zip.ZipException;
 
 /**
@@ -29,17 +33,199 @@ import java.util.zip.ZipException;
  * This overrides putNextEntry to force the time to be 0.
  */
 public class DatelessZipOutputStream extends ZipOutputStream {
-    private Zip64Mode mode;
-    private int method;
+    private Zip64Mode mode = Zip64Mode.AsNeeded;
+    private int method = DEFLATED;
+    private int level = Deflater.DEFAULT_COMPRESSION;
+    private String encoding = null;
+    private boolean useLanguageEncodingFlag = true;
+    private boolean fallbackToUTF8 = false;
+    private UnicodeExtraFieldPolicy createUnicodeExtraFields = UnicodeExtraFieldPolicy.NEVER;
+    private String comment = "";
+
+    private EntryListener listener = EntryListener.NOOP;
+    private boolean closed = false;
+    // the entry being written, only while measuring.
+    private ZipEntry current;
+    private long size;
+    private long deflateNanos;
+    private long writeNanos;
+
+    private boolean adaptiveCompression = false;
+    // the entry whose method is still being decided, see setAdaptiveCompression.
+    private ZipEntry sampled;
+    private final SampleBuffer sample = new SampleBuffer();
 
     public DatelessZipOutputStream(File destination) throws IOException {
         super(destination);
     }
 
+    /**
+     * For subclasses that do their own writing, see {@link ParallelDatelessZipOutputStream}.
+     */
+    protected DatelessZipOutputStream(OutputStream out) {
+        super(out);
+    }
+
     @Override
     public void putNextEntry(ZipEntry archiveEntry) throws IOException {
+        if (null != sampled) {
+            closeEntry();
+        }
+
+        boolean adaptive = isAdaptive(archiveEntry);
         ZipEntry modified = fixTimes(archiveEntry);
-        super.putNextEntry(modified);
+        if (adaptive) {
+            // the header says how it's compressed, so it waits until there's enough to decide.
+            sampled = modified;
+            sample.reset();
+            return;
+        }
+
+        beginEntry(modified);
+    }
+
+    private void beginEntry(ZipEntry entry) throws IOException {
+        if (!isMeasured()) {
+            super.putNextEntry(entry);
+            return;
+        }
+
+        if (null != current) {
+            // ant would, but then closing it would count towards this entry.
+            closeEntry();
+        }
+        long start = System.nanoTime();
+        super.putNextEntry(entry);
+        current = entry;
+        size = 0;
+        deflateNanos = 0;
+        writeNanos = System.nanoTime() - start;
+    }
+
+    /**
+     * Picks the method of the sampled entry and writes its header, followed by the sample.
+     */
+    private void chooseMethod() throws IOException {
+        ZipEntry entry = sampled;
+        sampled = null;
+        if (AdaptiveCompression.isCompressed(entry.getName(), sample.buffer(), sample.size())) {
+            entry.setMethod(STORED);
+        }
+
+        beginEntry(entry);
+        if (sample.size() > 0) {
+            write(sample.buffer(), 0, sample.size());
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int offset, int length) throws IOException {
+        if (null != sampled) {
+            sample.write(b, offset, length);
+            if (sample.size() >= AdaptiveCompression.SAMPLE_SIZE) {
+                chooseMethod();
+            }
+            return;
+        }
+
+        if (null == current) {
+            super.write(b, offset, length);
+            return;
+        }
+
+        long start = System.nanoTime();
+        super.write(b, offset, length);
+        deflateNanos += System.nanoTime() - start;
+        size += length;
+    }
+
+    @Override
+    public void closeEntry() throws IOException {
+        if (null != sampled) {
+            chooseMethod();
+        }
+
+        if (null == current) {
+            super.closeEntry();
+            return;
+        }
+
+        long start = System.nanoTime();
+        super.closeEntry();
+        // flushing the deflater, and going back to fill in the sizes.
+        deflateNanos += System.nanoTime() - start;
+        ZipEntry closing = current;
+        current = null;
+        entryWritten(closing, size, deflateNanos, writeNanos);
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if (null != sampled) {
+            closeEntry();
+        }
+        super.finish();
+    }
+
+    @Override
+    public void close() throws IOException {
+        super.close();
+        if (!closed) {
+            closed = true;
+            listener.archiveClosed();
+        }
+    }
+
+    /**
+     * Measures every entry from now on, and tells listener about it. ant writes compressed data straight to the file
+     * as it deflates it, so the time spent writing the data counts as deflating, and only writing the header counts
+     * as writing.
+     */
+    public void setEntryListener(EntryListener listener) {
+        this.listener = Objects.requireNonNull(listener);
+    }
+
+    /**
+     * When true, entries that don't have a method of their own are STORED rather than deflated if their name or
+     * their first few kilobytes show they are already compressed, see {@link AdaptiveCompression}. Only applies while
+     * the method is {@link #DEFLATED}, to entries whose size isn't known up front, and when writing to a file.
+     */
+    public void setAdaptiveCompression(boolean adaptiveCompression) {
+        this.adaptiveCompression = adaptiveCompression;
+    }
+
+    public boolean isAdaptiveCompression() {
+        return adaptiveCompression;
+    }
+
+    /**
+     * @return true if the method of archiveEntry is left to {@link AdaptiveCompression}.
+     */
+    boolean isAdaptive(ZipEntry archiveEntry) {
+        // ant can only write a STORED entry of unknown size when it can go back and fill in the size.
+        return adaptiveCompression && DEFLATED == method && -1 == archiveEntry.getMethod()
+                && -1 == archiveEntry.getSize() && isSeekable();
+    }
+
+    /**
+     * Gives access to the buffer without copying it.
+     */
+    private static final class SampleBuffer extends ByteArrayOutputStream {
+        private byte[] buffer() {
+            return buf;
+        }
+    }
+
+    boolean isMeasured() {
+        return EntryListener.NOOP != listener;
+    }
+
+    /**
+     * For subclasses that do their own writing, tells the listener entry has been written.
+     */
+    void entryWritten(ZipEntry entry, long size, long deflateNanos, long writeNanos) {
+        listener.entryWritten(new EntryStats(entry.getName(), size, 0, entry.getCompressedSize(), 0, 0,
+                deflateNanos, writeNanos));
     }
 
     /**
@@ -49,6 +235,10 @@ public class DatelessZipOutputStream extends ZipOutputStream {
      * @return
      */
     ZipEntry fixTimes(ZipEntry archiveEntry) throws ZipException {
+        if (-1 == archiveEntry.getMethod()) {
+            // ant can't copy an entry without a method, and would set it to the default on this one anyway.
+            archiveEntry.setMethod(method);
+        }
         ZipEntry modified = new ZipEntry(archiveEntry);
         // The JDK has last modified, and access time, but ant only has setTime which maps to lastModified.
         modified.setTime(0);
@@ -75,4 +265,73 @@ public class DatelessZipOutputStream extends ZipOutputStream {
     int getMethod() {
         return method;
     }
+
+    // ant keeps all of these private, so remember them for the subclasses that need to write headers the same way.
+
+    @Override
+    public void setLevel(int level) {
+        super.setLevel(level);
+        this.level = level;
+    }
+
+    int getLevel() {
+        return level;
+    }
+
+    @Override
+    public void setEncoding(String encoding) {
+        super.setEncoding(encoding);
+        this.encoding = encoding;
+        useLanguageEncodingFlag = useLanguageEncodingFlag && isUTF8(encoding);
+    }
+
+    @Override
+    public void setUseLanguageEncodingFlag(boolean b) {
+        super.setUseLanguageEncodingFlag(b);
+        useLanguageEncodingFlag = b && isUTF8(encoding);
+    }
+
+    boolean getUseLanguageEncodingFlag() {
+        return useLanguageEncodingFlag;
+    }
+
+    @Override
+    public void setFallbackToUTF8(boolean b) {
+        super.setFallbackToUTF8(b);
+        fallbackToUTF8 = b;
+    }
+
+    boolean getFallbackToUTF8() {
+        return fallbackToUTF8;
+    }
+
+    @Override
+    public void setCreateUnicodeExtraFields(UnicodeExtraFieldPolicy b) {
+        super.setCreateUnicodeExtraFields(b);
+        createUnicodeExtraFields = b;
+    }
+
+    UnicodeExtraFieldPolicy getCreateUnicodeExtraFields() {
+        return createUnicodeExtraFields;
+    }
+
+    @Override
+    public void setComment(String comment) {
+        super.setComment(comment);
+        this.comment = comment;
+    }
+
+    String getComment() {
+        return comment;
+    }
+
+    /**
+     * Same as the package private ZipEncodingHelper.isUTF8, null means the platform encoding.
+     */
+    static boolean isUTF8(String encoding) {
+        if (null == encoding) {
+            encoding = System.getProperty("file.encoding");
+        }
+        return "UTF8".equalsIgnoreCase(encoding) || "utf-8".equalsIgnoreCase(encoding);
+    }
 }
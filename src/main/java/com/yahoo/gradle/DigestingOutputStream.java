@@ -0,0 +1,162 @@
+/*
+ * Copyright 2016, Yahoo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.gradle;
+
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Digests the bytes of an archive as they're written through it, so that checksums for publishing don't need the
+ * archive to be read back in again once it's written.
+ * <p>
+ * The algorithms are any that {@link MessageDigest} knows, such as SHA-1 and SHA-256, and can be set until the first
+ * byte is written. With none, the default, bytes go straight through.
+ */
+public class DigestingOutputStream extends FilterOutputStream {
+    public static final List<String> SIDECAR_ALGORITHMS = Collections.unmodifiableList(Arrays.asList("SHA-1",
+            "SHA-256"));
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private MessageDigest[] digests = new MessageDigest[0];
+    private long bytes = 0;
+
+    public DigestingOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    public DigestingOutputStream(OutputStream out, List<String> algorithms) {
+        super(out);
+        setAlgorithms(algorithms);
+    }
+
+    /**
+     * @throws IllegalArgumentException if an algorithm isn't available.
+     * @throws IllegalStateException    once anything has been written.
+     */
+    public void setAlgorithms(List<String> algorithms) {
+        if (bytes > 0) {
+            throw new IllegalStateException("Can't change the digests after " + bytes + " bytes were written");
+        }
+        digests = newDigests(algorithms);
+    }
+
+    private static MessageDigest[] newDigests(List<String> algorithms) {
+        MessageDigest[] digests = new MessageDigest[algorithms.size()];
+        for (int i = 0; i < digests.length; i++) {
+            try {
+                digests[i] = MessageDigest.getInstance(algorithms.get(i));
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalArgumentException("Unknown digest algorithm " + algorithms.get(i), e);
+            }
+        }
+        return digests;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        for (MessageDigest digest : digests) {
+            digest.update((byte) b);
+        }
+        bytes++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        for (MessageDigest digest : digests) {
+            digest.update(b, off, len);
+        }
+        bytes += len;
+    }
+
+    /**
+     * @return the digest, in hex, of everything written so far, by algorithm in the order they were set.
+     */
+    public Map<String, String> getDigests() {
+        return hex(digests, true);
+    }
+
+    private static Map<String, String> hex(MessageDigest[] digests, boolean copy) {
+        Map<String, String> hex = new LinkedHashMap<>();
+        for (MessageDigest digest : digests) {
+            MessageDigest done;
+            try {
+                // so that more can still be written.
+                done = copy ? (MessageDigest) digest.clone() : digest;
+            } catch (CloneNotSupportedException e) {
+                throw new IllegalStateException(digest.getAlgorithm() + " can't be copied", e);
+            }
+            hex.put(digest.getAlgorithm(), CanonicalDigest.hex(done.digest()));
+        }
+        return hex;
+    }
+
+    /**
+     * Digests a file that was written some other way, such as by an archiver that goes back to fill in headers.
+     */
+    public static Map<String, String> digest(File file, List<String> algorithms) throws IOException {
+        MessageDigest[] digests = newDigests(algorithms);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                for (MessageDigest digest : digests) {
+                    digest.update(buffer, 0, n);
+                }
+            }
+        }
+        return hex(digests, false);
+    }
+
+    /**
+     * @return the sidecar file a digest of archive made with algorithm goes in, such as app.jar.sha256 for SHA-256.
+     */
+    public static File sidecar(File archive, String algorithm) {
+        return new File(archive.getPath() + "." + algorithm.replace("-", "").toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Writes each digest of archive to its {@link #sidecar(File, String)}, holding only the hex the way Maven
+     * repositories expect it.
+     *
+     * @return the files written.
+     */
+    public static List<File> writeSidecars(File archive, Map<String, String> digests) throws IOException {
+        List<File> sidecars = new ArrayList<>();
+        for (Map.Entry<String, String> digest : digests.entrySet()) {
+            File sidecar = sidecar(archive, digest.getKey());
+            Files.write(sidecar.toPath(), digest.getValue().getBytes(StandardCharsets.US_ASCII));
+            sidecars.add(sidecar);
+        }
+        return sidecars;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2016, Yahoo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.gradle;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.Incubating;
+import org.gradle.api.UncheckedIOException;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputDirectory;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.SkipWhenEmpty;
+import org.gradle.api.tasks.TaskAction;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a directory, such as the output of compileJava, straight to a jar with every time set to epoch, see
+ * {@link DirectoryJarBuilder}. It saves writing a jar and then rewriting it with the fixer.
+ * <pre>
+ * task classesJar(type: com.yahoo.gradle.DirectoryJar) {
+ *     from = sourceSets.main.output.classesDir
+ *     archive = file("$buildDir/libs/classes.jar")
+ *     compressionThreads = 4
+ * }
+ * </pre>
+ */
+@CacheableTask
+@Incubating
+public class DirectoryJar extends DefaultTask {
+    private File from;
+    private File archive;
+    private int compressionThreads = 1;
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+
+    /**
+     * Only where the files are in the directory matters, not where the directory is.
+     */
+    @InputDirectory
+    @SkipWhenEmpty
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public File getFrom() {
+        return from;
+    }
+
+    /**
+     * @param from anything {@link org.gradle.api.Project#file(Object)} accepts.
+     */
+    public void setFrom(Object from) {
+        this.from = getProject().file(from);
+    }
+
+    @OutputFile
+    public File getArchive() {
+        return archive;
+    }
+
+    /**
+     * @param archive anything {@link org.gradle.api.Project#file(Object)} accepts.
+     */
+    public void setArchive(Object archive) {
+        this.archive = getProject().file(archive);
+    }
+
+    /**
+     * How many threads to read and compress files on. The jar is byte for byte the same whatever this is set to, so
+     * it isn't an input.
+     */
+    @Internal
+    public int getCompressionThreads() {
+        return compressionThreads;
+    }
+
+    public void setCompressionThreads(int compressionThreads) {
+        if (compressionThreads < 1) {
+            throw new IllegalArgumentException("compressionThreads must be at least 1, not " + compressionThreads);
+        }
+        this.compressionThreads = compressionThreads;
+    }
+
+    /**
+     * The level entries are deflated at, see {@link DatelessJar#getCompressionLevel()}.
+     */
+    @Input
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = CompressionEngine.checkLevel(compressionLevel);
+    }
+
+    @TaskAction
+    public void build() {
+        DirectoryJarBuilder builder = new DirectoryJarBuilder(from, archive);
+        builder.setThreads(compressionThreads);
+        builder.setLevel(compressionLevel);
+        try {
+            builder.build();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to write " + archive + " from " + from, e);
+        }
+    }
+}
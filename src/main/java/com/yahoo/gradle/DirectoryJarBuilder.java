@@ -0,0 +1,222 @@
+/*
+ * Copyright 2016, Yahoo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.gradle;
+
+import org.apache.tools.zip.UnixStat;
+import org.apache.tools.zip.ZipEntry;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a directory, such as {@code build/classes}, straight to a jar with every time set to epoch, instead of
+ * jarring it and then fixing the jar.
+ * <p>
+ * {@code META-INF/MANIFEST.MF} comes first, with a bare one written if the directory doesn't have one, then every
+ * other directory and file sorted by its path in the jar, so the jar is the same whatever order the file system
+ * lists them in. Files are read ahead on a pool of threads, and with more than one thread are deflated on a
+ * {@link ParallelDatelessZipOutputStream}, which writes the same bytes as a single thread does.
+ */
+public class DirectoryJarBuilder {
+    static final long IN_FLIGHT_BYTES = 64L * 1024 * 1024;
+
+    private static final String MANIFEST_DIR = "META-INF/";
+    private static final String MANIFEST = "META-INF/MANIFEST.MF";
+    private static final byte[] DEFAULT_MANIFEST = "Manifest-Version: 1.0\r\n\r\n".getBytes(StandardCharsets.UTF_8);
+    // what Gradle gives files and directories unless told otherwise.
+    private static final int FILE_MODE = UnixStat.FILE_FLAG | 0644;
+    private static final int DIR_MODE = UnixStat.DIR_FLAG | 0755;
+
+    private final File directory;
+    private final File output;
+    private int threads = 1;
+    private int level = Deflater.DEFAULT_COMPRESSION;
+
+    public DirectoryJarBuilder(File directory, File output) {
+        this.directory = directory;
+        this.output = output;
+    }
+
+    /**
+     * How many threads to read and deflate files on, 1 unless set. The jar is the same whatever this is.
+     */
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1, not " + threads);
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * @param level from {@link Deflater#DEFAULT_COMPRESSION} to {@link Deflater#BEST_COMPRESSION}.
+     */
+    public void setLevel(int level) {
+        this.level = CompressionEngine.checkLevel(level);
+    }
+
+    /**
+     * A file or directory going into the jar.
+     */
+    private static final class Source {
+        private final String name;
+        private final Path path;
+        private final long size;
+
+        private Source(String name, Path path, long size) {
+            this.name = name;
+            this.path = path;
+            this.size = size;
+        }
+
+        private boolean isDirectory() {
+            return name.endsWith("/");
+        }
+
+        // files too big to hold in memory are read as they are written instead, the default manifest isn't read.
+        private boolean isReadAhead() {
+            return null != path && !isDirectory() && size <= ParallelDatelessZipOutputStream.STREAMING_THRESHOLD;
+        }
+    }
+
+    /**
+     * @return how many entries were written.
+     */
+    public int build() throws IOException {
+        if (!directory.isDirectory()) {
+            throw new IOException(directory + " is not a directory");
+        }
+        List<Source> sources = sources();
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try (DatelessZipOutputStream zos = threads > 1 ? new ParallelDatelessZipOutputStream(output, threads)
+                : new DatelessZipOutputStream(output)) {
+            zos.setLevel(level);
+
+            Deque<Future<byte[]>> reads = new ArrayDeque<>();
+            long inFlightBytes = 0;
+            int next = 0;
+            for (int i = 0; i < sources.size(); i++) {
+                // always at least the one about to be written.
+                while (next < sources.size() && next - i < 2 * threads
+                        && (inFlightBytes < IN_FLIGHT_BYTES || next == i)) {
+                    Source source = sources.get(next++);
+                    reads.add(source.isReadAhead() ? pool.submit(() -> Files.readAllBytes(source.path))
+                            : CompletableFuture.completedFuture(null));
+                    inFlightBytes += source.isReadAhead() ? source.size : 0;
+                }
+
+                Source source = sources.get(i);
+                byte[] data = get(source, reads.remove());
+                inFlightBytes -= source.isReadAhead() ? source.size : 0;
+                write(zos, source, data);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return sources.size();
+    }
+
+    /**
+     * @param data what's in the file if it was read ahead, otherwise null.
+     */
+    private static void write(DatelessZipOutputStream zos, Source source, byte[] data) throws IOException {
+        ZipEntry entry = new ZipEntry(source.name);
+        entry.setMethod(zos.getMethod());
+        entry.setUnixMode(source.isDirectory() ? DIR_MODE : FILE_MODE);
+        zos.putNextEntry(entry);
+        if (null != data) {
+            zos.write(data);
+        } else if (null == source.path) {
+            zos.write(DEFAULT_MANIFEST);
+        } else if (!source.isDirectory()) {
+            Files.copy(source.path, zos);
+        }
+        zos.closeEntry();
+    }
+
+    private static byte[] get(Source source, Future<byte[]> read) throws IOException {
+        try {
+            return read.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted reading " + source.path);
+        } catch (ExecutionException e) {
+            throw new IOException("Unable to read " + source.path, e.getCause());
+        }
+    }
+
+    /**
+     * @return everything going into the jar in the order it goes in.
+     */
+    private List<Source> sources() throws IOException {
+        Path root = directory.toPath();
+        Path skip = output.getAbsoluteFile().toPath().normalize();
+        List<Source> sources;
+        try (Stream<Path> paths = Files.walk(root)) {
+            sources = paths.filter(path -> !path.equals(root) && !path.toAbsolutePath().normalize().equals(skip))
+                    .map(path -> source(root, path))
+                    .filter(source -> !MANIFEST_DIR.equals(source.name) && !MANIFEST.equals(source.name))
+                    .sorted(Comparator.comparing(source -> source.name))
+                    .collect(Collectors.toList());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        List<Source> ordered = new ArrayList<>(sources.size() + 2);
+        ordered.add(new Source(MANIFEST_DIR, root.resolve(MANIFEST_DIR), 0));
+        Path manifest = root.resolve(MANIFEST);
+        ordered.add(Files.isRegularFile(manifest) ? new Source(MANIFEST, manifest, Files.size(manifest))
+                : new Source(MANIFEST, null, DEFAULT_MANIFEST.length));
+        ordered.addAll(sources);
+        return ordered;
+    }
+
+    private static Source source(Path root, Path path) {
+        StringBuilder name = new StringBuilder();
+        for (Path part : root.relativize(path)) {
+            if (name.length() > 0) {
+                name.append('/');
+            }
+            name.append(part.toString());
+        }
+        try {
+            if (Files.isDirectory(path)) {
+                return new Source(name.append('/').toString(), path, 0);
+            }
+            return new Source(name.toString(), path, Files.size(path));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
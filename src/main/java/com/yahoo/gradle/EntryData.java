@@ -0,0 +1,97 @@
+/*
+ * Copyright 2016, Yahoo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.gradle;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Reads the data of an entry found through a {@link CentralDirectory}, using positional reads so that any number of
+ * entries of the same channel can be read at once, from any number of threads.
+ */
+final class EntryData {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private EntryData() {
+    }
+
+    /**
+     * @return the uncompressed data of entry, which must be closed.
+     * @throws ZipException if entry is neither stored nor deflated.
+     */
+    static InputStream open(FileChannel channel, CentralDirectory directory, CentralDirectoryEntry entry)
+            throws IOException {
+        InputStream data = new RegionInputStream(channel, directory.getDataOffset(entry), entry.getCompressedSize());
+        switch (entry.getMethod()) {
+            case ZipEntry.STORED:
+                return data;
+            case ZipEntry.DEFLATED:
+                Inflater inflater = new Inflater(true);
+                return new InflaterInputStream(data, inflater, BUFFER_SIZE) {
+                    @Override
+                    public void close() throws IOException {
+                        super.close();
+                        inflater.end();
+                    }
+                };
+            default:
+                throw new ZipException("Unsupported compression method " + entry.getMethod() + " for "
+                        + entry.getName());
+        }
+    }
+
+    /**
+     * Reads length bytes of a channel starting at position, without using or changing the channel's position.
+     */
+    private static final class RegionInputStream extends InputStream {
+        private final FileChannel channel;
+        private long position;
+        private long remaining;
+
+        private RegionInputStream(FileChannel channel, long position, long length) {
+            this.channel = channel;
+            this.position = position;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return -1 == read(b, 0, 1) ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (0 == remaining) {
+                return -1;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, (int) Math.min(len, remaining));
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new ZipException("Entry data extends past the end of the file");
+            }
+            position += read;
+            remaining -= read;
+            return read;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2016, Yahoo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.gradle;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Sorts the central directory headers of a zip by entry name, keeping only where each header is rather than the
+ * entries themselves. Once the headers held add up to more than the memory budget they're sorted and spilled to a
+ * temporary file, and the spilled runs are merged as they're read back, so a zip of any size can be sorted in a fixed
+ * amount of memory.
+ * <p>
+ * META-INF/ and META-INF/MANIFEST.MF come before everything else, so that {@link java.util.jar.JarInputStream} still
+ * finds the manifest.
+ */
+final class EntryIndex implements Closeable {
+    private static final String MANIFEST_DIR = "META-INF/";
+    private static final String MANIFEST = "META-INF/MANIFEST.MF";
+    // roughly what a Key and its String cost beyond the characters of the name.
+    private static final int KEY_OVERHEAD = 96;
+    private static final int RUN_BUFFER_SIZE = 64 * 1024;
+
+    static final Comparator<Key> ORDER = Comparator.comparingInt((Key key) -> rank(key.name))
+            .thenComparing(key -> key.name)
+            .thenComparingLong(key -> key.headerOffset);
+
+    private final long memoryBudget;
+    private final List<Key> keys = new ArrayList<>();
+    private final List<Path> runs = new ArrayList<>();
+    private long bytes;
+    private Path spool;
+
+    /**
+     * Where a central directory header is, and the name of its entry.
+     */
+    static final class Key {
+        final String name;
+        final long headerOffset;
+        final int headerLength;
+
+        Key(String name, long headerOffset, int headerLength) {
+            this.name = name;
+            this.headerOffset = headerOffset;
+            this.headerLength = headerLength;
+        }
+    }
+
+    interface Visitor {
+        void visit(Key key) throws IOException;
+    }
+
+    /**
+     * @param memoryBudget roughly how many bytes of headers to hold before spilling them to disk.
+     */
+    EntryIndex(long memoryBudget) {
+        if (memoryBudget < 1) {
+            throw new IllegalArgumentException("memory budget must be at least 1, not " + memoryBudget);
+        }
+        this.memoryBudget = memoryBudget;
+    }
+
+    // the manifest has to come first for JarInputStream to find it.
+    private static int rank(String name) {
+        return MANIFEST_DIR.equals(name) ? 0 : MANIFEST.equals(name) ? 1 : 2;
+    }
+
+    void add(CentralDirectoryEntry entry) throws IOException {
+        keys.add(new Key(entry.getName(), entry.getHeaderOffset(), entry.getHeaderLength()));
+        bytes += KEY_OVERHEAD + 2L * entry.getName().length();
+        if (bytes > memoryBudget) {
+            spill();
+        }
+    }
+
+    /**
+     * @return how many runs have been spilled to disk so far.
+     */
+    int getRuns() {
+        return runs.size();
+    }
+
+    private void spill() throws IOException {
+        if (null == spool) {
+            spool = Files.createTempDirectory("sorted");
+        }
+        keys.sort(ORDER);
+        Path run = Files.createTempFile(spool, "run", ".idx");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run),
+                RUN_BUFFER_SIZE))) {
+            for (Key key : keys) {
+                byte[] name = key.name.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(name.length);
+                out.write(name);
+                out.writeLong(key.headerOffset);
+                out.writeInt(key.headerLength);
+            }
+        }
+        runs.add(run);
+        keys.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Hands every header added to visitor in {@link #ORDER}.
+     */
+    void visitSorted(Visitor visitor) throws IOException {
+        keys.sort(ORDER);
+        if (runs.isEmpty()) {
+            for (Key key : keys) {
+                visitor.visit(key);
+            }
+            return;
+        }
+
+        List<Run> sources = new ArrayList<>();
+        try {
+            PriorityQueue<Run> merge = new PriorityQueue<>(Comparator.comparing((Run run) -> run.head, ORDER));
+            for (Path path : runs) {
+                Run run = new Run(path);
+                sources.add(run);
+                if (run.advance()) {
+                    merge.add(run);
+                }
+            }
+            Run memory = new Run(keys);
+            if (memory.advance()) {
+                merge.add(memory);
+            }
+
+            while (!merge.isEmpty()) {
+                Run run = merge.poll();
+                visitor.visit(run.head);
+                if (run.advance()) {
+                    merge.add(run);
+                }
+            }
+        } finally {
+            for (Run run : sources) {
+                run.close();
+            }
+        }
+    }
+
+    /**
+     * A sorted run, either spilled or still in memory, read one key at a time.
+     */
+    private static final class Run implements Closeable {
+        private final DataInputStream in;
+        private final List<Key> keys;
+        private int next;
+        private Key head;
+
+        private Run(Path path) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), RUN_BUFFER_SIZE));
+            this.keys = null;
+        }
+
+        private Run(List<Key> keys) {
+            this.in = null;
+            this.keys = keys;
+        }
+
+        /**
+         * @return false once the run is used up.
+         */
+        private boolean advance() throws IOException {
+            if (null != keys) {
+                head = next < keys.size() ? keys.get(next++) : null;
+                return null != head;
+            }
+
+            int length;
+            try {
+                length = in.readInt();
+            } catch (EOFException e) {
+                head = null;
+                return false;
+            }
+            byte[] name = new byte[length];
+            in.readFully(name);
+            head = new Key(new String(name, StandardCharsets.UTF_8), in.readLong(), in.readInt());
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (null != in) {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * Deletes whatever has been spilled.
+     */
+    @Override
+    public void close() throws IOException {
+        keys.clear();
+        runs.clear();
+        if (null != spool) {
+            try (Stream<Path> files = Files.walk(spool)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                    Files.deleteIfExists(file);
+                }
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            spool = null;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2016, Yahoo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.gradle;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Told about every entry as it's written, see {@link ZipFixer#setEntryListener(EntryListener)} and
+ * {@link DatelessZipOutputStream#setEntryListener(EntryListener)}. Nothing is measured at all while the listener is
+ * {@link #NOOP}.
+ * <p>
+ * Listeners can be called from more than one thread at once when they are shared between archives.
+ */
+public interface EntryListener {
+    EntryListener NOOP = stats -> {
+    };
+
+    /**
+     * Called once each entry has been completely written.
+     */
+    void entryWritten(EntryStats stats);
+
+    /**
+     * Called once the archive has been closed.
+     */
+    default void archiveClosed() throws IOException {
+    }
+
+    /**
+     * @return a listener that tells each of listeners in turn, {@link #NOOP} if they all are.
+     */
+    static EntryListener all(EntryListener... listeners) {
+        List<EntryListener> all = new ArrayList<>();
+        for (EntryListener listener : listeners) {
+            if (NOOP != listener) {
+                all.add(listener);
+            }
+        }
+        if (all.isEmpty()) {
+            return NOOP;
+        }
+        if (1 == all.size()) {
+            return all.get(0);
+        }
+
+        return new EntryListener() {
+            @Override
+            public void entryWritten(EntryStats stats) {
+                for (EntryListener listener : all) {
+                    listener.entryWritten(stats);
+                }
+            }
+
+            @Override
+            public void archiveClosed() throws IOException {
+                for (EntryListener listener : all) {
+                    listener.archiveClosed();
+                }
+            }
+        };
+    }
+
+    /**
+     * @return a listener that records a JDK Flight Recorder event for every entry, or {@link #NOOP} if this JVM
+     * doesn't have the Flight Recorder API (it's in 8u262 and later).
+     */
+    static EntryListener jfr() {
+        try {
+            // loaded by name so nothing else needs jdk.jfr to be there.
+            return (EntryListener) Class.forName("com.yahoo.gradle.JfrEntryListener").getDeclaredConstructor()
+                    .newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return NOOP;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2016, Yahoo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.gradle;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Collects the {@link EntryStats} of every entry, and writes them out as JSON once the archive is closed:
+ * <pre>
+ * {
+ *   "entries": [
+ *     {"name": "A.class", "size": 3945, "bytesRead": 1870, "bytesWritten": 1904, "ratio": 0.4826,
+ *      "readNanos": 12000, "inflateNanos": 48000, "deflateNanos": 150000, "writeNanos": 9000},
+ *     ...
+ *   ],
+ *   "totals": {"entries": 2, "size": 3970, ...}
+ * }
+ * </pre>
+ * Entries are in the order they were written.
+ */
+public class EntryReport implements EntryListener {
+    private final File file;
+    private final List<EntryStats> entries = new ArrayList<>();
+
+    /**
+     * @param file where to write the report when the archive is closed, or null to only collect the entries.
+     */
+    public EntryReport(File file) {
+        this.file = file;
+    }
+
+    @Override
+    public synchronized void entryWritten(EntryStats stats) {
+        entries.add(stats);
+    }
+
+    public synchronized List<EntryStats> getEntries() {
+        return new ArrayList<>(entries);
+    }
+
+    @Override
+    public void archiveClosed() throws IOException {
+        if (null != file) {
+            write(file);
+        }
+    }
+
+    public void write(File file) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (null != parent) {
+            parent.mkdirs();
+        }
+        try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            write(writer);
+        }
+    }
+
+    public synchronized void write(Writer writer) throws IOException {
+        long size = 0;
+        long bytesRead = 0;
+        long bytesWritten = 0;
+        long readNanos = 0;
+        long inflateNanos = 0;
+        long deflateNanos = 0;
+        long writeNanos = 0;
+
+        writer.write("{\n  \"entries\": [");
+        String separator = "\n";
+        for (EntryStats entry : entries) {
+            writer.write(separator);
+            writer.write("    {\"name\": ");
+            writer.write(quote(entry.getName()));
+            writer.write(", ");
+            writeStats(writer, entry.getSize(), entry.getBytesRead(), entry.getBytesWritten(), entry.getReadNanos(),
+                    entry.getInflateNanos(), entry.getDeflateNanos(), entry.getWriteNanos());
+            writer.write("}");
+            separator = ",\n";
+
+            size += entry.getSize();
+            bytesRead += entry.getBytesRead();
+            bytesWritten += entry.getBytesWritten();
+            readNanos += entry.getReadNanos();
+            inflateNanos += entry.getInflateNanos();
+            deflateNanos += entry.getDeflateNanos();
+            writeNanos += entry.getWriteNanos();
+        }
+        writer.write(entries.isEmpty() ? "],\n" : "\n  ],\n");
+
+        writer.write("  \"totals\": {\"entries\": " + entries.size() + ", ");
+        writeStats(writer, size, bytesRead, bytesWritten, readNanos, inflateNanos, deflateNanos, writeNanos);
+        writer.write("}\n}\n");
+    }
+
+    private static void writeStats(Writer writer, long size, long bytesRead, long bytesWritten, long readNanos,
+                                   long inflateNanos, long deflateNanos, long writeNanos) throws IOException {
+        double ratio = 0 == size ? 1 : (double) bytesWritten / size;
+        writer.write(String.format(Locale.ROOT, "\"size\": %d, \"bytesRead\": %d, \"bytesWritten\": %d, "
+                        + "\"ratio\": %.4f, \"readNanos\": %d, \"inflateNanos\": %d, \"deflateNanos\": %d, "
+                        + "\"writeNanos\": %d", size, bytesRead, bytesWritten, ratio, readNanos, inflateNanos,
+                deflateNanos, writeNanos));
+    }
+
+    static String quote(String s) {
+        StringBuilder quoted = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    quoted.append("\\\"");
+                    break;
+                case '\\':
+                    quoted.append("\\\\");
+                    break;
+                case '\n':
+                    quoted.append("\\n");
+                    break;
+                case '\r':
+                    quoted.append("\\r");
+                    break;
+                case '\t':
+                    quoted.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        quoted.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        quoted.append(c);
+                    }
+                    break;
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
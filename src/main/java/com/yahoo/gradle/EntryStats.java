@@ -0,0 +1,117 @@
+/*
+ * Copyright 2016, Yahoo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.gradle;
+
+/**
+ * What it took to write one entry: how many bytes went in and out, and how long was spent in each phase.
+ * <p>
+ * Phases and counts that don't apply to whatever wrote the entry are 0, for instance {@link DatelessZipOutputStream}
+ * doesn't read or inflate anything. {@link ZipFixer} counts the entry's headers as well as its data, and on the
+ * reading side can be off by the few hundred bytes {@link java.util.jar.JarInputStream} reads ahead, while
+ * {@link DatelessZipOutputStream} only counts the compressed data.
+ */
+public final class EntryStats {
+    private final String name;
+    private final long size;
+    private final long bytesRead;
+    private final long bytesWritten;
+    private final long readNanos;
+    private final long inflateNanos;
+    private final long deflateNanos;
+    private final long writeNanos;
+
+    EntryStats(String name, long size, long bytesRead, long bytesWritten, long readNanos, long inflateNanos,
+               long deflateNanos, long writeNanos) {
+        this.name = name;
+        this.size = size;
+        this.bytesRead = bytesRead;
+        this.bytesWritten = bytesWritten;
+        this.readNanos = readNanos;
+        this.inflateNanos = inflateNanos;
+        this.deflateNanos = deflateNanos;
+        this.writeNanos = writeNanos;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the uncompressed size of the entry.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return how many bytes of the archive were read for this entry.
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * @return how many bytes of the archive were written for this entry.
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * @return bytes written over the uncompressed size, 1 for an empty entry.
+     */
+    public double getRatio() {
+        return 0 == size ? 1 : (double) bytesWritten / size;
+    }
+
+    /**
+     * @return nanoseconds spent reading the archive.
+     */
+    public long getReadNanos() {
+        return readNanos;
+    }
+
+    /**
+     * @return nanoseconds spent inflating what was read.
+     */
+    public long getInflateNanos() {
+        return inflateNanos;
+    }
+
+    /**
+     * @return nanoseconds spent deflating the entry.
+     */
+    public long getDeflateNanos() {
+        return deflateNanos;
+    }
+
+    /**
+     * @return nanoseconds spent writing the archive.
+     */
+    public long getWriteNanos() {
+        return writeNanos;
+    }
+
+    public long getTotalNanos() {
+        return readNanos + inflateNanos + deflateNanos + writeNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d bytes, %d read, %d written in %.3fms", name, size, bytesRead, bytesWritten,
+                getTotalNanos() / 1e6);
+    }
+}
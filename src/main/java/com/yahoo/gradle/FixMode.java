@@ -0,0 +1,235 @@
+/*
+ * Copyright 2016, Yahoo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.gradle;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.Deflater;
+
+/**
+ * The different ways of setting the times in a jar to epoch.
+ */
+public enum FixMode {
+    /**
+     * Inflate and deflate every entry using {@link ZipFixer}.
+     */
+    REWRITE {
+        @Override
+        public void fix(File input, File output, int level) throws IOException {
+            try (ZipFixer zf = new ZipFixer(input, output)) {
+                zf.setLevel(level);
+                zf.adjustDatesToEpoch();
+            }
+        }
+
+        @Override
+        public void fix(InputStream input, OutputStream output, int level) throws IOException {
+            try (ZipFixer zf = new ZipFixer(input, output)) {
+                zf.setLevel(level);
+                zf.adjustDatesToEpoch();
+            }
+        }
+
+        @Override
+        public boolean canStream() {
+            return true;
+        }
+    },
+
+    /**
+     * Inflate and deflate every entry like {@link #REWRITE}, overlapping the reading, compressing and writing using
+     * {@link PipelinedZipFixer}. Writes the same jar as {@link #REWRITE}.
+     */
+    PIPELINED {
+        @Override
+        public void fix(File input, File output, int level) throws IOException {
+            try (PipelinedZipFixer zf = new PipelinedZipFixer(input, output)) {
+                zf.setLevel(level);
+                zf.adjustDatesToEpoch();
+            }
+        }
+
+        @Override
+        public void fix(InputStream input, OutputStream output, int level) throws IOException {
+            try (PipelinedZipFixer zf = new PipelinedZipFixer(input, output)) {
+                zf.setLevel(level);
+                zf.adjustDatesToEpoch();
+            }
+        }
+
+        @Override
+        public boolean canStream() {
+            return true;
+        }
+    },
+
+    /**
+     * Inflate and deflate every entry like {@link #REWRITE}, and fix the archives nested inside the jar too, using
+     * {@link NestedZipFixer}.
+     */
+    NESTED {
+        @Override
+        public void fix(File input, File output, int level) throws IOException {
+            try (NestedZipFixer zf = new NestedZipFixer(input, output)) {
+                zf.setLevel(level);
+                zf.adjustDatesToEpoch();
+            }
+        }
+
+        @Override
+        public void fix(InputStream input, OutputStream output, int level) throws IOException {
+            try (NestedZipFixer zf = new NestedZipFixer(input, output)) {
+                zf.setLevel(level);
+                zf.adjustDatesToEpoch();
+            }
+        }
+
+        @Override
+        public boolean canStream() {
+            return true;
+        }
+
+        @Override
+        public boolean onlyFixesTimes() {
+            // the archives nested inside can still have times.
+            return false;
+        }
+    },
+
+    /**
+     * Inflate and deflate every entry like {@link #REWRITE}, reading the jar through its central directory so that
+     * several entries are inflated and deflated at once, using {@link RandomAccessZipFixer}. Writes the same jar as
+     * {@link #REWRITE}.
+     */
+    RANDOM_ACCESS {
+        @Override
+        public void fix(File input, File output, int level) throws IOException {
+            try (RandomAccessZipFixer zf = new RandomAccessZipFixer(input, output)) {
+                zf.setLevel(level);
+                zf.adjustDatesToEpoch();
+            }
+        }
+    },
+
+    /**
+     * Inflate and deflate every entry like {@link #REWRITE}, putting the manifest first and everything else in order
+     * of name using {@link SortedZipFixer}, so the order the jar was written in doesn't matter.
+     */
+    SORTED {
+        @Override
+        public void fix(File input, File output, int level) throws IOException {
+            try (SortedZipFixer zf = new SortedZipFixer(input, output)) {
+                zf.setLevel(level);
+                zf.adjustDatesToEpoch();
+            }
+        }
+
+        @Override
+        public boolean onlyFixesTimes() {
+            // the entries can still be out of order.
+            return false;
+        }
+    },
+
+    /**
+     * Copy entry data as is, rewriting only the header times using {@link RawZipFixer}. Nothing is deflated, so the
+     * level is ignored.
+     */
+    RAW {
+        @Override
+        public void fix(File input, File output, int level) throws IOException {
+            try (RawZipFixer zf = new RawZipFixer(input, output)) {
+                zf.adjustDatesToEpoch();
+            }
+        }
+    },
+
+    /**
+     * Patch the header times in place using {@link InPlaceZipFixer}. If output isn't input, input is copied to
+     * output first. Nothing is deflated, so the level is ignored.
+     */
+    IN_PLACE {
+        @Override
+        public void fix(File input, File output, int level) throws IOException {
+            if (!input.getCanonicalFile().equals(output.getCanonicalFile())) {
+                Files.copy(input.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            try (InPlaceZipFixer zf = new InPlaceZipFixer(output)) {
+                zf.adjustDatesToEpoch();
+            }
+        }
+    };
+
+    /**
+     * Writes a copy of input to output with all of the times set to epoch.
+     *
+     * @param input  jar to read.
+     * @param output jar to write, which can only be the same as input for {@link #IN_PLACE}.
+     * @throws IOException on IO failure.
+     */
+    public void fix(File input, File output) throws IOException {
+        fix(input, output, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * {@link #fix(File, File)}, deflating entries at level.
+     *
+     * @param level from {@link Deflater#DEFAULT_COMPRESSION} to {@link Deflater#BEST_COMPRESSION}.
+     * @throws IOException on IO failure.
+     */
+    public abstract void fix(File input, File output, int level) throws IOException;
+
+    /**
+     * Reads a jar from input and writes it to output with all of the times set to epoch, closing both. Only modes
+     * that {@link #canStream()} support this.
+     *
+     * @throws IOException on IO failure.
+     * @throws UnsupportedOperationException if this mode needs random access to the jar.
+     */
+    public void fix(InputStream input, OutputStream output) throws IOException {
+        fix(input, output, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * {@link #fix(InputStream, OutputStream)}, deflating entries at level.
+     *
+     * @throws IOException on IO failure.
+     * @throws UnsupportedOperationException if this mode needs random access to the jar.
+     */
+    public void fix(InputStream input, OutputStream output, int level) throws IOException {
+        throw new UnsupportedOperationException(name() + " needs a file, it can't fix a stream");
+    }
+
+    /**
+     * @return true if this mode can {@link #fix(InputStream, OutputStream)}.
+     */
+    public boolean canStream() {
+        return false;
+    }
+
+    /**
+     * @return true if this mode changes nothing but the times, so a jar whose times are already epoch comes out of it
+     * the same and {@link SkipMode} can leave it as is.
+     */
+    public boolean onlyFixesTimes() {
+        return true;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2016, Yahoo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.gradle;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.zip.ZipException;
+
+/**
+ * Sets the times in a zip file to epoch without writing a new file.
+ * <p>
+ * The time fields {@link RawZipFixer} rewrites never change size, so nothing in the file has to move. This class
+ * memory maps the archive and overwrites those fields directly in the mapping, which turns normalizing a multi-GB
+ * archive into a handful of dirty pages instead of a full read and write.
+ * <p>
+ * Local headers are patched through a window that slides along the file, so a single mapping is never larger than
+ * {@link #WINDOW_SIZE}. Mappings are released by the garbage collector, on windows that means the file stays locked
+ * for a while after {@link #close()}.
+ * <p>
+ * If this fails part way through, the file is left with some of its times fixed, which is still a valid zip file.
+ */
+public class InPlaceZipFixer implements Closeable {
+    static final long WINDOW_SIZE = 64L * 1024 * 1024;
+
+    private FileChannel channel;
+
+    public InPlaceZipFixer(String file) throws IOException {
+        this(new File(file));
+    }
+
+    public InPlaceZipFixer(File file) throws IOException {
+        Objects.requireNonNull(file);
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    InPlaceZipFixer(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    public void adjustDatesToEpoch() throws IOException {
+        CentralDirectory directory = CentralDirectory.read(channel);
+
+        fixLocalHeaders(directory);
+        fixCentralDirectory(directory);
+
+        close();
+    }
+
+    void fixLocalHeaders(CentralDirectory directory) throws IOException {
+        List<CentralDirectoryEntry> entries = new ArrayList<>(directory.getEntries());
+        entries.sort(Comparator.comparingLong(CentralDirectoryEntry::getLocalHeaderOffset));
+
+        long fileSize = channel.size();
+        MappedByteBuffer window = null;
+        long windowStart = 0;
+
+        for (CentralDirectoryEntry entry : entries) {
+            long headerOffset = entry.getLocalHeaderOffset();
+            // the longest a local header can be.
+            long headerMax = Math.min(ZipHeaders.LOC_HEADER_SIZE + 2 * 0xFFFF, fileSize - headerOffset);
+            if (headerMax < ZipHeaders.LOC_HEADER_SIZE) {
+                throw new ZipException("Local header for " + entry.getName() + " is past the end of the file");
+            }
+
+            if (null == window || headerOffset < windowStart
+                    || headerOffset + headerMax > windowStart + window.capacity()) {
+                if (null != window) {
+                    window.force();
+                }
+                windowStart = headerOffset;
+                window = channel.map(FileChannel.MapMode.READ_WRITE, windowStart,
+                        Math.min(Math.max(WINDOW_SIZE, headerMax), fileSize - windowStart));
+            }
+
+            ZipHeaders.normalizeLocalHeader(window, (int) (headerOffset - windowStart));
+        }
+
+        if (null != window) {
+            window.force();
+        }
+    }
+
+    void fixCentralDirectory(CentralDirectory directory) throws IOException {
+        if (directory.getSize() > Integer.MAX_VALUE) {
+            throw new ZipException("Central directory is too large: " + directory.getSize());
+        }
+
+        MappedByteBuffer headers = channel.map(FileChannel.MapMode.READ_WRITE, directory.getOffset(),
+                directory.getSize());
+        int index = 0;
+        while (index + ZipHeaders.CEN_HEADER_SIZE <= headers.capacity()) {
+            index += ZipHeaders.normalizeCentralHeader(headers, index);
+        }
+        headers.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (null != channel) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
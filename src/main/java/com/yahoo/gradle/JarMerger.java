@@ -0,0 +1,498 @@
+/*
+ * Copyright 2016, Yahoo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.gradle;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+import static com.yahoo.gradle.ZipHeaders.*;
+
+/**
+ * Merges any number of jars into one fat jar with every time set to epoch, without inflating or deflating anything.
+ * <p>
+ * Only the central directory of each jar is read, on a pool of threads, and the compressed data of every entry that
+ * makes it into the merged jar is copied across as is with {@link FileChannel#transferTo(long, long,
+ * java.nio.channels.WritableByteChannel)}, under new headers. {@code META-INF/MANIFEST.MF} comes first and every other
+ * entry is sorted by name, so the jar only depends on what's in the inputs and their order.
+ * <p>
+ * When more than one jar has the same file, the {@link Duplicates} policy picks one, unless they're all the same.
+ * Directories are always merged.
+ * With {@link #setMergeServices(boolean)} the {@code META-INF/services} files are concatenated instead, which is the
+ * only time anything is inflated.
+ */
+public class JarMerger {
+    private static final String MANIFEST_DIR = "META-INF/";
+    private static final String MANIFEST = "META-INF/MANIFEST.MF";
+    private static final String SERVICES = "META-INF/services/";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Which of the jars that have the same file it's taken from.
+     */
+    public enum Duplicates {
+        /**
+         * The first jar that has it, like the class path.
+         */
+        FIRST,
+        /**
+         * The last jar that has it.
+         */
+        LAST,
+        /**
+         * None, it's an error for two jars to have different files with the same name. The manifest still comes from
+         * the first jar that has one.
+         */
+        FAIL
+    }
+
+    private final List<File> inputs;
+    private final File output;
+    private final List<PathMatcher> excludes = new ArrayList<>();
+    private Duplicates duplicates = Duplicates.FIRST;
+    private boolean mergeServices = false;
+    private int threads = 1;
+
+    /**
+     * @param inputs the jars to merge, in order of precedence.
+     */
+    public JarMerger(List<File> inputs, File output) {
+        this.inputs = new ArrayList<>(inputs);
+        this.output = Objects.requireNonNull(output);
+        if (this.inputs.isEmpty()) {
+            throw new IllegalArgumentException("Nothing to merge into " + output);
+        }
+    }
+
+    public void setDuplicates(Duplicates duplicates) {
+        this.duplicates = Objects.requireNonNull(duplicates);
+    }
+
+    /**
+     * Leaves out every entry whose name matches glob, such as {@code META-INF/*.SF} or {@code org/bouncycastle/**}.
+     */
+    public void addExclude(String glob) {
+        excludes.add(FileSystems.getDefault().getPathMatcher("glob:" + glob));
+    }
+
+    /**
+     * Whether to concatenate the {@code META-INF/services} files that more than one jar has, in the order of the jars,
+     * instead of picking one. False unless set.
+     */
+    public void setMergeServices(boolean mergeServices) {
+        this.mergeServices = mergeServices;
+    }
+
+    /**
+     * How many central directories to read at once, 1 unless set. The jar is the same whatever this is.
+     */
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1, not " + threads);
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * An input jar, open.
+     */
+    private static final class Input implements Closeable {
+        private final File file;
+        private final FileChannel channel;
+        private CentralDirectory directory;
+
+        private Input(File file) throws IOException {
+            this.file = file;
+            this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * An entry of one of the inputs.
+     */
+    private static final class Source {
+        private final Input input;
+        private final CentralDirectoryEntry entry;
+
+        private Source(Input input, CentralDirectoryEntry entry) {
+            this.input = input;
+            this.entry = entry;
+        }
+    }
+
+    /**
+     * @return how many entries were written.
+     */
+    public int merge() throws IOException {
+        List<Input> opened = new ArrayList<>(inputs.size());
+        try {
+            for (File file : inputs) {
+                opened.add(new Input(file));
+            }
+            readDirectories(opened);
+
+            Map<String, List<Source>> byName = new HashMap<>();
+            for (Input input : opened) {
+                for (CentralDirectoryEntry entry : input.directory.getEntries()) {
+                    if (!isExcluded(entry.getName())) {
+                        byName.computeIfAbsent(entry.getName(), name -> new ArrayList<>())
+                                .add(new Source(input, entry));
+                    }
+                }
+            }
+
+            List<String> names = new ArrayList<>(byName.keySet());
+            names.sort((a, b) -> {
+                int order = Integer.compare(rank(a), rank(b));
+                return 0 != order ? order : a.compareTo(b);
+            });
+
+            try (FileChannel out = FileChannel.open(output.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                write(out, names, byName);
+            }
+            return names.size();
+        } finally {
+            for (Input input : opened) {
+                input.close();
+            }
+        }
+    }
+
+    // the manifest has to come first for JarInputStream to find it.
+    private static int rank(String name) {
+        return MANIFEST_DIR.equals(name) ? 0 : MANIFEST.equals(name) ? 1 : 2;
+    }
+
+    private boolean isExcluded(String name) {
+        if (excludes.isEmpty()) {
+            return false;
+        }
+        Path path = Paths.get(name);
+        for (PathMatcher exclude : excludes) {
+            if (exclude.matches(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void readDirectories(List<Input> opened) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<CentralDirectory>> directories = new ArrayList<>(opened.size());
+            for (Input input : opened) {
+                directories.add(pool.submit(() -> CentralDirectory.read(input.channel)));
+            }
+            for (int i = 0; i < opened.size(); i++) {
+                Input input = opened.get(i);
+                try {
+                    input.directory = directories.get(i).get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted reading " + input.file);
+                } catch (ExecutionException e) {
+                    throw new IOException("Unable to read " + input.file, e.getCause());
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * An entry of the merged jar, where it is in the output and what's in its central directory header.
+     */
+    private static final class Written {
+        private final Source source;
+        private final long offset;
+        private final long crc;
+        private final long compressedSize;
+        private final long size;
+        private final int method;
+
+        private Written(Source source, long offset, long crc, long compressedSize, long size, int method) {
+            this.source = source;
+            this.offset = offset;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.method = method;
+        }
+    }
+
+    private void write(FileChannel out, List<String> names, Map<String, List<Source>> byName) throws IOException {
+        List<Written> written = new ArrayList<>(names.size());
+        for (String name : names) {
+            List<Source> sources = byName.get(name);
+            if (mergeServices && name.startsWith(SERVICES) && !name.endsWith("/") && !allSame(sources)) {
+                written.add(writeMerged(out, sources));
+            } else {
+                written.add(writeRaw(out, choose(name, sources)));
+            }
+        }
+
+        long cenOffset = out.position();
+        for (Written entry : written) {
+            writeFully(out, centralHeader(entry));
+        }
+        writeEnd(out, cenOffset, out.position() - cenOffset, written.size());
+    }
+
+    private Source choose(String name, List<Source> sources) throws ZipException {
+        if (1 == sources.size() || name.endsWith("/") || allSame(sources)) {
+            return sources.get(0);
+        }
+        switch (duplicates) {
+            case FIRST:
+                return sources.get(0);
+            case LAST:
+                return sources.get(sources.size() - 1);
+            case FAIL:
+                // every jar has a manifest of its own.
+                if (MANIFEST.equals(name)) {
+                    return sources.get(0);
+                }
+                throw new ZipException(name + " is different in " + sources.get(0).input.file + " and "
+                        + sources.get(1).input.file);
+            default:
+                throw new IllegalStateException("Unknown duplicates policy " + duplicates);
+        }
+    }
+
+    private static boolean allSame(List<Source> sources) {
+        CentralDirectoryEntry first = sources.get(0).entry;
+        for (Source source : sources) {
+            if (source.entry.getCrc() != first.getCrc() || source.entry.getSize() != first.getSize()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Written writeRaw(FileChannel out, Source source) throws IOException {
+        CentralDirectoryEntry entry = source.entry;
+        checkSize(entry.getName(), entry.getCompressedSize(), entry.getSize());
+
+        long offset = out.position();
+        Written written = new Written(source, offset, entry.getCrc(), entry.getCompressedSize(), entry.getSize(),
+                entry.getMethod());
+        writeFully(out, localHeader(written));
+
+        long position = source.input.directory.getDataOffset(entry);
+        long count = entry.getCompressedSize();
+        while (count > 0) {
+            long copied = source.input.channel.transferTo(position, count, out);
+            if (copied <= 0) {
+                throw new EOFException("Unexpected end of " + source.input.file + " copying " + entry.getName());
+            }
+            position += copied;
+            count -= copied;
+        }
+        return written;
+    }
+
+    /**
+     * Writes the services file every source has, one after another.
+     */
+    private Written writeMerged(FileChannel out, List<Source> sources) throws IOException {
+        ByteArrayOutputStream merged = new ByteArrayOutputStream();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        for (Source source : sources) {
+            if (merged.size() > 0) {
+                merged.write('\n');
+            }
+            try (InputStream in = EntryData.open(source.input.channel, source.input.directory, source.entry)) {
+                int n;
+                while ((n = in.read(buffer)) >= 0) {
+                    merged.write(buffer, 0, n);
+                }
+            }
+        }
+
+        byte[] data = merged.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        byte[] compressed = CompressionEngine.POOLED.deflate(data, data.length, Deflater.DEFAULT_COMPRESSION);
+
+        Written written = new Written(sources.get(0), out.position(), crc.getValue(), compressed.length, data.length,
+                ZipEntry.DEFLATED);
+        writeFully(out, localHeader(written));
+        writeFully(out, ByteBuffer.wrap(compressed));
+        return written;
+    }
+
+    private static void checkSize(String name, long compressedSize, long size) throws ZipException {
+        if (compressedSize >= ZIP64_MAGIC || size >= ZIP64_MAGIC) {
+            throw new ZipException(name + " is too big to merge, it needs zip64 sizes");
+        }
+    }
+
+    private static ByteBuffer localHeader(Written written) throws IOException {
+        CentralDirectoryEntry entry = written.source.entry;
+        byte[] name = name(written.source);
+        byte[] extra = withoutZip64(entry.getExtra());
+
+        ByteBuffer b = ByteBuffer.allocate(LOC_HEADER_SIZE + name.length + extra.length);
+        putInt(b, 0, LOC_SIG);
+        putShort(b, LOC_VERSION, entry.getVersionNeeded());
+        // the sizes are in the header, there's no data descriptor after the data.
+        putShort(b, LOC_FLAGS, entry.getFlags() & ~FLAG_DATA_DESCRIPTOR);
+        putShort(b, LOC_METHOD, written.method);
+        putInt(b, LOC_CRC, written.crc);
+        putInt(b, LOC_COMPRESSED_SIZE, written.compressedSize);
+        putInt(b, LOC_SIZE, written.size);
+        putShort(b, LOC_NAME_LENGTH, name.length);
+        putShort(b, LOC_EXTRA_LENGTH, extra.length);
+        b.position(LOC_HEADER_SIZE);
+        b.put(name).put(extra);
+        normalizeLocalHeader(b, 0);
+        b.rewind();
+        return b;
+    }
+
+    private static ByteBuffer centralHeader(Written written) throws IOException {
+        CentralDirectoryEntry entry = written.source.entry;
+        byte[] name = name(written.source);
+        byte[] extra = withoutZip64(entry.getExtra());
+        byte[] comment = entry.getComment();
+        if (written.offset >= ZIP64_MAGIC) {
+            ByteBuffer zip64 = ByteBuffer.allocate(4 + 8 + extra.length);
+            putShort(zip64, 0, EXTRA_ZIP64);
+            putShort(zip64, 2, 8);
+            putLong(zip64, 4, written.offset);
+            System.arraycopy(extra, 0, zip64.array(), 12, extra.length);
+            extra = zip64.array();
+        }
+
+        ByteBuffer b = ByteBuffer.allocate(CEN_HEADER_SIZE + name.length + extra.length + comment.length);
+        putInt(b, 0, CEN_SIG);
+        putShort(b, CEN_VERSION_MADE_BY, entry.getVersionMadeBy());
+        putShort(b, CEN_VERSION_NEEDED, entry.getVersionNeeded());
+        putShort(b, CEN_FLAGS, entry.getFlags() & ~FLAG_DATA_DESCRIPTOR);
+        putShort(b, CEN_METHOD, written.method);
+        putInt(b, CEN_CRC, written.crc);
+        putInt(b, CEN_COMPRESSED_SIZE, written.compressedSize);
+        putInt(b, CEN_SIZE, written.size);
+        putShort(b, CEN_NAME_LENGTH, name.length);
+        putShort(b, CEN_EXTRA_LENGTH, extra.length);
+        putShort(b, CEN_COMMENT_LENGTH, comment.length);
+        putShort(b, CEN_INTERNAL_ATTRIBUTES, entry.getInternalAttributes());
+        putInt(b, CEN_EXTERNAL_ATTRIBUTES, entry.getExternalAttributes());
+        putInt(b, CEN_LOC_OFFSET, Math.min(written.offset, ZIP64_MAGIC));
+        b.position(CEN_HEADER_SIZE);
+        b.put(name).put(extra).put(comment);
+        normalizeCentralHeader(b, 0);
+        b.rewind();
+        return b;
+    }
+
+    /**
+     * @return the name as it's encoded in the input, which isn't always UTF-8.
+     */
+    private static byte[] name(Source source) throws IOException {
+        ByteBuffer header = CentralDirectory.readFully(source.input.channel, source.entry.getHeaderOffset(),
+                CEN_HEADER_SIZE);
+        int length = getShort(header, CEN_NAME_LENGTH);
+        return CentralDirectory.readFully(source.input.channel, source.entry.getHeaderOffset() + CEN_HEADER_SIZE,
+                length).array();
+    }
+
+    /**
+     * @return extra without its zip64 field, which only ever held sizes and offsets of the input.
+     */
+    static byte[] withoutZip64(byte[] extra) {
+        ByteBuffer b = ByteBuffer.wrap(extra);
+        ByteArrayOutputStream kept = new ByteArrayOutputStream(extra.length);
+        int index = 0;
+        while (index + 4 <= extra.length) {
+            int size = getShort(b, index + 2);
+            if (index + 4 + size > extra.length) {
+                // malformed, keep what's left as it is.
+                break;
+            }
+            if (EXTRA_ZIP64 != getShort(b, index)) {
+                kept.write(extra, index, 4 + size);
+            }
+            index += 4 + size;
+        }
+        kept.write(extra, index, extra.length - index);
+        return kept.size() == extra.length ? extra : kept.toByteArray();
+    }
+
+    private static void writeEnd(FileChannel out, long cenOffset, long cenSize, int count) throws IOException {
+        if (count >= ZIP64_MAGIC_COUNT || cenOffset >= ZIP64_MAGIC || cenSize >= ZIP64_MAGIC) {
+            long offset = out.position();
+            ByteBuffer b = ByteBuffer.allocate(ZIP64_END_HEADER_SIZE + ZIP64_LOCATOR_SIZE);
+            putInt(b, 0, ZIP64_END_SIG);
+            putLong(b, 4, ZIP64_END_HEADER_SIZE - 12);
+            putShort(b, 12, 45);
+            putShort(b, 14, 45);
+            putLong(b, 24, count);
+            putLong(b, ZIP64_END_TOTAL_ENTRIES, count);
+            putLong(b, ZIP64_END_CEN_SIZE, cenSize);
+            putLong(b, ZIP64_END_CEN_OFFSET, cenOffset);
+            putInt(b, ZIP64_END_HEADER_SIZE, ZIP64_LOCATOR_SIG);
+            putLong(b, ZIP64_END_HEADER_SIZE + ZIP64_LOCATOR_END_OFFSET, offset);
+            putInt(b, ZIP64_END_HEADER_SIZE + 16, 1);
+            writeFully(out, b);
+        }
+
+        ByteBuffer end = ByteBuffer.allocate(END_HEADER_SIZE);
+        putInt(end, 0, END_SIG);
+        putShort(end, END_DISK_ENTRIES, Math.min(count, ZIP64_MAGIC_COUNT));
+        putShort(end, END_TOTAL_ENTRIES, Math.min(count, ZIP64_MAGIC_COUNT));
+        putInt(end, END_CEN_SIZE, Math.min(cenSize, ZIP64_MAGIC));
+        putInt(end, END_CEN_OFFSET, Math.min(cenOffset, ZIP64_MAGIC));
+        writeFully(out, end);
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2016, Yahoo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.gradle;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Records a {@code com.yahoo.gradle.Entry} event for every entry, for JDK Mission Control or {@code jfr print}.
+ * Only ever loaded through {@link EntryListener#jfr()}, so the rest of the code doesn't need jdk.jfr.
+ */
+final class JfrEntryListener implements EntryListener {
+
+    @Name("com.yahoo.gradle.Entry")
+    @Label("Zip Entry")
+    @Category("ZipFixer")
+    @Description("An entry written to an archive")
+    static final class EntryEvent extends jdk.jfr.Event {
+        @Label("Name")
+        String name;
+
+        @Label("Size")
+        @DataAmount
+        long size;
+
+        @Label("Bytes Read")
+        @DataAmount
+        long bytesRead;
+
+        @Label("Bytes Written")
+        @DataAmount
+        long bytesWritten;
+
+        @Label("Ratio")
+        @Description("Bytes written over the uncompressed size")
+        double ratio;
+
+        @Label("Read")
+        @Timespan
+        long readNanos;
+
+        @Label("Inflate")
+        @Timespan
+        long inflateNanos;
+
+        @Label("Deflate")
+        @Timespan
+        long deflateNanos;
+
+        @Label("Write")
+        @Timespan
+        long writeNanos;
+    }
+
+    JfrEntryListener() {
+        // fails here, rather than on the first entry, when there's no jdk.jfr.
+        FlightRecorder.register(EntryEvent.class);
+    }
+
+    @Override
+    public void entryWritten(EntryStats stats) {
+        EntryEvent event = new EntryEvent();
+        if (!event.shouldCommit()) {
+            // no recording wants it.
+            return;
+        }
+        event.name = stats.getName();
+        event.size = stats.getSize();
+        event.bytesRead = stats.getBytesRead();
+        event.bytesWritten = stats.getBytesWritten();
+        event.ratio = stats.getRatio();
+        event.readNanos = stats.getReadNanos();
+        event.inflateNanos = stats.getInflateNanos();
+        event.deflateNanos = stats.getDeflateNanos();
+        event.writeNanos = stats.getWriteNanos();
+        event.commit();
+    }
+}
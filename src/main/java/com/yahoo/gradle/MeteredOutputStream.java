@@ -0,0 +1,53 @@
+/*
+ * Copyright 2016, Yahoo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.gradle;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Counts the bytes written through it, and once {@link #timed} is set, the time spent writing them.
+ */
+final class MeteredOutputStream extends FilterOutputStream {
+    boolean timed = false;
+    long bytes = 0;
+    long nanos = 0;
+
+    MeteredOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        long start = timed ? System.nanoTime() : 0;
+        out.write(b);
+        if (timed) {
+            nanos += System.nanoTime() - start;
+        }
+        bytes++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        long start = timed ? System.nanoTime() : 0;
+        out.write(b, off, len);
+        if (timed) {
+            nanos += System.nanoTime() - start;
+        }
+        bytes += len;
+    }
+}
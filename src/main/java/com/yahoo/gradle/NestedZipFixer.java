@@ -0,0 +1,431 @@
+/*
+ * Copyright 2016, Yahoo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.gradle;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarInputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Does what {@link ZipFixer} does, and also fixes the archives nested inside the jar, such as the
+ * {@code BOOT-INF/lib/*.jar} of a Spring Boot jar, and the archives nested inside those.
+ * <p>
+ * Each nested archive is spooled to a temporary file and fixed on a thread pool, while the calling thread carries on
+ * reading. The entries are written in their original order, each one once everything ahead of it is done. Nested
+ * archives are only ever on disk, at most twice as many of them as there are threads, and no more than
+ * {@link #IN_FLIGHT_BYTES} of the other entries are held waiting for them, so memory stays bounded whatever is in the
+ * jar.
+ * <p>
+ * Archives nested more than {@link #MAX_DEPTH} deep, and entries that are named like an archive but aren't one, are
+ * copied as they are.
+ */
+public class NestedZipFixer implements Closeable {
+    static final int MAX_DEPTH = 8;
+    static final long IN_FLIGHT_BYTES = 64L * 1024 * 1024;
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final List<String> ARCHIVE_SUFFIXES = Arrays.asList(".jar", ".war", ".ear", ".zip");
+    // what every zip with at least one entry starts with.
+    private static final int LOCAL_FILE_HEADER = 0x04034b50;
+
+    private JarInputStream jis;
+    private ZipFixingOutputStream zos;
+    // 0 to fix nested archives on the calling thread.
+    private final int threads;
+    private final int depth;
+    private final long inFlightLimit;
+    private int level = Deflater.DEFAULT_COMPRESSION;
+    private CompressionEngine engine = CompressionEngine.POOLED;
+
+    private ExecutorService pool;
+    private Path spool;
+    private final Deque<Item> pending = new ArrayDeque<>();
+    private long inFlightBytes = 0;
+    private int inFlightArchives = 0;
+
+    public NestedZipFixer(String inputFile, String outputFile) throws IOException {
+        this(new File(inputFile), new File(outputFile));
+    }
+
+    public NestedZipFixer(File inputFile, File outputFile) throws IOException {
+        this(inputFile, outputFile, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param threads how many nested archives to fix at once.
+     */
+    public NestedZipFixer(File inputFile, File outputFile, int threads) throws IOException {
+        Objects.requireNonNull(inputFile);
+        Objects.requireNonNull(outputFile);
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1, not " + threads);
+        }
+        this.threads = threads;
+        this.depth = 0;
+        this.inFlightLimit = IN_FLIGHT_BYTES;
+        jis = new JarInputStream(new FileInputStream(inputFile));
+        zos = new ZipFixingOutputStream(new FileOutputStream(outputFile));
+    }
+
+    /**
+     * Fixes a jar as it streams from in to out, see {@link ZipFixer#ZipFixer(InputStream, OutputStream)}.
+     */
+    public NestedZipFixer(InputStream in, OutputStream out) throws IOException {
+        this(new JarInputStream(Objects.requireNonNull(in)), Objects.requireNonNull(out),
+                Runtime.getRuntime().availableProcessors(), 0, IN_FLIGHT_BYTES);
+    }
+
+    /**
+     * @param depth how deep the jar being read is nested, 0 for the outermost.
+     */
+    NestedZipFixer(JarInputStream i, OutputStream o, int threads, int depth, long inFlightLimit) throws IOException {
+        this.jis = i;
+        this.zos = new ZipFixingOutputStream(o);
+        this.threads = threads;
+        this.depth = depth;
+        this.inFlightLimit = inFlightLimit;
+    }
+
+    /**
+     * @param level the level entries are deflated at, nested archives included, from
+     *              {@link Deflater#DEFAULT_COMPRESSION} to {@link Deflater#BEST_COMPRESSION}.
+     */
+    public void setLevel(int level) {
+        this.level = CompressionEngine.checkLevel(level);
+    }
+
+    /**
+     * Where the Deflaters entries are compressed with come from, {@link CompressionEngine#POOLED} unless set.
+     */
+    public void setCompressionEngine(CompressionEngine engine) {
+        this.engine = Objects.requireNonNull(engine);
+    }
+
+    /**
+     * One entry waiting for the entries ahead of it to be written.
+     */
+    private static final class Item {
+        private final ZipEntry entry;
+        // for an entry that isn't a nested archive.
+        private final ByteArrayOutputStream data;
+        // for a nested archive, the original and what it was fixed to, which is the original if it wasn't a zip.
+        private final Path original;
+        private final Future<Path> fixed;
+
+        private Item(ZipEntry entry, ByteArrayOutputStream data, Path original, Future<Path> fixed) {
+            this.entry = entry;
+            this.data = data;
+            this.original = original;
+            this.fixed = fixed;
+        }
+
+        private boolean isDone() {
+            return null == fixed || fixed.isDone();
+        }
+    }
+
+    public void adjustDatesToEpoch() throws IOException {
+        zos.setCompressionEngine(engine, level);
+        spool = Files.createTempDirectory("nested");
+        pool = threads > 0 ? Executors.newFixedThreadPool(threads) : null;
+
+        try {
+            writeManifest();
+
+            JarEntry nextJarEntry;
+            while (null != (nextJarEntry = jis.getNextJarEntry())) {
+                read(nextJarEntry);
+            }
+            writeCompleted(true);
+        } finally {
+            shutdown();
+        }
+
+        close();
+    }
+
+    private void writeManifest() throws IOException {
+        Manifest manifest = jis.getManifest();
+        if (null != manifest) {
+            // nothing is waiting yet, so it can go straight out.
+            zos.putNextEntry(new ZipEntry(JarFile.MANIFEST_NAME));
+            manifest.write(zos);
+        }
+    }
+
+    /**
+     * Reads the current entry of jis, writing it once the entries ahead of it have been.
+     */
+    private void read(ZipEntry entry) throws IOException {
+        // copy it before reading, reading fills in the sizes which changes how it's written.
+        ZipEntry copy = new ZipEntry(entry);
+        if (depth < MAX_DEPTH && isArchive(copy.getName())) {
+            readArchive(copy);
+        } else {
+            readEntry(copy);
+        }
+        writeCompleted(false);
+    }
+
+    private void readEntry(ZipEntry entry) throws IOException {
+        if (pending.isEmpty()) {
+            zos.putNextEntry(entry);
+            ZipFixer.copyEntryBytes(jis, zos);
+            return;
+        }
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        byte[] chunk = new byte[CHUNK_SIZE];
+        int read;
+        while (-1 != (read = jis.read(chunk))) {
+            data.write(chunk, 0, read);
+            if (inFlightBytes + data.size() > inFlightLimit) {
+                // too much to hold on to, so wait for everything ahead of it and stream the rest.
+                writeCompleted(true);
+                zos.putNextEntry(entry);
+                data.writeTo(zos);
+                ZipFixer.copyEntryBytes(jis, zos);
+                return;
+            }
+        }
+
+        pending.add(new Item(entry, data, null, null));
+        inFlightBytes += data.size();
+    }
+
+    private void readArchive(ZipEntry entry) throws IOException {
+        Path original = Files.createTempFile(spool, "original", ".zip");
+        Files.copy(jis, original, StandardCopyOption.REPLACE_EXISTING);
+
+        Callable<Path> fix = () -> fixArchive(original);
+        Future<Path> fixed;
+        if (null == pool) {
+            FutureTask<Path> task = new FutureTask<>(fix);
+            task.run();
+            fixed = task;
+        } else {
+            fixed = pool.submit(fix);
+        }
+
+        pending.add(new Item(entry, null, original, fixed));
+        inFlightArchives++;
+        while (inFlightArchives > 2 * Math.max(1, threads)) {
+            writeHead();
+        }
+    }
+
+    /**
+     * @return original fixed, or original if it isn't a zip.
+     */
+    private Path fixArchive(Path original) throws IOException {
+        if (!isZip(original)) {
+            return original;
+        }
+
+        Path fixed = Files.createTempFile(spool, "fixed", ".zip");
+        // one level down, fixed on this thread.
+        try (NestedZipFixer inner = new NestedZipFixer(new JarInputStream(Files.newInputStream(original)),
+                Files.newOutputStream(fixed), 0, depth + 1, inFlightLimit)) {
+            inner.setLevel(level);
+            inner.setCompressionEngine(engine);
+            inner.adjustDatesToEpoch();
+        }
+        return fixed;
+    }
+
+    /**
+     * Writes out every entry at the head of the queue that is ready. When wait is true, waits for all of them.
+     */
+    private void writeCompleted(boolean wait) throws IOException {
+        while (!pending.isEmpty() && (wait || pending.peek().isDone())) {
+            writeHead();
+        }
+    }
+
+    private void writeHead() throws IOException {
+        Item head = pending.remove();
+        if (null == head.fixed) {
+            zos.putNextEntry(head.entry);
+            head.data.writeTo(zos);
+            inFlightBytes -= head.data.size();
+            return;
+        }
+
+        inFlightArchives--;
+        Path fixed = waitFor(head);
+        try {
+            writeArchive(head.entry, head.original, fixed);
+        } finally {
+            Files.deleteIfExists(head.original);
+            Files.deleteIfExists(fixed);
+        }
+    }
+
+    private void writeArchive(ZipEntry entry, Path original, Path fixed) throws IOException {
+        if (fixed.equals(original)) {
+            zos.putNextEntry(entry);
+            Files.copy(original, zos);
+            return;
+        }
+
+        // the sizes and crc of the original don't apply any more.
+        ZipEntry written = new ZipEntry(entry.getName());
+        written.setMethod(entry.getMethod());
+        if (null != entry.getExtra()) {
+            written.setExtra(entry.getExtra());
+        }
+        if (null != entry.getComment()) {
+            written.setComment(entry.getComment());
+        }
+        if (ZipEntry.STORED == entry.getMethod()) {
+            // a stored entry needs them up front, such as the nested jars of a Spring Boot jar.
+            long size = Files.size(fixed);
+            written.setSize(size);
+            written.setCompressedSize(size);
+            written.setCrc(crc(fixed));
+        }
+
+        zos.putNextEntry(written);
+        Files.copy(fixed, zos);
+    }
+
+    private static Path waitFor(Item item) throws IOException {
+        try {
+            return item.fixed.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted fixing " + item.entry.getName());
+        } catch (ExecutionException e) {
+            throw new IOException("Unable to fix nested archive " + item.entry.getName(), e.getCause());
+        }
+    }
+
+    static boolean isArchive(String name) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        for (String suffix : ARCHIVE_SUFFIXES) {
+            if (lower.endsWith(suffix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isZip(Path file) throws IOException {
+        byte[] magic = new byte[4];
+        try (InputStream in = Files.newInputStream(file)) {
+            int read = 0;
+            int n;
+            while (read < magic.length && -1 != (n = in.read(magic, read, magic.length - read))) {
+                read += n;
+            }
+            if (read < magic.length) {
+                return false;
+            }
+        }
+        int signature = (magic[0] & 0xff) | (magic[1] & 0xff) << 8 | (magic[2] & 0xff) << 16 | (magic[3] & 0xff) << 24;
+        return LOCAL_FILE_HEADER == signature;
+    }
+
+    private static long crc(Path file) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[CHUNK_SIZE];
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while (-1 != (read = in.read(buffer))) {
+                crc.update(buffer, 0, read);
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Stops the pool, and deletes whatever is left in the spool directory once nothing is writing to it any more.
+     */
+    private void shutdown() throws IOException {
+        if (null != pool) {
+            pool.shutdownNow();
+            try {
+                while (!pool.awaitTermination(1, TimeUnit.SECONDS)) {
+                    // still fixing an archive.
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            pool = null;
+        }
+
+        if (null != spool) {
+            try (Stream<Path> files = Files.walk(spool)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                    Files.deleteIfExists(file);
+                }
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            spool = null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            shutdown();
+        } finally {
+            if (null != jis) {
+                jis.close();
+                jis = null;
+            }
+
+            if (null != zos) {
+                zos.close();
+                zos = null;
+            }
+        }
+    }
+}
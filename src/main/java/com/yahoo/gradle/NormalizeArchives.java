@@ -0,0 +1,185 @@
+/*
+ * Copyright 2016, Yahoo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.gradle;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.Incubating;
+import org.gradle.api.UncheckedIOException;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.SkipWhenEmpty;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+import org.gradle.workers.WorkQueue;
+import org.gradle.workers.WorkerExecutor;
+
+import javax.inject.Inject;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.zip.Deflater;
+
+/**
+ * Fixes archives that were built elsewhere, such as third party jars, distribution zips or the outputs of other
+ * plugins, writing each one to {@link #getDestinationDir()} under its own name.
+ * <p>
+ * Every archive is fixed as a separate unit of work on the Gradle Worker API, so they are fixed in parallel, up to
+ * {@code --max-workers} at a time, alongside other tasks.
+ * <pre>
+ * task normalizeLibs(type: com.yahoo.gradle.NormalizeArchives) {
+ *     archives = configurations.runtime
+ *     destinationDir = file("$buildDir/normalized")
+ * }
+ * </pre>
+ */
+@CacheableTask
+@Incubating
+public class NormalizeArchives extends DefaultTask {
+    private final WorkerExecutor workerExecutor;
+    private FileCollection archives;
+    private File destinationDir;
+    private FixMode mode = FixMode.REWRITE;
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+
+    @Inject
+    public NormalizeArchives(WorkerExecutor workerExecutor) {
+        this.workerExecutor = workerExecutor;
+        this.archives = getProject().files();
+    }
+
+    /**
+     * The archives to fix. Only their names and contents matter, not where they are.
+     */
+    @InputFiles
+    @SkipWhenEmpty
+    @PathSensitive(PathSensitivity.NAME_ONLY)
+    public FileCollection getArchives() {
+        return archives;
+    }
+
+    /**
+     * @param archives anything {@link org.gradle.api.Project#files(Object...)} accepts.
+     */
+    public void setArchives(Object archives) {
+        this.archives = getProject().files(archives);
+    }
+
+    @OutputDirectory
+    public File getDestinationDir() {
+        return destinationDir;
+    }
+
+    /**
+     * @param destinationDir anything {@link org.gradle.api.Project#file(Object)} accepts.
+     */
+    public void setDestinationDir(Object destinationDir) {
+        this.destinationDir = getProject().file(destinationDir);
+    }
+
+    /**
+     * How to fix each archive, {@link FixMode#REWRITE} by default. {@link FixMode#IN_PLACE} still writes to
+     * {@link #getDestinationDir()}, it copies each archive there and fixes the copy.
+     */
+    @Input
+    public FixMode getMode() {
+        return mode;
+    }
+
+    public void setMode(FixMode mode) {
+        this.mode = Objects.requireNonNull(mode);
+    }
+
+    /**
+     * The level entries are deflated at, see {@link DatelessJar#getCompressionLevel()}.
+     */
+    @Input
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = CompressionEngine.checkLevel(compressionLevel);
+    }
+
+    @TaskAction
+    public void normalize() {
+        Map<String, File> outputs = new HashMap<>();
+        for (File archive : archives.getFiles()) {
+            File previous = outputs.put(archive.getName(), archive);
+            if (null != previous) {
+                throw new GradleException("Both " + previous + " and " + archive + " would be written to "
+                        + new File(destinationDir, archive.getName()));
+            }
+        }
+
+        // archives that were removed or renamed since the last run mustn't leave their old outputs behind.
+        File[] stale = destinationDir.listFiles();
+        if (null != stale) {
+            getProject().delete((Object[]) stale);
+        }
+
+        WorkQueue queue = workerExecutor.noIsolation();
+        for (File archive : archives.getFiles()) {
+            queue.submit(Normalize.class, parameters -> {
+                parameters.getInput().set(archive);
+                parameters.getOutput().set(new File(destinationDir, archive.getName()));
+                parameters.getMode().set(mode);
+                parameters.getCompressionLevel().set(compressionLevel);
+            });
+        }
+        queue.await();
+    }
+
+    /**
+     * Fixes one archive, on a Gradle worker thread.
+     */
+    public abstract static class Normalize implements WorkAction<Normalize.Parameters> {
+        /**
+         * What to fix and how.
+         */
+        public interface Parameters extends WorkParameters {
+            RegularFileProperty getInput();
+
+            RegularFileProperty getOutput();
+
+            Property<FixMode> getMode();
+
+            Property<Integer> getCompressionLevel();
+        }
+
+        @Override
+        public void execute() {
+            File input = getParameters().getInput().get().getAsFile();
+            try {
+                getParameters().getMode().get().fix(input, getParameters().getOutput().get().getAsFile(),
+                        getParameters().getCompressionLevel().get());
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to normalize " + input, e);
+            }
+        }
+    }
+}
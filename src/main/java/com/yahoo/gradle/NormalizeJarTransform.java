@@ -0,0 +1,120 @@
+/*
+ * Copyright 2016, Yahoo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.gradle;
+
+import org.gradle.api.Incubating;
+import org.gradle.api.UncheckedIOException;
+import org.gradle.api.artifacts.dsl.DependencyHandler;
+import org.gradle.api.artifacts.transform.InputArtifact;
+import org.gradle.api.artifacts.transform.TransformAction;
+import org.gradle.api.artifacts.transform.TransformOutputs;
+import org.gradle.api.artifacts.transform.TransformParameters;
+import org.gradle.api.attributes.Attribute;
+import org.gradle.api.file.FileSystemLocation;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Objects;
+import java.util.zip.Deflater;
+
+/**
+ * An artifact transform that fixes resolved jars. Gradle runs it once for each jar with the same contents and keeps
+ * the result in its transform cache, so every project in the build that asks for the fixed jars shares them.
+ * <pre>
+ * com.yahoo.gradle.NormalizeJarTransform.register(dependencies)
+ *
+ * task bundle(type: Zip) {
+ *     from configurations.runtime.incoming.artifactView {
+ *         attributes { attribute(com.yahoo.gradle.NormalizeJarTransform.NORMALIZED, true) }
+ *     }.files
+ * }
+ * </pre>
+ * Anything that isn't an archive, such as a directory of classes from another project, is passed through as is.
+ */
+@Incubating
+public abstract class NormalizeJarTransform implements TransformAction<NormalizeJarTransform.Parameters> {
+    /**
+     * Whether the times in an artifact have been fixed.
+     */
+    public static final Attribute<Boolean> NORMALIZED = Attribute.of("com.yahoo.gradle.normalized", Boolean.class);
+
+    /**
+     * How to fix each jar.
+     */
+    public interface Parameters extends TransformParameters {
+        @Input
+        Property<FixMode> getMode();
+
+        @Input
+        Property<Integer> getCompressionLevel();
+    }
+
+    /**
+     * The jar to fix. Only its name and contents matter, not where it is.
+     */
+    @InputArtifact
+    @PathSensitive(PathSensitivity.NAME_ONLY)
+    public abstract Provider<FileSystemLocation> getInputArtifact();
+
+    /**
+     * Registers the transform, with {@link FixMode#REWRITE} at the default level.
+     */
+    public static void register(DependencyHandler dependencies) {
+        register(dependencies, FixMode.REWRITE, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Registers the transform from jars that aren't {@link #NORMALIZED} to ones that are, fixing them with mode at
+     * level.
+     */
+    public static void register(DependencyHandler dependencies, FixMode mode, int level) {
+        Objects.requireNonNull(mode);
+        CompressionEngine.checkLevel(level);
+        dependencies.getAttributesSchema().attribute(NORMALIZED);
+        for (String type : new String[] {"jar", "war", "zip"}) {
+            dependencies.getArtifactTypes().maybeCreate(type).getAttributes().attribute(NORMALIZED, false);
+        }
+        dependencies.registerTransform(NormalizeJarTransform.class, spec -> {
+            spec.getFrom().attribute(NORMALIZED, false);
+            spec.getTo().attribute(NORMALIZED, true);
+            spec.parameters(parameters -> {
+                parameters.getMode().set(mode);
+                parameters.getCompressionLevel().set(level);
+            });
+        });
+    }
+
+    @Override
+    public void transform(TransformOutputs outputs) {
+        File input = getInputArtifact().get().getAsFile();
+        if (!input.isFile() || !NestedZipFixer.isArchive(input.getName())) {
+            outputs.file(input);
+            return;
+        }
+
+        File output = outputs.file(input.getName());
+        try {
+            getParameters().getMode().get().fix(input, output, getParameters().getCompressionLevel().get());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to normalize " + input, e);
+        }
+    }
+}
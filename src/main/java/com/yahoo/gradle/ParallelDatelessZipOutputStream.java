@@ -0,0 +1,644 @@
+/*
+ * Copyright 2016, Yahoo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.gradle;
+
+import org.apache.tools.zip.UnicodeCommentExtraField;
+import org.apache.tools.zip.UnicodePathExtraField;
+import org.apache.tools.zip.Zip64ExtendedInformationExtraField;
+import org.apache.tools.zip.Zip64Mode;
+import org.apache.tools.zip.Zip64RequiredException;
+import org.apache.tools.zip.ZipEightByteInteger;
+import org.apache.tools.zip.ZipEncoding;
+import org.apache.tools.zip.ZipEncodingHelper;
+import org.apache.tools.zip.ZipEntry;
+import org.apache.tools.zip.ZipShort;
+import org.apache.tools.zip.ZipUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import static com.yahoo.gradle.ZipHeaders.*;
+
+/**
+ * A {@link DatelessZipOutputStream} that deflates entries on a pool of threads.
+ * <p>
+ * Each entry is buffered as it is written, and deflated on the pool when it's closed. Finished entries are written
+ * out in the order they were added, as soon as every entry before them is done. An entry that grows past
+ * {@link #STREAMING_THRESHOLD} is deflated on the calling thread as it's written instead, and the caller blocks once
+ * {@link #IN_FLIGHT_BYTES} are waiting on the pool, so memory stays bounded however big the archive is.
+ * <p>
+ * The headers are laid out the way ant's {@link org.apache.tools.zip.ZipOutputStream} lays them out when it writes
+ * to a file, down to the zip64 extra fields it reserves and then doesn't need, and zlib's output doesn't depend on how
+ * its input is split up. So the archive is byte for byte the same as the one {@link DatelessZipOutputStream} writes on
+ * a single thread, whatever the thread count.
+ */
+public class ParallelDatelessZipOutputStream extends DatelessZipOutputStream {
+    static final int STREAMING_THRESHOLD = 8 * 1024 * 1024;
+    static final long IN_FLIGHT_BYTES = 64L * 1024 * 1024;
+
+    // what ant puts in the version fields.
+    private static final int INITIAL_VERSION = 10;
+    private static final int DATA_DESCRIPTOR_MIN_VERSION = 20;
+    private static final int ZIP64_MIN_VERSION = 45;
+    private static final ZipShort ZIP64_EXTRA = new ZipShort(EXTRA_ZIP64);
+
+    private final FileChannel channel;
+    private final ExecutorService pool;
+    private final int streamingThreshold;
+    private final long inFlightLimit;
+
+    private final Deque<Pending> pending = new ArrayDeque<>();
+    private final List<ZipEntry> entries = new ArrayList<>();
+    private final List<Long> offsets = new ArrayList<>();
+    private long inFlightBytes = 0;
+    private boolean hasUsedZip64 = false;
+    private Current current;
+    private boolean finished = false;
+    private CompressionEngine engine = CompressionEngine.POOLED;
+
+    public ParallelDatelessZipOutputStream(File destination, int threads) throws IOException {
+        this(destination, threads, STREAMING_THRESHOLD, IN_FLIGHT_BYTES);
+    }
+
+    ParallelDatelessZipOutputStream(File destination, int threads, int streamingThreshold, long inFlightLimit)
+            throws IOException {
+        // ant writes its empty archive to nowhere, all of the real writing happens here.
+        super(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        });
+        this.channel = FileChannel.open(destination.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        this.pool = Executors.newFixedThreadPool(threads,
+                new DaemonThreadFactory("ParallelDatelessZipOutputStream " + destination.getName()));
+        this.streamingThreshold = streamingThreshold;
+        this.inFlightLimit = inFlightLimit;
+    }
+
+    /**
+     * Where the Deflaters entries are compressed with come from, {@link CompressionEngine#POOLED} unless set.
+     */
+    public void setCompressionEngine(CompressionEngine engine) {
+        this.engine = Objects.requireNonNull(engine);
+    }
+
+    /**
+     * The entry being written.
+     */
+    private static final class Current {
+        private final ZipEntry entry;
+        private final int level;
+        private final EntryBuffer data = new EntryBuffer();
+        private final CRC32 crc = new CRC32();
+        private long size = 0;
+        private boolean zip64Extra;
+        // until the method has been chosen, see DatelessZipOutputStream.setAdaptiveCompression.
+        private boolean sampling;
+
+        // only used once the entry is too big to buffer.
+        private boolean streaming = false;
+        private long headerOffset;
+        private long dataOffset;
+        private Deflater deflater;
+
+        // only while measuring, see setEntryListener.
+        private long deflateNanos;
+        private long writeNanos;
+
+        private Current(ZipEntry entry, int level) {
+            this.entry = entry;
+            this.level = level;
+        }
+    }
+
+    /**
+     * An entry waiting on the pool.
+     */
+    private static final class Pending {
+        private final Current entry;
+        private final Future<byte[]> data;
+
+        private Pending(Current entry, Future<byte[]> data) {
+            this.entry = entry;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Gives access to the buffer without copying it.
+     */
+    private static final class EntryBuffer extends ByteArrayOutputStream {
+        private byte[] buffer() {
+            return buf;
+        }
+    }
+
+    @Override
+    public boolean isSeekable() {
+        // the output is laid out as if it were.
+        return true;
+    }
+
+    @Override
+    public void putNextEntry(ZipEntry archiveEntry) throws IOException {
+        checkNotFinished();
+        if (null != current) {
+            closeEntry();
+        }
+
+        boolean adaptive = isAdaptive(archiveEntry);
+        ZipEntry entry = fixTimes(archiveEntry);
+
+        Zip64Mode mode = getUseZip64();
+        if (Zip64Mode.Never == mode && (entry.getSize() >= ZIP64_MAGIC || entry.getCompressedSize() >= ZIP64_MAGIC)) {
+            throw new Zip64RequiredException(entry.getName() + "'s size exceeds the limit of 4GByte.");
+        }
+
+        current = new Current(entry, getLevel());
+        current.sampling = adaptive;
+
+        // ant reserves a zip64 extra field whenever it doesn't know the size yet.
+        current.zip64Extra = Zip64Mode.Always == mode || entry.getSize() >= ZIP64_MAGIC
+                || entry.getCompressedSize() >= ZIP64_MAGIC || (-1 == entry.getSize() && Zip64Mode.Never != mode);
+        if (current.zip64Extra) {
+            long size = STORED == entry.getMethod() && -1 != entry.getSize() ? entry.getSize() : 0;
+            setZip64Sizes(entry, size, size);
+        }
+
+        if (UnicodeExtraFieldPolicy.NEVER != getCreateUnicodeExtraFields()) {
+            addUnicodeExtraFields(entry);
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int offset, int length) throws IOException {
+        if (null == current) {
+            throw new IllegalStateException("No current entry");
+        }
+
+        current.crc.update(b, offset, length);
+        current.size += length;
+
+        if (current.streaming) {
+            stream(b, offset, length);
+            return;
+        }
+
+        current.data.write(b, offset, length);
+        if (current.sampling && current.data.size() >= AdaptiveCompression.SAMPLE_SIZE) {
+            chooseMethod(current);
+        }
+        // not until the method is known, it has to be decided on the same sample as DatelessZipOutputStream's.
+        if (!current.sampling && current.data.size() > streamingThreshold) {
+            startStreaming();
+        }
+    }
+
+    private static void chooseMethod(Current entry) {
+        entry.sampling = false;
+        if (AdaptiveCompression.isCompressed(entry.entry.getName(), entry.data.buffer(), entry.data.size())) {
+            entry.entry.setMethod(STORED);
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void closeEntry() throws IOException {
+        checkNotFinished();
+        if (null == current) {
+            throw new IOException("No current entry to close");
+        }
+
+        Current closing = current;
+        current = null;
+        if (closing.sampling) {
+            chooseMethod(closing);
+        }
+
+        if (closing.streaming) {
+            finishStreaming(closing);
+            return;
+        }
+
+        final byte[] data = closing.data.buffer();
+        final int length = closing.data.size();
+        final boolean measured = isMeasured();
+        final CompressionEngine compression = engine;
+        Future<byte[]> compressed = pool.submit(() -> {
+            long start = measured ? System.nanoTime() : 0;
+            byte[] bytes = DEFLATED == closing.entry.getMethod() ? compression.deflate(data, length, closing.level)
+                    : Arrays.copyOf(data, length);
+            if (measured) {
+                // seen by the writing thread through the future.
+                closing.deflateNanos = System.nanoTime() - start;
+            }
+            return bytes;
+        });
+
+        pending.add(new Pending(closing, compressed));
+        inFlightBytes += length;
+
+        writeCompleted(false);
+        while (inFlightBytes > inFlightLimit) {
+            writeHead();
+        }
+    }
+
+    @Override
+    public void finish() throws IOException {
+        checkNotFinished();
+        if (null != current) {
+            closeEntry();
+        }
+
+        writeCompleted(true);
+        writeCentralDirectory();
+        finished = true;
+        channel.close();
+        pool.shutdown();
+
+        super.finish();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            pool.shutdownNow();
+            channel.close();
+        }
+    }
+
+    /**
+     * Writes out every entry at the head of the queue that has been compressed. When wait is true, waits for all of
+     * them.
+     */
+    private void writeCompleted(boolean wait) throws IOException {
+        while (!pending.isEmpty() && (wait || pending.peek().data.isDone())) {
+            writeHead();
+        }
+    }
+
+    private void writeHead() throws IOException {
+        Pending head = pending.remove();
+        Current entry = head.entry;
+        byte[] data;
+        try {
+            data = head.data.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted compressing " + entry.entry.getName());
+        } catch (ExecutionException e) {
+            throw new IOException("Unable to compress " + entry.entry.getName(), e.getCause());
+        }
+        inFlightBytes -= entry.size;
+
+        long start = isMeasured() ? System.nanoTime() : 0;
+        long offset = channel.position();
+        writeFully(ByteBuffer.wrap(closeEntry(entry, data.length)));
+        writeFully(ByteBuffer.wrap(data));
+        entries.add(entry.entry);
+        offsets.add(offset);
+        if (isMeasured()) {
+            entryWritten(entry.entry, entry.size, entry.deflateNanos, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Switches the current entry over to being compressed on this thread as it's written, once everything ahead of
+     * it is out.
+     */
+    private void startStreaming() throws IOException {
+        writeCompleted(true);
+
+        current.streaming = true;
+        current.headerOffset = channel.position();
+        // the header is written again once the sizes are known, which doesn't change its length.
+        writeFully(ByteBuffer.wrap(localHeader(current.entry, current.zip64Extra, false)));
+        current.dataOffset = channel.position();
+
+        if (DEFLATED == current.entry.getMethod()) {
+            current.deflater = engine.acquire(current.level);
+        }
+
+        byte[] buffered = current.data.buffer();
+        int length = current.data.size();
+        stream(buffered, 0, length);
+        current.data.reset();
+    }
+
+    private void stream(byte[] b, int offset, int length) throws IOException {
+        long start = isMeasured() ? System.nanoTime() : 0;
+        if (null == current.deflater) {
+            writeFully(ByteBuffer.wrap(b, offset, length));
+            if (isMeasured()) {
+                current.writeNanos += System.nanoTime() - start;
+            }
+            return;
+        }
+
+        current.deflater.setInput(b, offset, length);
+        byte[] buffer = new byte[64 * 1024];
+        while (!current.deflater.needsInput()) {
+            int n = current.deflater.deflate(buffer);
+            writeFully(ByteBuffer.wrap(buffer, 0, n));
+        }
+        if (isMeasured()) {
+            // the writes are interleaved with deflating, like they are in ant.
+            current.deflateNanos += System.nanoTime() - start;
+        }
+    }
+
+    private void finishStreaming(Current closing) throws IOException {
+        long start = isMeasured() ? System.nanoTime() : 0;
+        if (null != closing.deflater) {
+            try {
+                closing.deflater.finish();
+                byte[] buffer = new byte[64 * 1024];
+                while (!closing.deflater.finished()) {
+                    int n = closing.deflater.deflate(buffer);
+                    writeFully(ByteBuffer.wrap(buffer, 0, n));
+                }
+            } finally {
+                engine.release(closing.deflater);
+            }
+        }
+
+        ByteBuffer header = ByteBuffer.wrap(closeEntry(closing, channel.position() - closing.dataOffset));
+        while (header.hasRemaining()) {
+            channel.write(header, closing.headerOffset + header.position());
+        }
+        entries.add(closing.entry);
+        offsets.add(closing.headerOffset);
+        if (isMeasured()) {
+            closing.deflateNanos += System.nanoTime() - start;
+            entryWritten(closing.entry, closing.size, closing.deflateNanos, closing.writeNanos);
+        }
+    }
+
+    /**
+     * Does what ant's closeEntry does once it knows the sizes and crc.
+     *
+     * @return the local header as it ends up after ant has gone back and filled in the sizes.
+     */
+    private byte[] closeEntry(Current closing, long compressedSize) throws IOException {
+        ZipEntry entry = closing.entry;
+        entry.setSize(closing.size);
+        entry.setCompressedSize(compressedSize);
+        entry.setCrc(closing.crc.getValue());
+
+        Zip64Mode mode = getUseZip64();
+        boolean needsZip64 = Zip64Mode.Always == mode || closing.size >= ZIP64_MAGIC
+                || compressedSize >= ZIP64_MAGIC;
+        if (needsZip64 && Zip64Mode.Never == mode) {
+            throw new Zip64RequiredException(entry.getName() + "'s size exceeds the limit of 4GByte.");
+        }
+
+        if (closing.zip64Extra) {
+            setZip64Sizes(entry, closing.size, compressedSize);
+        }
+
+        byte[] header = localHeader(entry, closing.zip64Extra, needsZip64);
+
+        if (closing.zip64Extra) {
+            if (needsZip64) {
+                hasUsedZip64 = true;
+            } else {
+                // the local header keeps the extra field, the central directory doesn't get it.
+                entry.removeExtraField(ZIP64_EXTRA);
+            }
+        }
+
+        return header;
+    }
+
+    private static void setZip64Sizes(ZipEntry entry, long size, long compressedSize) {
+        Zip64ExtendedInformationExtraField z64 = (Zip64ExtendedInformationExtraField) entry.getExtraField(ZIP64_EXTRA);
+        if (null == z64) {
+            z64 = new Zip64ExtendedInformationExtraField();
+        }
+        z64.setSize(new ZipEightByteInteger(size));
+        z64.setCompressedSize(new ZipEightByteInteger(compressedSize));
+        // also makes ant serialize the extra fields again.
+        entry.addAsFirstExtraField(z64);
+    }
+
+    private void addUnicodeExtraFields(ZipEntry entry) throws IOException {
+        boolean always = UnicodeExtraFieldPolicy.ALWAYS == getCreateUnicodeExtraFields();
+        if (always || !canEncode(entry.getName())) {
+            ByteBuffer name = entryEncoding(entry).encode(entry.getName());
+            entry.addExtraField(new UnicodePathExtraField(entry.getName(), name.array(), name.arrayOffset(),
+                    name.limit() - name.position()));
+        }
+
+        String comment = entry.getComment();
+        if (null != comment && !comment.isEmpty() && (always || !canEncode(comment))) {
+            ByteBuffer bytes = entryEncoding(entry).encode(comment);
+            entry.addExtraField(new UnicodeCommentExtraField(comment, bytes.array(), bytes.arrayOffset(),
+                    bytes.limit() - bytes.position()));
+        }
+    }
+
+    private byte[] localHeader(ZipEntry entry, boolean zip64Extra, boolean needsZip64) throws IOException {
+        ByteBuffer name = entryEncoding(entry).encode(entry.getName());
+        int nameLength = name.limit() - name.position();
+        byte[] extra = entry.getLocalFileDataExtra();
+
+        ByteBuffer b = ByteBuffer.allocate(LOC_HEADER_SIZE + nameLength + extra.length);
+        putInt(b, 0, LOC_SIG);
+        putShort(b, LOC_VERSION, zip64Extra && needsZip64 ? ZIP64_MIN_VERSION : INITIAL_VERSION);
+        putShort(b, LOC_FLAGS, flags(entry));
+        putShort(b, LOC_METHOD, entry.getMethod());
+        ZipUtil.toDosTime(entry.getTime(), b.array(), LOC_TIME);
+        if (entry.getSize() >= 0) {
+            putInt(b, LOC_CRC, entry.getCrc());
+            boolean magic = zip64Extra && needsZip64;
+            putInt(b, LOC_COMPRESSED_SIZE, magic ? ZIP64_MAGIC : entry.getCompressedSize());
+            putInt(b, LOC_SIZE, magic ? ZIP64_MAGIC : entry.getSize());
+        }
+        putShort(b, LOC_NAME_LENGTH, nameLength);
+        putShort(b, LOC_EXTRA_LENGTH, extra.length);
+        System.arraycopy(name.array(), name.arrayOffset(), b.array(), LOC_HEADER_SIZE, nameLength);
+        System.arraycopy(extra, 0, b.array(), LOC_HEADER_SIZE + nameLength, extra.length);
+        return b.array();
+    }
+
+    private void writeCentralDirectory() throws IOException {
+        long cenOffset = channel.position();
+        for (int i = 0; i < entries.size(); i++) {
+            writeFully(ByteBuffer.wrap(centralHeader(entries.get(i), offsets.get(i))));
+        }
+        long cenSize = channel.position() - cenOffset;
+
+        Zip64Mode mode = getUseZip64();
+        int count = entries.size();
+        if (Zip64Mode.Never != mode) {
+            hasUsedZip64 |= cenOffset >= ZIP64_MAGIC || cenSize >= ZIP64_MAGIC || count >= ZIP64_MAGIC_COUNT;
+            if (hasUsedZip64) {
+                writeZip64End(cenOffset, cenSize, count);
+            }
+        } else if (count > ZIP64_MAGIC_COUNT) {
+            throw new Zip64RequiredException("archive contains more than 65535 entries.");
+        } else if (cenOffset > ZIP64_MAGIC) {
+            throw new Zip64RequiredException("archive's size exceeds the limit of 4GByte.");
+        }
+
+        ByteBuffer comment = zipEncoding().encode(getComment());
+        int commentLength = comment.limit() - comment.position();
+        ByteBuffer end = ByteBuffer.allocate(END_HEADER_SIZE + commentLength);
+        putInt(end, 0, END_SIG);
+        putShort(end, END_DISK_ENTRIES, Math.min(count, ZIP64_MAGIC_COUNT));
+        putShort(end, END_TOTAL_ENTRIES, Math.min(count, ZIP64_MAGIC_COUNT));
+        putInt(end, END_CEN_SIZE, Math.min(cenSize, ZIP64_MAGIC));
+        putInt(end, END_CEN_OFFSET, Math.min(cenOffset, ZIP64_MAGIC));
+        putShort(end, END_COMMENT_LENGTH, commentLength);
+        System.arraycopy(comment.array(), comment.arrayOffset(), end.array(), END_HEADER_SIZE, commentLength);
+        writeFully(end);
+    }
+
+    private void writeZip64End(long cenOffset, long cenSize, long count) throws IOException {
+        long offset = channel.position();
+        ByteBuffer b = ByteBuffer.allocate(ZIP64_END_HEADER_SIZE + ZIP64_LOCATOR_SIZE);
+        putInt(b, 0, ZIP64_END_SIG);
+        putLong(b, 4, ZIP64_END_HEADER_SIZE - 12);
+        putShort(b, 12, ZIP64_MIN_VERSION);
+        putShort(b, 14, ZIP64_MIN_VERSION);
+        putLong(b, 24, count);
+        putLong(b, ZIP64_END_TOTAL_ENTRIES, count);
+        putLong(b, ZIP64_END_CEN_SIZE, cenSize);
+        putLong(b, ZIP64_END_CEN_OFFSET, cenOffset);
+
+        int locator = ZIP64_END_HEADER_SIZE;
+        putInt(b, locator, ZIP64_LOCATOR_SIG);
+        putLong(b, locator + ZIP64_LOCATOR_END_OFFSET, offset);
+        putInt(b, locator + 16, 1);
+        writeFully(b);
+    }
+
+    private byte[] centralHeader(ZipEntry entry, long offset) throws IOException {
+        boolean big = entry.getCompressedSize() >= ZIP64_MAGIC || entry.getSize() >= ZIP64_MAGIC;
+        boolean needsZip64Extra = null != entry.getExtraField(ZIP64_EXTRA) || big || offset >= ZIP64_MAGIC;
+        if (needsZip64Extra && Zip64Mode.Never == getUseZip64()) {
+            throw new Zip64RequiredException("archive's size exceeds the limit of 4GByte.");
+        }
+
+        if (needsZip64Extra) {
+            hasUsedZip64 = true;
+            Zip64ExtendedInformationExtraField z64 =
+                    (Zip64ExtendedInformationExtraField) entry.getExtraField(ZIP64_EXTRA);
+            if (null == z64) {
+                z64 = new Zip64ExtendedInformationExtraField();
+            }
+            entry.addAsFirstExtraField(z64);
+            z64.setSize(big ? new ZipEightByteInteger(entry.getSize()) : null);
+            z64.setCompressedSize(big ? new ZipEightByteInteger(entry.getCompressedSize()) : null);
+            if (offset >= ZIP64_MAGIC) {
+                z64.setRelativeHeaderOffset(new ZipEightByteInteger(offset));
+            }
+        }
+
+        ByteBuffer name = entryEncoding(entry).encode(entry.getName());
+        int nameLength = name.limit() - name.position();
+        byte[] extra = entry.getCentralDirectoryExtra();
+        ByteBuffer comment = entryEncoding(entry).encode(null == entry.getComment() ? "" : entry.getComment());
+        int commentLength = comment.limit() - comment.position();
+
+        ByteBuffer b = ByteBuffer.allocate(CEN_HEADER_SIZE + nameLength + extra.length + commentLength);
+        putInt(b, 0, CEN_SIG);
+        putShort(b, CEN_VERSION_MADE_BY,
+                (entry.getPlatform() << 8) | (hasUsedZip64 ? ZIP64_MIN_VERSION : DATA_DESCRIPTOR_MIN_VERSION));
+        putShort(b, CEN_VERSION_NEEDED, needsZip64Extra ? ZIP64_MIN_VERSION : INITIAL_VERSION);
+        putShort(b, CEN_FLAGS, flags(entry));
+        putShort(b, CEN_METHOD, entry.getMethod());
+        ZipUtil.toDosTime(entry.getTime(), b.array(), CEN_TIME);
+        putInt(b, CEN_CRC, entry.getCrc());
+        putInt(b, CEN_COMPRESSED_SIZE, big ? ZIP64_MAGIC : entry.getCompressedSize());
+        putInt(b, CEN_SIZE, big ? ZIP64_MAGIC : entry.getSize());
+        putShort(b, CEN_NAME_LENGTH, nameLength);
+        putShort(b, CEN_EXTRA_LENGTH, extra.length);
+        putShort(b, CEN_COMMENT_LENGTH, commentLength);
+        putShort(b, CEN_INTERNAL_ATTRIBUTES, entry.getInternalAttributes());
+        putInt(b, CEN_EXTERNAL_ATTRIBUTES, entry.getExternalAttributes());
+        putInt(b, CEN_LOC_OFFSET, Math.min(offset, ZIP64_MAGIC));
+
+        int extraStart = CEN_HEADER_SIZE + nameLength;
+        System.arraycopy(name.array(), name.arrayOffset(), b.array(), CEN_HEADER_SIZE, nameLength);
+        System.arraycopy(extra, 0, b.array(), extraStart, extra.length);
+        // ant puts the comment commentLength bytes after the extra field starts rather than after it ends. When
+        // both are there that's wrong, but it's what the serial path writes.
+        System.arraycopy(comment.array(), comment.arrayOffset(), b.array(), extraStart + commentLength,
+                commentLength);
+        return b.array();
+    }
+
+    private int flags(ZipEntry entry) {
+        boolean utf8 = getUseLanguageEncodingFlag() || (!canEncode(entry.getName()) && getFallbackToUTF8());
+        return utf8 ? FLAG_UTF8 : 0;
+    }
+
+    private boolean canEncode(String name) {
+        return zipEncoding().canEncode(name);
+    }
+
+    private ZipEncoding zipEncoding() {
+        return ZipEncodingHelper.getZipEncoding(getEncoding());
+    }
+
+    private ZipEncoding entryEncoding(ZipEntry entry) {
+        return !canEncode(entry.getName()) && getFallbackToUTF8()
+                ? ZipEncodingHelper.getZipEncoding("UTF8") : zipEncoding();
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private void checkNotFinished() throws IOException {
+        if (finished) {
+            throw new IOException("Stream has already been finished");
+        }
+    }
+}
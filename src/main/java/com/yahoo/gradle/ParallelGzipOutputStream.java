@@ -0,0 +1,235 @@
+/*
+ * Copyright 2016, Yahoo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.gradle;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a single member gzip stream, deflating blocks of {@link #BLOCK_SIZE} on a pool of threads the way pigz does.
+ * <p>
+ * Each block is deflated on its own, primed with the last 32KB of the block before it so it compresses almost as well
+ * as one long stream, and ends on a byte boundary so the blocks can simply be written one after another. The header
+ * has no name and no time, like {@link java.util.zip.GZIPOutputStream}'s, and always 0 for the OS, which that only
+ * writes before JDK 16. The bytes only depend on the data, the level and the block size, never on the number of
+ * threads.
+ */
+public class ParallelGzipOutputStream extends FilterOutputStream {
+    static final int BLOCK_SIZE = 128 * 1024;
+
+    // the most zlib ever looks back.
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+
+    private final ExecutorService pool;
+    private final int threads;
+    private final int level;
+    private final int blockSize;
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+    private final CRC32 crc = new CRC32();
+    private CompressionEngine engine = CompressionEngine.POOLED;
+    private byte[] block;
+    private int blockLength = 0;
+    private byte[] dictionary = null;
+    private long size = 0;
+    private boolean finished = false;
+
+    public ParallelGzipOutputStream(OutputStream out, int threads) throws IOException {
+        this(out, threads, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param level from {@link Deflater#DEFAULT_COMPRESSION} to {@link Deflater#BEST_COMPRESSION}.
+     */
+    public ParallelGzipOutputStream(OutputStream out, int threads, int level) throws IOException {
+        this(out, threads, level, BLOCK_SIZE);
+    }
+
+    ParallelGzipOutputStream(OutputStream out, int threads, int level, int blockSize) throws IOException {
+        super(out);
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1, not " + threads);
+        }
+        if (blockSize < DICTIONARY_SIZE) {
+            throw new IllegalArgumentException("blockSize must be at least " + DICTIONARY_SIZE + ", not " + blockSize);
+        }
+        this.pool = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("ParallelGzipOutputStream"));
+        this.threads = threads;
+        this.level = CompressionEngine.checkLevel(level);
+        this.blockSize = blockSize;
+        this.block = new byte[blockSize];
+        out.write(HEADER);
+    }
+
+    /**
+     * Where the Deflaters blocks are compressed with come from, {@link CompressionEngine#POOLED} unless set.
+     */
+    public void setCompressionEngine(CompressionEngine engine) {
+        this.engine = Objects.requireNonNull(engine);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int offset, int length) throws IOException {
+        checkNotFinished();
+        crc.update(b, offset, length);
+        size += length;
+        while (length > 0) {
+            int n = Math.min(length, blockSize - blockLength);
+            System.arraycopy(b, offset, block, blockLength, n);
+            blockLength += n;
+            offset += n;
+            length -= n;
+            if (blockLength == blockSize) {
+                submit(false);
+            }
+        }
+    }
+
+    /**
+     * Writes out the blocks that are done. Deflate can't flush part of a block without changing the output, so
+     * whatever is in the current block stays there.
+     */
+    @Override
+    public void flush() throws IOException {
+        writeCompleted(false);
+        out.flush();
+    }
+
+    /**
+     * Writes the rest of the stream and the trailer without closing the underlying stream.
+     */
+    public void finish() throws IOException {
+        checkNotFinished();
+        submit(true);
+        writeCompleted(true);
+        finished = true;
+        pool.shutdown();
+
+        byte[] trailer = new byte[8];
+        putInt(trailer, 0, crc.getValue());
+        putInt(trailer, 4, size);
+        out.write(trailer);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (!finished) {
+                finish();
+            }
+            out.close();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private void submit(boolean last) throws IOException {
+        final byte[] data = block;
+        final int length = blockLength;
+        final byte[] preset = dictionary;
+        final CompressionEngine compression = engine;
+        pending.add(pool.submit(() -> deflate(compression, level, preset, data, length, last)));
+
+        dictionary = Arrays.copyOfRange(data, length - Math.min(length, DICTIONARY_SIZE), length);
+        block = new byte[blockSize];
+        blockLength = 0;
+
+        writeCompleted(false);
+        while (pending.size() > 2 * threads) {
+            writeHead();
+        }
+    }
+
+    /**
+     * @return data as raw deflate data that ends on a byte boundary, or at the end of the stream if last.
+     */
+    static byte[] deflate(CompressionEngine engine, int level, byte[] dictionary, byte[] data, int length,
+                          boolean last) {
+        Deflater deflater = engine.acquire(level);
+        try {
+            if (null != dictionary) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(data, 0, length);
+
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, length / 2));
+            byte[] buffer = new byte[64 * 1024];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    compressed.write(buffer, 0, deflater.deflate(buffer));
+                }
+            } else {
+                // a sync flush is done once it doesn't fill the buffer.
+                int n;
+                do {
+                    n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    compressed.write(buffer, 0, n);
+                } while (n == buffer.length);
+            }
+            return compressed.toByteArray();
+        } finally {
+            engine.release(deflater);
+        }
+    }
+
+    private void writeCompleted(boolean wait) throws IOException {
+        while (!pending.isEmpty() && (wait || pending.peek().isDone())) {
+            writeHead();
+        }
+    }
+
+    private void writeHead() throws IOException {
+        try {
+            out.write(pending.remove().get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted compressing gzip block");
+        } catch (ExecutionException e) {
+            throw new IOException("Unable to compress gzip block", e.getCause());
+        }
+    }
+
+    private static void putInt(byte[] b, int offset, long value) {
+        for (int i = 0; i < 4; i++) {
+            b[offset + i] = (byte) (value >>> (8 * i));
+        }
+    }
+
+    private void checkNotFinished() throws IOException {
+        if (finished) {
+            throw new IOException("Stream has already been finished");
+        }
+    }
+}
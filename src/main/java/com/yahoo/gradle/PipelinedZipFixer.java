@@ -0,0 +1,495 @@
+/*
+ * Copyright 2016, Yahoo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.gradle;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarInputStream;
+import java.util.jar.Manifest;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Does what {@link ZipFixer} does, with reading, compressing and writing overlapped.
+ * <p>
+ * The calling thread reads and inflates each entry into a buffer from a fixed size pool, and hands it to a thread pool
+ * to deflate. A single writer thread takes the entries in their original order and writes them through the same
+ * {@link ZipFixingOutputStream} {@link ZipFixer} uses, which is given the already deflated bytes instead of deflating
+ * them again. zlib's output doesn't depend on how its input is split up, so the jar is byte for byte the same as the
+ * one {@link ZipFixer} writes.
+ * <p>
+ * Entries bigger than {@link #STREAMING_THRESHOLD} are streamed to the writer in chunks and deflated there, so memory
+ * is bounded by the size of the pool whatever the size of the entries.
+ */
+public class PipelinedZipFixer implements Closeable {
+    static final int STREAMING_THRESHOLD = 8 * 1024 * 1024;
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int STREAMING_CHUNKS = 16;
+    private static final byte[] END_OF_ENTRY = new byte[0];
+    private static final Item END_OF_JAR = new Item(null, null, null, null);
+
+    private JarInputStream jis;
+    private ZipFixingOutputStream zos;
+    private final int threads;
+    private final int streamingThreshold;
+    private int level = Deflater.DEFAULT_COMPRESSION;
+    private CompressionEngine engine = CompressionEngine.POOLED;
+
+    private BlockingQueue<EntryBuffer> buffers;
+    private BlockingQueue<Item> queue;
+    private ExecutorService compressors;
+    private Future<Void> writer;
+
+    public PipelinedZipFixer(String inputFile, String outputFile) throws IOException {
+        this(new File(inputFile), new File(outputFile));
+    }
+
+    public PipelinedZipFixer(File inputFile, File outputFile) throws IOException {
+        this(inputFile, outputFile, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param threads how many threads to deflate on, as well as the reader and writer.
+     */
+    public PipelinedZipFixer(File inputFile, File outputFile, int threads) throws IOException {
+        Objects.requireNonNull(inputFile);
+        Objects.requireNonNull(outputFile);
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1, not " + threads);
+        }
+        this.threads = threads;
+        this.streamingThreshold = STREAMING_THRESHOLD;
+        jis = new JarInputStream(new FileInputStream(inputFile));
+        zos = new ZipFixingOutputStream(new FileOutputStream(outputFile));
+    }
+
+    /**
+     * Fixes a jar as it streams from in to out, see {@link ZipFixer#ZipFixer(InputStream, OutputStream)}.
+     */
+    public PipelinedZipFixer(InputStream in, OutputStream out) throws IOException {
+        this(new JarInputStream(Objects.requireNonNull(in)), Objects.requireNonNull(out),
+                Runtime.getRuntime().availableProcessors(), STREAMING_THRESHOLD);
+    }
+
+    PipelinedZipFixer(JarInputStream i, OutputStream o, int threads, int streamingThreshold) throws IOException {
+        this.jis = i;
+        this.zos = new ZipFixingOutputStream(o);
+        this.threads = threads;
+        this.streamingThreshold = streamingThreshold;
+    }
+
+    /**
+     * @param level the level entries are deflated at, from {@link Deflater#DEFAULT_COMPRESSION} to
+     *              {@link Deflater#BEST_COMPRESSION}.
+     */
+    public void setLevel(int level) {
+        this.level = CompressionEngine.checkLevel(level);
+    }
+
+    /**
+     * Where the Deflaters entries are compressed with come from, {@link CompressionEngine#POOLED} unless set.
+     */
+    public void setCompressionEngine(CompressionEngine engine) {
+        this.engine = Objects.requireNonNull(engine);
+    }
+
+    /**
+     * One entry on its way to the writer.
+     */
+    private static final class Item {
+        private final ZipEntry entry;
+        private final EntryBuffer data;
+        // null when the entry is stored rather than deflated.
+        private final Future<byte[]> compressed;
+        // only for entries that are too big to buffer.
+        private final BlockingQueue<byte[]> chunks;
+
+        private Item(ZipEntry entry, EntryBuffer data, Future<byte[]> compressed, BlockingQueue<byte[]> chunks) {
+            this.entry = entry;
+            this.data = data;
+            this.compressed = compressed;
+            this.chunks = chunks;
+        }
+    }
+
+    /**
+     * Gives access to the buffer without copying it.
+     */
+    private static final class EntryBuffer extends ByteArrayOutputStream {
+        private byte[] buffer() {
+            return buf;
+        }
+    }
+
+    public void adjustDatesToEpoch() throws IOException {
+        int depth = 2 * threads + 2;
+        buffers = new ArrayBlockingQueue<>(depth);
+        for (int i = 0; i < depth; i++) {
+            buffers.add(new EntryBuffer());
+        }
+        queue = new ArrayBlockingQueue<>(depth + 1);
+        compressors = Executors.newFixedThreadPool(threads);
+        ExecutorService writerThread = Executors.newSingleThreadExecutor();
+
+        ReplayDeflater deflater = new ReplayDeflater(engine, level);
+        zos.setDeflater(deflater);
+        writer = writerThread.submit(() -> {
+            write(deflater);
+            return null;
+        });
+
+        try {
+            writeManifest();
+
+            JarEntry nextJarEntry;
+            while (null != (nextJarEntry = jis.getNextJarEntry())) {
+                read(nextJarEntry);
+            }
+
+            offer(queue, END_OF_JAR);
+            waitFor(writer);
+        } finally {
+            writer.cancel(true);
+            writerThread.shutdownNow();
+            compressors.shutdownNow();
+            // the writer must be done with zos before it's closed.
+            awaitTermination(writerThread);
+        }
+
+        close();
+    }
+
+    private void writeManifest() throws IOException {
+        Manifest manifest = jis.getManifest();
+        if (null != manifest) {
+            EntryBuffer data = take(buffers);
+            data.reset();
+            manifest.write(data);
+            submit(new ZipEntry(JarFile.MANIFEST_NAME), data);
+        }
+    }
+
+    /**
+     * Reads the current entry of jis, and queues it for the writer.
+     */
+    private void read(ZipEntry entry) throws IOException {
+        // copy it before reading, reading fills in the sizes which changes how it's written.
+        ZipEntry copy = new ZipEntry(entry);
+
+        EntryBuffer data = take(buffers);
+        data.reset();
+        byte[] chunk = new byte[CHUNK_SIZE];
+        int read;
+        while (-1 != (read = jis.read(chunk))) {
+            data.write(chunk, 0, read);
+            if (data.size() > streamingThreshold) {
+                stream(copy, data);
+                return;
+            }
+        }
+
+        submit(copy, data);
+    }
+
+    private void submit(ZipEntry entry, EntryBuffer data) throws IOException {
+        Future<byte[]> compressed = null;
+        if (ZipEntry.STORED != entry.getMethod()) {
+            CompressionEngine compression = engine;
+            int deflateLevel = level;
+            compressed = compressors.submit(() -> compression.deflate(data.buffer(), data.size(), deflateLevel));
+        }
+        offer(queue, new Item(entry, data, compressed, null));
+    }
+
+    /**
+     * Hands the rest of the current entry to the writer a chunk at a time.
+     */
+    private void stream(ZipEntry entry, EntryBuffer data) throws IOException {
+        BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(STREAMING_CHUNKS);
+        offer(queue, new Item(entry, null, null, chunks));
+
+        offer(chunks, data.toByteArray());
+        // don't keep a buffer this big in the pool.
+        buffers.add(new EntryBuffer());
+
+        byte[] chunk = new byte[CHUNK_SIZE];
+        int read;
+        while (-1 != (read = jis.read(chunk))) {
+            offer(chunks, Arrays.copyOf(chunk, read));
+        }
+        offer(chunks, END_OF_ENTRY);
+    }
+
+    /**
+     * The writer thread. Entries are closed as soon as they are written, the deflater is already set up for the next
+     * one by the time putNextEntry would close it.
+     */
+    private void write(ReplayDeflater deflater) throws IOException, InterruptedException, ExecutionException {
+        Item item;
+        while (END_OF_JAR != (item = queue.take())) {
+            if (null != item.chunks) {
+                deflater.deflate();
+                zos.putNextEntry(item.entry);
+                byte[] chunk;
+                while (END_OF_ENTRY != (chunk = item.chunks.take())) {
+                    zos.write(chunk);
+                }
+                zos.closeEntry();
+                continue;
+            }
+
+            if (null != item.compressed) {
+                deflater.replay(item.compressed.get());
+            } else {
+                deflater.deflate();
+            }
+            zos.putNextEntry(item.entry);
+            zos.write(item.data.buffer(), 0, item.data.size());
+            zos.closeEntry();
+            buffers.add(item.data);
+        }
+    }
+
+    /**
+     * Waits for room in queue, giving up if the writer has stopped.
+     */
+    private <T> void offer(BlockingQueue<T> queue, T element) throws IOException {
+        try {
+            while (!queue.offer(element, 100, TimeUnit.MILLISECONDS)) {
+                checkWriter();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted fixing jar");
+        }
+    }
+
+    private <T> T take(BlockingQueue<T> queue) throws IOException {
+        try {
+            T element;
+            while (null == (element = queue.poll(100, TimeUnit.MILLISECONDS))) {
+                checkWriter();
+            }
+            return element;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted fixing jar");
+        }
+    }
+
+    private void checkWriter() throws IOException {
+        if (writer.isDone()) {
+            waitFor(writer);
+            throw new IllegalStateException("Writer stopped before the end of the jar");
+        }
+    }
+
+    private static void awaitTermination(ExecutorService executor) {
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                // still finishing a write.
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void waitFor(Future<?> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted fixing jar");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ExecutionException) {
+                // from a compressor.
+                cause = cause.getCause();
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (null != jis) {
+            jis.close();
+            jis = null;
+        }
+
+        if (null != zos) {
+            zos.close();
+            zos = null;
+        }
+    }
+
+    /**
+     * Either deflates like a normal {@link Deflater}, or hands back bytes that were already deflated elsewhere as
+     * though it had deflated them. Only the methods {@link java.util.zip.DeflaterOutputStream} and
+     * {@link java.util.zip.ZipOutputStream} call are supported.
+     */
+    static final class ReplayDeflater extends Deflater {
+        private final CompressionEngine engine;
+        private final Deflater deflater;
+        private boolean ended = false;
+        private byte[] replay;
+        private int replayed;
+        private long bytesRead;
+        private boolean finish;
+
+        ReplayDeflater(CompressionEngine engine, int level) {
+            super(level, true);
+            // this one's own zlib stream is never used.
+            super.end();
+            this.engine = engine;
+            this.deflater = engine.acquire(level);
+        }
+
+        /**
+         * Deflate the next entry for real.
+         */
+        void deflate() {
+            replay = null;
+        }
+
+        /**
+         * The next entry is compressed.
+         */
+        void replay(byte[] compressed) {
+            replay = compressed;
+            replayed = 0;
+            bytesRead = 0;
+            finish = false;
+        }
+
+        @Override
+        public void setInput(byte[] b, int off, int len) {
+            if (null == replay) {
+                deflater.setInput(b, off, len);
+            } else {
+                bytesRead += len;
+            }
+        }
+
+        @Override
+        public void setInput(byte[] b) {
+            setInput(b, 0, b.length);
+        }
+
+        @Override
+        public boolean needsInput() {
+            return null == replay ? deflater.needsInput() : !finish;
+        }
+
+        @Override
+        public void finish() {
+            if (null == replay) {
+                deflater.finish();
+            } else {
+                finish = true;
+            }
+        }
+
+        @Override
+        public boolean finished() {
+            return null == replay ? deflater.finished() : finish && replayed == replay.length;
+        }
+
+        @Override
+        public int deflate(byte[] b, int off, int len, int flush) {
+            if (null == replay) {
+                return deflater.deflate(b, off, len, flush);
+            }
+            if (!finish) {
+                return 0;
+            }
+            int n = Math.min(len, replay.length - replayed);
+            System.arraycopy(replay, replayed, b, off, n);
+            replayed += n;
+            return n;
+        }
+
+        @Override
+        public int deflate(byte[] b, int off, int len) {
+            return deflate(b, off, len, NO_FLUSH);
+        }
+
+        @Override
+        public int deflate(byte[] b) {
+            return deflate(b, 0, b.length, NO_FLUSH);
+        }
+
+        @Override
+        public long getBytesRead() {
+            return null == replay ? deflater.getBytesRead() : bytesRead;
+        }
+
+        @Override
+        public long getBytesWritten() {
+            return null == replay ? deflater.getBytesWritten() : replayed;
+        }
+
+        @Override
+        public int getTotalIn() {
+            return (int) getBytesRead();
+        }
+
+        @Override
+        public int getTotalOut() {
+            return (int) getBytesWritten();
+        }
+
+        @Override
+        public void reset() {
+            deflater.reset();
+            replay = null;
+        }
+
+        @Override
+        public void end() {
+            // gives the real one back to the engine, only once.
+            if (!ended) {
+                ended = true;
+                engine.release(deflater);
+            }
+        }
+    }
+}
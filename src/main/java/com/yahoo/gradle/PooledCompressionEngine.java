@@ -0,0 +1,74 @@
+/*
+ * Copyright 2016, Yahoo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.gradle;
+
+import java.util.zip.Deflater;
+
+/**
+ * {@link CompressionEngine#POOLED}: keeps one idle Deflater per level on each thread. A Deflater that's released while
+ * its thread already has one for that level is ended instead, so a thread never holds on to more than one per level.
+ * <p>
+ * The pooled Deflaters are only ended when their thread goes away and they are garbage collected, which is why this is
+ * best suited to threads that come and go with the work, like the ones {@link ParallelDatelessZipOutputStream} uses.
+ */
+final class PooledCompressionEngine implements CompressionEngine {
+    private static final int LEVELS = Deflater.BEST_COMPRESSION - Deflater.DEFAULT_COMPRESSION + 1;
+
+    private final ThreadLocal<PooledDeflater[]> idle = ThreadLocal.withInitial(() -> new PooledDeflater[LEVELS]);
+
+    /**
+     * Remembers its level, so that it goes back to the right slot.
+     */
+    private static final class PooledDeflater extends Deflater {
+        private final int level;
+
+        private PooledDeflater(int level) {
+            super(level, true);
+            this.level = level;
+        }
+    }
+
+    @Override
+    public Deflater acquire(int level) {
+        int slot = CompressionEngine.checkLevel(level) - Deflater.DEFAULT_COMPRESSION;
+        PooledDeflater[] deflaters = idle.get();
+        PooledDeflater deflater = deflaters[slot];
+        if (null == deflater) {
+            return new PooledDeflater(level);
+        }
+        deflaters[slot] = null;
+        return deflater;
+    }
+
+    @Override
+    public void release(Deflater deflater) {
+        if (!(deflater instanceof PooledDeflater)) {
+            deflater.end();
+            return;
+        }
+
+        PooledDeflater pooled = (PooledDeflater) deflater;
+        int slot = pooled.level - Deflater.DEFAULT_COMPRESSION;
+        PooledDeflater[] deflaters = idle.get();
+        if (null != deflaters[slot]) {
+            pooled.end();
+            return;
+        }
+        // a new stream, with the same level and strategy it started with.
+        pooled.reset();
+        deflaters[slot] = pooled;
+    }
+}
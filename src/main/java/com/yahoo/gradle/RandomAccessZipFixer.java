@@ -0,0 +1,383 @@
+/*
+ * Copyright 2016, Yahoo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.gradle;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+import static com.yahoo.gradle.ZipHeaders.*;
+
+/**
+ * Does what {@link ZipFixer} does, reading the jar through its central directory instead of a
+ * {@link java.util.jar.JarInputStream}.
+ * <p>
+ * The entries are found up front, and their data is read with positional reads, so a pool of threads can inflate,
+ * check the CRC of and deflate several entries at once. The entries are taken a window of {@link #WINDOW_BYTES} at a
+ * time, largest first within each window so that a big entry doesn't hold up the end of it, with no more than two
+ * windows in flight. They're written in their original order through the same {@link ZipFixingOutputStream}
+ * {@link ZipFixer} uses, and every entry is made from its local header the way {@link java.util.jar.JarInputStream}
+ * makes it, so the jar is byte for byte the same as the one {@link ZipFixer} writes.
+ * <p>
+ * Entries bigger than {@link PipelinedZipFixer#STREAMING_THRESHOLD} are inflated and deflated on the calling thread
+ * as they're written, so memory stays bounded however big they are.
+ */
+public class RandomAccessZipFixer implements Closeable {
+    static final long WINDOW_BYTES = 32L * 1024 * 1024;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int FLAG_ENCRYPTED = 1;
+
+    private FileChannel in;
+    private ZipFixingOutputStream zos;
+    private final int threads;
+    private int level = Deflater.DEFAULT_COMPRESSION;
+    private CompressionEngine engine = CompressionEngine.POOLED;
+
+    public RandomAccessZipFixer(String inputFile, String outputFile) throws IOException {
+        this(new File(inputFile), new File(outputFile));
+    }
+
+    public RandomAccessZipFixer(File inputFile, File outputFile) throws IOException {
+        this(inputFile, outputFile, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param threads how many entries to inflate and deflate at once.
+     */
+    public RandomAccessZipFixer(File inputFile, File outputFile, int threads) throws IOException {
+        Objects.requireNonNull(inputFile);
+        Objects.requireNonNull(outputFile);
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1, not " + threads);
+        }
+        this.threads = threads;
+        in = FileChannel.open(inputFile.toPath(), StandardOpenOption.READ);
+        try {
+            zos = new ZipFixingOutputStream(new FileOutputStream(outputFile));
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @param level the level entries are deflated at, from {@link Deflater#DEFAULT_COMPRESSION} to
+     *              {@link Deflater#BEST_COMPRESSION}.
+     */
+    public void setLevel(int level) {
+        this.level = CompressionEngine.checkLevel(level);
+    }
+
+    /**
+     * Where the Deflaters entries are compressed with come from, {@link CompressionEngine#POOLED} unless set.
+     */
+    public void setCompressionEngine(CompressionEngine engine) {
+        this.engine = Objects.requireNonNull(engine);
+    }
+
+    /**
+     * An entry on its way to being written. Entries too big to buffer have no result, they're streamed.
+     */
+    private static final class Task {
+        private final CentralDirectoryEntry entry;
+        private Future<Result> result;
+
+        private Task(CentralDirectoryEntry entry) {
+            this.entry = entry;
+        }
+    }
+
+    /**
+     * An entry read, inflated and deflated again.
+     */
+    private static final class Result {
+        private final ZipEntry entry;
+        private final byte[] data;
+        // null when the entry is stored.
+        private final byte[] compressed;
+
+        private Result(ZipEntry entry, byte[] data, byte[] compressed) {
+            this.entry = entry;
+            this.data = data;
+            this.compressed = compressed;
+        }
+    }
+
+    public void adjustDatesToEpoch() throws IOException {
+        CentralDirectory directory = CentralDirectory.read(in);
+        // the order JarInputStream would find them in.
+        List<CentralDirectoryEntry> entries = new ArrayList<>(directory.getEntries());
+        entries.sort(Comparator.comparingLong(CentralDirectoryEntry::getLocalHeaderOffset));
+
+        PipelinedZipFixer.ReplayDeflater deflater = new PipelinedZipFixer.ReplayDeflater(engine, level);
+        zos.setDeflater(deflater);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            int next = writeManifest(directory, entries, deflater);
+
+            Deque<Task> pending = new ArrayDeque<>();
+            long inFlightBytes = 0;
+            while (next < entries.size() || !pending.isEmpty()) {
+                while (next < entries.size() && inFlightBytes < 2 * WINDOW_BYTES) {
+                    int end = windowEnd(entries, next);
+                    inFlightBytes += submit(pool, directory, entries.subList(next, end), pending);
+                    next = end;
+                }
+
+                Task task = pending.remove();
+                write(directory, task, deflater);
+                inFlightBytes -= buffered(task.entry);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        close();
+    }
+
+    /**
+     * JarInputStream skips a META-INF/ directory that comes first, and reads a manifest that comes first or straight
+     * after it into a {@link Manifest}, which {@link ZipFixer} writes out again.
+     *
+     * @return the index of the first entry after them.
+     */
+    private int writeManifest(CentralDirectory directory, List<CentralDirectoryEntry> entries,
+                              PipelinedZipFixer.ReplayDeflater deflater) throws IOException {
+        int first = 0;
+        if (first < entries.size() && "META-INF/".equalsIgnoreCase(entries.get(first).getName())) {
+            first++;
+        }
+        if (first < entries.size() && JarFile.MANIFEST_NAME.equalsIgnoreCase(entries.get(first).getName())) {
+            Manifest manifest;
+            try (InputStream data = EntryData.open(in, directory, entries.get(first))) {
+                manifest = new Manifest(data);
+            }
+            deflater.deflate();
+            zos.putNextEntry(new ZipEntry(JarFile.MANIFEST_NAME));
+            manifest.write(zos);
+            zos.closeEntry();
+            first++;
+        }
+        return first;
+    }
+
+    /**
+     * @return the end of the window starting at start.
+     */
+    private static int windowEnd(List<CentralDirectoryEntry> entries, int start) {
+        long bytes = 0;
+        int end = start;
+        while (end < entries.size() && (end == start || bytes + buffered(entries.get(end)) <= WINDOW_BYTES)) {
+            bytes += buffered(entries.get(end));
+            end++;
+        }
+        return end;
+    }
+
+    private static boolean isStreamed(CentralDirectoryEntry entry) {
+        return entry.getSize() > PipelinedZipFixer.STREAMING_THRESHOLD;
+    }
+
+    private static long buffered(CentralDirectoryEntry entry) {
+        return isStreamed(entry) ? 0 : entry.getSize();
+    }
+
+    /**
+     * Queues window for writing in order, and hands its entries to the pool largest first.
+     *
+     * @return the bytes the window holds in memory.
+     */
+    private long submit(ExecutorService pool, CentralDirectory directory, List<CentralDirectoryEntry> window,
+                        Deque<Task> pending) {
+        List<Task> tasks = new ArrayList<>(window.size());
+        long bytes = 0;
+        for (CentralDirectoryEntry entry : window) {
+            Task task = new Task(entry);
+            tasks.add(task);
+            pending.add(task);
+            bytes += buffered(entry);
+        }
+
+        tasks.sort(Comparator.comparingLong((Task task) -> task.entry.getSize()).reversed());
+        CompressionEngine compression = engine;
+        int deflateLevel = level;
+        for (Task task : tasks) {
+            if (!isStreamed(task.entry)) {
+                task.result = pool.submit(() -> read(directory, task.entry, compression, deflateLevel));
+            }
+        }
+        return bytes;
+    }
+
+    private Result read(CentralDirectory directory, CentralDirectoryEntry central, CompressionEngine compression,
+                        int deflateLevel) throws IOException {
+        ZipEntry entry = localEntry(in, central);
+        ByteArrayOutputStream data = new ByteArrayOutputStream((int) central.getSize());
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream is = EntryData.open(in, directory, central)) {
+            int n;
+            while ((n = is.read(buffer)) >= 0) {
+                crc.update(buffer, 0, n);
+                data.write(buffer, 0, n);
+            }
+        }
+        check(central, crc.getValue(), data.size());
+
+        byte[] bytes = data.toByteArray();
+        byte[] compressed = ZipEntry.STORED == entry.getMethod() ? null
+                : compression.deflate(bytes, bytes.length, deflateLevel);
+        return new Result(entry, bytes, compressed);
+    }
+
+    private void write(CentralDirectory directory, Task task, PipelinedZipFixer.ReplayDeflater deflater)
+            throws IOException {
+        if (null == task.result) {
+            stream(directory, task.entry, deflater);
+            return;
+        }
+
+        Result result;
+        try {
+            result = task.result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted fixing " + task.entry.getName());
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Unable to fix " + task.entry.getName(), e.getCause());
+        }
+
+        if (null == result.compressed) {
+            deflater.deflate();
+        } else {
+            deflater.replay(result.compressed);
+        }
+        zos.putNextEntry(result.entry);
+        zos.write(result.data);
+        zos.closeEntry();
+    }
+
+    private void stream(CentralDirectory directory, CentralDirectoryEntry central,
+                        PipelinedZipFixer.ReplayDeflater deflater) throws IOException {
+        deflater.deflate();
+        zos.putNextEntry(localEntry(in, central));
+        CRC32 crc = new CRC32();
+        long size = 0;
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream is = EntryData.open(in, directory, central)) {
+            int n;
+            while ((n = is.read(buffer)) >= 0) {
+                crc.update(buffer, 0, n);
+                size += n;
+                zos.write(buffer, 0, n);
+            }
+        }
+        check(central, crc.getValue(), size);
+        zos.closeEntry();
+    }
+
+    /**
+     * Checks what was inflated against the central directory, the way {@link java.util.zip.ZipInputStream} checks it
+     * against the local header or data descriptor.
+     */
+    static void check(CentralDirectoryEntry entry, long crc, long size) throws ZipException {
+        if (size != entry.getSize()) {
+            throw new ZipException(String.format("invalid entry size for %s (expected %d but got %d bytes)",
+                    entry.getName(), entry.getSize(), size));
+        }
+        if (crc != entry.getCrc()) {
+            throw new ZipException(String.format("invalid entry CRC for %s (expected 0x%x but got 0x%x)",
+                    entry.getName(), entry.getCrc(), crc));
+        }
+    }
+
+    /**
+     * @return the entry JarInputStream makes from the local header of central, before reading its data.
+     */
+    static ZipEntry localEntry(FileChannel in, CentralDirectoryEntry central) throws IOException {
+        ByteBuffer fixed = CentralDirectory.readFully(in, central.getLocalHeaderOffset(), LOC_HEADER_SIZE);
+        checkSignature(fixed, 0, LOC_SIG, "local file header");
+        ByteBuffer header = CentralDirectory.readFully(in, central.getLocalHeaderOffset(),
+                localHeaderLength(fixed, 0));
+
+        int flags = getShort(header, LOC_FLAGS);
+        if (0 != (flags & FLAG_ENCRYPTED)) {
+            throw new ZipException("encrypted ZIP entry not supported");
+        }
+        int nameLength = getShort(header, LOC_NAME_LENGTH);
+        int extraLength = getShort(header, LOC_EXTRA_LENGTH);
+        byte[] name = new byte[nameLength];
+        byte[] extra = new byte[extraLength];
+        header.position(LOC_HEADER_SIZE);
+        header.get(name).get(extra);
+
+        ZipEntry entry = new ZipEntry(new String(name, StandardCharsets.UTF_8));
+        entry.setMethod(getShort(header, LOC_METHOD));
+        if (0 == (flags & FLAG_DATA_DESCRIPTOR)) {
+            long compressedSize = getInt(header, LOC_COMPRESSED_SIZE);
+            long size = getInt(header, LOC_SIZE);
+            entry.setCrc(getInt(header, LOC_CRC));
+            // the zip64 extra field holds the real sizes, which the central directory already has.
+            entry.setCompressedSize(ZIP64_MAGIC == compressedSize ? central.getCompressedSize() : compressedSize);
+            entry.setSize(ZIP64_MAGIC == size ? central.getSize() : size);
+        }
+        if (extraLength > 0) {
+            entry.setExtra(extra);
+        }
+        return entry;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (null != in) {
+            in.close();
+            in = null;
+        }
+
+        if (null != zos) {
+            zos.close();
+            zos = null;
+        }
+    }
+}
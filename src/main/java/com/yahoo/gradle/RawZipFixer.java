@@ -0,0 +1,158 @@
+/*
+ * Copyright 2016, Yahoo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.gradle;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.zip.ZipException;
+
+/**
+ * Does the same job as {@link ZipFixer}, without inflating or deflating anything.
+ * <p>
+ * {@link ZipFixer} reads every entry through a {@link java.util.jar.JarInputStream} and deflates it again on the way
+ * out, which is a lot of cpu just to change a few bytes of header. This class walks the local file headers and the
+ * central directory instead, and overwrites only the dos time and date and the time extra fields (extended timestamp,
+ * NTFS and the unix ones). Since none of those change size, everything else, compressed data, crc's, sizes, data
+ * descriptors and offsets, is copied across untouched with {@link FileChannel#transferTo(long, long,
+ * java.nio.channels.WritableByteChannel)}.
+ * <p>
+ * The output has the same entry order and compressed bytes as the input, so it is not byte for byte the same as the
+ * output of {@link ZipFixer}, but it is just as reproducible.
+ */
+public class RawZipFixer implements Closeable {
+    private FileChannel in;
+    private FileChannel out;
+
+    public RawZipFixer(String inputFile, String outputFile) throws IOException {
+        this(new File(inputFile), new File(outputFile));
+    }
+
+    public RawZipFixer(File inputFile, File outputFile) throws IOException {
+        Objects.requireNonNull(inputFile);
+        Objects.requireNonNull(outputFile);
+        in = FileChannel.open(inputFile.toPath(), StandardOpenOption.READ);
+        try {
+            out = FileChannel.open(outputFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    RawZipFixer(FileChannel in, FileChannel out) {
+        this.in = in;
+        this.out = out;
+    }
+
+    public void adjustDatesToEpoch() throws IOException {
+        CentralDirectory directory = CentralDirectory.read(in);
+
+        // local headers can be in any order, and there can be bytes between them we don't understand, so copy
+        // the file front to back and patch each header as we reach it.
+        List<CentralDirectoryEntry> entries = new ArrayList<>(directory.getEntries());
+        entries.sort(Comparator.comparingLong(CentralDirectoryEntry::getLocalHeaderOffset));
+
+        long position = 0;
+        for (CentralDirectoryEntry entry : entries) {
+            long headerOffset = entry.getLocalHeaderOffset();
+            if (headerOffset < position) {
+                // two entries sharing a header, it's already been written.
+                continue;
+            }
+
+            transfer(position, headerOffset - position);
+            position = headerOffset + writeLocalHeader(headerOffset);
+        }
+
+        if (directory.getOffset() < position) {
+            throw new ZipException("Central directory overlaps entry data");
+        }
+
+        transfer(position, directory.getOffset() - position);
+        position = directory.getOffset() + writeCentralDirectory(directory);
+
+        // whatever is left is the end record(s) and comment.
+        transfer(position, in.size() - position);
+
+        close();
+    }
+
+    private int writeLocalHeader(long headerOffset) throws IOException {
+        ByteBuffer fixed = CentralDirectory.readFully(in, headerOffset, ZipHeaders.LOC_HEADER_SIZE);
+        ByteBuffer header = CentralDirectory.readFully(in, headerOffset, ZipHeaders.localHeaderLength(fixed, 0));
+        ZipHeaders.normalizeLocalHeader(header, 0);
+        writeFully(header);
+        return header.limit();
+    }
+
+    private long writeCentralDirectory(CentralDirectory directory) throws IOException {
+        if (directory.getSize() > Integer.MAX_VALUE) {
+            throw new ZipException("Central directory is too large: " + directory.getSize());
+        }
+
+        ByteBuffer headers = CentralDirectory.readFully(in, directory.getOffset(), (int) directory.getSize());
+        int index = 0;
+        while (index + ZipHeaders.CEN_HEADER_SIZE <= headers.limit()) {
+            index += ZipHeaders.normalizeCentralHeader(headers, index);
+        }
+
+        writeFully(headers);
+        return headers.limit();
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    /**
+     * Copies count bytes starting at position from the input to the end of the output.
+     */
+    void transfer(long position, long count) throws IOException {
+        while (count > 0) {
+            long copied = in.transferTo(position, count, out);
+            if (copied <= 0) {
+                throw new EOFException("Unexpected end of file copying " + count + " bytes at " + position);
+            }
+            position += copied;
+            count -= copied;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (null != in) {
+            in.close();
+            in = null;
+        }
+
+        if (null != out) {
+            out.close();
+            out = null;
+        }
+    }
+}
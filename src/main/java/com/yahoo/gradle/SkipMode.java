@@ -0,0 +1,98 @@
+/*
+ * Copyright 2016, Yahoo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.gradle;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * What to do with a jar whose times are already epoch, such as one written by {@link DatelessJar} or by an earlier
+ * run. Checking only reads the central directory, which is much cheaper than fixing the jar again.
+ */
+public enum SkipMode {
+    /**
+     * Always fix, without checking.
+     */
+    NEVER(null),
+
+    /**
+     * Copy jars that are already normalized to the output as is.
+     */
+    COPY(SkipMode::copy),
+
+    /**
+     * Hard link jars that are already normalized to the output, copying them when the file system can't link them.
+     */
+    LINK(SkipMode::link);
+
+    private interface Writer {
+        void write(File input, File output) throws IOException;
+    }
+
+    private final Writer writer;
+
+    SkipMode(Writer writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * If input is already normalized, and mode would change nothing else, makes sure output has the same contents.
+     *
+     * @param mode   what input would be fixed with, skipping is only safe when it {@link FixMode#onlyFixesTimes()}.
+     * @param input  jar to check.
+     * @param output where the fixed jar should end up, which can be input.
+     * @return true if input was already normalized and there is nothing left to do, false if it still needs fixing.
+     * @throws IOException on IO failure, or if input isn't a zip file.
+     */
+    public boolean skip(FixMode mode, File input, File output) throws IOException {
+        if (null == writer || !mode.onlyFixesTimes() || !isNormalized(input)) {
+            return false;
+        }
+
+        if (!input.getCanonicalFile().equals(output.getCanonicalFile())) {
+            writer.write(input, output);
+        }
+        return true;
+    }
+
+    private static void copy(File input, File output) throws IOException {
+        Files.copy(input.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void link(File input, File output) throws IOException {
+        Files.deleteIfExists(output.toPath());
+        try {
+            Files.createLink(output.toPath(), input.toPath());
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            // links can't cross file systems.
+            copy(input, output);
+        }
+    }
+
+    /**
+     * @return true if every time in the central directory of zip is already epoch.
+     */
+    public static boolean isNormalized(File zip) throws IOException {
+        try (FileChannel channel = FileChannel.open(zip.toPath(), StandardOpenOption.READ)) {
+            return CentralDirectory.read(channel).isNormalized();
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2016, Yahoo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.gradle;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Does what {@link ZipFixer} does, and also puts the entries in a canonical order: META-INF/ and the manifest first,
+ * then everything else sorted by name. Two jars with the same entries then come out the same whatever order they were
+ * written in, such as when they were built from directories listed in a different order.
+ * <p>
+ * Only where each entry's central directory header is gets sorted, through an {@link EntryIndex} that spills to
+ * temporary files beyond the memory budget. The entries are then inflated and deflated one at a time, straight from
+ * the jar, so no entry is ever held in memory and a jar of any size can be sorted in a small heap.
+ */
+public class SortedZipFixer implements Closeable {
+    public static final long DEFAULT_MEMORY_BUDGET = 64L * 1024 * 1024;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private FileChannel in;
+    private ZipFixingOutputStream zos;
+    private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+    private int level = Deflater.DEFAULT_COMPRESSION;
+    private CompressionEngine engine = CompressionEngine.POOLED;
+
+    public SortedZipFixer(String inputFile, String outputFile) throws IOException {
+        this(new File(inputFile), new File(outputFile));
+    }
+
+    public SortedZipFixer(File inputFile, File outputFile) throws IOException {
+        Objects.requireNonNull(inputFile);
+        Objects.requireNonNull(outputFile);
+        in = FileChannel.open(inputFile.toPath(), StandardOpenOption.READ);
+        try {
+            zos = new ZipFixingOutputStream(new FileOutputStream(outputFile));
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @param memoryBudget roughly how many bytes the names being sorted can take up before they're spilled to disk,
+     *                     {@link #DEFAULT_MEMORY_BUDGET} unless set.
+     */
+    public void setMemoryBudget(long memoryBudget) {
+        if (memoryBudget < 1) {
+            throw new IllegalArgumentException("memory budget must be at least 1, not " + memoryBudget);
+        }
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * @param level the level entries are deflated at, from {@link Deflater#DEFAULT_COMPRESSION} to
+     *              {@link Deflater#BEST_COMPRESSION}.
+     */
+    public void setLevel(int level) {
+        this.level = CompressionEngine.checkLevel(level);
+    }
+
+    /**
+     * Where the Deflater entries are compressed with comes from, {@link CompressionEngine#POOLED} unless set.
+     */
+    public void setCompressionEngine(CompressionEngine engine) {
+        this.engine = Objects.requireNonNull(engine);
+    }
+
+    public void adjustDatesToEpoch() throws IOException {
+        zos.setCompressionEngine(engine, level);
+        CentralDirectory directory = CentralDirectory.read(in);
+
+        try (EntryIndex index = new EntryIndex(memoryBudget)) {
+            try {
+                for (CentralDirectoryEntry entry : directory) {
+                    index.add(entry);
+                }
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            index.visitSorted(key -> copyEntry(directory, key));
+        }
+
+        close();
+    }
+
+    private void copyEntry(CentralDirectory directory, EntryIndex.Key key) throws IOException {
+        CentralDirectoryEntry central = CentralDirectory.parseEntry(
+                CentralDirectory.readFully(in, key.headerOffset, key.headerLength), 0, key.headerOffset);
+
+        // outputstream will fix the times for us.
+        zos.putNextEntry(RandomAccessZipFixer.localEntry(in, central));
+        CRC32 crc = new CRC32();
+        long size = 0;
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream data = EntryData.open(in, directory, central)) {
+            int n;
+            while ((n = data.read(buffer)) >= 0) {
+                crc.update(buffer, 0, n);
+                size += n;
+                zos.write(buffer, 0, n);
+            }
+        }
+        RandomAccessZipFixer.check(central, crc.getValue(), size);
+        zos.closeEntry();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (null != in) {
+            in.close();
+            in = null;
+        }
+
+        if (null != zos) {
+            zos.close();
+            zos = null;
+        }
+    }
+}
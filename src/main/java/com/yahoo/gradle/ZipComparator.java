@@ -0,0 +1,197 @@
+/*
+ * Copyright 2016, Yahoo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.gradle;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.ZipException;
+
+/**
+ * Compares two archives by their central directories, ignoring every time field, so two builds of the same jar can be
+ * checked without fixing either of them first.
+ * <p>
+ * Entries are matched by name, and are the same when their uncompressed sizes and CRC-32s are, which only needs the
+ * central directories and doesn't touch any entry data. With {@link #setCompareContent(boolean)} entries that look
+ * the same are also inflated and compared byte for byte. How entries are compressed, their order, and their extra
+ * fields and comments aren't compared, as none of them survive {@link ZipFixer} either.
+ */
+public class ZipComparator implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private FileChannel first;
+    private FileChannel second;
+    private boolean compareContent = false;
+    private boolean stopAtFirstDifference = false;
+
+    public ZipComparator(File first, File second) throws IOException {
+        this.first = FileChannel.open(first.toPath(), StandardOpenOption.READ);
+        try {
+            this.second = FileChannel.open(second.toPath(), StandardOpenOption.READ);
+        } catch (IOException e) {
+            this.first.close();
+            throw e;
+        }
+    }
+
+    /**
+     * When true, entries whose sizes and CRC-32s match are also inflated and compared, which is as slow as reading
+     * both archives.
+     */
+    public void setCompareContent(boolean compareContent) {
+        this.compareContent = compareContent;
+    }
+
+    /**
+     * When true, {@link #compare(Consumer)} stops once it has found a difference.
+     */
+    public void setStopAtFirstDifference(boolean stopAtFirstDifference) {
+        this.stopAtFirstDifference = stopAtFirstDifference;
+    }
+
+    /**
+     * Hands each difference to differences as it's found: the entries of the second archive in their order, then the
+     * entries that are only in the first.
+     *
+     * @return how many differences there were, 0 if the archives are the same.
+     * @throws ZipException if either isn't a zip file.
+     */
+    public long compare(Consumer<ZipDifference> differences) throws IOException {
+        CentralDirectory firstDirectory = CentralDirectory.read(first);
+        CentralDirectory secondDirectory = CentralDirectory.read(second);
+
+        try {
+            Map<String, CentralDirectoryEntry> unmatched = new LinkedHashMap<>();
+            for (CentralDirectoryEntry entry : firstDirectory) {
+                unmatched.put(entry.getName(), entry);
+            }
+
+            long found = 0;
+            for (CentralDirectoryEntry entry : secondDirectory) {
+                CentralDirectoryEntry original = unmatched.remove(entry.getName());
+                ZipDifference difference = null == original
+                        ? new ZipDifference(ZipDifference.Kind.ADDED, entry.getName(), 0, 0)
+                        : compare(firstDirectory, original, secondDirectory, entry);
+                if (null != difference) {
+                    differences.accept(difference);
+                    found++;
+                    if (stopAtFirstDifference) {
+                        return found;
+                    }
+                }
+            }
+
+            for (String name : unmatched.keySet()) {
+                differences.accept(new ZipDifference(ZipDifference.Kind.REMOVED, name, 0, 0));
+                found++;
+                if (stopAtFirstDifference) {
+                    break;
+                }
+            }
+            return found;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * @return true if the archives are the same, stopping at the first difference.
+     */
+    public boolean isSame() throws IOException {
+        boolean stop = stopAtFirstDifference;
+        stopAtFirstDifference = true;
+        try {
+            return 0 == compare(difference -> {
+            });
+        } finally {
+            stopAtFirstDifference = stop;
+        }
+    }
+
+    /**
+     * @return how a and b differ, null if they don't.
+     */
+    private ZipDifference compare(CentralDirectory aDirectory, CentralDirectoryEntry a,
+                                  CentralDirectory bDirectory, CentralDirectoryEntry b) throws IOException {
+        if (a.getSize() != b.getSize()) {
+            return new ZipDifference(ZipDifference.Kind.SIZE, a.getName(), a.getSize(), b.getSize());
+        }
+        if (a.getCrc() != b.getCrc()) {
+            return new ZipDifference(ZipDifference.Kind.CRC, a.getName(), a.getCrc(), b.getCrc());
+        }
+        if (compareContent && !sameContent(EntryData.open(first, aDirectory, a),
+                EntryData.open(second, bDirectory, b))) {
+            return new ZipDifference(ZipDifference.Kind.CONTENT, a.getName(), 0, 0);
+        }
+        return null;
+    }
+
+    private static boolean sameContent(InputStream a, InputStream b) throws IOException {
+        try {
+            byte[] aBuffer = new byte[BUFFER_SIZE];
+            byte[] bBuffer = new byte[BUFFER_SIZE];
+            while (true) {
+                int aRead = readFully(a, aBuffer);
+                int bRead = readFully(b, bBuffer);
+                if (aRead != bRead) {
+                    return false;
+                }
+                for (int i = 0; i < aRead; i++) {
+                    if (aBuffer[i] != bBuffer[i]) {
+                        return false;
+                    }
+                }
+                if (aRead < BUFFER_SIZE) {
+                    return true;
+                }
+            }
+        } finally {
+            a.close();
+            b.close();
+        }
+    }
+
+    private static int readFully(InputStream in, byte[] buffer) throws IOException {
+        int read = 0;
+        int n;
+        while (read < buffer.length && -1 != (n = in.read(buffer, read, buffer.length - read))) {
+            read += n;
+        }
+        return read;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (null != first) {
+                first.close();
+                first = null;
+            }
+        } finally {
+            if (null != second) {
+                second.close();
+                second = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2016, Yahoo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.gradle;
+
+import java.util.Objects;
+
+/**
+ * One way two archives differ, see {@link ZipComparator}.
+ */
+public final class ZipDifference {
+    public enum Kind {
+        /**
+         * The entry is only in the first archive.
+         */
+        REMOVED,
+        /**
+         * The entry is only in the second archive.
+         */
+        ADDED,
+        /**
+         * The uncompressed sizes differ.
+         */
+        SIZE,
+        /**
+         * The CRC-32s of the uncompressed data differ.
+         */
+        CRC,
+        /**
+         * The sizes and CRC-32s match, but the uncompressed data doesn't.
+         */
+        CONTENT
+    }
+
+    private final Kind kind;
+    private final String name;
+    private final long first;
+    private final long second;
+
+    ZipDifference(Kind kind, String name, long first, long second) {
+        this.kind = Objects.requireNonNull(kind);
+        this.name = Objects.requireNonNull(name);
+        this.first = first;
+        this.second = second;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the size or CRC-32 in the first archive, for {@link Kind#SIZE} and {@link Kind#CRC}.
+     */
+    public long getFirst() {
+        return first;
+    }
+
+    /**
+     * @return the size or CRC-32 in the second archive, for {@link Kind#SIZE} and {@link Kind#CRC}.
+     */
+    public long getSecond() {
+        return second;
+    }
+
+    @Override
+    public String toString() {
+        switch (kind) {
+            case REMOVED:
+                return "only in first: " + name;
+            case ADDED:
+                return "only in second: " + name;
+            case SIZE:
+                return "size differs: " + name + " (" + first + " != " + second + ")";
+            case CRC:
+                return String.format("crc differs: %s (%08x != %08x)", name, first, second);
+            default:
+                return "content differs: " + name;
+        }
+    }
+}
@@ -24,6 +24,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.TimeUnit;
 import java.util.jar.JarEntry;
@@ -31,6 +34,7 @@ import java.util.jar.JarFile;
 import java.util.jar.JarInputStream;
 import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 
 /**
@@ -99,7 +103,18 @@ public class ZipFixer implements Closeable {
 
     private JarInputStream jis;
     private ZipFixingOutputStream zos;
-    private final boolean debug = false;
+    // null when given the jar streams directly, then reading and writing aren't told apart from inflating and
+    // deflating.
+    private MeteredInputStream in;
+    private MeteredOutputStream out;
+    // null when given the output stream directly.
+    private DigestingOutputStream digesting;
+    // only when writing to a file.
+    private File outputFile;
+    private boolean writeSidecars = false;
+    private EntryListener listener = EntryListener.NOOP;
+    private int level = Deflater.DEFAULT_COMPRESSION;
+    private CompressionEngine engine = CompressionEngine.POOLED;
 
     public ZipFixer(String inputFile, String outputFile) throws FileNotFoundException, IOException {
         this(new File(inputFile), new File(outputFile));
@@ -108,8 +123,24 @@ public class ZipFixer implements Closeable {
     public ZipFixer(File inputFile, File outputFile) throws FileNotFoundException, IOException {
         Objects.requireNonNull(inputFile);
         Objects.requireNonNull(outputFile);
-        jis = new JarInputStream(new FileInputStream(inputFile));
-        zos = new ZipFixingOutputStream(new FileOutputStream(outputFile));
+        in = new MeteredInputStream(new FileInputStream(inputFile));
+        digesting = new DigestingOutputStream(new FileOutputStream(outputFile));
+        out = new MeteredOutputStream(digesting);
+        this.outputFile = outputFile;
+        jis = new JarInputStream(in);
+        zos = new ZipFixingOutputStream(out);
+    }
+
+    /**
+     * Fixes a jar as it streams from in to out, such as from stdin to stdout, without needing either to be a file.
+     * Both streams are closed by {@link #close()}.
+     */
+    public ZipFixer(InputStream in, OutputStream out) throws IOException {
+        this.in = new MeteredInputStream(Objects.requireNonNull(in));
+        this.digesting = new DigestingOutputStream(Objects.requireNonNull(out));
+        this.out = new MeteredOutputStream(digesting);
+        jis = new JarInputStream(this.in);
+        zos = new ZipFixingOutputStream(this.out);
     }
 
     ZipFixer(JarInputStream i, ZipFixingOutputStream o) {
@@ -117,7 +148,72 @@ public class ZipFixer implements Closeable {
         this.zos = o;
     }
 
+    /**
+     * Measures every entry from now on, and tells listener about it. Leave it as {@link EntryListener#NOOP} to not
+     * measure anything.
+     */
+    public void setEntryListener(EntryListener listener) {
+        this.listener = Objects.requireNonNull(listener);
+        boolean timed = EntryListener.NOOP != listener;
+        if (null != in) {
+            in.timed = timed;
+        }
+        if (null != out) {
+            out.timed = timed;
+        }
+    }
+
+    /**
+     * @param level the level entries are deflated at, from {@link Deflater#DEFAULT_COMPRESSION} to
+     *              {@link Deflater#BEST_COMPRESSION}.
+     */
+    public void setLevel(int level) {
+        this.level = CompressionEngine.checkLevel(level);
+    }
+
+    /**
+     * Where the Deflater entries are compressed with comes from, {@link CompressionEngine#POOLED} unless set.
+     */
+    public void setCompressionEngine(CompressionEngine engine) {
+        this.engine = Objects.requireNonNull(engine);
+    }
+
+    /**
+     * Digests the jar with each of algorithms as it's written, see {@link #getDigests()}. Must be called before
+     * {@link #adjustDatesToEpoch()}.
+     *
+     * @param algorithms any {@link java.security.MessageDigest} algorithms, such as
+     *                   {@link DigestingOutputStream#SIDECAR_ALGORITHMS}.
+     */
+    public void setDigestAlgorithms(List<String> algorithms) {
+        if (null == digesting) {
+            throw new IllegalStateException("Only a jar written by this ZipFixer can be digested");
+        }
+        digesting.setAlgorithms(algorithms);
+    }
+
+    /**
+     * Whether to write each digest next to the output jar once it's written, such as app.jar.sha256, see
+     * {@link DigestingOutputStream#writeSidecars(File, Map)}. Only for a jar written to a file.
+     */
+    public void setWriteSidecars(boolean writeSidecars) {
+        if (writeSidecars && null == outputFile) {
+            throw new IllegalStateException("Sidecars can only be written next to an output file");
+        }
+        this.writeSidecars = writeSidecars;
+    }
+
+    /**
+     * @return the digests, in hex, of the jar written, by algorithm. Empty unless
+     * {@link #setDigestAlgorithms(List)} was called.
+     */
+    public Map<String, String> getDigests() {
+        return null == digesting ? Collections.emptyMap() : digesting.getDigests();
+    }
+
     public void adjustDatesToEpoch() throws FileNotFoundException, IOException {
+        zos.setCompressionEngine(engine, level);
+
         // we want the manifest first, so we can give it to the outputstream
         // but you have to call getManifest after you call nextJarEntry
         // since we're changing the access times of the entry we can't pass it to the constructor,
@@ -132,6 +228,9 @@ public class ZipFixer implements Closeable {
         }
 
         close();
+        if (writeSidecars) {
+            DigestingOutputStream.writeSidecars(outputFile, getDigests());
+        }
     }
 
     void writeManifest() throws IOException {
@@ -145,8 +244,18 @@ public class ZipFixer implements Closeable {
             ZipEntry ze = new ZipEntry(JarFile.MANIFEST_NAME);
 
             // we can't use copyEntry here because we need to tell the manifest to write itself out.
+            if (EntryListener.NOOP == listener) {
+                zos.putNextEntry(ze);
+                manifest.write(zos);
+                return;
+            }
+
+            EntryMeter meter = new EntryMeter();
             zos.putNextEntry(ze);
-            manifest.write(zos);
+            MeteredOutputStream manifestBytes = new MeteredOutputStream(zos);
+            manifest.write(manifestBytes);
+            zos.closeEntry();
+            meter.finish(ze.getName(), manifestBytes.bytes, 0, System.nanoTime() - meter.start);
         }
     }
 
@@ -173,16 +282,66 @@ public class ZipFixer implements Closeable {
      * @throws IOException
      */
     void copyEntry(ZipEntry newEntry) throws IOException {
-        if (debug) {
-            // lazy man's debugging.
-            System.out.println("Writing " + newEntry.getName());
+        if (EntryListener.NOOP == listener) {
+            // outputstream will fix the times for us.
+            zos.putNextEntry(newEntry);
+
+            // however, we still need to shuttle the bytes across
+            copyEntryBytes(jis, zos);
+            return;
         }
 
-        // outputstream will fix the times for us.
+        EntryMeter meter = new EntryMeter();
         zos.putNextEntry(newEntry);
+        long writing = System.nanoTime() - meter.start;
+        long reading = 0;
+        long size = 0;
+
+        byte[] buffer = new byte[4096];
+        while (true) {
+            long start = System.nanoTime();
+            int len = jis.read(buffer);
+            long read = System.nanoTime();
+            reading += read - start;
+            if (-1 == len) {
+                break;
+            }
+            zos.write(buffer, 0, len);
+            writing += System.nanoTime() - read;
+            size += len;
+        }
 
-        // however, we still need to shuttle the bytes across
-        copyEntryBytes(jis, zos);
+        // the next putNextEntry would do this, but then it would count towards the next entry.
+        long start = System.nanoTime();
+        zos.closeEntry();
+        writing += System.nanoTime() - start;
+
+        meter.finish(newEntry.getName(), size, reading, writing);
+    }
+
+    /**
+     * Tells reading the archive from inflating, and deflating from writing the archive, by what went through
+     * {@link #in} and {@link #out} while an entry was copied.
+     */
+    private final class EntryMeter {
+        private final long start = System.nanoTime();
+        private final long bytesRead = null == in ? 0 : in.bytes;
+        private final long readNanos = null == in ? 0 : in.nanos;
+        private final long bytesWritten = null == out ? 0 : out.bytes;
+        private final long writeNanos = null == out ? 0 : out.nanos;
+
+        /**
+         * @param reading nanoseconds spent reading from jis.
+         * @param writing nanoseconds spent writing to zos.
+         */
+        private void finish(String name, long size, long reading, long writing) {
+            long read = null == in ? 0 : in.nanos - readNanos;
+            long written = null == out ? 0 : out.nanos - writeNanos;
+            listener.entryWritten(new EntryStats(name, size,
+                    null == in ? 0 : in.bytes - bytesRead,
+                    null == out ? 0 : out.bytes - bytesWritten,
+                    read, Math.max(0, reading - read), Math.max(0, writing - written), written));
+        }
     }
 
     /**
@@ -207,21 +366,13 @@ public class ZipFixer implements Closeable {
 
 
     public static void main(String[] args) throws FileNotFoundException, IOException {
-        if (args.length < 2) {
-            printHelp();
-            System.exit(-1);
-        }
-
-        try (ZipFixer zf = new ZipFixer(args[0], args[1])) {
-            zf.adjustDatesToEpoch();
+        // runs on the daemon when there is one.
+        int status = new ZipFixerClient(System.out, System.err).run(args);
+        if (0 != status) {
+            System.exit(status);
         }
     }
 
-    private static void printHelp() {
-        System.err.println("JarFixer usage: ");
-        System.err.println("JarFixer <inputJar> <outputJar>");
-    }
-
     @Override
     public void close() throws IOException {
         if (null != jis) {
@@ -232,6 +383,7 @@ public class ZipFixer implements Closeable {
         if (null != zos) {
             zos.close();
             zos = null;
+            listener.archiveClosed();
         }
     }
 }
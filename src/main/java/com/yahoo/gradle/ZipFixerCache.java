@@ -0,0 +1,325 @@
+/*
+ * Copyright 2016, Yahoo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.gradle;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+
+/**
+ * A directory of fixed jars, named by the SHA-256 of the input jar and the {@link FixMode} used to fix it.
+ * <p>
+ * On a hit the output is hard linked or copied from the cache without opening the jar. On a miss the jar is fixed as
+ * usual and the output is added to the cache, which then evicts the least recently used entries until it's back
+ * under its size limit. A hit is recorded in the time of a marker file next to the entry, not of the entry itself,
+ * which is also the time of every output hard linked to it.
+ * <p>
+ * Several processes can share a directory. Entries are written to a temporary file and atomically moved into place,
+ * so an entry is either complete or not there. Only one process evicts at a time, guarded by a lock file, and an
+ * entry that is evicted while it's being read is treated as a miss.
+ */
+public class ZipFixerCache {
+    static final String ENTRY_SUFFIX = ".zip";
+    static final String USED_SUFFIX = ".used";
+    static final String LOCK_FILE = "cache.lock";
+    // bump when a change means old entries shouldn't be used.
+    static final String VERSION = "1";
+
+    // temporary files older than this were left behind by a process that died.
+    private static final long STALE_TEMP_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private final Path directory;
+    private final long maxBytes;
+    private final boolean link;
+
+    /**
+     * @param directory where to keep the cache, created if it doesn't exist.
+     * @param maxBytes  how big the cache can get before entries are evicted.
+     * @param link      true to hard link outputs to the cache instead of copying them. Don't use this if the outputs
+     *                  are modified afterwards, that would modify the cache too.
+     */
+    public ZipFixerCache(File directory, long maxBytes, boolean link) throws IOException {
+        this.directory = Objects.requireNonNull(directory).toPath();
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("maxBytes can't be negative: " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+        this.link = link;
+        Files.createDirectories(this.directory);
+    }
+
+    /**
+     * Writes input fixed using mode to output, from the cache if it's there.
+     *
+     * @return true if output came from the cache.
+     */
+    public boolean fix(FixMode mode, File input, File output) throws IOException {
+        return fix(mode, Deflater.DEFAULT_COMPRESSION, input, output);
+    }
+
+    /**
+     * Writes input fixed using mode, deflating at level, to output, from the cache if it's there.
+     *
+     * @return true if output came from the cache.
+     */
+    public boolean fix(FixMode mode, int level, File input, File output) throws IOException {
+        Path entry = directory.resolve(key(mode, level, input) + ENTRY_SUFFIX);
+
+        if (get(entry, output.toPath())) {
+            return true;
+        }
+
+        mode.fix(input, output, level);
+        put(entry, output.toPath());
+        evict();
+        return false;
+    }
+
+    /**
+     * @return the key of input fixed using mode: the SHA-256 of the settings and the contents of input, in hex.
+     */
+    static String key(FixMode mode, File input) throws IOException {
+        return key(mode, Deflater.DEFAULT_COMPRESSION, input);
+    }
+
+    /**
+     * @return the key of input fixed using mode, deflating at level. The default level leaves the key as it was before
+     * there were levels, so existing entries are still found.
+     */
+    static String key(FixMode mode, int level, File input) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is always available", e);
+        }
+
+        String settings = VERSION + ":" + mode.name() + ":";
+        if (Deflater.DEFAULT_COMPRESSION != level) {
+            settings += "level" + level + ":";
+        }
+        digest.update(settings.getBytes(StandardCharsets.UTF_8));
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(input.toPath())) {
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private boolean get(Path entry, Path output) throws IOException {
+        if (!Files.exists(entry)) {
+            return false;
+        }
+        try {
+            materialize(entry, output);
+        } catch (NoSuchFileException e) {
+            // evicted by someone else since.
+            return false;
+        }
+        // for eviction, a hit makes this the most recently used entry.
+        touch(used(entry));
+        return true;
+    }
+
+    /**
+     * @return the marker whose time is when entry was last a hit.
+     */
+    private static Path used(Path entry) {
+        return entry.resolveSibling(entry.getFileName() + USED_SUFFIX);
+    }
+
+    private static void touch(Path marker) throws IOException {
+        try {
+            Files.createFile(marker);
+        } catch (FileAlreadyExistsException e) {
+            try {
+                Files.setLastModifiedTime(marker, FileTime.fromMillis(System.currentTimeMillis()));
+            } catch (NoSuchFileException evicted) {
+                // its entry was evicted just now.
+            }
+        }
+    }
+
+    private void materialize(Path entry, Path output) throws IOException {
+        if (link) {
+            Files.deleteIfExists(output);
+            try {
+                Files.createLink(output, entry);
+                return;
+            } catch (NoSuchFileException e) {
+                throw e;
+            } catch (UnsupportedOperationException | FileSystemException e) {
+                // links can't cross file systems.
+            }
+        }
+        Files.copy(entry, output, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void put(Path entry, Path output) throws IOException {
+        Path temp = Files.createTempFile(directory, "entry", ".tmp");
+        try {
+            Files.copy(output, temp, StandardCopyOption.REPLACE_EXISTING);
+            try {
+                Files.move(temp, entry, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING);
+            } catch (FileAlreadyExistsException e) {
+                // someone else put the same thing there first.
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Deletes the least recently used entries until the cache is no bigger than its limit. Does nothing if another
+     * process is already evicting.
+     */
+    void evict() throws IOException {
+        try (FileChannel lockFile = FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE)) {
+            FileLock lock;
+            try {
+                lock = lockFile.tryLock();
+            } catch (OverlappingFileLockException e) {
+                // another thread in this jvm.
+                return;
+            }
+            if (null == lock) {
+                return;
+            }
+
+            try {
+                evictLocked();
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    private void evictLocked() throws IOException {
+        List<CacheFile> entries = new ArrayList<>();
+        Map<Path, Long> hits = new HashMap<>();
+        long total = 0;
+        long now = System.currentTimeMillis();
+
+        List<Path> paths = list();
+        for (Path path : paths) {
+            String name = path.getFileName().toString();
+            try {
+                long modified = Files.getLastModifiedTime(path).toMillis();
+                if (name.endsWith(".tmp")) {
+                    if (now - modified > STALE_TEMP_MILLIS) {
+                        Files.deleteIfExists(path);
+                    }
+                } else if (name.endsWith(USED_SUFFIX)) {
+                    Path entry = path.resolveSibling(name.substring(0, name.length() - USED_SUFFIX.length()));
+                    if (Files.exists(entry)) {
+                        hits.put(path, modified);
+                    } else {
+                        // touched by a hit on an entry that was being evicted.
+                        Files.deleteIfExists(path);
+                    }
+                }
+            } catch (NoSuchFileException e) {
+                // gone already.
+            }
+        }
+        for (Path path : paths) {
+            if (!path.getFileName().toString().endsWith(ENTRY_SUFFIX)) {
+                continue;
+            }
+            try {
+                // an entry that's never been a hit was last used when it was added.
+                long lastUsed = Math.max(Files.getLastModifiedTime(path).toMillis(),
+                        hits.getOrDefault(used(path), 0L));
+                CacheFile entry = new CacheFile(path, Files.size(path), lastUsed);
+                entries.add(entry);
+                total += entry.size;
+            } catch (NoSuchFileException e) {
+                // gone already.
+            }
+        }
+
+        entries.sort(Comparator.comparingLong(e -> e.lastUsed));
+        for (CacheFile entry : entries) {
+            if (total <= maxBytes) {
+                break;
+            }
+            try {
+                Files.deleteIfExists(entry.path);
+                Files.deleteIfExists(used(entry.path));
+                total -= entry.size;
+            } catch (FileSystemException e) {
+                // still open on windows, try again next time.
+            }
+        }
+    }
+
+    private List<Path> list() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.collect(Collectors.toList());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static final class CacheFile {
+        private final Path path;
+        private final long size;
+        private final long lastUsed;
+
+        private CacheFile(Path path, long size, long lastUsed) {
+            this.path = path;
+            this.size = size;
+            this.lastUsed = lastUsed;
+        }
+    }
+}
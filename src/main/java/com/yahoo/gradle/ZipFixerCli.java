@@ -0,0 +1,723 @@
+/*
+ * Copyright 2016, Yahoo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.gradle;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+/**
+ * The command line behind {@link ZipFixer#main(String[])}. Kept apart from main so it can be run without exiting
+ * the JVM.
+ */
+public class ZipFixerCli {
+    static final int USAGE = -1;
+    static final long DEFAULT_CACHE_SIZE = 1024L * 1024 * 1024;
+    // in place of a file name, stdin or stdout.
+    static final String STDIO = "-";
+
+    private final InputStream in;
+    private final PrintStream out;
+    private final PrintStream err;
+    // what relative paths are relative to, null for the JVM's working directory.
+    private final File workingDir;
+
+    private FixMode mode = FixMode.REWRITE;
+    private boolean skipNormalized = false;
+    private boolean link = false;
+    private boolean batch = false;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private File outputDir = null;
+    private File cacheDir = null;
+    private long cacheSize = DEFAULT_CACHE_SIZE;
+    private long sortMemory = SortedZipFixer.DEFAULT_MEMORY_BUDGET;
+    private boolean checksums = false;
+    private File report = null;
+    private boolean jfr = false;
+    private int level = Deflater.DEFAULT_COMPRESSION;
+    private boolean compare = false;
+    private boolean compareContent = false;
+    private boolean firstDifference = false;
+    private boolean digest = false;
+    private boolean payloads = false;
+    private boolean fromDir = false;
+    private boolean merge = false;
+    private JarMerger.Duplicates duplicates = JarMerger.Duplicates.FIRST;
+    private final List<String> excludes = new ArrayList<>();
+    private boolean mergeServices = false;
+    private boolean daemon = false;
+    private boolean stopDaemon = false;
+    private final List<String> arguments = new ArrayList<>();
+
+    public ZipFixerCli(PrintStream out, PrintStream err) {
+        this(System.in, out, err);
+    }
+
+    /**
+     * @param in  read when the input jar is {@value #STDIO}.
+     * @param out written to when the output jar is {@value #STDIO}, as well as for messages otherwise.
+     */
+    public ZipFixerCli(InputStream in, PrintStream out, PrintStream err) {
+        this(in, out, err, null);
+    }
+
+    /**
+     * Runs on behalf of a client in another directory, see {@link ZipFixerDaemon}.
+     *
+     * @param workingDir what relative paths are relative to.
+     */
+    ZipFixerCli(InputStream in, PrintStream out, PrintStream err, File workingDir) {
+        this.in = in;
+        this.out = out;
+        this.err = err;
+        this.workingDir = workingDir;
+    }
+
+    /**
+     * @return the exit status, 0 on success.
+     */
+    public int run(String... args) throws IOException {
+        if (!parse(args)) {
+            printHelp();
+            return USAGE;
+        }
+
+        if (compare) {
+            return runCompare();
+        }
+
+        if (digest) {
+            return runDigest();
+        }
+
+        if (fromDir) {
+            return runFromDir();
+        }
+
+        if (merge) {
+            return runMerge();
+        }
+
+        if (daemon) {
+            return runDaemon();
+        }
+
+        if (stopDaemon) {
+            return runStopDaemon();
+        }
+
+        if (measuring() && (batch || FixMode.REWRITE != mode || null != cacheDir)) {
+            err.println("--report and --jfr only measure fixing a single jar in the default mode, without --cache-dir");
+            return USAGE;
+        }
+
+        if (Deflater.DEFAULT_COMPRESSION != level && (FixMode.RAW == mode || FixMode.IN_PLACE == mode)) {
+            err.println("--level only applies to the modes that deflate, --raw and --in-place don't");
+            return USAGE;
+        }
+
+        if (skipNormalized && !mode.onlyFixesTimes()) {
+            err.println("--skip-normalized only checks times, so it can't tell whether --sorted or --nested would "
+                    + "change the jar");
+            return USAGE;
+        }
+
+        if (checksums && (batch || arguments.contains(STDIO))) {
+            err.println("--checksums only writes sidecars next to a single output jar, not for --batch or " + STDIO);
+            return USAGE;
+        }
+
+        if (batch) {
+            return runBatch();
+        }
+
+        if (arguments.contains(STDIO)) {
+            return runStreaming();
+        }
+
+        if (FixMode.IN_PLACE == mode && arguments.size() == 1) {
+            File jar = file(arguments.get(0));
+            fix(jar, jar);
+            return 0;
+        }
+
+        if (arguments.size() != 2) {
+            printHelp();
+            return USAGE;
+        }
+
+        fix(file(arguments.get(0)), file(arguments.get(1)));
+        return 0;
+    }
+
+    private void fix(File input, File output) throws IOException {
+        if (!fixJar(input, output) && checksums) {
+            // whichever way it was written, it's still in the page cache.
+            DigestingOutputStream.writeSidecars(output,
+                    DigestingOutputStream.digest(output, DigestingOutputStream.SIDECAR_ALGORITHMS));
+        }
+    }
+
+    /**
+     * @return true if the jar was digested, and its sidecars written, as it was written.
+     */
+    private boolean fixJar(File input, File output) throws IOException {
+        if (skipMode().skip(mode, input, output)) {
+            out.println(input + " is already normalized");
+            return false;
+        }
+        ZipFixerCache cache = cache();
+        if (null != cache) {
+            cache.fix(mode, level, input, output);
+            return false;
+        }
+        if (FixMode.REWRITE == mode && (measuring() || checksums)) {
+            ZipFixer zf = new ZipFixer(input, output);
+            if (checksums) {
+                zf.setDigestAlgorithms(DigestingOutputStream.SIDECAR_ALGORITHMS);
+                zf.setWriteSidecars(true);
+            }
+            measure(zf);
+            return checksums;
+        }
+        if (checksums && mode.canStream()) {
+            // the other streaming modes are digested on the way to the file the same way.
+            Map<String, String> digests;
+            try (InputStream is = new FileInputStream(input);
+                 DigestingOutputStream os = new DigestingOutputStream(new FileOutputStream(output),
+                         DigestingOutputStream.SIDECAR_ALGORITHMS)) {
+                mode.fix(is, os, level);
+                digests = os.getDigests();
+            }
+            DigestingOutputStream.writeSidecars(output, digests);
+            return true;
+        }
+        if (FixMode.SORTED == mode) {
+            try (SortedZipFixer zf = new SortedZipFixer(input, output)) {
+                zf.setLevel(level);
+                zf.setMemoryBudget(sortMemory);
+                zf.adjustDatesToEpoch();
+            }
+            return false;
+        }
+        mode.fix(input, output, level);
+        return false;
+    }
+
+    private File file(String path) {
+        File file = new File(path);
+        return null == workingDir || file.isAbsolute() ? file : new File(workingDir, path);
+    }
+
+    /**
+     * @return paths, which can also be globs, made relative to the working directory.
+     */
+    private List<String> resolved(List<String> paths) {
+        List<String> resolved = new ArrayList<>();
+        for (String path : paths) {
+            resolved.add(file(path).getPath());
+        }
+        return resolved;
+    }
+
+    private boolean measuring() {
+        return null != report || jfr;
+    }
+
+    private EntryListener entryListener() {
+        return EntryListener.all(null == report ? EntryListener.NOOP : new EntryReport(report),
+                jfr ? EntryListener.jfr() : EntryListener.NOOP);
+    }
+
+    private void measure(ZipFixer zf) throws IOException {
+        try {
+            zf.setLevel(level);
+            zf.setEntryListener(entryListener());
+            zf.adjustDatesToEpoch();
+        } finally {
+            zf.close();
+        }
+    }
+
+    /**
+     * Fixes a jar read from stdin or written to stdout, or both, buffering no more than the streams themselves do.
+     */
+    private int runStreaming() throws IOException {
+        if (arguments.size() != 2) {
+            printHelp();
+            return USAGE;
+        }
+        if (!mode.canStream() || skipNormalized || null != cacheDir) {
+            err.println("Only the default, --pipelined and --nested modes can use " + STDIO
+                    + ", without --skip-normalized or --cache-dir");
+            return USAGE;
+        }
+
+        String input = arguments.get(0);
+        String output = arguments.get(1);
+        try (InputStream is = STDIO.equals(input) ? new UnclosedInputStream(in) : new FileInputStream(file(input));
+             OutputStream os = STDIO.equals(output) ? new UnclosedOutputStream(out)
+                     : new FileOutputStream(file(output))) {
+            if (FixMode.REWRITE == mode && measuring()) {
+                measure(new ZipFixer(is, os));
+            } else {
+                mode.fix(is, os, level);
+            }
+        }
+
+        // PrintStream swallows errors, such as the other end of a pipe going away.
+        if (STDIO.equals(output) && out.checkError()) {
+            err.println("Failed writing to stdout");
+            return 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Prints how two jars differ, ignoring their times.
+     *
+     * @return 0 if they are the same, 1 if they aren't.
+     */
+    private int runCompare() throws IOException {
+        if (batch || arguments.size() != 2) {
+            printHelp();
+            return USAGE;
+        }
+        if (arguments.contains(STDIO)) {
+            err.println("--compare needs files, it can't read " + STDIO);
+            return USAGE;
+        }
+
+        try (ZipComparator comparator = new ZipComparator(file(arguments.get(0)), file(arguments.get(1)))) {
+            comparator.setCompareContent(compareContent);
+            comparator.setStopAtFirstDifference(firstDifference);
+            return 0 == comparator.compare(out::println) ? 0 : 1;
+        }
+    }
+
+    /**
+     * Prints the canonical digest of each jar, the way sha256sum prints digests.
+     */
+    private int runDigest() throws IOException {
+        if (batch || arguments.isEmpty()) {
+            printHelp();
+            return USAGE;
+        }
+        if (arguments.contains(STDIO)) {
+            err.println("--digest needs files, it can't read " + STDIO);
+            return USAGE;
+        }
+
+        for (String jar : arguments) {
+            CanonicalDigest canonical = new CanonicalDigest(file(jar));
+            canonical.setPayloads(payloads);
+            canonical.setThreads(threads);
+            out.println(canonical.digestHex() + "  " + jar);
+        }
+        return 0;
+    }
+
+    /**
+     * Writes a directory straight to a fixed jar.
+     */
+    private int runFromDir() throws IOException {
+        if (batch || arguments.size() != 2 || FixMode.REWRITE != mode) {
+            printHelp();
+            return USAGE;
+        }
+        if (arguments.contains(STDIO)) {
+            err.println("--from-dir needs files, it can't use " + STDIO);
+            return USAGE;
+        }
+
+        DirectoryJarBuilder builder = new DirectoryJarBuilder(file(arguments.get(0)), file(arguments.get(1)));
+        builder.setThreads(threads);
+        builder.setLevel(level);
+        builder.build();
+        return 0;
+    }
+
+    /**
+     * Merges jars into one, the last argument.
+     */
+    private int runMerge() throws IOException {
+        if (batch || arguments.size() < 2 || FixMode.REWRITE != mode) {
+            printHelp();
+            return USAGE;
+        }
+        if (arguments.contains(STDIO)) {
+            err.println("--merge needs files, it can't use " + STDIO);
+            return USAGE;
+        }
+
+        List<File> jars = new ArrayList<>();
+        for (String jar : arguments.subList(0, arguments.size() - 1)) {
+            jars.add(file(jar));
+        }
+        JarMerger merger = new JarMerger(jars, file(arguments.get(arguments.size() - 1)));
+        merger.setDuplicates(duplicates);
+        merger.setMergeServices(mergeServices);
+        merger.setThreads(threads);
+        for (String exclude : excludes) {
+            merger.addExclude(exclude);
+        }
+        merger.merge();
+        return 0;
+    }
+
+    /**
+     * Runs commands for {@link ZipFixerClient}s until one of them stops it.
+     */
+    private int runDaemon() throws IOException {
+        if (batch || !arguments.isEmpty()) {
+            printHelp();
+            return USAGE;
+        }
+        ZipFixerClient client = new ZipFixerClient(out, err);
+        if (client.isDaemonRunning()) {
+            err.println("A daemon is already running, see " + ZipFixerDaemon.defaultFile());
+            return 1;
+        }
+
+        try (ZipFixerDaemon zipFixerDaemon = new ZipFixerDaemon(ZipFixerDaemon.defaultFile(), threads)) {
+            out.println("Listening on port " + zipFixerDaemon.getPort());
+            zipFixerDaemon.awaitStop();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            err.println("Interrupted");
+            return 1;
+        }
+        return 0;
+    }
+
+    private int runStopDaemon() throws IOException {
+        if (batch || !arguments.isEmpty()) {
+            printHelp();
+            return USAGE;
+        }
+        if (!new ZipFixerClient(out, err).stopDaemon()) {
+            err.println("No daemon is running");
+            return 1;
+        }
+        return 0;
+    }
+
+    private ZipFixerCache cache() throws IOException {
+        return null == cacheDir ? null : new ZipFixerCache(cacheDir, cacheSize, link);
+    }
+
+    private SkipMode skipMode() {
+        if (!skipNormalized) {
+            return SkipMode.NEVER;
+        }
+        return link ? SkipMode.LINK : SkipMode.COPY;
+    }
+
+    private int runBatch() throws IOException {
+        if (arguments.isEmpty() || (null == outputDir && FixMode.IN_PLACE != mode)) {
+            printHelp();
+            return USAGE;
+        }
+
+        try {
+            BatchZipFixer fixer = new BatchZipFixer(mode, threads, skipMode(), cache(), level);
+            BatchZipFixer.Summary summary = fixer.run(BatchZipFixer.jobs(resolved(arguments), outputDir, mode));
+            for (String failure : summary.getFailures()) {
+                err.println(failure);
+            }
+            out.println(summary);
+            return 0 == summary.getFailed() ? 0 : 1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            err.println("Interrupted");
+            return 1;
+        }
+    }
+
+    private boolean parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "--raw":
+                    mode = FixMode.RAW;
+                    break;
+                case "--pipelined":
+                    mode = FixMode.PIPELINED;
+                    break;
+                case "--nested":
+                    mode = FixMode.NESTED;
+                    break;
+                case "--random-access":
+                    mode = FixMode.RANDOM_ACCESS;
+                    break;
+                case "--checksums":
+                    checksums = true;
+                    break;
+                case "--sorted":
+                    mode = FixMode.SORTED;
+                    break;
+                case "--sort-memory":
+                    if (++i == args.length) {
+                        return false;
+                    }
+                    try {
+                        sortMemory = Long.parseLong(args[i]);
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                    if (sortMemory < 1) {
+                        return false;
+                    }
+                    break;
+                case "--in-place":
+                    mode = FixMode.IN_PLACE;
+                    break;
+                case "--skip-normalized":
+                    skipNormalized = true;
+                    break;
+                case "--link":
+                    link = true;
+                    break;
+                case "--batch":
+                    batch = true;
+                    break;
+                case "--threads":
+                    if (++i == args.length) {
+                        return false;
+                    }
+                    try {
+                        threads = Integer.parseInt(args[i]);
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                    if (threads < 1) {
+                        return false;
+                    }
+                    break;
+                case "--level":
+                    if (++i == args.length) {
+                        return false;
+                    }
+                    try {
+                        level = Integer.parseInt(args[i]);
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                    if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+                        return false;
+                    }
+                    break;
+                case "--cache-dir":
+                    if (++i == args.length) {
+                        return false;
+                    }
+                    cacheDir = file(args[i]);
+                    break;
+                case "--cache-size":
+                    if (++i == args.length) {
+                        return false;
+                    }
+                    try {
+                        cacheSize = Long.parseLong(args[i]);
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                    if (cacheSize < 0) {
+                        return false;
+                    }
+                    break;
+                case "--report":
+                    if (++i == args.length) {
+                        return false;
+                    }
+                    report = file(args[i]);
+                    break;
+                case "--jfr":
+                    jfr = true;
+                    break;
+                case "--compare":
+                    compare = true;
+                    break;
+                case "--content":
+                    compareContent = true;
+                    break;
+                case "--first-difference":
+                    firstDifference = true;
+                    break;
+                case "--digest":
+                    digest = true;
+                    break;
+                case "--payloads":
+                    payloads = true;
+                    break;
+                case "--from-dir":
+                    fromDir = true;
+                    break;
+                case "--merge":
+                    merge = true;
+                    break;
+                case "--daemon":
+                    daemon = true;
+                    break;
+                case "--stop-daemon":
+                    stopDaemon = true;
+                    break;
+                case "--duplicates":
+                    if (++i == args.length) {
+                        return false;
+                    }
+                    try {
+                        duplicates = JarMerger.Duplicates.valueOf(args[i].toUpperCase(Locale.ROOT));
+                    } catch (IllegalArgumentException e) {
+                        err.println("--duplicates must be first, last or fail, not " + args[i]);
+                        return false;
+                    }
+                    break;
+                case "--exclude":
+                    if (++i == args.length) {
+                        return false;
+                    }
+                    excludes.add(args[i]);
+                    break;
+                case "--merge-services":
+                    mergeServices = true;
+                    break;
+                case "--output-dir":
+                    if (++i == args.length) {
+                        return false;
+                    }
+                    outputDir = file(args[i]);
+                    break;
+                default:
+                    if (arg.startsWith("--")) {
+                        err.println("Unknown option " + arg);
+                        return false;
+                    }
+                    arguments.add(arg);
+                    break;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Keeps stdin open once the jar has been read.
+     */
+    private static final class UnclosedInputStream extends FilterInputStream {
+        private UnclosedInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Keeps stdout open once the jar has been written, flushing it instead.
+     */
+    private static final class UnclosedOutputStream extends FilterOutputStream {
+        private UnclosedOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+    private void printHelp() {
+        err.println("JarFixer usage: ");
+        err.println("JarFixer [--raw|--pipelined|--random-access] [--level n] [--skip-normalized] "
+                + "[--cache-dir dir [--cache-size bytes]] [--link] [--checksums] <inputJar> <outputJar>");
+        err.println("JarFixer --nested [--level n] [--cache-dir dir [--cache-size bytes]] [--link] [--checksums] "
+                + "<inputJar> <outputJar>");
+        err.println("JarFixer [--level n] [--report file] [--jfr] <inputJar|-> <outputJar|->");
+        err.println("JarFixer --in-place [--skip-normalized] <jar>");
+        err.println("JarFixer [--pipelined|--nested] [--level n] <inputJar|-> <outputJar|->");
+        err.println("JarFixer --sorted [--sort-memory bytes] [--level n] "
+                + "[--cache-dir dir [--cache-size bytes]] [--link] <inputJar> <outputJar>");
+        err.println("JarFixer --batch [--raw|--pipelined|--random-access|--in-place] [--level n] "
+                + "[--skip-normalized] [--cache-dir dir [--cache-size bytes]] [--link] [--threads n] "
+                + "[--output-dir dir] <jar|dir|glob>...");
+        err.println("JarFixer --batch --sorted|--nested [--level n] [--cache-dir dir [--cache-size bytes]] [--link] "
+                + "[--threads n] [--output-dir dir] <jar|dir|glob>...");
+        err.println("JarFixer --compare [--content] [--first-difference] <jar> <jar>");
+        err.println("JarFixer --digest [--payloads] [--threads n] <jar>...");
+        err.println("JarFixer --from-dir [--level n] [--threads n] <dir> <outputJar>");
+        err.println("JarFixer --merge [--duplicates first|last|fail] [--exclude glob]... [--merge-services] "
+                + "[--threads n] <jar>... <outputJar>");
+        err.println("JarFixer --daemon [--threads n]");
+        err.println("JarFixer --stop-daemon");
+        err.println("  " + STDIO + "                  in place of inputJar or outputJar, read stdin or write stdout");
+        err.println("  --raw              only rewrite the time fields in the headers, copying entry data as is");
+        err.println("  --pipelined        read, compress and write entries on separate threads, writing the same jar");
+        err.println("  --nested           also fix the jars nested inside the jar, such as BOOT-INF/lib/*.jar");
+        err.println("  --random-access    read entries through the central directory, inflating and deflating "
+                + "several at once, writing the same jar");
+        err.println("  --checksums        write the SHA-1 and SHA-256 of the output jar to outputJar.sha1 and "
+                + "outputJar.sha256");
+        err.println("  --sorted           put the manifest first and every other entry in order of name");
+        err.println("  --sort-memory      how many bytes of entry names to sort in memory before spilling them to "
+                + "disk, defaults to " + SortedZipFixer.DEFAULT_MEMORY_BUDGET);
+        err.println("  --in-place         rewrite the time fields in the headers of jar without copying it");
+        err.println("  --level            deflate at level n, from 0 (stored) through 1 (fastest) to 9 (smallest), "
+                + "-1 for zlib's default");
+        err.println("  --skip-normalized  don't fix jars whose times are already epoch, copy them as is, not with "
+                + "--sorted or --nested");
+        err.println("  --cache-dir        keep fixed jars in dir, and reuse them when the same jar is fixed again");
+        err.println("  --cache-size       how many bytes the cache can use, defaults to " + DEFAULT_CACHE_SIZE);
+        err.println("  --link             hard link jars that are already normalized or cached instead of copying");
+        err.println("  --batch            fix every jar, directory of jars or glob given, in parallel");
+        err.println("  --threads          how many jars to fix at once in a batch, entries to read at once for "
+                + "--payloads, files to read and deflate at once for --from-dir, jars to read at once for --merge, "
+                + "or commands to run at once for --daemon, defaults to the number of cores");
+        err.println("  --report           write the bytes and time each entry took to file, as JSON");
+        err.println("  --jfr              record a Flight Recorder event for each entry, see -XX:StartFlightRecording");
+        err.println("  --compare          print how two jars differ, ignoring times, exiting with 1 if they do");
+        err.println("  --content          also compare the contents of entries whose sizes and CRCs match");
+        err.println("  --first-difference stop comparing at the first difference");
+        err.println("  --digest           print a digest of what's in each jar that ignores times, order and "
+                + "compression");
+        err.println("  --payloads         include the data of every entry in the digest, not just its size and CRC");
+        err.println("  --from-dir         write a fixed jar straight from a directory, such as build/classes");
+        err.println("  --merge            copy the entries of every jar into outputJar, without recompressing them");
+        err.println("  --duplicates       which jar a file in more than one of them comes from, defaults to first");
+        err.println("  --exclude          leave out the entries matching glob, such as 'META-INF/*.SF'");
+        err.println("  --merge-services   concatenate the META-INF/services files of every jar instead");
+        err.println("  --daemon           stay running, fixing, comparing and digesting jars for later runs, "
+                + "--threads at a time");
+        err.println("  --stop-daemon      stop the daemon");
+        err.println("  --output-dir       where to write the fixed jars of a batch, required unless --in-place");
+    }
+}
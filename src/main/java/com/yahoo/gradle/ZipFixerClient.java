@@ -0,0 +1,179 @@
+/*
+ * Copyright 2016, Yahoo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.gradle;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs {@link ZipFixerCli} commands on a {@link ZipFixerDaemon} when one is running, and in this JVM when there isn't
+ * one, or the command needs this JVM's stdin or stdout.
+ */
+public class ZipFixerClient {
+    private static final int CONNECT_TIMEOUT_MILLIS = 1000;
+    private static final List<String> LOCAL_ONLY = Arrays.asList(ZipFixerCli.STDIO, "--daemon", "--stop-daemon");
+
+    private final File daemonFile;
+    private final PrintStream out;
+    private final PrintStream err;
+
+    public ZipFixerClient(PrintStream out, PrintStream err) {
+        this(ZipFixerDaemon.defaultFile(), out, err);
+    }
+
+    public ZipFixerClient(File daemonFile, PrintStream out, PrintStream err) {
+        this.daemonFile = daemonFile;
+        this.out = out;
+        this.err = err;
+    }
+
+    /**
+     * @return the exit status, 0 on success.
+     */
+    public int run(String... args) throws IOException {
+        if (!isLocalOnly(args)) {
+            try (Connection connection = connect()) {
+                if (null != connection) {
+                    return connection.run(args);
+                }
+            }
+        }
+        return new ZipFixerCli(out, err).run(args);
+    }
+
+    private static boolean isLocalOnly(String... args) {
+        for (String arg : args) {
+            if (LOCAL_ONLY.contains(arg)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if a daemon is running and answering.
+     */
+    public boolean isDaemonRunning() throws IOException {
+        try (Connection connection = connect()) {
+            if (null == connection) {
+                return false;
+            }
+            connection.send(ZipFixerDaemon.PING);
+            return true;
+        }
+    }
+
+    /**
+     * @return true if there was a daemon to stop.
+     */
+    public boolean stopDaemon() throws IOException {
+        try (Connection connection = connect()) {
+            if (null == connection) {
+                return false;
+            }
+            connection.send(ZipFixerDaemon.STOP);
+            return true;
+        }
+    }
+
+    /**
+     * @return a connection the daemon has accepted, or null if there's no daemon to connect to.
+     */
+    private Connection connect() throws IOException {
+        String[] contents;
+        try {
+            contents = new String(Files.readAllBytes(daemonFile.toPath()), StandardCharsets.US_ASCII).trim()
+                    .split(" ");
+        } catch (IOException e) {
+            return null;
+        }
+        if (2 != contents.length) {
+            return null;
+        }
+
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(contents[0])),
+                    CONNECT_TIMEOUT_MILLIS);
+            Connection connection = new Connection(socket);
+            connection.out.writeUTF(contents[1]);
+            connection.out.flush();
+            if (connection.in.readBoolean()) {
+                return connection;
+            }
+        } catch (IOException | NumberFormatException e) {
+            // a daemon that's gone away, or something else on its port. Nothing has been run yet.
+        }
+        socket.close();
+        return null;
+    }
+
+    private final class Connection implements AutoCloseable {
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+
+        private Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        private void send(String command) throws IOException {
+            out.writeUTF(command);
+            out.flush();
+        }
+
+        private int run(String... args) throws IOException {
+            out.writeUTF(ZipFixerDaemon.RUN);
+            out.writeUTF(new File("").getAbsolutePath());
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+
+            int status = in.readInt();
+            copy(ZipFixerClient.this.out);
+            copy(err);
+            return status;
+        }
+
+        private void copy(PrintStream to) throws IOException {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            to.write(bytes);
+            to.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2016, Yahoo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.gradle;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a JVM running, with its JIT warmed up, to run {@link ZipFixerCli} commands for {@link ZipFixerClient}, so
+ * that fixing a small jar doesn't mostly consist of starting a JVM.
+ * <p>
+ * It only listens on the loopback address, and writes its port and a random token to its daemon file, readable only
+ * by its owner where the file system allows. A client has to send the token before anything else, so only someone who
+ * can read the file can have the daemon read and write files on their behalf.
+ * <p>
+ * A request is the token, then either {@value #RUN}, the client's working directory and its arguments, {@value #PING}
+ * or {@value #STOP}. Once the token is accepted a run is answered with its exit status followed by whatever it printed
+ * to stdout and stderr. Requests run on a pool of threads, several at once.
+ */
+public class ZipFixerDaemon implements Closeable {
+    static final String RUN = "run";
+    static final String STOP = "stop";
+    static final String PING = "ping";
+
+    private static final int TOKEN_BYTES = 16;
+
+    private final File daemonFile;
+    private final String token;
+    private final ServerSocket server;
+    private final ExecutorService pool;
+    private final Thread acceptor;
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    /**
+     * @return where the daemon writes its port and token, and where clients look for them, ~/.zipfixer/daemon.
+     */
+    public static File defaultFile() {
+        return new File(new File(System.getProperty("user.home"), ".zipfixer"), "daemon");
+    }
+
+    /**
+     * Starts listening, and writes daemonFile once requests can be taken.
+     *
+     * @param threads how many requests to run at once.
+     */
+    public ZipFixerDaemon(File daemonFile, int threads) throws IOException {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1, not " + threads);
+        }
+        this.daemonFile = daemonFile;
+        byte[] random = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(random);
+        this.token = CanonicalDigest.hex(random);
+        this.server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        this.pool = Executors.newFixedThreadPool(threads);
+        this.acceptor = new Thread(this::accept, "ZipFixerDaemon acceptor");
+
+        try {
+            writeDaemonFile();
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+        acceptor.start();
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    private void writeDaemonFile() throws IOException {
+        File dir = daemonFile.getAbsoluteFile().getParentFile();
+        Files.createDirectories(dir.toPath());
+        Path temp = Files.createTempFile(dir.toPath(), "daemon", ".tmp");
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            Files.setPosixFilePermissions(temp, PosixFilePermissions.fromString("rw-------"));
+        }
+        Files.write(temp, (getPort() + " " + token + "\n").getBytes(StandardCharsets.US_ASCII));
+        // a client never sees half a file.
+        Files.move(temp, daemonFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void accept() {
+        try {
+            while (!server.isClosed()) {
+                Socket socket = server.accept();
+                try {
+                    pool.execute(() -> handle(socket));
+                } catch (RejectedExecutionException e) {
+                    // stopping.
+                    socket.close();
+                }
+            }
+        } catch (SocketException e) {
+            // closed.
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            stopped.countDown();
+        }
+    }
+
+    private void handle(Socket socket) {
+        try (Socket s = socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()))) {
+            boolean accepted = MessageDigest.isEqual(in.readUTF().getBytes(StandardCharsets.US_ASCII),
+                    token.getBytes(StandardCharsets.US_ASCII));
+            out.writeBoolean(accepted);
+            out.flush();
+            if (!accepted) {
+                return;
+            }
+
+            String command = in.readUTF();
+            if (PING.equals(command)) {
+                return;
+            }
+            if (STOP.equals(command)) {
+                close();
+                return;
+            }
+            if (!RUN.equals(command)) {
+                throw new IOException("Unknown command " + command);
+            }
+
+            File workingDir = new File(in.readUTF());
+            String[] args = new String[in.readInt()];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = in.readUTF();
+            }
+            run(workingDir, args, out);
+        } catch (IOException e) {
+            // the client went away, there's no one to tell.
+        }
+    }
+
+    private static void run(File workingDir, String[] args, DataOutputStream response) throws IOException {
+        ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+        int status;
+        try (PrintStream out = new PrintStream(stdout, true, "UTF-8");
+             PrintStream err = new PrintStream(stderr, true, "UTF-8")) {
+            try {
+                // stdin is the client's, commands that read it run there.
+                status = new ZipFixerCli(new ByteArrayInputStream(new byte[0]), out, err, workingDir).run(args);
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace(err);
+                status = 1;
+            }
+        }
+
+        response.writeInt(status);
+        response.writeInt(stdout.size());
+        stdout.writeTo(response);
+        response.writeInt(stderr.size());
+        stderr.writeTo(response);
+        response.flush();
+    }
+
+    /**
+     * Waits until the daemon is stopped, by a client or {@link #close()}, and the requests it was running are done.
+     */
+    public void awaitStop() throws InterruptedException {
+        stopped.await();
+        while (!pool.awaitTermination(1, TimeUnit.SECONDS)) {
+            // still running a request.
+        }
+    }
+
+    /**
+     * Stops taking requests, lets the ones already running finish, and deletes the daemon file if it's still this
+     * daemon's.
+     */
+    @Override
+    public void close() throws IOException {
+        pool.shutdown();
+        try {
+            server.close();
+        } finally {
+            deleteDaemonFile();
+        }
+    }
+
+    private void deleteDaemonFile() throws IOException {
+        try {
+            String contents = new String(Files.readAllBytes(daemonFile.toPath()), StandardCharsets.US_ASCII);
+            if (contents.trim().endsWith(" " + token)) {
+                Files.deleteIfExists(daemonFile.toPath());
+            }
+        } catch (NoSuchFileException e) {
+            // already gone.
+        }
+    }
+}
@@ -18,6 +18,7 @@ package com.yahoo.gradle;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.jar.JarOutputStream;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 
 /**
@@ -26,6 +27,10 @@ import java.util.zip.ZipEntry;
  * This replaces a {@link JarOutputStream} and resets the time to epoch or a configured time as each entry is written.
  */
 public class ZipFixingOutputStream extends JarOutputStream {
+    // only set while a Deflater from an engine is in use, see setCompressionEngine.
+    private CompressionEngine engine;
+    private Deflater ended;
+
     public ZipFixingOutputStream(OutputStream out) throws IOException {
         super(out);
     }
@@ -36,4 +41,62 @@ public class ZipFixingOutputStream extends JarOutputStream {
 
         super.putNextEntry(ze);
     }
+
+    /**
+     * Replaces the {@link Deflater} entries are compressed with, see {@link PipelinedZipFixer}. The one it replaces is
+     * ended, and this one will be ended when the stream is closed.
+     */
+    void setDeflater(Deflater deflater) {
+        def.end();
+        def = deflater;
+    }
+
+    /**
+     * Compresses entries with a Deflater for level from engine instead of the one this was made with, and gives it
+     * back to engine when the stream is closed. Must be called before the first entry is written.
+     */
+    void setCompressionEngine(CompressionEngine engine, int level) {
+        Deflater deflater = engine.acquire(level);
+        if (null == this.engine) {
+            def.end();
+            // kept for close, which ends whatever def is.
+            ended = def;
+        } else {
+            this.engine.release(def);
+        }
+        this.engine = engine;
+        def = deflater;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (null == engine) {
+            // def is only the ended one once this has been closed below.
+            if (def != ended) {
+                super.close();
+            }
+            return;
+        }
+
+        Deflater used = def;
+        boolean finished = false;
+        try {
+            finish();
+            finished = true;
+        } finally {
+            // the engine gets it back rather than it being ended.
+            def = ended;
+            try {
+                if (finished) {
+                    super.close();
+                } else {
+                    // super.close() would try to finish the open entry again, with the ended Deflater.
+                    out.close();
+                }
+            } finally {
+                engine.release(used);
+                engine = null;
+            }
+        }
+    }
 }
@@ -0,0 +1,279 @@
+/*
+ * Copyright 2016, Yahoo Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.gradle;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.ZipException;
+
+/**
+ * Offsets and signatures of the zip headers, see APPNOTE.TXT from PKWARE.
+ * <p>
+ * The helpers here read and write little endian values by absolute index, so they work on any {@link ByteBuffer}
+ * regardless of its byte order, including a {@link java.nio.MappedByteBuffer}.
+ */
+final class ZipHeaders {
+    static final int LOC_SIG = 0x04034b50;
+    static final int CEN_SIG = 0x02014b50;
+    static final int END_SIG = 0x06054b50;
+    static final int ZIP64_END_SIG = 0x06064b50;
+    static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+    static final int DATA_DESCRIPTOR_SIG = 0x08074b50;
+
+    // local file header
+    static final int LOC_HEADER_SIZE = 30;
+    static final int LOC_VERSION = 4;
+    static final int LOC_FLAGS = 6;
+    static final int LOC_METHOD = 8;
+    static final int LOC_TIME = 10;
+    static final int LOC_DATE = 12;
+    static final int LOC_CRC = 14;
+    static final int LOC_COMPRESSED_SIZE = 18;
+    static final int LOC_SIZE = 22;
+    static final int LOC_NAME_LENGTH = 26;
+    static final int LOC_EXTRA_LENGTH = 28;
+
+    // central directory file header
+    static final int CEN_HEADER_SIZE = 46;
+    static final int CEN_VERSION_MADE_BY = 4;
+    static final int CEN_VERSION_NEEDED = 6;
+    static final int CEN_FLAGS = 8;
+    static final int CEN_METHOD = 10;
+    static final int CEN_TIME = 12;
+    static final int CEN_DATE = 14;
+    static final int CEN_CRC = 16;
+    static final int CEN_COMPRESSED_SIZE = 20;
+    static final int CEN_SIZE = 24;
+    static final int CEN_NAME_LENGTH = 28;
+    static final int CEN_EXTRA_LENGTH = 30;
+    static final int CEN_COMMENT_LENGTH = 32;
+    static final int CEN_DISK = 34;
+    static final int CEN_INTERNAL_ATTRIBUTES = 36;
+    static final int CEN_EXTERNAL_ATTRIBUTES = 38;
+    static final int CEN_LOC_OFFSET = 42;
+
+    // end of central directory record
+    static final int END_HEADER_SIZE = 22;
+    static final int END_DISK_ENTRIES = 8;
+    static final int END_TOTAL_ENTRIES = 10;
+    static final int END_CEN_SIZE = 12;
+    static final int END_CEN_OFFSET = 16;
+    static final int END_COMMENT_LENGTH = 20;
+    static final int END_MAX_COMMENT = 0xFFFF;
+
+    // zip64 end of central directory locator and record
+    static final int ZIP64_LOCATOR_SIZE = 20;
+    static final int ZIP64_LOCATOR_END_OFFSET = 8;
+    static final int ZIP64_END_HEADER_SIZE = 56;
+    static final int ZIP64_END_TOTAL_ENTRIES = 32;
+    static final int ZIP64_END_CEN_SIZE = 40;
+    static final int ZIP64_END_CEN_OFFSET = 48;
+
+    static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+    static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+    // general purpose flags
+    static final int FLAG_DATA_DESCRIPTOR = 1 << 3;
+    static final int FLAG_UTF8 = 1 << 11;
+
+    // extra field ids
+    static final int EXTRA_ZIP64 = 0x0001;
+    static final int EXTRA_NTFS = 0x000a;
+    static final int EXTRA_PKWARE_UNIX = 0x000d;
+    static final int EXTRA_EXTENDED_TIMESTAMP = 0x5455;
+    static final int EXTRA_INFOZIP_UNIX = 0x5855;
+
+    static final int NTFS_TIMES_TAG = 0x0001;
+
+    /**
+     * This is what {@link java.util.zip.ZipOutputStream} writes for any time before 1980, which includes the time
+     * {@link ZipFixer#fixTimes(java.util.zip.ZipEntry)} uses: 01/01/1980 00:00:00.
+     */
+    static final int EPOCH_DOS_TIME = 0;
+    static final int EPOCH_DOS_DATE = (1 << 5) | 1;
+
+    /**
+     * What ant's {@link org.apache.tools.zip.ZipOutputStream} writes for any time before 1980, which is what
+     * {@link DatelessZipOutputStream} ends up with.
+     */
+    static final int ANT_EPOCH_DOS_TIME = 0x2100;
+    static final int ANT_EPOCH_DOS_DATE = 0;
+
+    /**
+     * 01/01/1970 00:00:00 in NTFS ticks, 100ns since 01/01/1601.
+     */
+    static final long EPOCH_NTFS_TIME = 116444736000000000L;
+
+    private ZipHeaders() {
+    }
+
+    static int getShort(ByteBuffer b, int index) {
+        return (b.get(index) & 0xff) | ((b.get(index + 1) & 0xff) << 8);
+    }
+
+    static long getInt(ByteBuffer b, int index) {
+        return (getShort(b, index) | ((long) getShort(b, index + 2) << 16)) & 0xFFFFFFFFL;
+    }
+
+    static long getLong(ByteBuffer b, int index) {
+        return getInt(b, index) | (getInt(b, index + 4) << 32);
+    }
+
+    static void putShort(ByteBuffer b, int index, int value) {
+        b.put(index, (byte) value);
+        b.put(index + 1, (byte) (value >>> 8));
+    }
+
+    static void putInt(ByteBuffer b, int index, long value) {
+        putShort(b, index, (int) value);
+        putShort(b, index + 2, (int) (value >>> 16));
+    }
+
+    static void putLong(ByteBuffer b, int index, long value) {
+        putInt(b, index, value);
+        putInt(b, index + 4, value >>> 32);
+    }
+
+    /**
+     * @return the total length of the local file header at index, including the name and extra field.
+     */
+    static int localHeaderLength(ByteBuffer b, int index) throws ZipException {
+        checkSignature(b, index, LOC_SIG, "local file header");
+        return LOC_HEADER_SIZE + getShort(b, index + LOC_NAME_LENGTH) + getShort(b, index + LOC_EXTRA_LENGTH);
+    }
+
+    /**
+     * @return the total length of the central directory header at index, including the name, extra field and
+     * comment.
+     */
+    static int centralHeaderLength(ByteBuffer b, int index) throws ZipException {
+        checkSignature(b, index, CEN_SIG, "central directory header");
+        return CEN_HEADER_SIZE + getShort(b, index + CEN_NAME_LENGTH) + getShort(b, index + CEN_EXTRA_LENGTH)
+                + getShort(b, index + CEN_COMMENT_LENGTH);
+    }
+
+    static void checkSignature(ByteBuffer b, int index, int signature, String what) throws ZipException {
+        if (getInt(b, index) != signature) {
+            throw new ZipException(String.format("Invalid %s signature at %d", what, index));
+        }
+    }
+
+    /**
+     * Overwrites the time fields of the local file header at index with epoch. Nothing changes size.
+     *
+     * @return the length of the header.
+     */
+    static int normalizeLocalHeader(ByteBuffer b, int index) throws ZipException {
+        int length = localHeaderLength(b, index);
+        putShort(b, index + LOC_TIME, EPOCH_DOS_TIME);
+        putShort(b, index + LOC_DATE, EPOCH_DOS_DATE);
+
+        int nameLength = getShort(b, index + LOC_NAME_LENGTH);
+        normalizeExtra(b, index + LOC_HEADER_SIZE + nameLength, getShort(b, index + LOC_EXTRA_LENGTH));
+        return length;
+    }
+
+    /**
+     * Overwrites the time fields of the central directory header at index with epoch. Nothing changes size.
+     *
+     * @return the length of the header.
+     */
+    static int normalizeCentralHeader(ByteBuffer b, int index) throws ZipException {
+        int length = centralHeaderLength(b, index);
+        putShort(b, index + CEN_TIME, EPOCH_DOS_TIME);
+        putShort(b, index + CEN_DATE, EPOCH_DOS_DATE);
+
+        int nameLength = getShort(b, index + CEN_NAME_LENGTH);
+        normalizeExtra(b, index + CEN_HEADER_SIZE + nameLength, getShort(b, index + CEN_EXTRA_LENGTH));
+        return length;
+    }
+
+    static boolean isEpoch(int dosTime, int dosDate) {
+        return (EPOCH_DOS_TIME == dosTime && EPOCH_DOS_DATE == dosDate)
+                || (ANT_EPOCH_DOS_TIME == dosTime && ANT_EPOCH_DOS_DATE == dosDate);
+    }
+
+    /**
+     * @return true if {@link #normalizeExtra(ByteBuffer, int, int)} wouldn't change extra.
+     */
+    static boolean isNormalizedExtra(byte[] extra) {
+        ByteBuffer normalized = ByteBuffer.wrap(extra.clone());
+        normalizeExtra(normalized, 0, extra.length);
+        return Arrays.equals(normalized.array(), extra);
+    }
+
+    /**
+     * Walks the extra fields between index and index + length, and sets every time it knows about to epoch. Unknown
+     * fields, and fields that are truncated, are left alone.
+     */
+    static void normalizeExtra(ByteBuffer b, int index, int length) {
+        int end = index + length;
+        while (index + 4 <= end) {
+            int id = getShort(b, index);
+            int size = getShort(b, index + 2);
+            int data = index + 4;
+            if (data + size > end) {
+                // malformed, and not ours to fix.
+                return;
+            }
+
+            switch (id) {
+                case EXTRA_EXTENDED_TIMESTAMP:
+                    // one byte of flags, followed by as many 4 byte unix times as fit.
+                    for (int i = data + 1; i + 4 <= data + size; i += 4) {
+                        putInt(b, i, 0);
+                    }
+                    break;
+                case EXTRA_NTFS:
+                    normalizeNtfs(b, data, size);
+                    break;
+                case EXTRA_INFOZIP_UNIX:
+                case EXTRA_PKWARE_UNIX:
+                    // access time and modification time come first.
+                    for (int i = data; i + 4 <= data + Math.min(size, 8); i += 4) {
+                        putInt(b, i, 0);
+                    }
+                    break;
+                default:
+                    break;
+            }
+
+            index = data + size;
+        }
+    }
+
+    private static void normalizeNtfs(ByteBuffer b, int data, int size) {
+        int end = data + size;
+        // 4 reserved bytes, then tag/size/value attributes.
+        int index = data + 4;
+        while (index + 4 <= end) {
+            int tag = getShort(b, index);
+            int tagSize = getShort(b, index + 2);
+            int value = index + 4;
+            if (value + tagSize > end) {
+                return;
+            }
+
+            if (NTFS_TIMES_TAG == tag) {
+                for (int i = value; i + 8 <= value + tagSize; i += 8) {
+                    putLong(b, i, EPOCH_NTFS_TIME);
+                }
+            }
+
+            index = value + tagSize;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the New-BSD license. Please see LICENSE file in the project root for terms.
+package com.yahoo.gradle;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.attribute.FileTime;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Writes small jars with real timestamps for the tests to fix.
+ */
+final class JarGenerator {
+    static final long SOME_TIME = 1467000000000L;
+
+    private JarGenerator() {
+    }
+
+    /**
+     * Writes a jar with a manifest, a directory, {@code entries} compressible text entries and one random (incompressible)
+     * entry, all stamped with {@link #SOME_TIME}.
+     */
+    static File create(File file, int entries) throws IOException {
+        file.getParentFile().mkdirs();
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+
+        FileTime time = FileTime.fromMillis(SOME_TIME);
+        try (JarOutputStream jos = new JarOutputStream(new FileOutputStream(file), manifest)) {
+            ZipEntry dir = new ZipEntry("com/example/");
+            dir.setTime(SOME_TIME);
+            jos.putNextEntry(dir);
+            jos.closeEntry();
+
+            for (int i = 0; i < entries; i++) {
+                ZipEntry entry = new ZipEntry("com/example/Entry" + i + ".txt");
+                entry.setLastModifiedTime(time);
+                entry.setLastAccessTime(time);
+                entry.setCreationTime(time);
+                jos.putNextEntry(entry);
+                for (int line = 0; line <= i; line++) {
+                    jos.write(("line " + line + " of entry " + i + "\n").getBytes(StandardCharsets.UTF_8));
+                }
+                jos.closeEntry();
+            }
+
+            byte[] random = new byte[64 * 1024];
+            new Random(entries).nextBytes(random);
+            ZipEntry entry = new ZipEntry("com/example/random.bin");
+            entry.setTime(SOME_TIME);
+            jos.putNextEntry(entry);
+            jos.write(random);
+            jos.closeEntry();
+        }
+
+        return file;
+    }
+
+    /**
+     * @return entry name to uncompressed contents, in the order they are stored.
+     */
+    static Map<String, byte[]> contents(File file) throws IOException {
+        Map<String, byte[]> contents = new LinkedHashMap<>();
+        try (ZipFile zip = new ZipFile(file)) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                try (InputStream is = zip.getInputStream(entry)) {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    ZipFixer.copyEntryBytes(is, bytes);
+                    contents.put(entry.getName(), bytes.toByteArray());
+                }
+            }
+        }
+        return contents;
+    }
+}
@@ -0,0 +1,183 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the New-BSD license. Please see LICENSE file in the project root for terms.
+package com.yahoo.gradle;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.tools.zip.ZipEntry;
+import org.apache.tools.zip.ZipFile;
+import org.apache.tools.zip.ZipOutputStream;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestAdaptiveCompression {
+
+    private static byte[] random(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] text(int lines) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            text.append("line ").append(i).append(" of some text\n");
+        }
+        return text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+            gzip.write(data);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void testEntropy() {
+        Assert.assertEquals(AdaptiveCompression.entropy(new byte[1000], 1000), 0.0);
+
+        byte[] uniform = new byte[256 * 4];
+        for (int i = 0; i < uniform.length; i++) {
+            uniform[i] = (byte) i;
+        }
+        Assert.assertEquals(AdaptiveCompression.entropy(uniform, uniform.length), 8.0, 1e-9);
+    }
+
+    @Test
+    public void testIsCompressed() throws IOException {
+        byte[] text = text(1000);
+        Assert.assertFalse(AdaptiveCompression.isCompressed("a.txt", text, text.length));
+        Assert.assertFalse(AdaptiveCompression.isCompressed("dir/", new byte[0], 0));
+        Assert.assertFalse(AdaptiveCompression.isCompressed("empty.png", new byte[0], 0));
+
+        // by name, whatever the contents.
+        Assert.assertTrue(AdaptiveCompression.isCompressed("lib/inner.JAR", text, text.length));
+        Assert.assertTrue(AdaptiveCompression.isCompressed("icon.png", text, text.length));
+        Assert.assertFalse(AdaptiveCompression.isCompressed("jar/file", text, text.length));
+
+        // by contents, whatever the name.
+        byte[] gzip = gzip(text);
+        Assert.assertTrue(AdaptiveCompression.isCompressed("data", gzip, gzip.length));
+        byte[] random = random(8192, 1);
+        Assert.assertTrue(AdaptiveCompression.isCompressed("data", random, random.length));
+        // too little to tell.
+        Assert.assertFalse(AdaptiveCompression.isCompressed("data", random, 100));
+
+        // only the sample counts.
+        byte[] mixed = Arrays.copyOf(text, AdaptiveCompression.SAMPLE_SIZE + random.length);
+        System.arraycopy(random, 0, mixed, AdaptiveCompression.SAMPLE_SIZE, random.length);
+        Assert.assertFalse(AdaptiveCompression.isCompressed("data", mixed, mixed.length));
+    }
+
+    private static void writeAssets(DatelessZipOutputStream out) throws IOException {
+        out.setAdaptiveCompression(true);
+
+        out.putNextEntry(new ZipEntry("assets/"));
+        out.closeEntry();
+        put(out, "assets/readme.txt", text(500));
+        put(out, "assets/icon.png", text(10));
+        put(out, "assets/noise.bin", random(20 * 1024, 2));
+        put(out, "assets/data.gz", gzip(text(100)));
+        put(out, "assets/empty", new byte[0]);
+        put(out, "assets/small.bin", random(1000, 3));
+
+        // bigger than the streaming threshold used below, and written a little at a time.
+        byte[] big = random(300 * 1024, 4);
+        out.putNextEntry(new ZipEntry("assets/big.bin"));
+        for (int i = 0; i < big.length; i += 1000) {
+            out.write(big, i, Math.min(1000, big.length - i));
+        }
+        out.closeEntry();
+
+        // a method of its own is left alone.
+        ZipEntry deflated = new ZipEntry("assets/forced.bin");
+        deflated.setMethod(ZipOutputStream.DEFLATED);
+        out.putNextEntry(deflated);
+        out.write(random(10 * 1024, 5));
+
+        // put without closing the one before, and finish without closing the last one.
+        out.putNextEntry(new ZipEntry("assets/last.png"));
+        out.write(random(10, 6));
+    }
+
+    private static void put(DatelessZipOutputStream out, String name, byte[] data) throws IOException {
+        out.putNextEntry(new ZipEntry(name));
+        out.write(data);
+        out.closeEntry();
+    }
+
+    /**
+     * Serial and parallel streams choose the same methods, so the archives are still the same.
+     */
+    @Test
+    public void testStoresCompressedEntries() throws IOException {
+        File serial = new File("build/tmp/testAdaptiveSerial.jar");
+        File parallel = new File("build/tmp/testAdaptiveParallel.jar");
+        serial.getParentFile().mkdirs();
+
+        try (DatelessZipOutputStream out = new DatelessZipOutputStream(serial)) {
+            writeAssets(out);
+        }
+        try (DatelessZipOutputStream out = new ParallelDatelessZipOutputStream(parallel, 4, 100 * 1024, 256 * 1024)) {
+            writeAssets(out);
+        }
+        Assert.assertEquals(Files.readAllBytes(parallel.toPath()), Files.readAllBytes(serial.toPath()));
+
+        ZipFile zip = new ZipFile(serial);
+        try {
+            Assert.assertEquals(zip.getEntry("assets/").getMethod(), ZipOutputStream.DEFLATED);
+            Assert.assertEquals(zip.getEntry("assets/readme.txt").getMethod(), ZipOutputStream.DEFLATED);
+            Assert.assertEquals(zip.getEntry("assets/icon.png").getMethod(), ZipOutputStream.STORED);
+            Assert.assertEquals(zip.getEntry("assets/noise.bin").getMethod(), ZipOutputStream.STORED);
+            Assert.assertEquals(zip.getEntry("assets/data.gz").getMethod(), ZipOutputStream.STORED);
+            Assert.assertEquals(zip.getEntry("assets/empty").getMethod(), ZipOutputStream.DEFLATED);
+            Assert.assertEquals(zip.getEntry("assets/small.bin").getMethod(), ZipOutputStream.STORED);
+            Assert.assertEquals(zip.getEntry("assets/big.bin").getMethod(), ZipOutputStream.STORED);
+            Assert.assertEquals(zip.getEntry("assets/forced.bin").getMethod(), ZipOutputStream.DEFLATED);
+            Assert.assertEquals(zip.getEntry("assets/last.png").getMethod(), ZipOutputStream.STORED);
+
+            Assert.assertEquals(read(zip, "assets/noise.bin"), random(20 * 1024, 2));
+            Assert.assertEquals(read(zip, "assets/big.bin"), random(300 * 1024, 4));
+            Assert.assertEquals(read(zip, "assets/readme.txt"), text(500));
+        } finally {
+            ZipFile.closeQuietly(zip);
+        }
+    }
+
+    /**
+     * Off by default, so existing archives don't change.
+     */
+    @Test
+    public void testOffByDefault() throws IOException {
+        File file = new File("build/tmp/testAdaptiveOff.jar");
+        file.getParentFile().mkdirs();
+        try (DatelessZipOutputStream out = new DatelessZipOutputStream(file)) {
+            put(out, "noise.bin", random(20 * 1024, 2));
+        }
+
+        ZipFile zip = new ZipFile(file);
+        try {
+            Assert.assertEquals(zip.getEntry("noise.bin").getMethod(), ZipOutputStream.DEFLATED);
+        } finally {
+            ZipFile.closeQuietly(zip);
+        }
+    }
+
+    private static byte[] read(ZipFile zip, String name) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (InputStream in = zip.getInputStream(zip.getEntry(name))) {
+            ZipFixer.copyEntryBytes(in, bytes);
+        }
+        return bytes.toByteArray();
+    }
+}
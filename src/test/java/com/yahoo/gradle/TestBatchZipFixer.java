@@ -0,0 +1,161 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the New-BSD license. Please see LICENSE file in the project root for terms.
+package com.yahoo.gradle;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestBatchZipFixer {
+
+    private static File tree(String name) throws IOException {
+        File root = new File("build/tmp/" + name);
+        for (int i = 0; i < 6; i++) {
+            JarGenerator.create(new File(root, "lib" + (i % 2) + "/jar" + i + ".jar"), i + 1);
+        }
+        Files.write(new File(root, "lib0/README.txt").toPath(), "not a jar".getBytes("UTF-8"));
+        return root;
+    }
+
+    @Test
+    public void testDirectory() throws Exception {
+        File root = tree("testBatchDirectory");
+        File outputDir = new File("build/tmp/testBatchDirectoryOut");
+
+        List<BatchZipFixer.Job> jobs = BatchZipFixer.jobs(Collections.singletonList(root.getPath()), outputDir,
+                FixMode.RAW);
+        Assert.assertEquals(jobs.size(), 6);
+
+        BatchZipFixer.Summary summary = new BatchZipFixer(FixMode.RAW, 3).run(jobs);
+        Assert.assertEquals(summary.getSucceeded(), 6, summary.getFailures().toString());
+        Assert.assertEquals(summary.getFailed(), 0);
+        Assert.assertEquals(summary.getBytesOut(), summary.getBytesIn());
+
+        for (BatchZipFixer.Job job : jobs) {
+            Assert.assertTrue(job.getOutput().getPath().startsWith(outputDir.getPath()), job.getOutput().getPath());
+            Assert.assertEquals(JarGenerator.contents(job.getOutput()), JarGenerator.contents(job.getInput()));
+        }
+        Assert.assertTrue(new File(outputDir, "lib1/jar5.jar").isFile());
+    }
+
+    @Test
+    public void testGlob() throws IOException {
+        File root = tree("testBatchGlob");
+
+        List<BatchZipFixer.Job> jobs = BatchZipFixer.jobs(
+                Collections.singletonList(root.getPath() + "/lib1/*.jar"), new File("build/tmp/testBatchGlobOut"),
+                FixMode.RAW);
+
+        Assert.assertEquals(jobs.size(), 3);
+        Assert.assertEquals(jobs.get(0).getOutput(), new File("build/tmp/testBatchGlobOut/jar1.jar"));
+    }
+
+    @Test
+    public void testOutputDirInsideInput() throws Exception {
+        File root = tree("testBatchOutputInside");
+        File outputDir = new File(root, "fixed");
+        // what an earlier run wrote.
+        JarGenerator.create(new File(outputDir, "lib0/jar0.jar"), 1);
+
+        List<BatchZipFixer.Job> jobs = BatchZipFixer.jobs(Collections.singletonList(root.getPath()), outputDir,
+                FixMode.RAW);
+
+        Assert.assertEquals(jobs.size(), 6);
+        for (BatchZipFixer.Job job : jobs) {
+            Assert.assertFalse(job.getInput().getPath().startsWith(outputDir.getPath()), job.getInput().getPath());
+        }
+    }
+
+    @Test
+    public void testOutputCollision() throws Exception {
+        File first = tree("testBatchCollisionFirst");
+        File second = tree("testBatchCollisionSecond");
+
+        try {
+            BatchZipFixer.jobs(Arrays.asList(first.getPath(), second.getPath()),
+                    new File("build/tmp/testBatchCollisionOut"), FixMode.RAW);
+            Assert.fail("both trees have lib0/jar0.jar");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage().contains(new File(first, "lib0/jar0.jar").getPath()), e.getMessage());
+            Assert.assertTrue(e.getMessage().contains(new File(second, "lib0/jar0.jar").getPath()), e.getMessage());
+        }
+    }
+
+    /**
+     * A single file's output goes in the output directory under its own name, which is the file itself when that's
+     * the directory it's in.
+     */
+    @Test
+    public void testOutputOverInput() throws Exception {
+        File root = tree("testBatchOverInput");
+        File jar = new File(root, "lib0/jar0.jar");
+        byte[] before = Files.readAllBytes(jar.toPath());
+
+        try {
+            BatchZipFixer.jobs(Collections.singletonList(jar.getPath()), jar.getParentFile(), FixMode.REWRITE);
+            Assert.fail("the output is the input");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage().contains(jar.getPath()), e.getMessage());
+        }
+        try {
+            new ZipFixerCli(System.out, System.err).run("--batch", "--output-dir", jar.getParent(), jar.getPath());
+            Assert.fail("the output is the input");
+        } catch (IOException e) {
+            Assert.assertEquals(Files.readAllBytes(jar.toPath()), before);
+        }
+
+        // which is what in place means.
+        List<BatchZipFixer.Job> jobs = BatchZipFixer.jobs(Collections.singletonList(jar.getPath()),
+                jar.getParentFile(), FixMode.IN_PLACE);
+        Assert.assertEquals(jobs.get(0).getOutput().getCanonicalFile(), jar.getCanonicalFile());
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testNothingFound() throws IOException {
+        BatchZipFixer.jobs(Collections.singletonList("build/tmp/does/not/*.exist"), null, FixMode.IN_PLACE);
+    }
+
+    @Test
+    public void testFailureDoesNotStopBatch() throws Exception {
+        File root = tree("testBatchFailure");
+        Files.write(new File(root, "lib0/broken.jar").toPath(), new byte[64]);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        int status = new ZipFixerCli(new PrintStream(out), new PrintStream(err))
+                .run("--batch", "--raw", "--output-dir", "build/tmp/testBatchFailureOut", root.getPath());
+
+        Assert.assertEquals(status, 1);
+        Assert.assertTrue(out.toString().startsWith("Fixed 6 of 7 archives (1 failed)"), out.toString());
+        Assert.assertTrue(err.toString().contains("ZipException"), err.toString());
+    }
+
+    @Test
+    public void testInPlaceBatch() throws Exception {
+        File root = tree("testBatchInPlace");
+        byte[] before = Files.readAllBytes(Paths.get(root.getPath(), "lib0", "jar2.jar"));
+
+        int status = new ZipFixerCli(System.out, System.err).run("--batch", "--in-place", root.getPath());
+
+        Assert.assertEquals(status, 0);
+        byte[] after = Files.readAllBytes(Paths.get(root.getPath(), "lib0", "jar2.jar"));
+        Assert.assertEquals(after.length, before.length);
+        Assert.assertFalse(Arrays.equals(after, before));
+    }
+
+    @Test
+    public void testBatchNeedsOutputDir() throws Exception {
+        int status = new ZipFixerCli(System.out, new PrintStream(new ByteArrayOutputStream()))
+                .run("--batch", "--raw", "build/tmp");
+        Assert.assertEquals(status, ZipFixerCli.USAGE);
+    }
+}
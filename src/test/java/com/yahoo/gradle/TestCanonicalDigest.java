@@ -0,0 +1,143 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the New-BSD license. Please see LICENSE file in the project root for terms.
+package com.yahoo.gradle;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class TestCanonicalDigest {
+
+    @DataProvider
+    public Object[][] payloads() {
+        return new Object[][] {{false}, {true}};
+    }
+
+    /**
+     * A jar and the same jar fixed, whichever way, have the same digest.
+     */
+    @Test(dataProvider = "payloads")
+    public void testSameAsFixed(boolean payloads) throws IOException {
+        File input = JarGenerator.create(new File("build/tmp/digest/input.jar"), 20);
+        String expected = digest(input, payloads);
+
+        for (FixMode mode : new FixMode[] {FixMode.REWRITE, FixMode.RAW}) {
+            File fixed = new File("build/tmp/digest/fixed-" + mode + ".jar");
+            mode.fix(input, fixed);
+            Assert.assertEquals(digest(fixed, payloads), expected, mode.toString());
+        }
+    }
+
+    /**
+     * Neither the order of the entries, nor of the manifest's attributes, nor the times, nor how it's compressed
+     * matter.
+     */
+    @Test(dataProvider = "payloads")
+    public void testIgnoresOrder(boolean payloads) throws IOException {
+        File forwards = jar("build/tmp/digest/forwards.jar", false, ZipEntry.DEFLATED, 0);
+        File backwards = jar("build/tmp/digest/backwards.jar", true, ZipEntry.STORED, 86400000L);
+
+        Assert.assertEquals(digest(backwards, payloads), digest(forwards, payloads));
+    }
+
+    @Test(dataProvider = "payloads")
+    public void testContentChanges(boolean payloads) throws IOException {
+        File first = JarGenerator.create(new File("build/tmp/digest/first.jar"), 20);
+        File second = JarGenerator.create(new File("build/tmp/digest/second.jar"), 21);
+
+        Assert.assertNotEquals(digest(second, payloads), digest(first, payloads));
+    }
+
+    /**
+     * Hashing the payloads is a different digest from hashing only the directory.
+     */
+    @Test
+    public void testPayloadsDiffer() throws IOException {
+        File input = JarGenerator.create(new File("build/tmp/digest/payloads.jar"), 5);
+        Assert.assertNotEquals(digest(input, true), digest(input, false));
+    }
+
+    @Test
+    public void testCanonicalManifest() throws IOException {
+        Manifest manifest = new Manifest(new ByteArrayInputStream(("Manifest-Version: 1.0\r\n"
+                + "Main-Class: com.example.Main\r\n"
+                + "Built-By: someone with a very long name that is going to be wrapped onto the next line of the "
+                + "manifest\r\n\r\n"
+                + "Name: b/\r\nSealed: true\r\n\r\n"
+                + "Name: a/\r\nSealed: false\r\n\r\n").getBytes(StandardCharsets.UTF_8)));
+
+        Assert.assertEquals(CanonicalDigest.canonicalManifest(manifest), "Built-By: someone with a very long name "
+                + "that is going to be wrapped onto the next line of the manifest\n"
+                + "Main-Class: com.example.Main\nManifest-Version: 1.0\n"
+                + "\nName: a/\nSealed: false\n"
+                + "\nName: b/\nSealed: true\n");
+    }
+
+    @Test
+    public void testCli() throws IOException {
+        File input = JarGenerator.create(new File("build/tmp/digest/cli.jar"), 5);
+        ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        int status = new ZipFixerCli(new PrintStream(stdout), System.err).run("--digest", "--payloads",
+                "--threads", "2", input.getPath());
+
+        Assert.assertEquals(status, 0);
+        Assert.assertEquals(new String(stdout.toByteArray(), StandardCharsets.UTF_8).trim(),
+                digest(input, true) + "  " + input.getPath());
+    }
+
+    private static String digest(File jar, boolean payloads) throws IOException {
+        CanonicalDigest digest = new CanonicalDigest(jar);
+        digest.setPayloads(payloads);
+        digest.setThreads(3);
+        return digest.digestHex();
+    }
+
+    private static File jar(String name, boolean backwards, int method, long offset) throws IOException {
+        File file = new File(name);
+        file.getParentFile().mkdirs();
+
+        Manifest manifest = new Manifest();
+        Attributes main = manifest.getMainAttributes();
+        main.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        if (backwards) {
+            main.put(Attributes.Name.MAIN_CLASS, "com.example.Main");
+            main.put(Attributes.Name.IMPLEMENTATION_TITLE, "example");
+        } else {
+            main.put(Attributes.Name.IMPLEMENTATION_TITLE, "example");
+            main.put(Attributes.Name.MAIN_CLASS, "com.example.Main");
+        }
+
+        try (JarOutputStream jos = new JarOutputStream(new FileOutputStream(file), manifest)) {
+            for (int i = 0; i < 10; i++) {
+                int n = backwards ? 9 - i : i;
+                byte[] data = ("entry " + n).getBytes(StandardCharsets.UTF_8);
+                ZipEntry entry = new ZipEntry("com/example/Entry" + n + ".txt");
+                entry.setTime(JarGenerator.SOME_TIME + offset);
+                entry.setMethod(method);
+                if (ZipEntry.STORED == method) {
+                    CRC32 crc = new CRC32();
+                    crc.update(data);
+                    entry.setSize(data.length);
+                    entry.setCrc(crc.getValue());
+                }
+                jos.putNextEntry(entry);
+                jos.write(data);
+                jos.closeEntry();
+            }
+        }
+        return file;
+    }
+}
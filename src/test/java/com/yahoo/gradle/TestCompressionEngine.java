@@ -0,0 +1,195 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the New-BSD license. Please see LICENSE file in the project root for terms.
+package com.yahoo.gradle;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class TestCompressionEngine {
+
+    @DataProvider
+    public Object[][] levels() {
+        Object[][] levels = new Object[Deflater.BEST_COMPRESSION - Deflater.DEFAULT_COMPRESSION + 1][];
+        for (int i = 0; i < levels.length; i++) {
+            levels[i] = new Object[] {Deflater.DEFAULT_COMPRESSION + i};
+        }
+        return levels;
+    }
+
+    @Test
+    public void testPooledReusesDeflater() {
+        CompressionEngine engine = new PooledCompressionEngine();
+        Deflater first = engine.acquire(Deflater.DEFAULT_COMPRESSION);
+        engine.release(first);
+
+        Assert.assertSame(engine.acquire(Deflater.DEFAULT_COMPRESSION), first);
+        // a different level never gets it.
+        Assert.assertNotSame(engine.acquire(Deflater.BEST_SPEED), first);
+    }
+
+    @Test
+    public void testPooledKeepsOnePerLevel() {
+        CompressionEngine engine = new PooledCompressionEngine();
+        Deflater first = engine.acquire(Deflater.BEST_SPEED);
+        Deflater second = engine.acquire(Deflater.BEST_SPEED);
+        Assert.assertNotSame(second, first);
+        engine.release(first);
+        engine.release(second);
+
+        Assert.assertSame(engine.acquire(Deflater.BEST_SPEED), first);
+        Deflater third = engine.acquire(Deflater.BEST_SPEED);
+        Assert.assertNotSame(third, first);
+        Assert.assertNotSame(third, second);
+    }
+
+    @Test
+    public void testPooledPerThread() throws InterruptedException {
+        CompressionEngine engine = new PooledCompressionEngine();
+        Deflater mine = engine.acquire(Deflater.DEFAULT_COMPRESSION);
+        engine.release(mine);
+
+        Deflater[] other = new Deflater[1];
+        Thread thread = new Thread(() -> other[0] = engine.acquire(Deflater.DEFAULT_COMPRESSION));
+        thread.start();
+        thread.join();
+
+        Assert.assertNotSame(other[0], mine);
+    }
+
+    /**
+     * A reused Deflater must write exactly what a new one does, or jars stop being reproducible.
+     */
+    @Test(dataProvider = "levels")
+    public void testReusedDeflaterSameBytes(int level) {
+        Random random = new Random(level);
+        byte[] first = text(random, 100 * 1024);
+        byte[] second = text(random, 50 * 1024);
+
+        CompressionEngine engine = new PooledCompressionEngine();
+        byte[] expected = CompressionEngine.UNPOOLED.deflate(second, second.length, level);
+        engine.deflate(first, first.length, level);
+        Assert.assertEquals(engine.deflate(second, second.length, level), expected);
+        Assert.assertEquals(engine.deflate(second, second.length, level), expected);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testBadLevel() {
+        CompressionEngine.POOLED.acquire(Deflater.BEST_COMPRESSION + 1);
+    }
+
+    @Test
+    public void testLevels() throws IOException {
+        File input = JarGenerator.create(new File("build/tmp/levels/input.jar"), 50);
+        File none = new File("build/tmp/levels/none.jar");
+        File fastest = new File("build/tmp/levels/fastest.jar");
+        File smallest = new File("build/tmp/levels/smallest.jar");
+        File byDefault = new File("build/tmp/levels/default.jar");
+        File defaultLevel = new File("build/tmp/levels/defaultLevel.jar");
+
+        FixMode.REWRITE.fix(input, none, Deflater.NO_COMPRESSION);
+        FixMode.REWRITE.fix(input, fastest, Deflater.BEST_SPEED);
+        FixMode.REWRITE.fix(input, smallest, Deflater.BEST_COMPRESSION);
+        FixMode.REWRITE.fix(input, byDefault);
+        FixMode.REWRITE.fix(input, defaultLevel, Deflater.DEFAULT_COMPRESSION);
+
+        Assert.assertEquals(Files.readAllBytes(defaultLevel.toPath()), Files.readAllBytes(byDefault.toPath()));
+        Assert.assertNotEquals(Files.readAllBytes(fastest.toPath()), Files.readAllBytes(smallest.toPath()));
+        Assert.assertTrue(smallest.length() < none.length(), smallest.length() + " >= " + none.length());
+        Assert.assertEquals(JarGenerator.contents(none), JarGenerator.contents(input));
+        Assert.assertEquals(JarGenerator.contents(fastest), JarGenerator.contents(input));
+        Assert.assertEquals(JarGenerator.contents(smallest), JarGenerator.contents(input));
+    }
+
+    /**
+     * Pooled or not, {@link ZipFixer} writes the same jar.
+     */
+    @Test
+    public void testZipFixerEngines() throws IOException {
+        File input = JarGenerator.create(new File("build/tmp/levels/engines.jar"), 20);
+        File pooled = new File("build/tmp/levels/pooled.jar");
+        File unpooled = new File("build/tmp/levels/unpooled.jar");
+
+        for (int i = 0; i < 2; i++) {
+            try (ZipFixer zf = new ZipFixer(input, pooled)) {
+                zf.adjustDatesToEpoch();
+            }
+        }
+        try (ZipFixer zf = new ZipFixer(input, unpooled)) {
+            zf.setCompressionEngine(CompressionEngine.UNPOOLED);
+            zf.adjustDatesToEpoch();
+        }
+
+        Assert.assertEquals(Files.readAllBytes(pooled.toPath()), Files.readAllBytes(unpooled.toPath()));
+    }
+
+    /**
+     * The Deflater goes back to the engine and the stream is closed even when the jar can't be finished.
+     */
+    @Test
+    public void testCloseAfterFailedFinish() throws IOException {
+        boolean[] full = new boolean[1];
+        boolean[] closed = new boolean[1];
+        OutputStream disk = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                if (full[0]) {
+                    throw new IOException("No space left on device");
+                }
+            }
+
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        };
+        List<Deflater> released = new ArrayList<>();
+        CompressionEngine engine = new CompressionEngine() {
+            @Override
+            public Deflater acquire(int level) {
+                return new Deflater(level, true);
+            }
+
+            @Override
+            public void release(Deflater deflater) {
+                released.add(deflater);
+            }
+        };
+
+        ZipFixingOutputStream zos = new ZipFixingOutputStream(disk);
+        zos.setCompressionEngine(engine, Deflater.DEFAULT_COMPRESSION);
+        zos.putNextEntry(new ZipEntry("a.txt"));
+        // still in the Deflater, it only gets written when the entry is finished.
+        zos.write(text(new Random(1), 64));
+        full[0] = true;
+        try {
+            zos.close();
+            Assert.fail("nothing could be written");
+        } catch (IOException e) {
+            Assert.assertEquals(e.getMessage(), "No space left on device");
+        }
+
+        Assert.assertEquals(released.size(), 1);
+        Assert.assertTrue(closed[0]);
+        // as try-with-resources would after the close above failed.
+        zos.close();
+    }
+
+    private static byte[] text(Random random, int length) {
+        byte[] text = new byte[length];
+        for (int i = 0; i < length; i++) {
+            text[i] = (byte) ('a' + random.nextInt(8));
+        }
+        return text;
+    }
+}
@@ -0,0 +1,126 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the New-BSD license. Please see LICENSE file in the project root for terms.
+package com.yahoo.gradle;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestDigestingOutputStream {
+
+    @Test
+    public void testDigestsWhatsWritten() throws IOException, NoSuchAlgorithmException {
+        byte[] data = "some bytes to digest".getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DigestingOutputStream out = new DigestingOutputStream(bytes, DigestingOutputStream.SIDECAR_ALGORITHMS)) {
+            out.write(data, 0, 5);
+            // digesting so far doesn't stop it carrying on.
+            Assert.assertEquals(out.getDigests().get("SHA-256"), sha(Arrays.copyOf(data, 5), "SHA-256"));
+            out.write(data[5]);
+            out.write(data, 6, data.length - 6);
+
+            Assert.assertEquals(bytes.toByteArray(), data);
+            Assert.assertEquals(out.getDigests().keySet(), new HashSet<>(DigestingOutputStream.SIDECAR_ALGORITHMS));
+            Assert.assertEquals(out.getDigests().get("SHA-1"), sha(data, "SHA-1"));
+            Assert.assertEquals(out.getDigests().get("SHA-256"), sha(data, "SHA-256"));
+        }
+    }
+
+    /**
+     * What {@link ZipFixer} digests as it writes is the digest of the jar it wrote.
+     */
+    @Test
+    public void testZipFixer() throws IOException, NoSuchAlgorithmException {
+        File input = JarGenerator.create(new File("build/tmp/digesting/input.jar"), 20);
+        File output = new File("build/tmp/digesting/output.jar");
+        File plain = new File("build/tmp/digesting/plain.jar");
+        Map<String, String> digests;
+        try (ZipFixer zf = new ZipFixer(input, output)) {
+            zf.setDigestAlgorithms(DigestingOutputStream.SIDECAR_ALGORITHMS);
+            zf.setWriteSidecars(true);
+            zf.adjustDatesToEpoch();
+            digests = zf.getDigests();
+        }
+        FixMode.REWRITE.fix(input, plain);
+
+        byte[] jar = Files.readAllBytes(output.toPath());
+        Assert.assertEquals(jar, Files.readAllBytes(plain.toPath()));
+        Assert.assertEquals(digests.get("SHA-1"), sha(jar, "SHA-1"));
+        Assert.assertEquals(digests.get("SHA-256"), sha(jar, "SHA-256"));
+        Assert.assertEquals(DigestingOutputStream.digest(output, DigestingOutputStream.SIDECAR_ALGORITHMS), digests);
+        Assert.assertEquals(read(new File("build/tmp/digesting/output.jar.sha1")), sha(jar, "SHA-1"));
+        Assert.assertEquals(read(new File("build/tmp/digesting/output.jar.sha256")), sha(jar, "SHA-256"));
+    }
+
+    @Test
+    public void testCli() throws IOException, NoSuchAlgorithmException {
+        File input = JarGenerator.create(new File("build/tmp/digesting/cli.jar"), 5);
+        // --pipelined and --nested are digested as they're streamed, the rest read the jar back once it's written.
+        String[] modes = {"--pipelined", "--nested", "--raw", "--random-access", "--sorted", "--in-place"};
+        FixMode[] fixModes = {FixMode.PIPELINED, FixMode.NESTED, FixMode.RAW, FixMode.RANDOM_ACCESS, FixMode.SORTED,
+                FixMode.IN_PLACE};
+        for (int i = 0; i < modes.length; i++) {
+            String mode = modes[i];
+            File output = new File("build/tmp/digesting/cli" + mode + ".jar");
+            int status = new ZipFixerCli(System.out, System.err).run(mode, "--checksums", input.getPath(),
+                    output.getPath());
+            Assert.assertEquals(status, 0, mode);
+
+            File plain = new File("build/tmp/digesting/cli" + mode + "-plain.jar");
+            fixModes[i].fix(input, plain);
+            byte[] jar = Files.readAllBytes(output.toPath());
+            Assert.assertEquals(jar, Files.readAllBytes(plain.toPath()), mode);
+            Assert.assertEquals(read(DigestingOutputStream.sidecar(output, "SHA-1")), sha(jar, "SHA-1"), mode);
+            Assert.assertEquals(read(DigestingOutputStream.sidecar(output, "SHA-256")), sha(jar, "SHA-256"), mode);
+        }
+
+        File output = new File("build/tmp/digesting/cli.jar.fixed");
+        Assert.assertEquals(new ZipFixerCli(System.out, System.err).run("--checksums", input.getPath(),
+                output.getPath()), 0);
+        Assert.assertEquals(read(new File(output.getPath() + ".sha1")),
+                sha(Files.readAllBytes(output.toPath()), "SHA-1"));
+
+        ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+        Assert.assertNotEquals(new ZipFixerCli(System.out, new PrintStream(stderr)).run("--checksums",
+                input.getPath(), "-"), 0);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testUnknownAlgorithm() {
+        new DigestingOutputStream(new ByteArrayOutputStream(), Collections.singletonList("SHA-0"));
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testTooLate() throws IOException {
+        DigestingOutputStream out = new DigestingOutputStream(new ByteArrayOutputStream());
+        out.write(1);
+        out.setAlgorithms(DigestingOutputStream.SIDECAR_ALGORITHMS);
+    }
+
+    @Test
+    public void testSidecar() {
+        Assert.assertEquals(DigestingOutputStream.sidecar(new File("libs/app.jar"), "SHA-256"),
+                new File("libs/app.jar.sha256"));
+        Assert.assertEquals(DigestingOutputStream.sidecar(new File("app.jar"), "MD5"), new File("app.jar.md5"));
+    }
+
+    private static String sha(byte[] data, String algorithm) throws NoSuchAlgorithmException {
+        return CanonicalDigest.hex(MessageDigest.getInstance(algorithm).digest(data));
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,152 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the New-BSD license. Please see LICENSE file in the project root for terms.
+package com.yahoo.gradle;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.jar.JarInputStream;
+import java.util.zip.ZipEntry;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestDirectoryJarBuilder {
+
+    /**
+     * The same files make the same jar, whatever order they were written in, whenever, and however many threads
+     * build it.
+     */
+    @Test
+    public void testReproducible() throws IOException {
+        File forwards = tree(new File("build/tmp/fromdir/forwards"), false);
+        File backwards = tree(new File("build/tmp/fromdir/backwards"), true);
+        File expected = build(forwards, "build/tmp/fromdir/forwards1.jar", 1);
+
+        Assert.assertEquals(Files.readAllBytes(build(forwards, "build/tmp/fromdir/forwards4.jar", 4).toPath()),
+                Files.readAllBytes(expected.toPath()));
+        Assert.assertEquals(Files.readAllBytes(build(backwards, "build/tmp/fromdir/backwards3.jar", 3).toPath()),
+                Files.readAllBytes(expected.toPath()));
+    }
+
+    @Test
+    public void testContents() throws IOException {
+        File dir = tree(new File("build/tmp/fromdir/contents"), false);
+        File jar = build(dir, "build/tmp/fromdir/contents.jar", 2);
+
+        List<String> names = new ArrayList<>();
+        try (JarInputStream jis = new JarInputStream(new FileInputStream(jar))) {
+            // the manifest is found, so it came first.
+            Assert.assertNotNull(jis.getManifest());
+            for (ZipEntry entry = jis.getNextEntry(); null != entry; entry = jis.getNextEntry()) {
+                names.add(entry.getName());
+            }
+        }
+        Assert.assertEquals(names, Arrays.asList("a/", "a/b/", "a/b/Deep.class", "a/z.txt", "big.bin", "empty/",
+                "m.txt"));
+
+        Assert.assertEquals(JarGenerator.contents(jar).get("a/b/Deep.class"),
+                Files.readAllBytes(new File(dir, "a/b/Deep.class").toPath()));
+        Assert.assertEquals(JarGenerator.contents(jar).get("big.bin"),
+                Files.readAllBytes(new File(dir, "big.bin").toPath()));
+    }
+
+    @Test
+    public void testOwnManifest() throws IOException {
+        File dir = tree(new File("build/tmp/fromdir/manifest"), false);
+        File manifest = new File(dir, "META-INF/MANIFEST.MF");
+        manifest.getParentFile().mkdirs();
+        Files.write(manifest.toPath(), "Manifest-Version: 1.0\r\nMain-Class: a.Main\r\n\r\n"
+                .getBytes(StandardCharsets.UTF_8));
+        File jar = build(dir, "build/tmp/fromdir/manifest.jar", 2);
+
+        try (JarInputStream jis = new JarInputStream(new FileInputStream(jar))) {
+            Assert.assertEquals(jis.getManifest().getMainAttributes().getValue("Main-Class"), "a.Main");
+        }
+    }
+
+    /**
+     * A jar written into the directory it's built from doesn't end up inside itself.
+     */
+    @Test
+    public void testOutputInDirectory() throws IOException {
+        File dir = tree(new File("build/tmp/fromdir/inside"), false);
+        File jar = build(dir, "build/tmp/fromdir/inside/inside.jar", 2);
+
+        Assert.assertFalse(JarGenerator.contents(jar).containsKey("inside.jar"));
+    }
+
+    @Test
+    public void testCli() throws IOException {
+        File dir = tree(new File("build/tmp/fromdir/cli"), false);
+        File expected = build(dir, "build/tmp/fromdir/cli-expected.jar", 1);
+        File actual = new File("build/tmp/fromdir/cli-actual.jar");
+
+        int status = new ZipFixerCli(new PrintStream(new ByteArrayOutputStream()), System.err).run("--from-dir",
+                "--threads", "3", dir.getPath(), actual.getPath());
+        Assert.assertEquals(status, 0);
+        Assert.assertEquals(Files.readAllBytes(actual.toPath()), Files.readAllBytes(expected.toPath()));
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testNotDirectory() throws IOException {
+        new DirectoryJarBuilder(new File("build/tmp/fromdir/missing"), new File("build/tmp/fromdir/missing.jar"))
+                .build();
+    }
+
+    private static File build(File dir, String name, int threads) throws IOException {
+        File jar = new File(name);
+        DirectoryJarBuilder builder = new DirectoryJarBuilder(dir, jar);
+        builder.setThreads(threads);
+        Assert.assertEquals(builder.build(), 9);
+        return jar;
+    }
+
+    /**
+     * A directory of files, written in reverse order and a day later if backwards.
+     */
+    private static File tree(File dir, boolean backwards) throws IOException {
+        deleteRecursively(dir);
+        byte[] big = new byte[300 * 1024];
+        new Random(1).nextBytes(big);
+        Object[][] files = {
+                {"m.txt", "m".getBytes(StandardCharsets.UTF_8)},
+                {"a/z.txt", "z".getBytes(StandardCharsets.UTF_8)},
+                {"a/b/Deep.class", "deep".getBytes(StandardCharsets.UTF_8)},
+                {"big.bin", big},
+                {"empty/", null},
+        };
+        for (int i = 0; i < files.length; i++) {
+            Object[] file = files[backwards ? files.length - 1 - i : i];
+            File f = new File(dir, (String) file[0]);
+            if (null == file[1]) {
+                f.mkdirs();
+            } else {
+                f.getParentFile().mkdirs();
+                Files.write(f.toPath(), (byte[]) file[1]);
+            }
+            Files.setLastModifiedTime(f.toPath(), FileTime.fromMillis(JarGenerator.SOME_TIME
+                    + (backwards ? 86400000L : 0)));
+        }
+        return dir;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (null != children) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,125 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the New-BSD license. Please see LICENSE file in the project root for terms.
+package com.yahoo.gradle;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestEntryReport {
+
+    /**
+     * Every entry is reported, with its uncompressed size, and measuring doesn't change the jar.
+     */
+    @Test
+    public void testZipFixer() throws IOException {
+        File input = JarGenerator.create(new File("build/tmp/testEntryReport.jar"), 20);
+        File expected = new File("build/tmp/testEntryReportExpected.jar");
+        File actual = new File("build/tmp/testEntryReportActual.jar");
+        File json = new File("build/tmp/testEntryReport.json");
+        json.delete();
+        FixMode.REWRITE.fix(input, expected);
+
+        EntryReport report = new EntryReport(json);
+        try (ZipFixer zf = new ZipFixer(input, actual)) {
+            zf.setEntryListener(report);
+            zf.adjustDatesToEpoch();
+        }
+
+        Assert.assertEquals(Files.readAllBytes(actual.toPath()), Files.readAllBytes(expected.toPath()));
+
+        Map<String, byte[]> contents = JarGenerator.contents(actual);
+        List<String> names = new ArrayList<>();
+        for (EntryStats entry : report.getEntries()) {
+            names.add(entry.getName());
+            Assert.assertEquals(entry.getSize(), contents.get(entry.getName()).length, entry.getName());
+            Assert.assertTrue(entry.getBytesWritten() > 0, entry.getName());
+            Assert.assertTrue(entry.getBytesRead() >= 0, entry.getName());
+            Assert.assertTrue(entry.getTotalNanos() > 0, entry.getName());
+        }
+        Assert.assertEquals(names, new ArrayList<>(contents.keySet()));
+
+        long written = 0;
+        for (EntryStats entry : report.getEntries()) {
+            written += entry.getBytesWritten();
+        }
+        // all but the central directory.
+        Assert.assertTrue(written < actual.length(), written + " of " + actual.length());
+
+        String text = new String(Files.readAllBytes(json.toPath()), StandardCharsets.UTF_8);
+        Assert.assertTrue(text.contains("\"name\": \"com/example/Entry19.txt\""), text);
+        Assert.assertTrue(text.contains("\"totals\": {\"entries\": " + names.size() + ","), text);
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        StringWriter json = new StringWriter();
+        new EntryReport(null).write(json);
+        Assert.assertEquals(json.toString(), "{\n  \"entries\": [],\n  \"totals\": {\"entries\": 0, \"size\": 0, "
+                + "\"bytesRead\": 0, \"bytesWritten\": 0, \"ratio\": 1.0000, \"readNanos\": 0, \"inflateNanos\": 0, "
+                + "\"deflateNanos\": 0, \"writeNanos\": 0}\n}\n");
+    }
+
+    @Test
+    public void testQuote() {
+        Assert.assertEquals(EntryReport.quote("a\"b\\c\nd\u0001\u00e9"), "\"a\\\"b\\\\c\\nd\\u0001\u00e9\"");
+    }
+
+    @Test
+    public void testAll() throws IOException {
+        Assert.assertSame(EntryListener.all(EntryListener.NOOP, EntryListener.NOOP), EntryListener.NOOP);
+        EntryReport one = new EntryReport(null);
+        Assert.assertSame(EntryListener.all(EntryListener.NOOP, one), one);
+
+        EntryReport two = new EntryReport(null);
+        EntryListener both = EntryListener.all(one, two);
+        both.entryWritten(new EntryStats("a", 1, 2, 3, 4, 5, 6, 7));
+        both.archiveClosed();
+        Assert.assertEquals(one.getEntries().size(), 1);
+        Assert.assertEquals(two.getEntries().size(), 1);
+        Assert.assertEquals(one.getEntries().get(0).getTotalNanos(), 22);
+    }
+
+    /**
+     * Events are only committed while something is recording, and nothing here is.
+     */
+    @Test
+    public void testJfr() throws IOException {
+        EntryListener jfr = EntryListener.jfr();
+        Assert.assertNotNull(jfr);
+        jfr.entryWritten(new EntryStats("a", 1, 2, 3, 4, 5, 6, 7));
+    }
+
+    @Test
+    public void testCli() throws IOException {
+        File input = JarGenerator.create(new File("build/tmp/testEntryReportCli.jar"), 3);
+        File json = new File("build/tmp/testEntryReportCli.json");
+        json.delete();
+
+        int status = new ZipFixerCli(System.out, System.err)
+                .run("--report", json.getPath(), input.getPath(), "build/tmp/testEntryReportCliOutput.jar");
+
+        Assert.assertEquals(status, 0);
+        Assert.assertTrue(json.isFile());
+    }
+
+    @Test
+    public void testCliOnlyMeasuresRewrite() throws IOException {
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        int status = new ZipFixerCli(System.out, new PrintStream(err))
+                .run("--raw", "--report", "build/tmp/unused.json", "in.jar", "out.jar");
+
+        Assert.assertEquals(status, ZipFixerCli.USAGE);
+        Assert.assertTrue(err.toString().contains("--report"), err.toString());
+    }
+}
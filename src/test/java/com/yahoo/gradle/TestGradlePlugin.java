@@ -5,19 +5,38 @@ package com.yahoo.gradle;
 import org.apache.tools.zip.Zip64Mode;
 import org.gradle.api.Action;
 import org.gradle.api.Project;
-import org.gradle.api.Task;
+import org.gradle.api.artifacts.transform.TransformOutputs;
+import org.gradle.api.file.FileSystemLocation;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.OutputFiles;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.bundling.Compression;
 import org.gradle.testfixtures.ProjectBuilder;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+import org.gradle.workers.WorkQueue;
+import org.gradle.workers.WorkerExecutor;
+import org.mockito.Mockito;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.Files;
 import java.nio.file.attribute.FileTime;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.zip.GZIPInputStream;
 
 import org.apache.tools.zip.ZipEntry;
 
@@ -68,19 +87,277 @@ public class TestGradlePlugin {
         Assert.assertEquals(zos.getMethod(), java.util.zip.ZipEntry.DEFLATED);
     }
 
-// Still not sure how to test this part.
-//    @Test
-//    public void testDatelessJar() {
-//        Project project = ProjectBuilder.builder().build();
-//
-//        Map<String, Class<DatelessJar>> m = new HashMap<>();
-//
-//        m.put("plugin", DatelessJar.class);
-//
-//        project.task(m ,"DatelessJar");
-//        Task task = project.task("DatelessJar");
-//
-//        final List<Action<? super Task>> actions = task.getActions();
-//        System.err.println(Arrays.toString(actions.toArray()));
-//    }
+    @Test
+    public void testDatelessJarCacheable() throws Exception {
+        Assert.assertTrue(DatelessJar.class.isAnnotationPresent(CacheableTask.class));
+
+        PathSensitive source = DatelessJar.class.getMethod("getSource").getAnnotation(PathSensitive.class);
+        Assert.assertNotNull(source);
+        Assert.assertEquals(source.value(), PathSensitivity.RELATIVE);
+
+        Assert.assertNotNull(DatelessJar.class.getMethod("getCompressionLevel").getAnnotation(Input.class));
+        Assert.assertNotNull(DatelessJar.class.getMethod("getCompressionThreads").getAnnotation(Internal.class));
+        Assert.assertNotNull(DatelessJar.class.getMethod("getDigestAlgorithms").getAnnotation(Input.class));
+        Assert.assertNotNull(DatelessJar.class.getMethod("getSidecars").getAnnotation(OutputFiles.class));
+        Assert.assertNotNull(DatelessJar.class.getMethod("getDigests").getAnnotation(Internal.class));
+    }
+
+    @Test
+    public void testNormalizeArchives() throws Exception {
+        Assert.assertTrue(NormalizeArchives.class.isAnnotationPresent(CacheableTask.class));
+
+        PathSensitive archives = NormalizeArchives.class.getMethod("getArchives").getAnnotation(PathSensitive.class);
+        Assert.assertNotNull(archives);
+        Assert.assertEquals(archives.value(), PathSensitivity.NAME_ONLY);
+        Assert.assertNotNull(NormalizeArchives.class.getMethod("getMode").getAnnotation(Input.class));
+        Assert.assertNotNull(NormalizeArchives.class.getMethod("getCompressionLevel").getAnnotation(Input.class));
+
+        File dir = new File("build/tmp/normalize").getAbsoluteFile();
+        File input = JarGenerator.create(new File(dir, "lib/input.jar"), 10);
+        File expected = new File(dir, "expected.jar");
+        FixMode.REWRITE.fix(input, expected, 1);
+
+        Project project = ProjectBuilder.builder().withProjectDir(dir).build();
+        // there's no build to run workers in, so each unit of work runs as it's submitted.
+        WorkerExecutor workerExecutor = Mockito.mock(WorkerExecutor.class);
+        Mockito.when(workerExecutor.noIsolation()).thenReturn(new WorkQueue() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <T extends WorkParameters> void submit(Class<? extends WorkAction<T>> action,
+                    Action<T> configure) {
+                NormalizeArchives.Normalize.Parameters parameters = parameters(project);
+                configure.execute((T) parameters);
+                new NormalizeArchives.Normalize() {
+                    @Override
+                    public Parameters getParameters() {
+                        return parameters;
+                    }
+                }.execute();
+            }
+
+            @Override
+            public void await() {
+            }
+        });
+        NormalizeArchives normalize = project.getTasks().create("normalizeArchives", NormalizeArchives.class,
+                workerExecutor);
+        normalize.setArchives("lib/input.jar");
+        normalize.setDestinationDir("normalized");
+        normalize.setCompressionLevel(1);
+        // what an archive that has since been removed left behind.
+        File stale = new File(dir, "normalized/removed.jar");
+        stale.getParentFile().mkdirs();
+        Files.write(stale.toPath(), new byte[] {1});
+        normalize.normalize();
+
+        Assert.assertEquals(normalize.getDestinationDir().list(), new String[] {"input.jar"});
+        Assert.assertEquals(Files.readAllBytes(new File(dir, "normalized/input.jar").toPath()),
+                Files.readAllBytes(expected.toPath()));
+    }
+
+    private static NormalizeArchives.Normalize.Parameters parameters(Project project) {
+        RegularFileProperty input = project.getObjects().fileProperty();
+        RegularFileProperty output = project.getObjects().fileProperty();
+        Property<FixMode> mode = project.getObjects().property(FixMode.class);
+        Property<Integer> compressionLevel = project.getObjects().property(Integer.class);
+        return new NormalizeArchives.Normalize.Parameters() {
+            @Override
+            public RegularFileProperty getInput() {
+                return input;
+            }
+
+            @Override
+            public RegularFileProperty getOutput() {
+                return output;
+            }
+
+            @Override
+            public Property<FixMode> getMode() {
+                return mode;
+            }
+
+            @Override
+            public Property<Integer> getCompressionLevel() {
+                return compressionLevel;
+            }
+        };
+    }
+
+    @Test
+    public void testNormalizeJarTransform() throws Exception {
+        File input = JarGenerator.create(new File("build/tmp/transform/input.jar"), 10);
+        File expected = new File("build/tmp/transform/expected.jar");
+        FixMode.RAW.fix(input, expected);
+
+        Project project = ProjectBuilder.builder().withProjectDir(new File("build/tmp/transform").getAbsoluteFile())
+                .build();
+        NormalizeJarTransform.register(project.getDependencies(), FixMode.RAW, -1);
+
+        File out = new File("build/tmp/transform/out");
+        out.mkdirs();
+        List<File> outputs = transform(project, input, out);
+        Assert.assertEquals(outputs.size(), 1);
+        Assert.assertEquals(outputs.get(0).getName(), "input.jar");
+        Assert.assertEquals(Files.readAllBytes(outputs.get(0).toPath()), Files.readAllBytes(expected.toPath()));
+
+        // directories of classes go straight through.
+        File classes = new File("build/tmp/transform/classes");
+        Assert.assertEquals(transform(project, classes, out), Arrays.asList(classes.getAbsoluteFile()));
+    }
+
+    /**
+     * Runs a {@link FixMode#RAW} {@link NormalizeJarTransform} on input the way Gradle would, writing to dir.
+     *
+     * @return the files it output.
+     */
+    private static List<File> transform(Project project, File input, File dir) {
+        NormalizeJarTransform.Parameters parameters = new NormalizeJarTransform.Parameters() {
+            private final Property<FixMode> mode = project.getObjects().property(FixMode.class);
+            private final Property<Integer> compressionLevel = project.getObjects().property(Integer.class);
+
+            @Override
+            public Property<FixMode> getMode() {
+                return mode;
+            }
+
+            @Override
+            public Property<Integer> getCompressionLevel() {
+                return compressionLevel;
+            }
+        };
+        parameters.getMode().set(FixMode.RAW);
+        parameters.getCompressionLevel().set(-1);
+
+        RegularFileProperty artifact = project.getObjects().fileProperty();
+        artifact.set(input.getAbsoluteFile());
+        List<File> outputs = new ArrayList<>();
+        new NormalizeJarTransform() {
+            @Override
+            public Parameters getParameters() {
+                return parameters;
+            }
+
+            @Override
+            public Provider<FileSystemLocation> getInputArtifact() {
+                return artifact.map(file -> file);
+            }
+        }.transform(new TransformOutputs() {
+            @Override
+            public File dir(Object path) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public File file(Object path) {
+                File file = (File) (path instanceof File ? path : new File(dir, path.toString()));
+                outputs.add(file);
+                return file;
+            }
+        });
+        return outputs;
+    }
+
+    @Test
+    public void testDatelessZipCompressorStored() throws Exception {
+        File early = storedJar("build/tmp/testDatelessZipCompressorStoredEarly.jar", JarGenerator.SOME_TIME);
+        File late = storedJar("build/tmp/testDatelessZipCompressorStoredLate.jar", JarGenerator.SOME_TIME + 86400000L);
+
+        Assert.assertEquals(Files.readAllBytes(late.toPath()), Files.readAllBytes(early.toPath()));
+        try (java.util.zip.ZipFile zip = new java.util.zip.ZipFile(early)) {
+            Assert.assertEquals(zip.getEntry("a.txt").getMethod(), java.util.zip.ZipEntry.STORED);
+        }
+    }
+
+    private static File storedJar(String name, long time) throws Exception {
+        File file = new File(name);
+        DatelessZipCompressor dz = new DatelessZipCompressor(true, java.util.zip.ZipEntry.STORED, 2);
+        try (org.apache.tools.zip.ZipOutputStream zos = dz.createArchiveOutputStream(file)) {
+            ZipEntry entry = new ZipEntry("a.txt");
+            entry.setMethod(java.util.zip.ZipEntry.STORED);
+            entry.setTime(time);
+            zos.putNextEntry(entry);
+            zos.write("stored".getBytes("UTF-8"));
+            zos.closeEntry();
+        }
+        return file;
+    }
+
+    @Test
+    public void testDatelessTarCompressor() throws Exception {
+        File file = new File("build/tmp/testDatelessTarCompressor.tar.gz");
+        try (OutputStream out = new DatelessTarCompressor(Compression.GZIP, 4, -1).createArchiveOutputStream(file)) {
+            out.write("not really a tar".getBytes("UTF-8"));
+        }
+
+        try (InputStream in = new GZIPInputStream(new FileInputStream(file))) {
+            byte[] data = new byte[64];
+            Assert.assertEquals(new String(data, 0, in.read(data), "UTF-8"), "not really a tar");
+        }
+        Assert.assertTrue(DatelessTar.class.isAnnotationPresent(CacheableTask.class));
+        Assert.assertNotNull(DatelessTar.class.getMethod("getCompressionThreads").getAnnotation(Internal.class));
+    }
+
+    @Test
+    public void testDirectoryJar() throws Exception {
+        Assert.assertTrue(DirectoryJar.class.isAnnotationPresent(CacheableTask.class));
+
+        PathSensitive from = DirectoryJar.class.getMethod("getFrom").getAnnotation(PathSensitive.class);
+        Assert.assertNotNull(from);
+        Assert.assertEquals(from.value(), PathSensitivity.RELATIVE);
+        Assert.assertNotNull(DirectoryJar.class.getMethod("getCompressionLevel").getAnnotation(Input.class));
+        Assert.assertNotNull(DirectoryJar.class.getMethod("getCompressionThreads").getAnnotation(Internal.class));
+    }
+
+    @Test
+    public void testDatelessJar() throws Exception {
+        File dir = new File("build/tmp/testDatelessJar");
+        File classes = new File(dir, "classes");
+        classes.mkdirs();
+        File a = new File(classes, "a.txt");
+        Files.write(a.toPath(), "a".getBytes("UTF-8"));
+
+        byte[] early = datelessJar(dir, "early.jar");
+        Files.setLastModifiedTime(a.toPath(), FileTime.fromMillis(JarGenerator.SOME_TIME + 86400000L));
+        byte[] late = datelessJar(dir, "late.jar");
+
+        Assert.assertEquals(late, early);
+        try (java.util.zip.ZipFile zip = new java.util.zip.ZipFile(new File(dir, "libs/early.jar"))) {
+            Assert.assertNotNull(zip.getEntry("META-INF/MANIFEST.MF"));
+            Assert.assertEquals(zip.getEntry("a.txt").getTime(), zip.getEntry("META-INF/MANIFEST.MF").getTime());
+        }
+    }
+
+    /**
+     * With reproducible file order the entries come out in order of name, whatever order the files were made in: the
+     * files of each directory first, then its directories.
+     */
+    @Test
+    public void testDatelessJarFileOrder() throws Exception {
+        File dir = new File("build/tmp/testDatelessJarFileOrder");
+        File classes = new File(dir, "classes");
+        for (String name : new String[] {"c.txt", "a.txt", "b/z.txt", "b/a.txt", "B.txt"}) {
+            File file = new File(classes, name);
+            file.getParentFile().mkdirs();
+            Files.write(file.toPath(), name.getBytes("UTF-8"));
+        }
+
+        datelessJar(dir, "ordered.jar");
+
+        List<String> names = new ArrayList<>(JarGenerator.contents(new File(dir, "libs/ordered.jar")).keySet());
+        Assert.assertEquals(names, Arrays.asList("META-INF/", "META-INF/MANIFEST.MF", "B.txt", "a.txt", "c.txt", "b/",
+                "b/a.txt", "b/z.txt"));
+    }
+
+    private static byte[] datelessJar(File dir, String name) throws Exception {
+        Project project = ProjectBuilder.builder().withProjectDir(dir.getAbsoluteFile()).build();
+        DatelessJar jar = project.getTasks().create("datelessJar", DatelessJar.class);
+        jar.from("classes");
+        jar.setReproducibleFileOrder(true);
+        // run straight from the test, nothing makes the output directory first.
+        jar.getDestinationDirectory().set(project.file("libs"));
+        jar.getDestinationDirectory().get().getAsFile().mkdirs();
+        jar.getArchiveFileName().set(name);
+        jar.copy();
+        return Files.readAllBytes(jar.getArchiveFile().get().getAsFile().toPath());
+    }
 }
@@ -0,0 +1,234 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the New-BSD license. Please see LICENSE file in the project root for terms.
+package com.yahoo.gradle;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarInputStream;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestJarMerger {
+
+    @Test
+    public void testMerge() throws IOException {
+        File merged = merge("merged.jar", JarMerger.Duplicates.FIRST, false, "META-INF/*.SF");
+
+        List<String> names = new ArrayList<>();
+        try (JarInputStream jis = new JarInputStream(new FileInputStream(merged))) {
+            // the manifest is found, so it came first, and it's the first jar's.
+            Assert.assertEquals(jis.getManifest().getMainAttributes().getValue("Main-Class"), "com.a.A");
+            for (ZipEntry entry = jis.getNextEntry(); null != entry; entry = jis.getNextEntry()) {
+                names.add(entry.getName());
+            }
+        }
+        Assert.assertEquals(names, Arrays.asList("META-INF/services/", "META-INF/services/com.example.Service",
+                "com/", "com/a/", "com/a/A.class", "com/b/", "com/b/B.class", "shared.txt", "stored.bin"));
+
+        Map<String, byte[]> contents = JarGenerator.contents(merged);
+        Assert.assertEquals(new String(contents.get("shared.txt"), StandardCharsets.UTF_8), "from a");
+        Assert.assertEquals(new String(contents.get("META-INF/services/com.example.Service"), StandardCharsets.UTF_8),
+                "com.a.Impl");
+        try (FileChannel channel = FileChannel.open(merged.toPath(), StandardOpenOption.READ)) {
+            Assert.assertTrue(CentralDirectory.read(channel).isNormalized());
+        }
+    }
+
+    /**
+     * The compressed data is copied, not deflated again.
+     */
+    @Test
+    public void testRawCopy() throws IOException {
+        File merged = merge("raw.jar", JarMerger.Duplicates.FIRST, false);
+
+        try (ZipFile input = new ZipFile(jar("build/tmp/merge/a.jar", 'a', JarGenerator.SOME_TIME));
+             ZipFile output = new ZipFile(merged)) {
+            for (String name : new String[] {"com/a/A.class", "stored.bin"}) {
+                ZipEntry in = input.getEntry(name);
+                ZipEntry out = output.getEntry(name);
+                Assert.assertEquals(out.getMethod(), in.getMethod(), name);
+                Assert.assertEquals(out.getCompressedSize(), in.getCompressedSize(), name);
+            }
+        }
+    }
+
+    @Test
+    public void testLast() throws IOException {
+        Map<String, byte[]> contents = JarGenerator.contents(merge("last.jar", JarMerger.Duplicates.LAST, false));
+        Assert.assertEquals(new String(contents.get("shared.txt"), StandardCharsets.UTF_8), "from b");
+    }
+
+    @Test(expectedExceptions = ZipException.class)
+    public void testFail() throws IOException {
+        merge("fail.jar", JarMerger.Duplicates.FAIL, false);
+    }
+
+    @Test
+    public void testMergeServices() throws IOException {
+        Map<String, byte[]> contents = JarGenerator.contents(merge("services.jar", JarMerger.Duplicates.FIRST, true));
+        Assert.assertEquals(new String(contents.get("META-INF/services/com.example.Service"), StandardCharsets.UTF_8),
+                "com.a.Impl\ncom.b.Impl");
+    }
+
+    /**
+     * The same jars built at different times merge to the same jar, whatever the number of threads.
+     */
+    @Test
+    public void testReproducible() throws IOException {
+        File early = new File("build/tmp/merge/early.jar");
+        File late = new File("build/tmp/merge/late.jar");
+        long day = 86400000L;
+        merge(early, 1, jar("build/tmp/merge/a-early.jar", 'a', JarGenerator.SOME_TIME),
+                jar("build/tmp/merge/b-early.jar", 'b', JarGenerator.SOME_TIME));
+        merge(late, 3, jar("build/tmp/merge/a-late.jar", 'a', JarGenerator.SOME_TIME + day),
+                jar("build/tmp/merge/b-late.jar", 'b', JarGenerator.SOME_TIME + 2 * day));
+
+        Assert.assertEquals(Files.readAllBytes(late.toPath()), Files.readAllBytes(early.toPath()));
+    }
+
+    /**
+     * More entries than fit in the end of central directory record need a zip64 one.
+     */
+    @Test
+    public void testManyEntries() throws IOException {
+        File first = many("build/tmp/merge/many1.jar", "first", 40000);
+        File second = many("build/tmp/merge/many2.jar", "second", 30000);
+        File merged = new File("build/tmp/merge/many.jar");
+        merge(merged, 2, first, second);
+
+        try (ZipFile zip = new ZipFile(merged)) {
+            Assert.assertEquals(zip.size(), 70000);
+        }
+    }
+
+    @Test
+    public void testWithoutZip64() {
+        byte[] extra = {1, 0, 8, 0, 1, 2, 3, 4, 5, 6, 7, 8, 0x55, 0x54, 1, 0, 1};
+        Assert.assertEquals(JarMerger.withoutZip64(extra), new byte[] {0x55, 0x54, 1, 0, 1});
+
+        byte[] none = {0x55, 0x54, 1, 0, 1};
+        Assert.assertSame(JarMerger.withoutZip64(none), none);
+    }
+
+    @Test
+    public void testCli() throws IOException {
+        File a = jar("build/tmp/merge/a.jar", 'a', JarGenerator.SOME_TIME);
+        File b = jar("build/tmp/merge/b.jar", 'b', JarGenerator.SOME_TIME);
+        File expected = merge("cli-expected.jar", JarMerger.Duplicates.LAST, true, "META-INF/*.SF");
+        File actual = new File("build/tmp/merge/cli-actual.jar");
+
+        int status = new ZipFixerCli(new PrintStream(new ByteArrayOutputStream()), System.err).run("--merge",
+                "--duplicates", "last", "--merge-services", "--exclude", "META-INF/*.SF", a.getPath(), b.getPath(),
+                actual.getPath());
+        Assert.assertEquals(status, 0);
+        Assert.assertEquals(Files.readAllBytes(actual.toPath()), Files.readAllBytes(expected.toPath()));
+    }
+
+    private static File merge(String name, JarMerger.Duplicates duplicates, boolean services, String... excludes)
+            throws IOException {
+        File a = jar("build/tmp/merge/a.jar", 'a', JarGenerator.SOME_TIME);
+        File b = jar("build/tmp/merge/b.jar", 'b', JarGenerator.SOME_TIME + 1000);
+        File merged = new File("build/tmp/merge/" + name);
+        JarMerger merger = new JarMerger(Arrays.asList(a, b), merged);
+        merger.setDuplicates(duplicates);
+        merger.setMergeServices(services);
+        merger.setThreads(2);
+        for (String exclude : excludes) {
+            merger.addExclude(exclude);
+        }
+        merger.merge();
+        return merged;
+    }
+
+    private static void merge(File merged, int threads, File... jars) throws IOException {
+        JarMerger merger = new JarMerger(Arrays.asList(jars), merged);
+        merger.setThreads(threads);
+        merger.merge();
+    }
+
+    /**
+     * A jar with a manifest, directories, a class of its own, a shared file that differs between jars, a services
+     * file, a signature and a stored entry, all written at time.
+     */
+    private static File jar(String name, char which, long time) throws IOException {
+        File file = new File(name);
+        file.getParentFile().mkdirs();
+
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        String main = "com." + which + "." + Character.toUpperCase(which);
+        manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, main);
+        try (JarOutputStream jos = new JarOutputStream(new FileOutputStream(file))) {
+            jos.setLevel(Deflater.BEST_COMPRESSION);
+            ZipEntry manifestEntry = new ZipEntry("META-INF/MANIFEST.MF");
+            manifestEntry.setTime(time);
+            jos.putNextEntry(manifestEntry);
+            manifest.write(jos);
+            jos.closeEntry();
+
+            put(jos, "META-INF/services/", null, time, ZipEntry.DEFLATED);
+            put(jos, "META-INF/services/com.example.Service", "com." + which + ".Impl", time, ZipEntry.DEFLATED);
+            put(jos, "META-INF/" + which + ".SF", "signature", time, ZipEntry.DEFLATED);
+            put(jos, "com/", null, time, ZipEntry.DEFLATED);
+            put(jos, "com/" + which + "/", null, time, ZipEntry.DEFLATED);
+            StringBuilder klass = new StringBuilder();
+            for (int i = 0; i < 500; i++) {
+                klass.append("class ").append(which).append(' ').append(i).append('\n');
+            }
+            put(jos, "com/" + which + "/" + Character.toUpperCase(which) + ".class", klass.toString(), time,
+                    ZipEntry.DEFLATED);
+            put(jos, "shared.txt", "from " + which, time, ZipEntry.DEFLATED);
+            put(jos, "stored.bin", "stored", time, ZipEntry.STORED);
+        }
+        return file;
+    }
+
+    private static File many(String name, String prefix, int count) throws IOException {
+        File file = new File(name);
+        file.getParentFile().mkdirs();
+        try (JarOutputStream jos = new JarOutputStream(new FileOutputStream(file))) {
+            for (int i = 0; i < count; i++) {
+                put(jos, prefix + "/" + i, "", JarGenerator.SOME_TIME, ZipEntry.STORED);
+            }
+        }
+        return file;
+    }
+
+    private static void put(JarOutputStream jos, String name, String contents, long time, int method)
+            throws IOException {
+        byte[] data = null == contents ? new byte[0] : contents.getBytes(StandardCharsets.UTF_8);
+        ZipEntry entry = new ZipEntry(name);
+        entry.setTime(time);
+        entry.setMethod(method);
+        if (ZipEntry.STORED == method) {
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            entry.setSize(data.length);
+            entry.setCrc(crc.getValue());
+        }
+        jos.putNextEntry(entry);
+        jos.write(data);
+        jos.closeEntry();
+    }
+}
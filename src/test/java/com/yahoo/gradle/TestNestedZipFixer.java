@@ -0,0 +1,186 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the New-BSD license. Please see LICENSE file in the project root for terms.
+package com.yahoo.gradle;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarInputStream;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class TestNestedZipFixer {
+
+    @DataProvider
+    public Object[][] threads() {
+        return new Object[][] {{1}, {4}};
+    }
+
+    /**
+     * Without any nested archives it's the same jar {@link ZipFixer} writes.
+     */
+    @Test
+    public void testMatchesZipFixer() throws IOException {
+        File input = JarGenerator.create(new File("build/tmp/nested/plain.jar"), 20);
+        File expected = new File("build/tmp/nested/plain-expected.jar");
+        File actual = new File("build/tmp/nested/plain-actual.jar");
+
+        FixMode.REWRITE.fix(input, expected);
+        FixMode.NESTED.fix(input, actual);
+
+        Assert.assertEquals(Files.readAllBytes(actual.toPath()), Files.readAllBytes(expected.toPath()));
+    }
+
+    /**
+     * The same jar built at different times, with different nested jars inside it, comes out the same.
+     */
+    @Test(dataProvider = "threads")
+    public void testNestedArchives(int threads) throws IOException {
+        File early = fatJar(new File("build/tmp/nested/early" + threads + ".jar"), JarGenerator.SOME_TIME);
+        File late = fatJar(new File("build/tmp/nested/late" + threads + ".jar"), JarGenerator.SOME_TIME + 86400000L);
+        File earlyFixed = new File("build/tmp/nested/early" + threads + "-fixed.jar");
+        File lateFixed = new File("build/tmp/nested/late" + threads + "-fixed.jar");
+
+        try (NestedZipFixer zf = new NestedZipFixer(early, earlyFixed, threads)) {
+            zf.adjustDatesToEpoch();
+        }
+        try (NestedZipFixer zf = new NestedZipFixer(late, lateFixed, threads)) {
+            zf.adjustDatesToEpoch();
+        }
+
+        Assert.assertNotEquals(Files.readAllBytes(late.toPath()), Files.readAllBytes(early.toPath()));
+        Assert.assertEquals(Files.readAllBytes(lateFixed.toPath()), Files.readAllBytes(earlyFixed.toPath()));
+
+        Map<String, byte[]> fixed = JarGenerator.contents(earlyFixed);
+        Map<String, byte[]> original = JarGenerator.contents(early);
+        Assert.assertEquals(fixed.keySet(), original.keySet());
+        Assert.assertEquals(fixed.get("fake.jar"), original.get("fake.jar"));
+        Assert.assertEquals(fixed.get("README.txt"), original.get("README.txt"));
+        try (ZipFile zip = new ZipFile(earlyFixed)) {
+            // Spring Boot can only load nested jars that are stored.
+            Assert.assertEquals(zip.getEntry("BOOT-INF/lib/stored.jar").getMethod(), ZipEntry.STORED);
+            Assert.assertEquals(zip.getEntry("BOOT-INF/lib/deflated.jar").getMethod(), ZipEntry.DEFLATED);
+        }
+
+        // each nested jar is already normalized, so fixing it again doesn't change it, and it still holds the same.
+        for (String name : new String[] {"BOOT-INF/lib/stored.jar", "BOOT-INF/lib/deflated.jar", "lib/outer.jar"}) {
+            File nested = new File("build/tmp/nested/" + threads + "-" + name.replace('/', '-'));
+            Files.write(nested.toPath(), fixed.get(name));
+            File again = new File(nested.getPath() + ".again");
+            FixMode.REWRITE.fix(nested, again);
+            Assert.assertEquals(Files.readAllBytes(again.toPath()), fixed.get(name), name);
+
+            File originalNested = new File(nested.getPath() + ".original");
+            Files.write(originalNested.toPath(), original.get(name));
+            Assert.assertEquals(JarGenerator.contents(nested).keySet(), JarGenerator.contents(originalNested).keySet());
+        }
+    }
+
+    /**
+     * Holding back hardly anything behind the nested archives mustn't change the jar.
+     */
+    @Test
+    public void testSmallInFlightLimit() throws IOException {
+        File input = fatJar(new File("build/tmp/nested/limited.jar"), JarGenerator.SOME_TIME);
+        File expected = new File("build/tmp/nested/limited-expected.jar");
+        FixMode.NESTED.fix(input, expected);
+
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        try (NestedZipFixer zf = new NestedZipFixer(new JarInputStream(new FileInputStream(input)), actual, 2, 0,
+                1024)) {
+            zf.adjustDatesToEpoch();
+        }
+
+        Assert.assertEquals(actual.toByteArray(), Files.readAllBytes(expected.toPath()));
+    }
+
+    @Test
+    public void testIsArchive() {
+        Assert.assertTrue(NestedZipFixer.isArchive("BOOT-INF/lib/a.jar"));
+        Assert.assertTrue(NestedZipFixer.isArchive("WEB-INF/lib/B.JAR"));
+        Assert.assertTrue(NestedZipFixer.isArchive("app.war"));
+        Assert.assertTrue(NestedZipFixer.isArchive("bundle.zip"));
+        Assert.assertFalse(NestedZipFixer.isArchive("com/example/A.class"));
+        Assert.assertFalse(NestedZipFixer.isArchive("lib/"));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testNoThreads() throws IOException {
+        File input = JarGenerator.create(new File("build/tmp/nested/nothreads.jar"), 1);
+        new NestedZipFixer(input, new File("build/tmp/nested/nothreads-out.jar"), 0).close();
+    }
+
+    /**
+     * A jar holding a stored and a deflated nested jar, a jar nested two deep, something named like a jar that isn't
+     * one, and a big text file in between, all stamped with time.
+     */
+    private static File fatJar(File file, long time) throws IOException {
+        file.getParentFile().mkdirs();
+        byte[] inner = jar(time, "inner", null);
+        byte[] stored = jar(time, "stored", null);
+        byte[] deflated = jar(time, "deflated", null);
+        byte[] outer = jar(time, "outer", inner);
+
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        try (JarOutputStream jos = new JarOutputStream(new FileOutputStream(file), manifest)) {
+            putStored(jos, "BOOT-INF/lib/stored.jar", stored, time);
+            put(jos, "BOOT-INF/lib/deflated.jar", deflated, time);
+            StringBuilder readme = new StringBuilder();
+            for (int i = 0; i < 20000; i++) {
+                readme.append("line ").append(i).append('\n');
+            }
+            put(jos, "README.txt", readme.toString().getBytes(StandardCharsets.UTF_8), time);
+            put(jos, "lib/outer.jar", outer, time);
+            put(jos, "fake.jar", "not a jar".getBytes(StandardCharsets.UTF_8), time);
+        }
+        return file;
+    }
+
+    private static byte[] jar(long time, String name, byte[] nested) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (JarOutputStream jos = new JarOutputStream(bytes)) {
+            for (int i = 0; i < 5; i++) {
+                put(jos, "com/example/" + name + i + ".txt", (name + " " + i).getBytes(StandardCharsets.UTF_8), time);
+            }
+            if (null != nested) {
+                put(jos, "lib/inner.jar", nested, time);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void put(JarOutputStream jos, String name, byte[] data, long time) throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setTime(time);
+        jos.putNextEntry(entry);
+        jos.write(data);
+        jos.closeEntry();
+    }
+
+    private static void putStored(JarOutputStream jos, String name, byte[] data, long time) throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setTime(time);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(data.length);
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        entry.setCrc(crc.getValue());
+        jos.putNextEntry(entry);
+        jos.write(data);
+        jos.closeEntry();
+    }
+}
@@ -0,0 +1,241 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the New-BSD license. Please see LICENSE file in the project root for terms.
+package com.yahoo.gradle;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import org.apache.tools.zip.UnixStat;
+import org.apache.tools.zip.Zip64Mode;
+import org.apache.tools.zip.Zip64RequiredException;
+import org.apache.tools.zip.ZipEntry;
+import org.apache.tools.zip.ZipFile;
+import org.apache.tools.zip.ZipOutputStream;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestParallelDatelessZipOutputStream {
+    private interface Writer {
+        void write(DatelessZipOutputStream out) throws IOException;
+    }
+
+    private static void assertSameAsSerial(String name, Writer writer) throws IOException {
+        File serial = new File("build/tmp/" + name + "Serial.jar");
+        File parallel = new File("build/tmp/" + name + "Parallel.jar");
+        serial.getParentFile().mkdirs();
+
+        try (DatelessZipOutputStream out = new DatelessZipOutputStream(serial)) {
+            writer.write(out);
+        }
+        // small limits so that streaming and back pressure both happen.
+        try (DatelessZipOutputStream out = new ParallelDatelessZipOutputStream(parallel, 4, 100 * 1024, 256 * 1024)) {
+            writer.write(out);
+        }
+
+        Assert.assertEquals(Files.readAllBytes(parallel.toPath()), Files.readAllBytes(serial.toPath()), name);
+        // and it can be read back, the jdk 8 ZipFile doesn't read ant's Zip64Mode.Always archives.
+        ZipFile zip = new ZipFile(parallel);
+        try {
+            Assert.assertNotNull(zip.getEntries());
+        } finally {
+            ZipFile.closeQuietly(zip);
+        }
+    }
+
+    private static ZipEntry entry(DatelessZipOutputStream out, String name) {
+        // ant's ZipEntry can't be copied without a method, which fixTimes does.
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(out.getMethod());
+        return entry;
+    }
+
+    private static void put(DatelessZipOutputStream out, String name, byte[] data) throws IOException {
+        out.putNextEntry(entry(out, name));
+        out.write(data);
+        out.closeEntry();
+    }
+
+    private static void writeMixed(DatelessZipOutputStream out) throws IOException {
+        Random random = new Random(42);
+
+        ZipEntry dir = entry(out, "META-INF/");
+        dir.setUnixMode(UnixStat.DIR_FLAG | 0755);
+        out.putNextEntry(dir);
+        out.closeEntry();
+
+        put(out, "META-INF/MANIFEST.MF", "Manifest-Version: 1.0\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+        put(out, "empty.txt", new byte[0]);
+
+        for (int i = 0; i < 50; i++) {
+            StringBuilder text = new StringBuilder();
+            for (int j = 0; j < i * 100; j++) {
+                text.append("line ").append(random.nextInt(1000)).append('\n');
+            }
+            put(out, "text/" + i + ".txt", text.toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        // bigger than the streaming threshold, written in pieces.
+        byte[] big = new byte[300 * 1024];
+        random.nextBytes(big);
+        for (int i = 0; i < big.length; i += 7) {
+            big[i] = 0;
+        }
+        out.putNextEntry(entry(out, "big.bin"));
+        for (int i = 0; i < big.length; i += 1000) {
+            out.write(big, i, Math.min(1000, big.length - i));
+        }
+        out.closeEntry();
+
+        ZipEntry executable = entry(out, "bin/run.sh");
+        executable.setUnixMode(0755);
+        out.putNextEntry(executable);
+        out.write("#!/bin/sh\n".getBytes(StandardCharsets.UTF_8));
+        out.closeEntry();
+
+        // put without closing the one before.
+        out.putNextEntry(entry(out, "unclosed.txt"));
+        out.write(new byte[]{'x'});
+        put(out, "caf\u00e9/\u65e5\u672c.txt", "non ascii".getBytes(StandardCharsets.UTF_8));
+
+        byte[] last = new byte[1024];
+        random.nextBytes(last);
+        put(out, "last.bin", last);
+    }
+
+    @Test
+    public void testMatchesSerial() throws IOException {
+        assertSameAsSerial("testParallelMixed", TestParallelDatelessZipOutputStream::writeMixed);
+    }
+
+    /**
+     * The headers are laid out the way the ant {@link DatelessZipOutputStream} extends lays them out, see build.gradle
+     * for its version. This compares the two with the limits jars are really written with, so an ant that lays
+     * archives out differently fails here instead of DatelessJar writing a different jar on more threads.
+     */
+    @Test
+    public void testMatchesAnt() throws IOException {
+        File serial = new File("build/tmp/testMatchesAntSerial.jar");
+        File parallel = new File("build/tmp/testMatchesAntParallel.jar");
+        serial.getParentFile().mkdirs();
+
+        try (DatelessZipOutputStream out = new DatelessZipOutputStream(serial)) {
+            writeMixed(out);
+        }
+        try (DatelessZipOutputStream out = new ParallelDatelessZipOutputStream(parallel, 4)) {
+            writeMixed(out);
+        }
+
+        Assert.assertEquals(Files.readAllBytes(parallel.toPath()), Files.readAllBytes(serial.toPath()));
+    }
+
+    /**
+     * The pool's threads don't keep the JVM up, and can be told apart in a thread dump.
+     */
+    @Test
+    public void testDaemonThreads() throws IOException {
+        File output = new File("build/tmp/testDaemonThreads.jar");
+        output.getParentFile().mkdirs();
+
+        try (DatelessZipOutputStream out = new ParallelDatelessZipOutputStream(output, 2)) {
+            put(out, "a.txt", "a".getBytes(StandardCharsets.UTF_8));
+            put(out, "b.txt", "b".getBytes(StandardCharsets.UTF_8));
+
+            int found = 0;
+            for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                if (thread.getName().startsWith("ParallelDatelessZipOutputStream testDaemonThreads.jar ")) {
+                    Assert.assertTrue(thread.isDaemon(), thread.getName());
+                    found++;
+                }
+            }
+            Assert.assertTrue(found > 0);
+        }
+    }
+
+    /**
+     * Measuring doesn't change the archive, and both streams see the same entries.
+     */
+    @Test
+    public void testEntryListener() throws IOException {
+        EntryReport serialReport = new EntryReport(new File("build/tmp/testEntryListenerSerial.json"));
+        EntryReport parallelReport = new EntryReport(null);
+        assertSameAsSerial("testParallelMeasured", out -> {
+            out.setEntryListener(out instanceof ParallelDatelessZipOutputStream ? parallelReport : serialReport);
+            writeMixed(out);
+        });
+
+        List<EntryStats> serial = serialReport.getEntries();
+        List<EntryStats> parallel = parallelReport.getEntries();
+        Assert.assertEquals(serial.size(), 58);
+        Assert.assertEquals(parallel.size(), serial.size());
+        for (int i = 0; i < serial.size(); i++) {
+            Assert.assertEquals(parallel.get(i).getName(), serial.get(i).getName());
+            Assert.assertEquals(parallel.get(i).getSize(), serial.get(i).getSize(), serial.get(i).getName());
+            Assert.assertEquals(parallel.get(i).getBytesWritten(), serial.get(i).getBytesWritten(),
+                    serial.get(i).getName());
+        }
+        Assert.assertEquals(serial.get(serial.size() - 1).getSize(), 1024);
+        Assert.assertTrue(new File("build/tmp/testEntryListenerSerial.json").isFile());
+    }
+
+    @Test
+    public void testMatchesSerialNoZip64() throws IOException {
+        assertSameAsSerial("testParallelNever", out -> {
+            out.setUseZip64(Zip64Mode.Never);
+            writeMixed(out);
+        });
+    }
+
+    @Test
+    public void testMatchesSerialAlwaysZip64() throws IOException {
+        assertSameAsSerial("testParallelAlways", out -> {
+            out.setUseZip64(Zip64Mode.Always);
+            writeMixed(out);
+        });
+    }
+
+    @Test
+    public void testMatchesSerialStored() throws IOException {
+        assertSameAsSerial("testParallelStored", out -> {
+            out.setMethod(ZipOutputStream.STORED);
+            writeMixed(out);
+        });
+    }
+
+    @Test
+    public void testMatchesSerialSettings() throws IOException {
+        assertSameAsSerial("testParallelSettings", out -> {
+            out.setLevel(Deflater.BEST_COMPRESSION);
+            out.setEncoding("ISO-8859-1");
+            out.setFallbackToUTF8(true);
+            out.setCreateUnicodeExtraFields(ZipOutputStream.UnicodeExtraFieldPolicy.NOT_ENCODEABLE);
+            out.setComment("an archive");
+            writeMixed(out);
+            out.setLevel(Deflater.NO_COMPRESSION);
+            put(out, "after.txt", "level changed".getBytes(StandardCharsets.UTF_8));
+        });
+    }
+
+    @Test
+    public void testMatchesSerialEmpty() throws IOException {
+        assertSameAsSerial("testParallelEmpty", out -> {
+        });
+    }
+
+    @Test(expectedExceptions = Zip64RequiredException.class)
+    public void testTooManyEntriesWithoutZip64() throws IOException {
+        File output = new File("build/tmp/testParallelTooMany.jar");
+        output.getParentFile().mkdirs();
+        try (DatelessZipOutputStream out = new ParallelDatelessZipOutputStream(output, 2)) {
+            out.setUseZip64(Zip64Mode.Never);
+            for (int i = 0; i < 0x10000; i++) {
+                out.putNextEntry(entry(out, Integer.toString(i)));
+                out.closeEntry();
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the New-BSD license. Please see LICENSE file in the project root for terms.
+package com.yahoo.gradle;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class TestParallelGzipOutputStream {
+    private static final int BLOCK_SIZE = 32 * 1024;
+
+    @DataProvider
+    public Object[][] sizes() {
+        return new Object[][] {{0}, {1}, {BLOCK_SIZE - 1}, {BLOCK_SIZE}, {BLOCK_SIZE + 1}, {10 * BLOCK_SIZE + 123}};
+    }
+
+    @Test(dataProvider = "sizes")
+    public void testRoundTrip(int size) throws IOException {
+        byte[] data = text(new Random(size), size);
+        byte[] gzipped = gzip(data, 4, Deflater.DEFAULT_COMPRESSION, BLOCK_SIZE);
+
+        Assert.assertEquals(gunzip(gzipped), data);
+    }
+
+    /**
+     * The same data always makes the same bytes, whatever the number of threads.
+     */
+    @Test(dataProvider = "sizes")
+    public void testSameWhateverThreads(int size) throws IOException {
+        byte[] data = text(new Random(size), size);
+        byte[] expected = gzip(data, 1, Deflater.DEFAULT_COMPRESSION, BLOCK_SIZE);
+
+        for (int threads : new int[] {2, 3, 8}) {
+            Assert.assertEquals(gzip(data, threads, Deflater.DEFAULT_COMPRESSION, BLOCK_SIZE), expected,
+                    threads + " threads");
+        }
+    }
+
+    /**
+     * A gzip header with no name, no time and no extra flags, and 0 for the OS on every JDK. Since JDK 16
+     * {@link GZIPOutputStream} writes 255 for the OS instead, so it can't be compared with that.
+     */
+    @Test
+    public void testHeader() throws IOException {
+        byte[] gzipped = gzip("hello".getBytes(StandardCharsets.UTF_8), 1, Deflater.DEFAULT_COMPRESSION, BLOCK_SIZE);
+
+        byte[] header = {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, 0};
+        Assert.assertEquals(Arrays.copyOf(gzipped, 10), header);
+    }
+
+    /**
+     * Priming each block with the end of the last one keeps it about as small as one long stream.
+     */
+    @Test
+    public void testCompressesLikeOneStream() throws IOException {
+        byte[] data = text(new Random(7), 2 * 1024 * 1024);
+        ByteArrayOutputStream jdk = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(jdk)) {
+            out.write(data);
+        }
+
+        int parallel = gzip(data, 4, Deflater.DEFAULT_COMPRESSION, ParallelGzipOutputStream.BLOCK_SIZE).length;
+        Assert.assertTrue(parallel < jdk.size() * 1.01, parallel + " vs " + jdk.size());
+    }
+
+    @Test
+    public void testLevel() throws IOException {
+        byte[] data = text(new Random(9), 500 * 1024);
+        byte[] stored = gzip(data, 2, Deflater.NO_COMPRESSION, BLOCK_SIZE);
+        byte[] smallest = gzip(data, 2, Deflater.BEST_COMPRESSION, BLOCK_SIZE);
+
+        Assert.assertTrue(smallest.length < stored.length);
+        Assert.assertEquals(gunzip(stored), data);
+        Assert.assertEquals(gunzip(smallest), data);
+    }
+
+    /**
+     * The pool's threads don't keep the JVM up, and can be told apart in a thread dump.
+     */
+    @Test
+    public void testDaemonThreads() throws IOException {
+        try (ParallelGzipOutputStream out = new ParallelGzipOutputStream(new ByteArrayOutputStream(), 2,
+                Deflater.DEFAULT_COMPRESSION, BLOCK_SIZE)) {
+            out.write(text(new Random(0), 3 * BLOCK_SIZE));
+
+            int found = 0;
+            for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                if (thread.getName().startsWith("ParallelGzipOutputStream ")) {
+                    Assert.assertTrue(thread.isDaemon(), thread.getName());
+                    found++;
+                }
+            }
+            Assert.assertTrue(found > 0);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testNoThreads() throws IOException {
+        new ParallelGzipOutputStream(new ByteArrayOutputStream(), 0).close();
+    }
+
+    private static byte[] gzip(byte[] data, int threads, int level, int blockSize) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ParallelGzipOutputStream out = new ParallelGzipOutputStream(bytes, threads, level, blockSize)) {
+            // in odd sized pieces so that writes straddle the blocks.
+            for (int offset = 0; offset < data.length; offset += 1000) {
+                out.write(data, offset, Math.min(1000, data.length - offset));
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] gunzip(byte[] gzipped) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipped))) {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                bytes.write(buffer, 0, n);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] text(Random random, int length) {
+        String[] words = {"jar", "zip", "time", "epoch", "entry", "deflate", "gzip", "block", "header", "tar"};
+        ByteArrayOutputStream text = new ByteArrayOutputStream(length);
+        while (text.size() < length) {
+            byte[] word = (words[random.nextInt(words.length)] + (random.nextInt(10) == 0 ? "\n" : " "))
+                    .getBytes(StandardCharsets.UTF_8);
+            text.write(word, 0, Math.min(word.length, length - text.size()));
+        }
+        return text.toByteArray();
+    }
+}
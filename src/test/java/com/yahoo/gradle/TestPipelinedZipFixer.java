@@ -0,0 +1,137 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the New-BSD license. Please see LICENSE file in the project root for terms.
+package com.yahoo.gradle;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.jar.JarInputStream;
+import java.util.jar.JarOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class TestPipelinedZipFixer {
+
+    @DataProvider
+    public Object[][] threads() {
+        return new Object[][] {{1}, {2}, {8}};
+    }
+
+    /**
+     * The output must be byte for byte what {@link ZipFixer} writes.
+     */
+    @Test(dataProvider = "threads")
+    public void testMatchesZipFixer(int threads) throws IOException {
+        File input = JarGenerator.create(new File("build/tmp/pipelined/input" + threads + ".jar"), 50);
+        assertMatches(input, threads, PipelinedZipFixer.STREAMING_THRESHOLD);
+    }
+
+    /**
+     * Big entries are streamed to the writer instead of being deflated on the pool, which mustn't change the output.
+     */
+    @Test(dataProvider = "threads")
+    public void testStreamedEntries(int threads) throws IOException {
+        File input = JarGenerator.create(new File("build/tmp/pipelined/streamed" + threads + ".jar"), 50);
+        assertMatches(input, threads, 1024);
+    }
+
+    /**
+     * Stored, empty and manifest-less jars.
+     */
+    @Test
+    public void testStoredAndEmptyEntries() throws IOException {
+        File input = new File("build/tmp/pipelined/stored.jar");
+        input.getParentFile().mkdirs();
+        byte[] random = new byte[100 * 1024];
+        new Random(42).nextBytes(random);
+
+        try (JarOutputStream jos = new JarOutputStream(new FileOutputStream(input))) {
+            ZipEntry empty = new ZipEntry("empty.txt");
+            empty.setTime(JarGenerator.SOME_TIME);
+            jos.putNextEntry(empty);
+            jos.closeEntry();
+
+            ZipEntry stored = new ZipEntry("stored.bin");
+            stored.setTime(JarGenerator.SOME_TIME);
+            stored.setMethod(ZipEntry.STORED);
+            stored.setSize(random.length);
+            CRC32 crc = new CRC32();
+            crc.update(random);
+            stored.setCrc(crc.getValue());
+            jos.putNextEntry(stored);
+            jos.write(random);
+            jos.closeEntry();
+
+            ZipEntry deflated = new ZipEntry("deflated.bin");
+            deflated.setTime(JarGenerator.SOME_TIME);
+            jos.putNextEntry(deflated);
+            jos.write(random);
+            jos.closeEntry();
+        }
+
+        assertMatches(input, 2, PipelinedZipFixer.STREAMING_THRESHOLD);
+        assertMatches(input, 2, 1024);
+    }
+
+    @Test
+    public void testFixMode() throws IOException {
+        File input = JarGenerator.create(new File("build/tmp/pipelined/mode.jar"), 10);
+        File expected = new File("build/tmp/pipelined/mode-expected.jar");
+        File actual = new File("build/tmp/pipelined/mode-actual.jar");
+
+        FixMode.REWRITE.fix(input, expected);
+        FixMode.PIPELINED.fix(input, actual);
+
+        Assert.assertEquals(Files.readAllBytes(actual.toPath()), Files.readAllBytes(expected.toPath()));
+    }
+
+    @Test
+    public void testLevel() throws IOException {
+        File input = JarGenerator.create(new File("build/tmp/pipelined/level.jar"), 10);
+        File expected = new File("build/tmp/pipelined/level-expected.jar");
+        File actual = new File("build/tmp/pipelined/level-actual.jar");
+
+        FixMode.REWRITE.fix(input, expected, Deflater.BEST_SPEED);
+        FixMode.PIPELINED.fix(input, actual, Deflater.BEST_SPEED);
+
+        Assert.assertEquals(Files.readAllBytes(actual.toPath()), Files.readAllBytes(expected.toPath()));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testNoThreads() throws IOException {
+        File input = JarGenerator.create(new File("build/tmp/pipelined/nothreads.jar"), 1);
+        new PipelinedZipFixer(input, new File("build/tmp/pipelined/nothreads-out.jar"), 0).close();
+    }
+
+    private static void assertMatches(File input, int threads, int streamingThreshold) throws IOException {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        try (ZipFixer zf = new ZipFixer(new JarInputStream(new FileInputStream(input)),
+                new ZipFixingOutputStream(expected))) {
+            zf.adjustDatesToEpoch();
+        }
+
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        try (PipelinedZipFixer zf = new PipelinedZipFixer(new JarInputStream(new FileInputStream(input)), actual,
+                threads, streamingThreshold)) {
+            zf.adjustDatesToEpoch();
+        }
+
+        Assert.assertEquals(actual.toByteArray(), expected.toByteArray());
+        Assert.assertEquals(JarGenerator.contents(writeTo(actual, input)), JarGenerator.contents(input));
+    }
+
+    private static File writeTo(ByteArrayOutputStream bytes, File input) throws IOException {
+        File file = new File(input.getPath() + ".fixed");
+        Files.write(file.toPath(), bytes.toByteArray());
+        return file;
+    }
+}
@@ -0,0 +1,127 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the New-BSD license. Please see LICENSE file in the project root for terms.
+package com.yahoo.gradle;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class TestRandomAccessZipFixer {
+
+    @DataProvider
+    public Object[][] threads() {
+        return new Object[][] {{1}, {4}};
+    }
+
+    /**
+     * Whatever the number of threads, it's the same jar {@link ZipFixer} writes.
+     */
+    @Test(dataProvider = "threads")
+    public void testMatchesZipFixer(int threads) throws IOException {
+        File input = JarGenerator.create(new File("build/tmp/random/input.jar"), 50);
+        assertMatches(input, threads);
+    }
+
+    /**
+     * A META-INF/ directory ahead of the manifest, stored entries, and an entry too big to buffer.
+     */
+    @Test(dataProvider = "threads")
+    public void testMixedEntries(int threads) throws IOException {
+        File input = new File("build/tmp/random/mixed.jar");
+        input.getParentFile().mkdirs();
+
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, "com.example.Main");
+        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(input))) {
+            zos.putNextEntry(new ZipEntry("META-INF/"));
+            zos.closeEntry();
+            zos.putNextEntry(new ZipEntry(JarFile.MANIFEST_NAME));
+            manifest.write(zos);
+            zos.closeEntry();
+
+            StringBuilder big = new StringBuilder();
+            for (int i = 0; big.length() <= PipelinedZipFixer.STREAMING_THRESHOLD; i++) {
+                big.append("line ").append(i).append('\n');
+            }
+            for (int i = 0; i < 10; i++) {
+                byte[] data = ("entry " + i).getBytes(StandardCharsets.UTF_8);
+                ZipEntry entry = new ZipEntry("com/example/Entry" + i + ".txt");
+                entry.setTime(JarGenerator.SOME_TIME);
+                if (0 == i % 2) {
+                    stored(entry, data);
+                }
+                zos.putNextEntry(entry);
+                zos.write(data);
+                zos.closeEntry();
+
+                if (5 == i) {
+                    zos.putNextEntry(new ZipEntry("big.txt"));
+                    zos.write(big.toString().getBytes(StandardCharsets.UTF_8));
+                    zos.closeEntry();
+                }
+            }
+        }
+
+        assertMatches(input, threads);
+    }
+
+    @Test(expectedExceptions = ZipException.class, expectedExceptionsMessageRegExp = "invalid entry CRC.*")
+    public void testBadCrc() throws IOException {
+        File input = JarGenerator.create(new File("build/tmp/random/badcrc.jar"), 5);
+        try (FileChannel channel = FileChannel.open(input.toPath(), StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            CentralDirectoryEntry entry = CentralDirectory.read(channel).getEntries().get(3);
+            ByteBuffer value = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            value.putInt(0, (int) entry.getCrc() + 1);
+            channel.write(value, entry.getHeaderOffset() + ZipHeaders.CEN_CRC);
+        }
+
+        try (RandomAccessZipFixer zf = new RandomAccessZipFixer(input, new File("build/tmp/random/badcrc-out.jar"),
+                2)) {
+            zf.adjustDatesToEpoch();
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testNoThreads() throws IOException {
+        File input = JarGenerator.create(new File("build/tmp/random/nothreads.jar"), 1);
+        new RandomAccessZipFixer(input, new File("build/tmp/random/nothreads-out.jar"), 0).close();
+    }
+
+    private static void assertMatches(File input, int threads) throws IOException {
+        File expected = new File(input.getPath() + ".expected");
+        File actual = new File(input.getPath() + "." + threads);
+        FixMode.REWRITE.fix(input, expected);
+        try (RandomAccessZipFixer zf = new RandomAccessZipFixer(input, actual, threads)) {
+            zf.adjustDatesToEpoch();
+        }
+
+        Assert.assertEquals(Files.readAllBytes(actual.toPath()), Files.readAllBytes(expected.toPath()));
+    }
+
+    private static void stored(ZipEntry entry, byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(data.length);
+        entry.setCrc(crc.getValue());
+    }
+}
@@ -0,0 +1,154 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the New-BSD license. Please see LICENSE file in the project root for terms.
+package com.yahoo.gradle;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestRawZipFixer {
+
+    @Test
+    public void testAdjustDatesToEpoch() throws IOException {
+        File input = JarGenerator.create(new File("build/tmp/testRawInput.jar"), 20);
+        File output = new File("build/tmp/testRawOutput.jar");
+
+        try (RawZipFixer zf = new RawZipFixer(input, output)) {
+            zf.adjustDatesToEpoch();
+        }
+
+        // nothing moved, only the times changed.
+        Assert.assertEquals(output.length(), input.length());
+        Assert.assertEquals(JarGenerator.contents(output), JarGenerator.contents(input));
+
+        try (ZipFile zip = new ZipFile(output)) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (entry.getName().endsWith(".txt")) {
+                    // these were written with an extended timestamp field.
+                    Assert.assertEquals(entry.getLastModifiedTime(), ZipFixer.time0, entry.getName());
+                }
+            }
+        }
+
+        try (FileChannel in = FileChannel.open(input.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(output.toPath(), StandardOpenOption.READ)) {
+            List<CentralDirectoryEntry> before = CentralDirectory.read(in).getEntries();
+            List<CentralDirectoryEntry> after = CentralDirectory.read(out).getEntries();
+            Assert.assertEquals(after.size(), before.size());
+            for (int i = 0; i < before.size(); i++) {
+                Assert.assertEquals(after.get(i).getName(), before.get(i).getName());
+                Assert.assertEquals(after.get(i).getCrc(), before.get(i).getCrc());
+                Assert.assertEquals(after.get(i).getCompressedSize(), before.get(i).getCompressedSize());
+                Assert.assertEquals(after.get(i).getDosTime(), ZipHeaders.EPOCH_DOS_TIME);
+                Assert.assertEquals(after.get(i).getDosDate(), ZipHeaders.EPOCH_DOS_DATE);
+            }
+        }
+    }
+
+    @Test
+    public void testIdempotent() throws IOException {
+        File input = JarGenerator.create(new File("build/tmp/testRawIdempotentInput.jar"), 5);
+        File once = new File("build/tmp/testRawIdempotentOnce.jar");
+        File twice = new File("build/tmp/testRawIdempotentTwice.jar");
+
+        new RawZipFixer(input, once).adjustDatesToEpoch();
+        new RawZipFixer(once, twice).adjustDatesToEpoch();
+
+        Assert.assertEquals(Files.readAllBytes(twice.toPath()),
+                Files.readAllBytes(once.toPath()));
+    }
+
+    @Test
+    public void testInPlaceMatchesRaw() throws IOException {
+        File input = JarGenerator.create(new File("build/tmp/testInPlaceInput.jar"), 20);
+        File raw = new File("build/tmp/testInPlaceRaw.jar");
+        File inPlace = new File("build/tmp/testInPlace.jar");
+        Files.copy(input.toPath(), inPlace.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        new RawZipFixer(input, raw).adjustDatesToEpoch();
+        new InPlaceZipFixer(inPlace).adjustDatesToEpoch();
+
+        Assert.assertEquals(Files.readAllBytes(inPlace.toPath()),
+                Files.readAllBytes(raw.toPath()));
+    }
+
+    /**
+     * More than 64k entries forces the zip64 end of central directory records.
+     */
+    @Test
+    public void testInPlaceZip64() throws IOException {
+        File file = new File("build/tmp/testInPlaceZip64.jar");
+        file.getParentFile().mkdirs();
+        int count = 0x10000 + 10;
+        try (ZipOutputStream zos = new ZipOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)))) {
+            for (int i = 0; i < count; i++) {
+                ZipEntry entry = new ZipEntry("e" + i);
+                entry.setTime(JarGenerator.SOME_TIME);
+                zos.putNextEntry(entry);
+                zos.write(i);
+                zos.closeEntry();
+            }
+        }
+
+        new InPlaceZipFixer(file).adjustDatesToEpoch();
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            CentralDirectory directory = CentralDirectory.read(channel);
+            Assert.assertEquals(directory.getEntryCount(), count);
+            int seen = 0;
+            for (CentralDirectoryEntry entry : directory) {
+                Assert.assertEquals(entry.getDosDate(), ZipHeaders.EPOCH_DOS_DATE, entry.getName());
+                seen++;
+            }
+            Assert.assertEquals(seen, count);
+        }
+    }
+
+    @Test
+    public void testNormalizeNtfsExtra() {
+        // NTFS extra: id, size, 4 reserved, tag 1, size 24, mtime, atime, ctime.
+        ByteBuffer extra = ByteBuffer.allocate(4 + 4 + 4 + 24);
+        ZipHeaders.putShort(extra, 0, ZipHeaders.EXTRA_NTFS);
+        ZipHeaders.putShort(extra, 2, 32);
+        ZipHeaders.putShort(extra, 8, ZipHeaders.NTFS_TIMES_TAG);
+        ZipHeaders.putShort(extra, 10, 24);
+        for (int i = 12; i < 36; i += 8) {
+            ZipHeaders.putLong(extra, i, 131000000000000000L);
+        }
+
+        ZipHeaders.normalizeExtra(extra, 0, extra.capacity());
+
+        for (int i = 12; i < 36; i += 8) {
+            Assert.assertEquals(ZipHeaders.getLong(extra, i), ZipHeaders.EPOCH_NTFS_TIME);
+        }
+    }
+
+    @Test(expectedExceptions = ZipException.class)
+    public void testNotAZip() throws IOException {
+        File input = new File("build/tmp/testRawNotAZip.jar");
+        input.getParentFile().mkdirs();
+        Files.write(input.toPath(), new byte[100]);
+
+        try (RawZipFixer zf = new RawZipFixer(input, new File("build/tmp/testRawNotAZipOutput.jar"))) {
+            zf.adjustDatesToEpoch();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the New-BSD license. Please see LICENSE file in the project root for terms.
+package com.yahoo.gradle;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.tools.zip.ZipEntry;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestSkipMode {
+
+    @Test
+    public void testFixedJarsAreNormalized() throws IOException {
+        File input = JarGenerator.create(new File("build/tmp/testSkipInput.jar"), 10);
+        Assert.assertFalse(SkipMode.isNormalized(input));
+
+        for (FixMode mode : FixMode.values()) {
+            File output = new File("build/tmp/testSkip" + mode + ".jar");
+            mode.fix(input, output);
+            Assert.assertTrue(SkipMode.isNormalized(output), mode.toString());
+        }
+    }
+
+    @Test
+    public void testDatelessJarIsNormalized() throws IOException {
+        File output = new File("build/tmp/testSkipDateless.jar");
+        try (DatelessZipOutputStream out = new DatelessZipOutputStream(output)) {
+            ZipEntry entry = new ZipEntry("a.txt");
+            entry.setMethod(ZipEntry.DEFLATED);
+            out.putNextEntry(entry);
+            out.write("a".getBytes(StandardCharsets.UTF_8));
+            out.closeEntry();
+        }
+
+        Assert.assertTrue(SkipMode.isNormalized(output));
+    }
+
+    @Test
+    public void testSkip() throws IOException {
+        File input = JarGenerator.create(new File("build/tmp/testSkipNotNormalized.jar"), 3);
+        File normalized = new File("build/tmp/testSkipNormalized.jar");
+        FixMode.RAW.fix(input, normalized);
+
+        File output = new File("build/tmp/testSkipCopy.jar");
+        Files.deleteIfExists(output.toPath());
+        Assert.assertFalse(SkipMode.COPY.skip(FixMode.RAW, input, output));
+        Assert.assertFalse(output.exists());
+
+        Assert.assertTrue(SkipMode.COPY.skip(FixMode.RAW, normalized, output));
+        Assert.assertEquals(Files.readAllBytes(output.toPath()), Files.readAllBytes(normalized.toPath()));
+
+        File link = new File("build/tmp/testSkipLink.jar");
+        Assert.assertTrue(SkipMode.LINK.skip(FixMode.RAW, normalized, link));
+        Assert.assertTrue(Files.isSameFile(link.toPath(), normalized.toPath()));
+
+        Assert.assertFalse(SkipMode.NEVER.skip(FixMode.RAW, normalized, output));
+        // in place, there is nothing to do.
+        Assert.assertTrue(SkipMode.COPY.skip(FixMode.RAW, normalized, normalized));
+    }
+
+    /**
+     * Epoch times don't mean the entries are sorted, or that the archives nested inside are fixed.
+     */
+    @Test
+    public void testSkipOnlyTimes() throws Exception {
+        File unsorted = new File("build/tmp/testSkipUnsorted.jar");
+        try (DatelessZipOutputStream out = new DatelessZipOutputStream(unsorted)) {
+            for (String name : new String[] {"b.txt", "a.txt"}) {
+                ZipEntry entry = new ZipEntry(name);
+                entry.setMethod(ZipEntry.DEFLATED);
+                out.putNextEntry(entry);
+                out.write(name.getBytes(StandardCharsets.UTF_8));
+                out.closeEntry();
+            }
+        }
+        Assert.assertTrue(SkipMode.isNormalized(unsorted));
+
+        File output = new File("build/tmp/testSkipSorted.jar");
+        Files.deleteIfExists(output.toPath());
+        Assert.assertFalse(SkipMode.COPY.skip(FixMode.SORTED, unsorted, output));
+        Assert.assertFalse(SkipMode.COPY.skip(FixMode.NESTED, unsorted, output));
+        Assert.assertFalse(output.exists());
+
+        BatchZipFixer.Summary summary = new BatchZipFixer(FixMode.SORTED, 1, SkipMode.COPY).run(
+                BatchZipFixer.jobs(Collections.singletonList(unsorted.getPath()),
+                        new File("build/tmp/testSkipSortedOut"), FixMode.SORTED));
+        Assert.assertEquals(summary.getSkipped(), 0);
+        Assert.assertEquals(new ArrayList<>(JarGenerator.contents(
+                new File("build/tmp/testSkipSortedOut/testSkipUnsorted.jar")).keySet()),
+                Arrays.asList("a.txt", "b.txt"));
+
+        for (String mode : new String[] {"--sorted", "--nested"}) {
+            ByteArrayOutputStream err = new ByteArrayOutputStream();
+            int status = new ZipFixerCli(System.out, new PrintStream(err))
+                    .run(mode, "--skip-normalized", unsorted.getPath(), output.getPath());
+            Assert.assertEquals(status, ZipFixerCli.USAGE, mode);
+            Assert.assertTrue(err.toString().contains("--skip-normalized"), err.toString());
+            Assert.assertFalse(output.exists(), mode);
+        }
+    }
+
+    @Test
+    public void testBatchSkipsNormalized() throws Exception {
+        File root = new File("build/tmp/testSkipBatch");
+        JarGenerator.create(new File(root, "dirty.jar"), 3);
+        FixMode.RAW.fix(JarGenerator.create(new File("build/tmp/testSkipBatchDirty.jar"), 3),
+                new File(root, "clean.jar"));
+
+        BatchZipFixer.Summary summary = new BatchZipFixer(FixMode.RAW, 2, SkipMode.LINK).run(
+                BatchZipFixer.jobs(Collections.singletonList(root.getPath()), new File("build/tmp/testSkipBatchOut"),
+                        FixMode.RAW));
+
+        Assert.assertEquals(summary.getSucceeded(), 2, summary.getFailures().toString());
+        Assert.assertEquals(summary.getSkipped(), 1);
+        Assert.assertTrue(SkipMode.isNormalized(new File("build/tmp/testSkipBatchOut/dirty.jar")));
+    }
+
+    @Test
+    public void testCommandLine() throws Exception {
+        File normalized = new File("build/tmp/testSkipCli.jar");
+        FixMode.RAW.fix(JarGenerator.create(new File("build/tmp/testSkipCliInput.jar"), 3), normalized);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int status = new ZipFixerCli(new PrintStream(out), System.err)
+                .run("--skip-normalized", normalized.getPath(), "build/tmp/testSkipCliOutput.jar");
+
+        Assert.assertEquals(status, 0);
+        Assert.assertTrue(out.toString().contains("already normalized"), out.toString());
+        Assert.assertEquals(Files.readAllBytes(new File("build/tmp/testSkipCliOutput.jar").toPath()),
+                Files.readAllBytes(normalized.toPath()));
+    }
+
+    /**
+     * The usage doesn't offer --skip-normalized with the modes that reject it.
+     */
+    @Test
+    public void testUsage() throws IOException {
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        Assert.assertEquals(new ZipFixerCli(System.out, new PrintStream(err)).run(), ZipFixerCli.USAGE);
+
+        for (String line : err.toString().split("\\R")) {
+            if (line.startsWith("JarFixer ") && (line.contains("--sorted") || line.contains("--nested"))) {
+                Assert.assertFalse(line.contains("--skip-normalized"), line);
+            }
+        }
+    }
+}
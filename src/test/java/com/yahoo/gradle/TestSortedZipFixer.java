@@ -0,0 +1,144 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the New-BSD license. Please see LICENSE file in the project root for terms.
+package com.yahoo.gradle;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class TestSortedZipFixer {
+
+    @DataProvider
+    public Object[][] budgets() {
+        return new Object[][] {{SortedZipFixer.DEFAULT_MEMORY_BUDGET}, {1000L}, {1L}};
+    }
+
+    /**
+     * The same entries in any order, written at any time, make the same jar, however much is spilled.
+     */
+    @Test(dataProvider = "budgets")
+    public void testOrderDoesNotMatter(long budget) throws IOException {
+        File forwards = jar("build/tmp/sorted/forwards.jar", false, JarGenerator.SOME_TIME);
+        File backwards = jar("build/tmp/sorted/backwards.jar", true, JarGenerator.SOME_TIME + 86400000L);
+        File forwardsFixed = new File("build/tmp/sorted/forwards-" + budget + ".jar");
+        File backwardsFixed = new File("build/tmp/sorted/backwards-" + budget + ".jar");
+
+        fix(forwards, forwardsFixed, budget);
+        fix(backwards, backwardsFixed, budget);
+
+        Assert.assertEquals(Files.readAllBytes(backwardsFixed.toPath()), Files.readAllBytes(forwardsFixed.toPath()));
+        Assert.assertEquals(names(forwardsFixed), Arrays.asList("META-INF/", JarFile.MANIFEST_NAME, "a/", "a/0.txt",
+                "a/1.txt", "a/2.txt", "b/", "b/0.txt", "b/1.txt", "b/2.txt", "c.txt"));
+        Assert.assertEquals(JarGenerator.contents(forwardsFixed), JarGenerator.contents(forwards));
+        Assert.assertTrue(SkipMode.isNormalized(forwardsFixed));
+    }
+
+    /**
+     * Spilling every few entries gives the same jar as sorting them all in memory.
+     */
+    @Test
+    public void testSpilledSameAsInMemory() throws IOException {
+        File input = JarGenerator.create(new File("build/tmp/sorted/generated.jar"), 50);
+        File inMemory = new File("build/tmp/sorted/generated-memory.jar");
+        File spilled = new File("build/tmp/sorted/generated-spilled.jar");
+
+        FixMode.SORTED.fix(input, inMemory);
+        fix(input, spilled, 500);
+
+        Assert.assertEquals(Files.readAllBytes(spilled.toPath()), Files.readAllBytes(inMemory.toPath()));
+        Assert.assertEquals(JarGenerator.contents(inMemory), JarGenerator.contents(input));
+        List<String> names = names(inMemory);
+        List<String> sorted = new ArrayList<>(names.subList(1, names.size()));
+        sorted.sort(null);
+        Assert.assertEquals(names.get(0), JarFile.MANIFEST_NAME);
+        Assert.assertEquals(names.subList(1, names.size()), sorted);
+    }
+
+    @Test
+    public void testSpills() throws IOException {
+        try (EntryIndex index = new EntryIndex(1000)) {
+            for (int i = 0; i < 100; i++) {
+                index.add(new CentralDirectoryEntry("entry" + (i * 37 % 100), i * 100L, 50, 20, 20, 0, 0, 0, 0, 0,
+                        0, 0, 0, 0, 0, new byte[0], new byte[0]));
+            }
+            Assert.assertTrue(index.getRuns() > 1, Integer.toString(index.getRuns()));
+
+            List<String> names = new ArrayList<>();
+            index.visitSorted(key -> names.add(key.name));
+            List<String> expected = new ArrayList<>(names);
+            expected.sort(null);
+            Assert.assertEquals(names.size(), 100);
+            Assert.assertEquals(names, expected);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testBadBudget() throws IOException {
+        File input = JarGenerator.create(new File("build/tmp/sorted/badbudget.jar"), 1);
+        try (SortedZipFixer zf = new SortedZipFixer(input, new File("build/tmp/sorted/badbudget-out.jar"))) {
+            zf.setMemoryBudget(0);
+        }
+    }
+
+    private static void fix(File input, File output, long budget) throws IOException {
+        try (SortedZipFixer zf = new SortedZipFixer(input, output)) {
+            zf.setMemoryBudget(budget);
+            zf.adjustDatesToEpoch();
+        }
+    }
+
+    private static List<String> names(File jar) throws IOException {
+        List<String> names = new ArrayList<>();
+        try (ZipFile zip = new ZipFile(jar)) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                names.add(entries.nextElement().getName());
+            }
+        }
+        return names;
+    }
+
+    private static File jar(String name, boolean backwards, long time) throws IOException {
+        File file = new File(name);
+        file.getParentFile().mkdirs();
+
+        List<String> names = new ArrayList<>(Arrays.asList("c.txt", "a/", "a/0.txt", "a/1.txt", "a/2.txt", "b/",
+                "b/0.txt", "b/1.txt", "b/2.txt", JarFile.MANIFEST_NAME, "META-INF/"));
+        if (backwards) {
+            names.sort(null);
+        }
+
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(file))) {
+            for (String entryName : names) {
+                ZipEntry entry = new ZipEntry(entryName);
+                entry.setTime(time);
+                zos.putNextEntry(entry);
+                if (JarFile.MANIFEST_NAME.equals(entryName)) {
+                    manifest.write(zos);
+                } else if (!entry.isDirectory()) {
+                    zos.write(entryName.getBytes(StandardCharsets.UTF_8));
+                }
+                zos.closeEntry();
+            }
+        }
+        return file;
+    }
+}
@@ -0,0 +1,159 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the New-BSD license. Please see LICENSE file in the project root for terms.
+package com.yahoo.gradle;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestZipComparator {
+
+    /**
+     * A jar and the same jar fixed differ only in their times.
+     */
+    @Test
+    public void testIgnoresTimes() throws IOException {
+        File input = JarGenerator.create(new File("build/tmp/compare/input.jar"), 20);
+        File fixed = new File("build/tmp/compare/fixed.jar");
+        FixMode.REWRITE.fix(input, fixed);
+
+        Assert.assertEquals(differences(input, fixed, false, false), new ArrayList<String>());
+        try (ZipComparator comparator = new ZipComparator(input, fixed)) {
+            comparator.setCompareContent(true);
+            Assert.assertTrue(comparator.isSame());
+        }
+    }
+
+    /**
+     * How entries are compressed doesn't matter, only what's in them.
+     */
+    @Test
+    public void testIgnoresMethod() throws IOException {
+        File deflated = zip("build/tmp/compare/deflated.zip", ZipEntry.DEFLATED, "a.txt", "hello", "b.txt", "world");
+        File stored = zip("build/tmp/compare/stored.zip", ZipEntry.STORED, "a.txt", "hello", "b.txt", "world");
+
+        Assert.assertEquals(differences(deflated, stored, true, false), new ArrayList<String>());
+    }
+
+    @Test
+    public void testDifferences() throws IOException {
+        File first = zip("build/tmp/compare/first.zip", ZipEntry.DEFLATED,
+                "same.txt", "same", "crc.txt", "aaaa", "size.txt", "short", "removed.txt", "gone");
+        File second = zip("build/tmp/compare/second.zip", ZipEntry.DEFLATED,
+                "added.txt", "new", "size.txt", "longer", "crc.txt", "bbbb", "same.txt", "same");
+
+        List<String> expected = new ArrayList<>();
+        expected.add("only in second: added.txt");
+        expected.add("size differs: size.txt (5 != 6)");
+        expected.add(String.format("crc differs: crc.txt (%08x != %08x)", crc("aaaa"), crc("bbbb")));
+        expected.add("only in first: removed.txt");
+        Assert.assertEquals(differences(first, second, false, false), expected);
+        Assert.assertEquals(differences(first, second, false, true), expected.subList(0, 1));
+
+        try (ZipComparator comparator = new ZipComparator(first, second)) {
+            Assert.assertFalse(comparator.isSame());
+        }
+    }
+
+    /**
+     * Entries whose sizes and CRCs match can only be told apart by their contents.
+     */
+    @Test
+    public void testContent() throws IOException {
+        File first = zip("build/tmp/compare/content1.zip", ZipEntry.DEFLATED, "a.txt", "aaaa");
+        File second = zip("build/tmp/compare/content2.zip", ZipEntry.DEFLATED, "a.txt", "bbbb");
+        setCrc(second, crc("aaaa"));
+
+        Assert.assertEquals(differences(first, second, false, false), new ArrayList<String>());
+        List<String> expected = new ArrayList<>();
+        expected.add("content differs: a.txt");
+        Assert.assertEquals(differences(first, second, true, false), expected);
+    }
+
+    @Test
+    public void testCli() throws IOException {
+        File first = zip("build/tmp/compare/cli1.zip", ZipEntry.DEFLATED, "a.txt", "aaaa", "b.txt", "b");
+        File second = zip("build/tmp/compare/cli2.zip", ZipEntry.DEFLATED, "a.txt", "aaaa");
+
+        ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        int status = new ZipFixerCli(new PrintStream(stdout), System.err).run("--compare", first.getPath(),
+                second.getPath());
+        Assert.assertEquals(status, 1);
+        Assert.assertEquals(new String(stdout.toByteArray(), StandardCharsets.UTF_8).trim(), "only in first: b.txt");
+
+        stdout.reset();
+        status = new ZipFixerCli(new PrintStream(stdout), System.err).run("--compare", "--content", first.getPath(),
+                first.getPath());
+        Assert.assertEquals(status, 0);
+        Assert.assertEquals(stdout.size(), 0);
+    }
+
+    private static List<String> differences(File first, File second, boolean content, boolean stop)
+            throws IOException {
+        List<String> differences = new ArrayList<>();
+        try (ZipComparator comparator = new ZipComparator(first, second)) {
+            comparator.setCompareContent(content);
+            comparator.setStopAtFirstDifference(stop);
+            long found = comparator.compare(difference -> differences.add(difference.toString()));
+            Assert.assertEquals(found, differences.size());
+        }
+        return differences;
+    }
+
+    /**
+     * @param contents name, contents, name, contents...
+     */
+    private static File zip(String name, int method, String... contents) throws IOException {
+        File file = new File(name);
+        file.getParentFile().mkdirs();
+        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(file))) {
+            for (int i = 0; i < contents.length; i += 2) {
+                byte[] data = contents[i + 1].getBytes(StandardCharsets.UTF_8);
+                ZipEntry entry = new ZipEntry(contents[i]);
+                entry.setTime(JarGenerator.SOME_TIME + i * 1000L);
+                entry.setMethod(method);
+                if (ZipEntry.STORED == method) {
+                    entry.setSize(data.length);
+                    entry.setCrc(crc(contents[i + 1]));
+                }
+                zos.putNextEntry(entry);
+                zos.write(data);
+                zos.closeEntry();
+            }
+        }
+        return file;
+    }
+
+    private static long crc(String contents) {
+        CRC32 crc = new CRC32();
+        crc.update(contents.getBytes(StandardCharsets.UTF_8));
+        return crc.getValue();
+    }
+
+    /**
+     * Overwrites the CRC of the first entry in the central directory of zip.
+     */
+    private static void setCrc(File zip, long crc) throws IOException {
+        try (FileChannel channel = FileChannel.open(zip.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            CentralDirectoryEntry entry = CentralDirectory.read(channel).getEntries().get(0);
+            ByteBuffer value = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            value.putInt(0, (int) crc);
+            channel.write(value, entry.getHeaderOffset() + ZipHeaders.CEN_CRC);
+        }
+    }
+}
@@ -2,15 +2,24 @@
 // Licensed under the terms of the New-BSD license. Please see LICENSE file in the project root for terms.
 package com.yahoo.gradle;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
 import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.jar.JarEntry;
 import java.util.jar.JarInputStream;
 import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 
 import org.mockito.ArgumentCaptor;
@@ -45,6 +54,88 @@ public class TestZipFixer {
         Assert.assertEquals(result.getCreationTime(), zeroTime, "Creation time should be 0");
     }
 
+    @DataProvider
+    public Object[][] streamingModes() {
+        return new Object[][] {{new String[0]}, {new String[] {"--pipelined"}}};
+    }
+
+    /**
+     * {@code -} reads the jar from stdin and writes it to stdout, the same jar as when fixing files.
+     */
+    @Test(dataProvider = "streamingModes")
+    public void testStdinToStdout(String[] options) throws IOException {
+        File input = JarGenerator.create(new File("build/tmp/testStdinToStdout.jar"), 10);
+        File expected = new File("build/tmp/testStdinToStdoutExpected.jar");
+        FixMode.REWRITE.fix(input, expected);
+
+        ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        List<String> args = new ArrayList<>(Arrays.asList(options));
+        args.add(ZipFixerCli.STDIO);
+        args.add(ZipFixerCli.STDIO);
+        int status = new ZipFixerCli(new ByteArrayInputStream(Files.readAllBytes(input.toPath())),
+                new PrintStream(stdout), System.err).run(args.toArray(new String[0]));
+
+        Assert.assertEquals(status, 0);
+        Assert.assertEquals(stdout.toByteArray(), Files.readAllBytes(expected.toPath()));
+    }
+
+    @Test
+    public void testFileToStdout() throws IOException {
+        File input = JarGenerator.create(new File("build/tmp/testFileToStdout.jar"), 10);
+        File expected = new File("build/tmp/testFileToStdoutExpected.jar");
+        FixMode.REWRITE.fix(input, expected);
+
+        ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        int status = new ZipFixerCli(new PrintStream(stdout), System.err).run(input.getPath(), ZipFixerCli.STDIO);
+
+        Assert.assertEquals(status, 0);
+        Assert.assertEquals(stdout.toByteArray(), Files.readAllBytes(expected.toPath()));
+    }
+
+    @Test
+    public void testLevel() throws IOException {
+        File input = JarGenerator.create(new File("build/tmp/testLevel.jar"), 10);
+        File expected = new File("build/tmp/testLevelExpected.jar");
+        File actual = new File("build/tmp/testLevelActual.jar");
+        FixMode.REWRITE.fix(input, expected, Deflater.BEST_SPEED);
+
+        int status = new ZipFixerCli(System.out, System.err).run("--level", "1", input.getPath(), actual.getPath());
+
+        Assert.assertEquals(status, 0);
+        Assert.assertEquals(Files.readAllBytes(actual.toPath()), Files.readAllBytes(expected.toPath()));
+    }
+
+    @DataProvider
+    public Object[][] badLevels() {
+        return new Object[][] {{new String[] {"--level", "10"}}, {new String[] {"--level", "fast"}},
+                {new String[] {"--raw", "--level", "1"}}};
+    }
+
+    @Test(dataProvider = "badLevels")
+    public void testBadLevel(String[] options) throws IOException {
+        File input = JarGenerator.create(new File("build/tmp/testBadLevel.jar"), 1);
+        List<String> args = new ArrayList<>(Arrays.asList(options));
+        args.add(input.getPath());
+        args.add("build/tmp/testBadLevelOut.jar");
+        int status = new ZipFixerCli(System.out, new PrintStream(new ByteArrayOutputStream()))
+                .run(args.toArray(new String[0]));
+
+        Assert.assertEquals(status, ZipFixerCli.USAGE);
+    }
+
+    /**
+     * Raw and in place fixing need random access to the jar.
+     */
+    @Test
+    public void testStdinNeedsStreamingMode() throws IOException {
+        ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        int status = new ZipFixerCli(new ByteArrayInputStream(new byte[0]), new PrintStream(stdout),
+                new PrintStream(new ByteArrayOutputStream())).run("--raw", ZipFixerCli.STDIO, ZipFixerCli.STDIO);
+
+        Assert.assertEquals(status, ZipFixerCli.USAGE);
+        Assert.assertEquals(stdout.size(), 0);
+    }
+
     private static final class CountingJarOutputStream extends JarOutputStream {
         private int bytesCopied = 0;
 
@@ -0,0 +1,139 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the New-BSD license. Please see LICENSE file in the project root for terms.
+package com.yahoo.gradle;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestZipFixerCache {
+
+    private static File clean(String name) throws IOException {
+        File dir = new File("build/tmp/" + name);
+        if (dir.exists()) {
+            try (Stream<Path> walk = Files.walk(dir.toPath())) {
+                for (Path p : walk.sorted(Collections.reverseOrder()).collect(Collectors.toList())) {
+                    Files.delete(p);
+                }
+            }
+        }
+        return dir;
+    }
+
+    private static long entries(File dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir.toPath())) {
+            return files.filter(p -> p.toString().endsWith(ZipFixerCache.ENTRY_SUFFIX)).count();
+        }
+    }
+
+    @Test
+    public void testHitAndMiss() throws IOException {
+        File dir = clean("testCache");
+        File input = JarGenerator.create(new File("build/tmp/testCacheInput.jar"), 5);
+        ZipFixerCache cache = new ZipFixerCache(dir, Long.MAX_VALUE, false);
+
+        File first = new File("build/tmp/testCacheFirst.jar");
+        Assert.assertFalse(cache.fix(FixMode.RAW, input, first));
+        Assert.assertEquals(entries(dir), 1);
+
+        File second = new File("build/tmp/testCacheSecond.jar");
+        Assert.assertTrue(cache.fix(FixMode.RAW, input, second));
+        Assert.assertEquals(Files.readAllBytes(second.toPath()), Files.readAllBytes(first.toPath()));
+
+        // a different mode is a different entry.
+        Assert.assertFalse(cache.fix(FixMode.REWRITE, input, new File("build/tmp/testCacheRewrite.jar")));
+        Assert.assertEquals(entries(dir), 2);
+    }
+
+    @Test
+    public void testLink() throws IOException {
+        File dir = clean("testCacheLink");
+        File input = JarGenerator.create(new File("build/tmp/testCacheLinkInput.jar"), 5);
+        ZipFixerCache cache = new ZipFixerCache(dir, Long.MAX_VALUE, true);
+
+        cache.fix(FixMode.RAW, input, new File("build/tmp/testCacheLinkFirst.jar"));
+        File second = new File("build/tmp/testCacheLinkSecond.jar");
+        Assert.assertTrue(cache.fix(FixMode.RAW, input, second));
+
+        Path entry = dir.toPath().resolve(ZipFixerCache.key(FixMode.RAW, input) + ZipFixerCache.ENTRY_SUFFIX);
+        Assert.assertTrue(Files.isSameFile(second.toPath(), entry));
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws IOException {
+        File dir = clean("testCacheEvict");
+        File[] inputs = new File[3];
+        for (int i = 0; i < inputs.length; i++) {
+            inputs[i] = JarGenerator.create(new File("build/tmp/testCacheEvictInput" + i + ".jar"), i + 1);
+        }
+
+        // room for two of them.
+        long size = inputs[1].length() + inputs[2].length() + 1024;
+        ZipFixerCache cache = new ZipFixerCache(dir, size, false);
+        File output = new File("build/tmp/testCacheEvictOutput.jar");
+        cache.fix(FixMode.RAW, inputs[0], output);
+        cache.fix(FixMode.RAW, inputs[1], output);
+
+        // make 0 the most recently used, so 1 goes, although 0 was added first.
+        Path entry0 = dir.toPath().resolve(ZipFixerCache.key(FixMode.RAW, inputs[0]) + ZipFixerCache.ENTRY_SUFFIX);
+        Path entry1 = dir.toPath().resolve(ZipFixerCache.key(FixMode.RAW, inputs[1]) + ZipFixerCache.ENTRY_SUFFIX);
+        Files.setLastModifiedTime(entry0, FileTime.fromMillis(System.currentTimeMillis() - 120000));
+        Files.setLastModifiedTime(entry1, FileTime.fromMillis(System.currentTimeMillis() - 60000));
+        Assert.assertTrue(cache.fix(FixMode.RAW, inputs[0], output));
+
+        cache.fix(FixMode.RAW, inputs[2], output);
+
+        Assert.assertEquals(entries(dir), 2);
+        Assert.assertFalse(Files.exists(entry1));
+        Assert.assertTrue(cache.fix(FixMode.RAW, inputs[0], output));
+    }
+
+    /**
+     * A hit doesn't change the time of the entry, which is also the time of every output linked to it.
+     */
+    @Test
+    public void testLinkKeepsTimes() throws IOException {
+        File dir = clean("testCacheLinkTimes");
+        File input = JarGenerator.create(new File("build/tmp/testCacheLinkTimesInput.jar"), 5);
+        ZipFixerCache cache = new ZipFixerCache(dir, Long.MAX_VALUE, true);
+
+        cache.fix(FixMode.RAW, input, new File("build/tmp/testCacheLinkTimesFirst.jar"));
+        File linked = new File("build/tmp/testCacheLinkTimesSecond.jar");
+        Assert.assertTrue(cache.fix(FixMode.RAW, input, linked));
+        Path entry = dir.toPath().resolve(ZipFixerCache.key(FixMode.RAW, input) + ZipFixerCache.ENTRY_SUFFIX);
+        FileTime built = FileTime.fromMillis(System.currentTimeMillis() - 60000);
+        Files.setLastModifiedTime(linked.toPath(), built);
+
+        Assert.assertTrue(cache.fix(FixMode.RAW, input, new File("build/tmp/testCacheLinkTimesThird.jar")));
+
+        Assert.assertTrue(Files.isSameFile(linked.toPath(), entry));
+        Assert.assertEquals(Files.getLastModifiedTime(linked.toPath()), built);
+        Assert.assertTrue(Files.exists(entry.resolveSibling(entry.getFileName() + ZipFixerCache.USED_SUFFIX)));
+    }
+
+    @Test
+    public void testBatch() throws Exception {
+        File dir = clean("testCacheBatch");
+        File root = new File("build/tmp/testCacheBatchInput");
+        for (int i = 0; i < 4; i++) {
+            JarGenerator.create(new File(root, "jar" + i + ".jar"), i + 1);
+        }
+        ZipFixerCache cache = new ZipFixerCache(dir, Long.MAX_VALUE, false);
+
+        for (int run = 0; run < 2; run++) {
+            BatchZipFixer.Summary summary = new BatchZipFixer(FixMode.RAW, 2, SkipMode.NEVER, cache).run(
+                    BatchZipFixer.jobs(Collections.singletonList(root.getPath()),
+                            new File("build/tmp/testCacheBatchOut"), FixMode.RAW));
+            Assert.assertEquals(summary.getSucceeded(), 4, summary.getFailures().toString());
+            Assert.assertEquals(summary.getCached(), 0 == run ? 0 : 4);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+// Copyright 2016 Yahoo Inc.
+// Licensed under the terms of the New-BSD license. Please see LICENSE file in the project root for terms.
+package com.yahoo.gradle;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestZipFixerDaemon {
+
+    @Test
+    public void testRunsOnDaemon() throws IOException {
+        File daemonFile = new File("build/tmp/daemon/run/daemon");
+        File input = JarGenerator.create(new File("build/tmp/daemon/input.jar"), 10);
+        File expected = new File("build/tmp/daemon/expected.jar");
+        File output = new File("build/tmp/daemon/output.jar");
+        FixMode.REWRITE.fix(input, expected);
+
+        try (ZipFixerDaemon daemon = new ZipFixerDaemon(daemonFile, 2)) {
+            Assert.assertTrue(new String(Files.readAllBytes(daemonFile.toPath()), StandardCharsets.US_ASCII)
+                    .startsWith(daemon.getPort() + " "));
+            Assert.assertTrue(client(daemonFile, null, null).isDaemonRunning());
+
+            Assert.assertEquals(client(daemonFile, null, null).run(input.getPath(), output.getPath()), 0);
+            Assert.assertEquals(Files.readAllBytes(output.toPath()), Files.readAllBytes(expected.toPath()));
+
+            ByteArrayOutputStream remote = new ByteArrayOutputStream();
+            ByteArrayOutputStream local = new ByteArrayOutputStream();
+            Assert.assertEquals(client(daemonFile, remote, null).run("--digest", input.getPath()), 0);
+            Assert.assertEquals(new ZipFixerCli(new PrintStream(local), System.err).run("--digest", input.getPath()),
+                    0);
+            Assert.assertEquals(remote.toByteArray(), local.toByteArray());
+
+            // what goes wrong on the daemon is printed here.
+            ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+            Assert.assertEquals(client(daemonFile, null, stderr).run("--compare", input.getPath()),
+                    ZipFixerCli.USAGE);
+            Assert.assertTrue(new String(stderr.toByteArray(), StandardCharsets.UTF_8).contains("JarFixer usage"));
+        }
+
+        Assert.assertFalse(daemonFile.exists());
+        Assert.assertFalse(client(daemonFile, null, null).isDaemonRunning());
+    }
+
+    /**
+     * Without a daemon the command still runs, in this JVM.
+     */
+    @Test
+    public void testFallsBack() throws IOException {
+        File daemonFile = new File("build/tmp/daemon/none/daemon");
+        Files.deleteIfExists(daemonFile.toPath());
+        File input = JarGenerator.create(new File("build/tmp/daemon/fallback.jar"), 5);
+        File output = new File("build/tmp/daemon/fallback-fixed.jar");
+
+        Assert.assertFalse(client(daemonFile, null, null).isDaemonRunning());
+        Assert.assertEquals(client(daemonFile, null, null).run(input.getPath(), output.getPath()), 0);
+        Assert.assertTrue(SkipMode.isNormalized(output));
+        Assert.assertFalse(client(daemonFile, null, null).stopDaemon());
+    }
+
+    @Test
+    public void testWrongToken() throws IOException {
+        File daemonFile = new File("build/tmp/daemon/token/daemon");
+        try (ZipFixerDaemon daemon = new ZipFixerDaemon(daemonFile, 1)) {
+            File forged = new File("build/tmp/daemon/token/forged");
+            Files.write(forged.toPath(),
+                    (daemon.getPort() + " 0123456789abcdef\n").getBytes(StandardCharsets.US_ASCII));
+
+            Assert.assertTrue(client(daemonFile, null, null).isDaemonRunning());
+            Assert.assertFalse(client(forged, null, null).isDaemonRunning());
+        }
+    }
+
+    @Test(timeOut = 10000)
+    public void testStop() throws IOException, InterruptedException {
+        File daemonFile = new File("build/tmp/daemon/stop/daemon");
+        try (ZipFixerDaemon daemon = new ZipFixerDaemon(daemonFile, 1)) {
+            Assert.assertTrue(client(daemonFile, null, null).stopDaemon());
+            daemon.awaitStop();
+            Assert.assertFalse(daemonFile.exists());
+        }
+    }
+
+    /**
+     * Relative paths are relative to the client's directory, not the daemon's.
+     */
+    @Test
+    public void testWorkingDir() throws IOException {
+        File dir = new File("build/tmp/daemon/workdir");
+        JarGenerator.create(new File(dir, "in.jar"), 5);
+        File output = new File(dir, "out.jar");
+        Files.deleteIfExists(output.toPath());
+
+        Assert.assertEquals(new ZipFixerCli(System.in, System.out, System.err, dir.getAbsoluteFile()).run("in.jar",
+                "out.jar"), 0);
+        Assert.assertTrue(SkipMode.isNormalized(output));
+    }
+
+    /**
+     * The same with - for one end, such as a client in another directory would send.
+     */
+    @Test
+    public void testWorkingDirStreaming() throws IOException {
+        File dir = new File("build/tmp/daemon/workdirstreaming");
+        File input = JarGenerator.create(new File(dir, "in.jar"), 5);
+        File expected = new File(dir, "expected.jar");
+        File output = new File(dir, "out.jar");
+        FixMode.REWRITE.fix(input, expected);
+        Files.deleteIfExists(output.toPath());
+
+        ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        Assert.assertEquals(new ZipFixerCli(System.in, new PrintStream(stdout), System.err, dir.getAbsoluteFile())
+                .run("in.jar", ZipFixerCli.STDIO), 0);
+        Assert.assertEquals(stdout.toByteArray(), Files.readAllBytes(expected.toPath()));
+
+        Assert.assertEquals(new ZipFixerCli(new ByteArrayInputStream(stdout.toByteArray()), System.out, System.err,
+                dir.getAbsoluteFile()).run(ZipFixerCli.STDIO, "out.jar"), 0);
+        Assert.assertEquals(Files.readAllBytes(output.toPath()), Files.readAllBytes(expected.toPath()));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testNoThreads() throws IOException {
+        new ZipFixerDaemon(new File("build/tmp/daemon/nothreads/daemon"), 0).close();
+    }
+
+    private static ZipFixerClient client(File daemonFile, ByteArrayOutputStream out, ByteArrayOutputStream err) {
+        return new ZipFixerClient(daemonFile, null == out ? System.out : new PrintStream(out),
+                null == err ? System.err : new PrintStream(err));
+    }
+}